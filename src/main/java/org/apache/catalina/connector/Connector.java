@@ -198,6 +198,7 @@ public final class Connector {
 
 		this.connectionManager.init();
 		if (this.nodeService != null) {
+			this.nodeService.setConnectionManager(this.connectionManager);
 			this.nodeService.init();
 		}
 
@@ -64,6 +64,27 @@ public final class Constants {
 	 * 
 	 */
 	public static final int NODE_DATA_BUFFER_NOTE = MAX_NOTES - 7;
+	/**
+	 * Number of nodes tried for the current request
+	 */
+	public static final int ATTEMPTS_NOTE = MAX_NOTES - 8;
+	/**
+	 * Whether the current request may be replayed on another node
+	 */
+	public static final int REPLAYABLE_NOTE = MAX_NOTES - 9;
+	/**
+	 * The stale cache entry revalidated by the current request. The note does
+	 * not hold a reference, the entry is retained when the node answers 304.
+	 */
+	public static final int CACHE_ENTRY_NOTE = MAX_NOTES - 10;
+	/**
+	 * The multiplexed connection to the node, for the h2c nodes
+	 */
+	public static final int HTTP2_CONNECTION_NOTE = MAX_NOTES - 11;
+	/**
+	 * The in-flight fetch led by the current request, if any
+	 */
+	public static final int FLIGHT_NOTE = MAX_NOTES - 12;
 
 	/**
 	 * 
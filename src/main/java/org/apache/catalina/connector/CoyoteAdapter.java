@@ -22,9 +22,12 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.catalina.http.HttpResponseParser;
 import org.apache.coyote.Adapter;
@@ -38,9 +41,25 @@ import org.apache.coyote.http11.InternalNioOutputBuffer;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.SocketStatus;
+import org.jboss.cluster.proxy.NodeService;
+import org.jboss.cluster.proxy.RateLimiter;
+import org.jboss.cluster.proxy.RetryPolicy;
+import org.jboss.cluster.proxy.WaitQueue;
+import org.jboss.cluster.proxy.ajp.AjpRequestEncoder;
+import org.jboss.cluster.proxy.ajp.AjpResponseDecoder;
+import org.jboss.cluster.proxy.cache.CacheEntry;
+import org.jboss.cluster.proxy.cache.RequestCoalescer;
+import org.jboss.cluster.proxy.cache.RequestCoalescer.Flight;
+import org.jboss.cluster.proxy.cache.ResponseCache;
+import org.jboss.cluster.proxy.compression.CompressionCache;
+import org.jboss.cluster.proxy.compression.GzipEncoder;
+import org.jboss.cluster.proxy.compression.ResponseCompressor;
 import org.jboss.cluster.proxy.container.Node;
+import org.jboss.cluster.proxy.h2.Http2Connection;
+import org.jboss.cluster.proxy.h2.Http2Exchange;
 import org.jboss.logging.Logger;
 
 /**
@@ -64,11 +83,115 @@ public class CoyoteAdapter implements Adapter {
 			System.getProperty("org.apache.catalina.connector.CoyoteAdapter.ALLOW_BACKSLASH",
 					"false")).booleanValue();
 
+	/**
+	 * The status line and headers of the answer to the rejected requests, up
+	 * to the date
+	 */
+	private static final byte[] TOO_MANY_REQUESTS = ByteChunk
+			.convertToBytes("HTTP/1.1 429 Too Many Requests\r\nContent-Type: text/plain\r\n"
+					+ "Content-Length: 18\r\nRetry-After: 1\r\nDate: ");
+	private static final byte[] TOO_MANY_REQUESTS_END = ByteChunk.convertToBytes("\r\n\r\n"
+			+ "Too Many Requests\n");
+	private static final byte[] TOO_MANY_REQUESTS_CLOSE = ByteChunk
+			.convertToBytes("\r\nConnection: close\r\n\r\nToo Many Requests\n");
+
+	/**
+	 * The status line and headers of the answer to a conditional request
+	 * matching a cached entry, up to its entity tag
+	 */
+	private static final byte[] NOT_MODIFIED = ByteChunk
+			.convertToBytes("HTTP/1.1 304 Not Modified\r\nETag: ");
+	private static final byte[] DATE = ByteChunk.convertToBytes("\r\nDate: ");
+	private static final byte[] HEADERS_END = ByteChunk.convertToBytes("\r\n\r\n");
+
+	/**
+	 * Releases a compressed body once it is written to the client, or dropped
+	 */
+	private static final CompletionHandler<Void, CompressionCache.Body> RELEASE_BODY =
+			new CompletionHandler<Void, CompressionCache.Body>() {
+
+		@Override
+		public void completed(Void result, CompressionCache.Body attachment) {
+			attachment.release();
+		}
+
+		@Override
+		public void failed(Throwable exc, CompressionCache.Body attachment) {
+			attachment.release();
+		}
+	};
+
+	/**
+	 * Releases a cache entry once it is written to the client, or dropped
+	 */
+	private static final CompletionHandler<Void, CacheEntry> RELEASE_ENTRY =
+			new CompletionHandler<Void, CacheEntry>() {
+
+		@Override
+		public void completed(Void result, CacheEntry attachment) {
+			attachment.release();
+		}
+
+		@Override
+		public void failed(Throwable exc, CacheEntry attachment) {
+			attachment.release();
+		}
+	};
+
 	/**
 	 * The CoyoteConnector with which this processor is associated.
 	 */
 	private Connector connector = null;
 
+	/**
+	 * The policy deciding whether a failed request is replayed on another node
+	 */
+	private RetryPolicy retryPolicy;
+
+	/**
+	 * The cache of the node responses, <tt>null</tt> if disabled
+	 */
+	private ResponseCache cache;
+
+	/**
+	 * The cacheable requests in flight to the nodes, <tt>null</tt> if the
+	 * identical requests are not coalesced
+	 */
+	private RequestCoalescer coalescer;
+
+	/**
+	 * The compression of the node responses
+	 */
+	private ResponseCompressor compressor;
+
+	/**
+	 * The cache of the compressed node responses, <tt>null</tt> if disabled
+	 */
+	private CompressionCache compressionCache;
+
+	/**
+	 * The request rate limiters per client address, per context and per
+	 * balancer, <tt>null</tt> if disabled
+	 */
+	private RateLimiter clientLimiter;
+	private RateLimiter contextLimiter;
+	private RateLimiter balancerLimiter;
+
+	/**
+	 * Whether the URI is decoded only when it needs to be
+	 */
+	private boolean passThrough;
+
+	/**
+	 * The idle timeout (in milliseconds) of the upgraded connections
+	 */
+	private long tunnelTimeout;
+
+	/**
+	 * Whether the nodes of type <tt>http</tt> are reached over h2c
+	 */
+	private boolean h2c;
+
 	/**
 	 * The string manager for this package.
 	 */
@@ -94,7 +217,47 @@ public class CoyoteAdapter implements Adapter {
 	 */
 	public void init() throws Exception {
 		logger.info("Initializing CoyoteAdapter service");
-		// Nothing to do
+		this.retryPolicy = new RetryPolicy();
+		this.passThrough = Boolean.valueOf(System.getProperty(
+				org.jboss.cluster.proxy.Constants.PASS_THROUGH_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_PASS_THROUGH));
+		this.h2c = Boolean.valueOf(System.getProperty(org.jboss.cluster.proxy.Constants.H2C_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_H2C));
+		this.tunnelTimeout = Long.getLong(org.jboss.cluster.proxy.Constants.TUNNEL_TIMEOUT_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_TUNNEL_TIMEOUT);
+		long cacheSize = Long.getLong(org.jboss.cluster.proxy.Constants.CACHE_SIZE_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_CACHE_SIZE);
+		if (cacheSize > 0) {
+			this.cache = new ResponseCache(cacheSize, Integer.getInteger(
+					org.jboss.cluster.proxy.Constants.CACHE_MAX_ENTRY_SIZE_NAME,
+					org.jboss.cluster.proxy.Constants.DEFAULT_CACHE_MAX_ENTRY_SIZE));
+			long coalesceTimeout = Long.getLong(
+					org.jboss.cluster.proxy.Constants.COALESCE_TIMEOUT_NAME,
+					org.jboss.cluster.proxy.Constants.DEFAULT_COALESCE_TIMEOUT);
+			if (coalesceTimeout > 0) {
+				this.coalescer = new RequestCoalescer(this.connector.getConnectionManager()
+						.getScheduler(), coalesceTimeout);
+			}
+		}
+		this.compressor = new ResponseCompressor(Integer.getInteger(
+				org.jboss.cluster.proxy.Constants.COMPRESSION_LEVEL_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_COMPRESSION_LEVEL), 4 * Runtime
+				.getRuntime().availableProcessors());
+		long compressionCacheSize = Long.getLong(
+				org.jboss.cluster.proxy.Constants.COMPRESSION_CACHE_SIZE_NAME,
+				org.jboss.cluster.proxy.Constants.DEFAULT_COMPRESSION_CACHE_SIZE);
+		if (compressionCacheSize > 0) {
+			this.compressionCache = new CompressionCache(compressionCacheSize, Integer.getInteger(
+					org.jboss.cluster.proxy.Constants.COMPRESSION_CACHE_MAX_ENTRY_SIZE_NAME,
+					org.jboss.cluster.proxy.Constants.DEFAULT_COMPRESSION_CACHE_MAX_ENTRY_SIZE));
+		}
+		ScheduledExecutorService scheduler = this.connector.getConnectionManager().getScheduler();
+		this.clientLimiter = RateLimiter.create(
+				org.jboss.cluster.proxy.Constants.RATE_LIMIT_CLIENT_NAME, scheduler);
+		this.contextLimiter = RateLimiter.create(
+				org.jboss.cluster.proxy.Constants.RATE_LIMIT_CONTEXT_NAME, scheduler);
+		this.balancerLimiter = RateLimiter.create(
+				org.jboss.cluster.proxy.Constants.RATE_LIMIT_BALANCER_NAME, scheduler);
 		logger.info("CoyoteAdapter Initialized successfully");
 	}
 
@@ -112,11 +275,348 @@ public class CoyoteAdapter implements Adapter {
 	 */
 	public void service(final Request request, Response response) throws Exception {
 
-		if (prepare(request, response)) {
-			// Send the request to the selected node
-			sendToNode(request, response);
+		response.setNote(Constants.CACHE_ENTRY_NOTE, null);
+		response.setNote(Constants.FLIGHT_NOTE, null);
+		if (this.cache != null && serveFromCache(request, response)) {
+			return;
+		}
+		if (this.coalescer != null && coalesce(request, response)) {
+			return;
+		}
+
+		forward(request, response);
+	}
+
+	/**
+	 * Forward the request to a node, or park it until a node is available
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void forward(Request request, Response response) throws Exception {
+		try {
+			if (prepare(request, response)) {
+				// Send the request to the selected node
+				sendToNode(request, response);
+			} else if (response.getStatus() == 429) {
+				sendTooManyRequests(request, response);
+			} else {
+				// Wait for a node (if allowed by the balancer)
+				long deadline = System.currentTimeMillis()
+						+ this.connector.getNodeService().getWaitWorker(request);
+				if (!park(request, response, deadline)) {
+					sendError(request, response);
+				}
+			}
+		} catch (Exception e) {
+			endFlight(response, null);
+			throw e;
+		}
+	}
+
+	/**
+	 * Look up the response in the cache. A fresh entry is sent back to the
+	 * client, a stale one having a validator is attached to the response so
+	 * that the request is forwarded as a conditional request.
+	 * 
+	 * @param request
+	 * @param response
+	 * @return <tt>true</tt> if the request was served from the cache
+	 * @throws Exception
+	 */
+	private boolean serveFromCache(Request request, Response response) throws Exception {
+		if (!ResponseCache.isCacheable(request)) {
+			return false;
+		}
+		CacheEntry entry = this.cache.get(request);
+		if (entry == null) {
+			return false;
+		}
+
+		long now = System.currentTimeMillis();
+		if (entry.isFresh(now) && !ResponseCache.requiresRevalidation(request)) {
+			sendEntry(request, response, entry, now);
+			return true;
+		}
+
+		if (entry.hasValidator() && request.getHeader("If-None-Match") == null
+				&& request.getHeader("If-Modified-Since") == null) {
+			// Retained again if the node answers 304
+			response.setNote(Constants.CACHE_ENTRY_NOTE, entry);
+		}
+		entry.release();
+		return false;
+	}
+
+	/**
+	 * Send a cached response and wait for the next request
+	 * 
+	 * @param request
+	 * @param response
+	 * @param entry
+	 *            the entry, whose reference goes to the client write
+	 * @param now
+	 */
+	private void sendEntry(Request request, Response response, CacheEntry entry, long now) {
+		writeEntry(request, response, entry, now);
+		AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
+		processor.endRequest();
+		processor.nextRequest();
+		if (processor.isKeepAlive()) {
+			processor.awaitNext();
 		} else {
-			sendError(request, response);
+			processor.closeSocket();
+		}
+	}
+
+	/**
+	 * Attach a cacheable request to the identical request in flight to a
+	 * node, else make it the leader of a new flight. A waiting request does
+	 * not hold any thread.
+	 * 
+	 * @param request
+	 * @param response
+	 * @return <tt>true</tt> if the request waits for the response of another
+	 *         one
+	 */
+	private boolean coalesce(final Request request, Response response) {
+		if (!ResponseCache.isCacheable(request) || ResponseCache.requiresRevalidation(request)
+				|| request.getHeader("Upgrade") != null) {
+			return false;
+		}
+
+		Flight flight = this.coalescer.join(ResponseCache.key(request), response,
+				new CompletionHandler<CacheEntry, Response>() {
+
+					@Override
+					public void completed(CacheEntry entry, Response attachment) {
+						follow(request, attachment, entry);
+					}
+
+					@Override
+					public void failed(Throwable exc, Response attachment) {
+						// The leader is too slow, go to the node
+						follow(request, attachment, null);
+					}
+				});
+		response.setNote(Constants.FLIGHT_NOTE, flight);
+		return flight == null;
+	}
+
+	/**
+	 * The flight a request waited for ended. The request is answered from the
+	 * entry stored by the leader, or from the cache, else it is forwarded.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param entry
+	 *            the entry stored by the leader, <tt>null</tt> if none
+	 */
+	private void follow(final Request request, final Response response, final CacheEntry entry) {
+		// Do not answer from the thread of the leader
+		this.connector.getProtocolHandler().getExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				response.setNote(Constants.CACHE_ENTRY_NOTE, null);
+				try {
+					long now = System.currentTimeMillis();
+					if (entry != null && entry.matches(request) && entry.isFresh(now)
+							&& entry.retain()) {
+						sendEntry(request, response, entry, now);
+						return;
+					}
+					if (serveFromCache(request, response)) {
+						return;
+					}
+					if (entry != null && !entry.matches(request) && coalesce(request, response)) {
+						// Another variant, wait for its own flight
+						return;
+					}
+					forward(request, response);
+				} catch (Throwable t) {
+					logger.error(t.getMessage(), t);
+					((AbstractHttp11Processor<?>) response.hook).closeSocket();
+				}
+			}
+		});
+	}
+
+	/**
+	 * End the flight led by the request, if any, and hand the stored entry
+	 * to the requests which waited for it
+	 * 
+	 * @param response
+	 * @param entry
+	 *            the entry stored by the request, <tt>null</tt> if none
+	 */
+	private void endFlight(Response response, CacheEntry entry) {
+		Flight flight = (Flight) response.getNote(Constants.FLIGHT_NOTE);
+		if (flight != null) {
+			response.setNote(Constants.FLIGHT_NOTE, null);
+			this.coalescer.complete(flight, entry);
+		}
+	}
+
+	/**
+	 * Send a cached response to the client, or a <tt>304</tt> answer if the
+	 * client already holds it. The buffers of the entry are queued as they
+	 * are, only the value of the <tt>Age</tt> header is copied.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param entry
+	 *            the entry, whose reference is released once it is written
+	 * @param now
+	 */
+	private void writeEntry(Request request, Response response, CacheEntry entry, long now) {
+		AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+		// Not used by the relay once the entry is sent
+		byte buf[] = outputBuffer.getBytes();
+
+		if (ResponseCache.matches(request.getHeader("If-None-Match"), entry.getEtag())) {
+			int pos = append(buf, 0, NOT_MODIFIED);
+			pos = append(buf, pos, entry.getEtagBytes());
+			pos = append(buf, pos, DATE);
+			String date = FastHttpDateFormat.getCurrentDate();
+			for (int i = 0; i < date.length(); i++) {
+				buf[pos++] = (byte) date.charAt(i);
+			}
+			pos = append(buf, pos, HEADERS_END);
+			outputBuffer.writeToClient(buf, 0, pos);
+			entry.release();
+			return;
+		}
+
+		ByteBuffer body[] = entry.getBody();
+		outputBuffer.writeToClient(entry.getHeaders(), entry, body.length == 0 ? RELEASE_ENTRY
+				: null);
+		int start = buf.length - HEADERS_END.length;
+		System.arraycopy(HEADERS_END, 0, buf, start, HEADERS_END.length);
+		long age = entry.getAge(now);
+		do {
+			buf[--start] = (byte) ('0' + age % 10);
+			age /= 10;
+		} while (age > 0);
+		outputBuffer.writeToClient(buf, start, buf.length - start);
+		for (int i = 0; i < body.length; i++) {
+			outputBuffer.writeToClient(body[i], entry, i == body.length - 1 ? RELEASE_ENTRY
+					: null);
+		}
+	}
+
+	/**
+	 * @param buf
+	 * @param pos
+	 * @param bytes
+	 * @return the position after the bytes copied at the position
+	 */
+	private static int append(byte buf[], int pos, byte bytes[]) {
+		System.arraycopy(bytes, 0, buf, pos, bytes.length);
+		return pos + bytes.length;
+	}
+
+	/**
+	 * Add the validator of a stale cache entry to the request sent to the
+	 * node. The request is left unchanged if the header does not fit in the
+	 * buffer.
+	 * 
+	 * @param inputBuffer
+	 *            the client input buffer
+	 * @param inBuffer
+	 *            the buffer holding the request to forward
+	 * @param entry
+	 * @return <tt>true</tt> if the validator was added
+	 */
+	private boolean addValidator(AbstractInternalInputBuffer inputBuffer, ByteBuffer inBuffer,
+			CacheEntry entry) {
+		byte buf[] = inputBuffer.getBuffer();
+		int end = inputBuffer.getEnd();
+		int lastValid = inputBuffer.getLastValid();
+		if (end < 2 || buf[end - 1] != '\n') {
+			return false;
+		}
+		int blank = buf[end - 2] == '\r' ? end - 2 : end - 1;
+		String header = entry.getEtag() != null ? "If-None-Match: " + entry.getEtag()
+				: "If-Modified-Since: " + entry.getLastModified();
+		byte bytes[] = (header + "\r\n").getBytes();
+		if (lastValid + bytes.length > inBuffer.capacity()) {
+			return false;
+		}
+
+		inBuffer.clear();
+		inBuffer.put(buf, 0, blank).put(bytes).put(buf, blank, lastValid - blank).flip();
+		return true;
+	}
+
+	/**
+	 * Park the request in the wait queue of its balancer until a node is
+	 * available or the deadline is reached. The parked request does not hold
+	 * any thread.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param deadline
+	 *            the time (in milliseconds) at which the request gives up
+	 * @return <tt>false</tt> if the request can not wait
+	 */
+	private boolean park(final Request request, final Response response, final long deadline) {
+		WaitQueue queue = this.connector.getNodeService().getWaitQueue(request);
+		if (queue == null) {
+			return false;
+		}
+
+		return queue.park(deadline - System.currentTimeMillis(), response,
+				new CompletionHandler<Void, Response>() {
+
+					@Override
+					public void completed(Void result, final Response attachment) {
+						// Do not connect to the node from the releasing thread
+						connector.getProtocolHandler().getExecutor().execute(new Runnable() {
+
+							@Override
+							public void run() {
+								resume(request, attachment, deadline);
+							}
+						});
+					}
+
+					@Override
+					public void failed(Throwable exc, Response attachment) {
+						try {
+							sendError(request, attachment);
+						} catch (IOException e) {
+							logger.error(e.getMessage(), e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Try again to forward a parked request
+	 * 
+	 * @param request
+	 * @param response
+	 * @param deadline
+	 */
+	private void resume(Request request, Response response, long deadline) {
+		try {
+			response.setNote(Constants.ATTEMPTS_NOTE, 0);
+			prepareNode(request, response, null);
+			sendToNode(request, response);
+			return;
+		} catch (Throwable t) {
+			// Still no node available
+		}
+
+		if (!park(request, response, deadline)) {
+			try {
+				sendError(request, response);
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
 		}
 	}
 
@@ -126,6 +626,7 @@ public class CoyoteAdapter implements Adapter {
 	 * @throws IOException
 	 */
 	private void sendError(Request request, Response response) throws IOException {
+		endFlight(response, null);
 		((AbstractInternalOutputBuffer) response.getOutputBuffer()).sendError();
 		NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
 		Node node = (Node) response.getNote(Constants.NODE_NOTE);
@@ -139,6 +640,18 @@ public class CoyoteAdapter implements Adapter {
 	 *            a map containing all required parameters
 	 */
 	private void sendToNode(final Request request, final Response response) throws Exception {
+		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		if (isAjp(node)) {
+			// The response is not stored, the identical requests need not wait
+			endFlight(response, null);
+			sendToAjpNode(request, response);
+			return;
+		}
+		if (isH2c(node)) {
+			endFlight(response, null);
+			sendToHttp2Node(request, response);
+			return;
+		}
 		final NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
 		final ByteBuffer inBuffer = (ByteBuffer) response.getNote(Constants.IN_BUFFER_NOTE);
 
@@ -174,21 +687,278 @@ public class CoyoteAdapter implements Adapter {
 
 			@Override
 			public void failed(Throwable exc, Response attachment) {
+				retry(attachment.getRequest(), attachment, false);
+			}
+		});
+	}
+
+	/**
+	 * @param node
+	 * @return <tt>true</tt> if the node speaks AJP
+	 */
+	private static boolean isAjp(Node node) {
+		return node != null && "ajp".equalsIgnoreCase(node.getType());
+	}
+
+	/**
+	 * Forward the client request to the selected AJP node and relay its
+	 * response. The forward request packet is followed by the first body
+	 * packet when the request has a <tt>Content-Length</tt>, the rest of the
+	 * body is sent as the node asks for it.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void sendToAjpNode(final Request request, final Response response) throws Exception {
+		final NioChannel nodeChannel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
+		final Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		final AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
+		final AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+		AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) request
+				.getInputBuffer();
+
+		final AjpRequestEncoder encoder = new AjpRequestEncoder(request);
+		final AjpResponseDecoder decoder = new AjpResponseDecoder(request, response,
+				outputBuffer, processor.isKeepAlive());
+		long contentLength = request.getContentLengthLong();
+		if (response.getNote(Constants.REPLAYABLE_NOTE) == Boolean.TRUE) {
+			// The whole body was read with the header, keep it for a replay
+			encoder.setBuffered(inputBuffer.getBuffer(), inputBuffer.getEnd(),
+					(int) Math.max(contentLength, 0));
+		}
+		final boolean firstBody = contentLength > 0;
+		final ByteBuffer forwardRequest;
+		try {
+			forwardRequest = encoder.forwardRequest(
+					(NioChannel) response.getNote(Constants.CLIENT_CHANNEL_NOTE),
+					node.getJvmRoute());
+		} catch (Throwable t) {
+			// The request does not fit in a packet
+			encoder.release();
+			throw new IOException("Unable to encode the AJP request", t);
+		}
+
+		nodeChannel.write(forwardRequest, response, new CompletionHandler<Integer, Response>() {
+
+			private final byte data[] = outputBuffer.getBytes();
+			private final ByteBuffer buffer = (ByteBuffer) response
+					.getNote(Constants.OUT_BUFFER_NOTE);
+			private ByteBuffer packet = forwardRequest;
+			private boolean writing = true;
+			private boolean bodySent = !firstBody;
+			private int filled = 0;
+			private final Runnable abandon = new Runnable() {
+
+				@Override
+				public void run() {
+					encoder.release();
+				}
+			};
+
+			@Override
+			public void completed(Integer nBytes, Response attachment) {
+				if (nBytes < 0) {
+					failed(new ClosedChannelException(), attachment);
+					return;
+				}
 				try {
-					// try again with node
-					tryWithNode(attachment.getRequest(), attachment);
-					sendToNode(attachment.getRequest(), attachment);
-				} catch (Throwable e) {
-					try {
-						sendError(attachment.getRequest(), attachment);
-					} catch (IOException e1) {
-						logger.error(e1.getMessage(), e1);
+					if (this.writing) {
+						if (this.packet.hasRemaining()) {
+							nodeChannel.write(this.packet, attachment, this);
+						} else if (!this.bodySent) {
+							this.bodySent = true;
+							write(encoder.body(org.jboss.cluster.proxy.ajp.Constants.MAX_SEND_SIZE),
+									attachment);
+						} else {
+							this.writing = false;
+							read(attachment);
+						}
+						return;
 					}
+
+					this.buffer.flip();
+					this.buffer.get(this.data, this.filled, nBytes);
+					this.filled += nBytes;
+					int used = decoder.decode(this.data, 0, this.filled);
+					this.filled -= used;
+					System.arraycopy(this.data, used, this.data, 0, this.filled);
+
+					if (decoder.isComplete()) {
+						complete(attachment);
+						return;
+					}
+					int requested = decoder.takeBodyRequest();
+					if (requested >= 0) {
+						write(encoder.body(requested), attachment);
+					} else if (outputBuffer.isWritable()) {
+						read(attachment);
+					} else {
+						// The client is slower than the node
+						prepare();
+						awaitDrain(outputBuffer, nodeChannel, this.buffer, attachment, this,
+								this.abandon);
+					}
+				} catch (Throwable t) {
+					failed(t, attachment);
 				}
 			}
+
+			@Override
+			public void failed(Throwable exc, Response attachment) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("AJP exchange with node " + node.getJvmRoute() + " failed", exc);
+				}
+				encoder.release();
+				retry(attachment.getRequest(), attachment, decoder.isStarted());
+			}
+
+			/**
+			 * Write a packet to the node
+			 */
+			private void write(ByteBuffer packet, Response attachment) {
+				this.packet = packet;
+				this.writing = true;
+				nodeChannel.write(packet, attachment, this);
+			}
+
+			/**
+			 * Read the next packets of the node
+			 */
+			private void read(Response attachment) {
+				prepare();
+				nodeChannel.read(this.buffer, attachment, this);
+			}
+
+			/**
+			 * Leave room for the bytes of an incomplete packet
+			 */
+			private void prepare() {
+				this.buffer.clear();
+				this.buffer.limit(Math.min(this.buffer.capacity(), this.data.length - this.filled));
+			}
+
+			/**
+			 * The response is complete, the node connection is reused if
+			 * the node allows it and nothing else was received
+			 */
+			private void complete(Response attachment) {
+				encoder.release();
+				recordResult(request, attachment);
+				release(node);
+				if (decoder.canReuse() && this.filled == 0) {
+					connector.getConnectionManager().recycle(node.getJvmRoute(), nodeChannel);
+				} else {
+					connector.getConnectionManager().close(nodeChannel);
+				}
+				attachment.setNote(Constants.NODE_CHANNEL_NOTE, null);
+				nextRequest(processor, outputBuffer, decoder.isKeepAlive());
+			}
 		});
 	}
 
+	/**
+	 * @param node
+	 * @return <tt>true</tt> if the node is reached over h2c
+	 */
+	private boolean isH2c(Node node) {
+		return node != null
+				&& ("h2c".equalsIgnoreCase(node.getType()) || (this.h2c && "http"
+						.equalsIgnoreCase(node.getType())));
+	}
+
+	/**
+	 * Forward the client request on a new stream of the multiplexed
+	 * connection to the selected node and relay its response.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void sendToHttp2Node(final Request request, final Response response) throws Exception {
+		final Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		final AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
+		final AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+		final AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) request
+				.getInputBuffer();
+		Http2Connection connection = (Http2Connection) response
+				.getNote(Constants.HTTP2_CONNECTION_NOTE);
+
+		Http2Exchange exchange = new Http2Exchange(request, response, outputBuffer,
+				processor.isKeepAlive(), this.connector.getProtocolHandler().getExecutor(),
+				new CompletionHandler<Void, Http2Exchange>() {
+
+					@Override
+					public void completed(Void result, Http2Exchange attachment) {
+						recordResult(request, response);
+						release(node);
+						response.setNote(Constants.HTTP2_CONNECTION_NOTE, null);
+						if (!attachment.isKeepAlive()) {
+							// The rest of the body, if any, is not read
+							inputBuffer.setSwallowInput(false);
+						}
+						nextRequest(processor, outputBuffer, attachment.isKeepAlive());
+					}
+
+					@Override
+					public void failed(Throwable exc, Http2Exchange attachment) {
+						if (logger.isDebugEnabled()) {
+							logger.debug("HTTP/2 exchange with node " + node.getJvmRoute()
+									+ " failed", exc);
+						}
+						response.setNote(Constants.HTTP2_CONNECTION_NOTE, null);
+						retry(request, response, attachment.isStarted());
+					}
+				});
+		if (response.getNote(Constants.REPLAYABLE_NOTE) == Boolean.TRUE) {
+			// The whole body was read with the header, keep it for a replay
+			exchange.setBuffered(inputBuffer.getBuffer(), inputBuffer.getEnd(),
+					(int) Math.max(request.getContentLengthLong(), 0));
+		}
+		try {
+			exchange.start(connection, ((NioChannel) response
+					.getNote(Constants.CLIENT_CHANNEL_NOTE)).isSecure());
+		} catch (IOException e) {
+			// The connection went away meanwhile, nothing was sent
+			response.setNote(Constants.HTTP2_CONNECTION_NOTE, null);
+			retry(request, response, false);
+		}
+	}
+
+	/**
+	 * The response was relayed to the client, wait for the next request or
+	 * close the connection once the response is written
+	 * 
+	 * @param processor
+	 * @param outputBuffer
+	 * @param keepAlive
+	 */
+	private void nextRequest(AbstractHttp11Processor<?> processor,
+			AbstractInternalOutputBuffer outputBuffer, boolean keepAlive) {
+		processor.endRequest();
+		processor.nextRequest();
+		// The status of the response may drop the connection as well
+		if (keepAlive && processor.isKeepAlive()) {
+			processor.awaitNext();
+		} else {
+			outputBuffer.onFlush(processor,
+					new CompletionHandler<Void, AbstractHttp11Processor<?>>() {
+
+						@Override
+						public void completed(Void result, AbstractHttp11Processor<?> attachment) {
+							attachment.closeSocket();
+						}
+
+						@Override
+						public void failed(Throwable exc, AbstractHttp11Processor<?> attachment) {
+							attachment.closeSocket();
+						}
+					});
+		}
+	}
+
 	/**
 	 * 
 	 * @param params
@@ -205,6 +975,20 @@ public class CoyoteAdapter implements Adapter {
 				new CompletionHandler<Integer, org.apache.coyote.Response>() {
 
 					private long contentLength = 0;
+					private CacheEntry capture;
+					private CacheEntry revalidated;
+					private GzipEncoder encoder;
+					private boolean compressed;
+					private CompressionCache.Body body;
+					private ByteBuffer chunks[];
+					private int next;
+					private final Runnable abandon = new Runnable() {
+
+						@Override
+						public void run() {
+							discard();
+						}
+					};
 
 					@Override
 					public void completed(Integer nBytes, Response attachment) {
@@ -226,62 +1010,445 @@ public class CoyoteAdapter implements Adapter {
 							byte data[] = outputBuffer.getBytes();
 							buff.get(data, 0, nBytes);
 
+							int bodyOffset = 0;
 							if (httpResponseParser.parsingHeader()) {
 								httpResponseParser.parse(attachment, data, nBytes);
+								if (attachment.getStatus() == 101) {
+									tunnel(request, attachment, outputBuffer, nodeChannel, nBytes);
+									return;
+								}
+								if (cache != null && ResponseCache.isCacheable(request)
+										&& !cacheStage(attachment, data)) {
+									abort(attachment);
+									return;
+								}
+								if (this.revalidated == null
+										&& compressor.isCompressible(request, attachment,
+												httpResponseParser)) {
+									bodyOffset = (int) httpResponseParser.getHeaderLength();
+									compress(attachment, outputBuffer, data, bodyOffset);
+								}
 							}
 
 							outputBuffer.setContentLength(attachment.getContentLengthLong()
 									+ httpResponseParser.getHeaderLength());
 							buff.clear();
-							outputBuffer.writeToClient(outputBuffer.getBytes(), 0, nBytes);
+							if (this.capture != null && !this.capture.append(data, 0, nBytes)) {
+								this.capture.release();
+								this.capture = null;
+							}
+							if (this.encoder != null) {
+								// Flush when the node has nothing more to send yet
+								this.encoder.write(outputBuffer, data, bodyOffset, nBytes
+										- bodyOffset, nBytes < buff.capacity());
+							} else if (this.body != null) {
+								sendBody(outputBuffer);
+							} else if (this.revalidated == null && !this.compressed) {
+								outputBuffer.writeToClient(outputBuffer.getBytes(), 0, nBytes);
+							}
 
 							if (this.contentLength < attachment.getContentLength()
 									+ httpResponseParser.getHeaderLength()) {
 								final NioChannel ch = (NioChannel) response
 										.getNote(Constants.NODE_CHANNEL_NOTE);
-								ch.read(buff, attachment, this);
-							} else {
-								AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) attachment.hook;
-								boolean chunked = attachment.isChunked();
-								processor.endRequest();
-								processor.nextRequest();
-								if (chunked) {
-									((InternalNioOutputBuffer) outputBuffer)
-											.configChunked(nodeChannel);
+								if (outputBuffer.isWritable()) {
+									ch.read(buff, attachment, this);
 								} else {
-									if (processor.isKeepAlive()) {
-										processor.awaitNext();
-									} else {
-										processor.closeSocket();
-									}
-									Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
-									NioChannel channel = (NioChannel) attachment
-											.getNote(Constants.NODE_CHANNEL_NOTE);
-									connector.getConnectionManager().recycle(node.getJvmRoute(),
-											channel);
+									// The client is slower than the node, wait for
+									// its queue to drain before reading further
+									awaitDrain(outputBuffer, ch, buff, attachment, this,
+											this.abandon);
 								}
+							} else if (this.body != null) {
+								// The node response is consumed, not the cached body
+								awaitBody(outputBuffer, attachment);
+							} else {
+								complete(outputBuffer, attachment);
 							}
 						}
 					}
 
-					@Override
-					public void failed(Throwable exc, org.apache.coyote.Response attachment) {
+					/**
+					 * The node response was relayed, store or send the cache
+					 * entry and wait for the next client request
+					 * 
+					 * @param outputBuffer
+					 * @param attachment
+					 */
+					private void complete(AbstractInternalOutputBuffer outputBuffer,
+							Response attachment) {
+						AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) attachment.hook;
+						recordResult(request, attachment);
+						Node node = (Node) attachment.getNote(Constants.NODE_NOTE);
+						boolean chunked = attachment.isChunked();
+						if (this.revalidated != null) {
+							CacheEntry entry = this.revalidated;
+							this.revalidated = null;
+							endFlight(attachment, entry);
+							writeEntry(request, attachment, entry, System.currentTimeMillis());
+						} else if (this.capture != null && this.capture.isComplete()) {
+							CacheEntry entry = this.capture;
+							this.capture = null;
+							cache.put(entry);
+							endFlight(attachment, entry);
+						} else {
+							if (this.capture != null) {
+								this.capture.release();
+								this.capture = null;
+							}
+							endFlight(attachment, null);
+						}
+						if (this.encoder != null) {
+							this.encoder.finish(outputBuffer);
+							this.encoder = null;
+						}
+						processor.endRequest();
+						processor.nextRequest();
+						if (chunked) {
+							((InternalNioOutputBuffer) outputBuffer).configChunked(nodeChannel);
+						} else {
+							NioChannel channel = (NioChannel) attachment
+									.getNote(Constants.NODE_CHANNEL_NOTE);
+							if (processor.isKeepAlive()) {
+								processor.awaitNext();
+							} else {
+								processor.closeSocket();
+							}
+							connector.getConnectionManager().recycle(node.getJvmRoute(),
+									channel);
+						}
+						release(node);
+					}
 
-						try {
-							// try again with node
-							tryWithNode(attachment.getRequest(), attachment);
-							sendToNode(attachment.getRequest(), attachment);
-						} catch (Throwable e) {
-							try {
-								sendError(attachment.getRequest(), attachment);
-							} catch (IOException e1) {
-								logger.error(e1.getMessage(), e1);
+					/**
+					 * Queue the chunks of the cached compressed body while the
+					 * client accepts more, the body is released once its last
+					 * chunk is written
+					 * 
+					 * @param outputBuffer
+					 * @return <tt>true</tt> once the whole body is queued
+					 */
+					private boolean sendBody(AbstractInternalOutputBuffer outputBuffer) {
+						while (this.next < this.chunks.length && outputBuffer.isWritable()) {
+							ByteBuffer chunk = this.chunks[this.next++];
+							outputBuffer.writeToClient(chunk, this.body,
+									this.next == this.chunks.length ? RELEASE_BODY : null);
+						}
+						if (this.next < this.chunks.length) {
+							return false;
+						}
+						this.body = null;
+						this.chunks = null;
+						return true;
+					}
+
+					/**
+					 * Queue the rest of the cached compressed body as the client
+					 * queue drains, then complete the exchange
+					 * 
+					 * @param outputBuffer
+					 * @param attachment
+					 */
+					private void awaitBody(final AbstractInternalOutputBuffer outputBuffer,
+							Response attachment) {
+						outputBuffer.onDrain(attachment, new CompletionHandler<Void, Response>() {
+
+							@Override
+							public void completed(Void result, Response attachment) {
+								if (sendBody(outputBuffer)) {
+									complete(outputBuffer, attachment);
+								} else {
+									outputBuffer.onDrain(attachment, this);
+								}
+							}
+
+							@Override
+							public void failed(Throwable exc, Response attachment) {
+								discard();
+								connector.getConnectionManager().close(nodeChannel);
+								attachment.setNote(Constants.NODE_CHANNEL_NOTE, null);
+								release((Node) attachment.getNote(Constants.NODE_NOTE));
+								endFlight(attachment, null);
+							}
+						});
+					}
+
+					/**
+					 * Send the cached compressed body if any, the node body is
+					 * then read and dropped, else start compressing the node
+					 * body
+					 * 
+					 * @param attachment
+					 * @param outputBuffer
+					 * @param data
+					 * @param headerLength
+					 */
+					private void compress(Response attachment,
+							AbstractInternalOutputBuffer outputBuffer, byte data[],
+							int headerLength) {
+						String key = (compressionCache == null ? null : CompressionCache.key(
+								request, attachment, "gzip"));
+						CompressionCache.Body body = (key == null ? null : compressionCache
+								.get(key));
+						if (body != null) {
+							// Queued in chunks as the client reads them
+							this.body = body;
+							this.chunks = body.getChunks();
+							this.compressed = true;
+							GzipEncoder encoder = compressor.encoder();
+							encoder.writeHeader(outputBuffer, data, headerLength, body.length());
+							encoder.release();
+							return;
+						}
+						this.encoder = compressor.encoder();
+						if (key != null) {
+							this.encoder.capture(compressionCache, key);
+						}
+						this.encoder.start(outputBuffer, data, headerLength);
+					}
+
+					/**
+					 * A <tt>304</tt> answer to a conditional request sent for a
+					 * stale entry refreshes it, else the response is captured
+					 * if it is cacheable
+					 * 
+					 * @param attachment
+					 * @param data
+					 * @return <tt>false</tt> if the stale entry was released
+					 *         meanwhile and not replaced, the answer of the
+					 *         node is then of no use to the client
+					 */
+					private boolean cacheStage(Response attachment, byte data[]) {
+						long now = System.currentTimeMillis();
+						HttpResponseParser parser = attachment.getResponseParser();
+						CacheEntry stale = (CacheEntry) attachment
+								.getNote(Constants.CACHE_ENTRY_NOTE);
+						if (stale != null && attachment.getStatus() == 304) {
+							if (stale.retain()) {
+								cache.refresh(stale, attachment, parser.getCacheControl(), now);
+								this.revalidated = stale;
+							} else {
+								// Evicted or replaced by a newer response
+								this.revalidated = cache.get(request);
 							}
+							return this.revalidated != null;
+						}
+						this.capture = cache.capture(request, attachment, parser, data, now);
+						return true;
+					}
+
+					/**
+					 * Give up the exchange, the node answered but the client
+					 * can not be answered
+					 * 
+					 * @param attachment
+					 */
+					private void abort(Response attachment) {
+						recordResult(request, attachment);
+						connector.getConnectionManager().close(nodeChannel);
+						attachment.setNote(Constants.NODE_CHANNEL_NOTE, null);
+						release((Node) attachment.getNote(Constants.NODE_NOTE));
+						endFlight(attachment, null);
+						((AbstractHttp11Processor<?>) attachment.hook).closeSocket();
+					}
+
+					/**
+					 * Release the resources of an exchange which will not
+					 * complete
+					 */
+					private void discard() {
+						if (this.encoder != null) {
+							this.encoder.release();
+							this.encoder = null;
+						}
+						if (this.capture != null) {
+							this.capture.release();
+							this.capture = null;
+						}
+						if (this.revalidated != null) {
+							this.revalidated.release();
+							this.revalidated = null;
+						}
+						if (this.body != null) {
+							this.body.release();
+							this.body = null;
 						}
 					}
+
+					@Override
+					public void failed(Throwable exc, org.apache.coyote.Response attachment) {
+						// Nothing was sent to the client while revalidating
+						boolean responseStarted = this.contentLength > 0
+								&& this.revalidated == null;
+						discard();
+						retry(attachment.getRequest(), attachment, responseStarted);
+					}
 				});
 	}
 
+	/**
+	 * Relay the <tt>101</tt> answer of the node, then turn the client and the
+	 * node connections into a tunnel once it is written. The node connection
+	 * is not reused and the processor is released, the tunnel owning both
+	 * connections until one of them is closed or stays idle.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param outputBuffer
+	 *            the client output buffer
+	 * @param nodeChannel
+	 * @param nBytes
+	 *            the number of bytes read from the node, which may already
+	 *            include upgraded protocol data
+	 */
+	private void tunnel(Request request, Response response,
+			final AbstractInternalOutputBuffer outputBuffer, final NioChannel nodeChannel,
+			int nBytes) {
+		AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
+		recordResult(request, response);
+		release((Node) response.getNote(Constants.NODE_NOTE));
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+		outputBuffer.writeToClient(outputBuffer.getBytes(), 0, nBytes);
+		processor.endRequest();
+		processor.nextRequest();
+		outputBuffer.onFlush(processor, new CompletionHandler<Void, AbstractHttp11Processor<?>>() {
+
+			@Override
+			public void completed(Void result, AbstractHttp11Processor<?> attachment) {
+				((InternalNioOutputBuffer) outputBuffer).tunnel(nodeChannel, connector
+						.getConnectionManager().getScheduler(), tunnelTimeout);
+				attachment.recycle();
+			}
+
+			@Override
+			public void failed(Throwable exc, AbstractHttp11Processor<?> attachment) {
+				connector.getConnectionManager().close(nodeChannel);
+				attachment.closeSocket();
+			}
+		});
+	}
+
+	/**
+	 * Resume reading the node response once the bytes queued for the client
+	 * are below the low-water mark. If the client write fails, the node
+	 * connection is closed since the rest of the response cannot be relayed.
+	 * 
+	 * @param outputBuffer
+	 *            the client output buffer
+	 * @param nodeChannel
+	 * @param buffer
+	 *            the buffer receiving the node response
+	 * @param response
+	 * @param handler
+	 *            the node read handler
+	 * @param abandon
+	 *            releases the resources held by the handler if the client
+	 *            write fails
+	 */
+	private void awaitDrain(AbstractInternalOutputBuffer outputBuffer,
+			final NioChannel nodeChannel, final ByteBuffer buffer, Response response,
+			final CompletionHandler<Integer, Response> handler, final Runnable abandon) {
+		outputBuffer.onDrain(response, new CompletionHandler<Void, Response>() {
+
+			@Override
+			public void completed(Void result, Response attachment) {
+				nodeChannel.read(buffer, attachment, handler);
+			}
+
+			@Override
+			public void failed(Throwable exc, Response attachment) {
+				abandon.run();
+				connector.getConnectionManager().close(nodeChannel);
+				attachment.setNote(Constants.NODE_CHANNEL_NOTE, null);
+				release((Node) attachment.getNote(Constants.NODE_NOTE));
+				endFlight(attachment, null);
+			}
+		});
+	}
+
+	/**
+	 * A node finished an exchange, release a request waiting for it
+	 * 
+	 * @param node
+	 */
+	private void release(Node node) {
+		WaitQueue queue = this.connector.getNodeService().getWaitQueue(node);
+		if (queue != null) {
+			queue.release();
+		}
+	}
+
+	/**
+	 * Report the result of the exchange to the circuit breaker of the node. A
+	 * <tt>503</tt> answer means that the node is not able to serve requests.
+	 * 
+	 * @param request
+	 * @param response
+	 */
+	private void recordResult(Request request, Response response) {
+		Node node = (Node) response.getNote(Constants.NODE_NOTE);
+		if (node == null) {
+			return;
+		}
+		if (response.getStatus() == 503) {
+			node.getCircuitBreaker().recordFailure();
+		} else {
+			node.getCircuitBreaker().recordSuccess(
+					System.currentTimeMillis() - request.getStartTime());
+			this.retryPolicy.onSuccess();
+		}
+	}
+
+	/**
+	 * Handle a failed exchange with the node. The request is replayed on
+	 * another node if the retry policy allows it, else an error is sent back
+	 * to the client. If a part of the node response was already sent to the
+	 * client, the client connection is closed.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param responseStarted
+	 *            whether response bytes were already sent to the client
+	 */
+	private void retry(Request request, Response response, boolean responseStarted) {
+		Node failedNode = (Node) response.getNote(Constants.NODE_NOTE);
+		NioChannel channel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
+		// A failed channel must not be reused
+		this.connector.getConnectionManager().close(channel);
+		response.setNote(Constants.NODE_CHANNEL_NOTE, null);
+
+		if (responseStarted) {
+			endFlight(response, null);
+			if (failedNode != null) {
+				failedNode.getCircuitBreaker().recordFailure();
+			}
+			((AbstractHttp11Processor<?>) response.hook).closeSocket();
+			return;
+		}
+
+		int attempts = (Integer) response.getNote(Constants.ATTEMPTS_NOTE);
+		int maxAttempts = this.connector.getNodeService().getMaxAttempts(failedNode);
+		boolean replayable = (response.getNote(Constants.REPLAYABLE_NOTE) == Boolean.TRUE);
+		if (this.retryPolicy.canRetry(request, replayable, attempts, maxAttempts)) {
+			try {
+				prepareNode(request, response, failedNode);
+				((ByteBuffer) response.getNote(Constants.IN_BUFFER_NOTE)).rewind();
+				sendToNode(request, response);
+				return;
+			} catch (Throwable t) {
+				logger.error("Unable to forward the request to another node", t);
+			}
+		} else if (failedNode != null) {
+			failedNode.getCircuitBreaker().recordFailure();
+		}
+
+		try {
+			sendError(request, response);
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * Prepare the request for processing
 	 * 
@@ -294,15 +1461,16 @@ public class CoyoteAdapter implements Adapter {
 
 		postParseRequest(request, response);
 
-		try {
-			prepareNode(request, response, null, 0);
-		} catch (Throwable t) {
-			logger.error("No node is available", t);
-			return false;
-		}
 		// Client request
 		AbstractInternalInputBuffer inputBuffer = (AbstractInternalInputBuffer) request
 				.getInputBuffer();
+		NioChannel clientChannel = ((InternalNioInputBuffer) inputBuffer).getChannel();
+
+		// Admission control, before taking a node connection
+		if (!admit(request, clientChannel)) {
+			response.setStatus(429);
+			return false;
+		}
 
 		final ByteBuffer inBuffer = (ByteBuffer) inputBuffer.getByteBuffer();
 		inBuffer.clear();
@@ -314,8 +1482,14 @@ public class CoyoteAdapter implements Adapter {
 
 		// Put data to forward to the node in the byte buffer
 		inBuffer.put(inputBuffer.getBuffer(), 0, inputBuffer.getLastValid()).flip();
-
-		NioChannel clientChannel = ((InternalNioInputBuffer) inputBuffer).getChannel();
+		CacheEntry stale = (CacheEntry) response.getNote(Constants.CACHE_ENTRY_NOTE);
+		if (stale != null && !addValidator(inputBuffer, inBuffer, stale)) {
+			response.setNote(Constants.CACHE_ENTRY_NOTE, null);
+		}
+		// The byte buffer is the replay buffer when the whole request fits in
+		boolean replayable = this.retryPolicy.isReplayable(request, inputBuffer.getLastValid(),
+				inputBuffer.getEnd());
+		response.setNote(Constants.REPLAYABLE_NOTE, replayable);
 
 		// Put relevant elements in the map attachment
 
@@ -323,73 +1497,133 @@ public class CoyoteAdapter implements Adapter {
 		response.setNote(Constants.OUT_BUFFER_NOTE, outBuffer);
 		response.setNote(Constants.CLIENT_CHANNEL_NOTE, clientChannel);
 
+		response.setNote(Constants.ATTEMPTS_NOTE, 0);
+		try {
+			prepareNode(request, response, null);
+		} catch (Throwable t) {
+			logger.debug("No node is available", t);
+			return false;
+		}
+
 		return true;
 	}
 
 	/**
+	 * Take a token from the client, the context and the balancer limiters
 	 * 
 	 * @param request
-	 * @param response
-	 * @throws Exception
+	 * @param clientChannel
+	 * @return <tt>true</tt> if the request may be forwarded
 	 */
-	private void prepareNode(final org.apache.coyote.Request request,
-			final org.apache.coyote.Response response, Node failedNode, int n) throws Exception {
-
-		if (n >= this.connector.getNodeService().getActiveNodes()) {
-			throw new IOException("No node available");
-		}
-
-		boolean error = false;
-		Node node = this.connector.getNodeService().getNode(request, failedNode);
-		if (node == null) {
-			throw new IOException("No node available");
-		}
-
-		NioChannel nodeChannel = null;
-		try {
-			int tries = 0;
-			while ((tries++) <= 3) {
-				nodeChannel = this.connector.getConnectionManager().getChannel(node);
-				if (nodeChannel == null) {
-					throw new NullPointerException("Null node channel");
+	private boolean admit(org.apache.coyote.Request request, NioChannel clientChannel) {
+		if (this.clientLimiter != null) {
+			try {
+				SocketAddress address = clientChannel.getRemoteAddress();
+				if (address instanceof InetSocketAddress
+						&& !this.clientLimiter.tryAcquire(((InetSocketAddress) address)
+								.getAddress())) {
+					return false;
 				}
+			} catch (IOException e) {
+				// NOPE
 			}
-		} catch (Throwable t) {
-			prepareNode(request, response, node, n + 1);
-			return;
 		}
+		NodeService nodeService = this.connector.getNodeService();
+		if (this.contextLimiter != null
+				&& !this.contextLimiter.tryAcquire(nodeService.getContextPath(request))) {
+			return false;
+		}
+		return (this.balancerLimiter == null || this.balancerLimiter.tryAcquire(nodeService
+				.getBalancerName(request)));
+	}
 
-		response.setNote(Constants.NODE_NOTE, node);
-		response.setNote(Constants.NODE_CHANNEL_NOTE, nodeChannel);
+	/**
+	 * Answer <tt>429</tt> to a rejected request. The connection is kept alive
+	 * unless the request has a body, which was not read.
+	 * 
+	 * @param request
+	 * @param response
+	 */
+	private void sendTooManyRequests(org.apache.coyote.Request request,
+			org.apache.coyote.Response response) {
+		endFlight(response, null);
+		AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
+		boolean keepAlive = processor.isKeepAlive() && request.getContentLengthLong() <= 0
+				&& request.getHeader("Transfer-Encoding") == null;
+
+		AbstractInternalOutputBuffer outputBuffer = (AbstractInternalOutputBuffer) response
+				.getOutputBuffer();
+		outputBuffer.writeToClient(TOO_MANY_REQUESTS);
+		outputBuffer.writeToClient(ByteChunk.convertToBytes(FastHttpDateFormat.getCurrentDate()));
+		outputBuffer.writeToClient(keepAlive ? TOO_MANY_REQUESTS_END : TOO_MANY_REQUESTS_CLOSE);
+
+		processor.endRequest();
+		processor.nextRequest();
+		if (keepAlive) {
+			processor.awaitNext();
+		} else {
+			outputBuffer.onFlush(processor, new CompletionHandler<Void, AbstractHttp11Processor<?>>() {
 
-		if (error) {
-			response.setStatus(503);
-			response.setMessage("Service Unavailable");
-			response.addHeader("Server", "Apache-Coyote/1.1");
+				@Override
+				public void completed(Void result, AbstractHttp11Processor<?> attachment) {
+					attachment.closeSocket();
+				}
 
-			throw new IOException("Unable to connect to node");
+				@Override
+				public void failed(Throwable exc, AbstractHttp11Processor<?> attachment) {
+					attachment.closeSocket();
+				}
+			});
 		}
-
 	}
 
 	/**
+	 * Select a node and get a connection to it. A node to which no connection
+	 * can be established is reported as failed and another one is selected,
+	 * within the attempts budget of the balancer (nothing was sent yet, so this
+	 * is safe whatever the request method).
 	 * 
+	 * @param request
 	 * @param response
+	 * @param failedNode
+	 *            the node which failed the previous attempt, if any
 	 * @throws Exception
 	 */
-	private void tryWithNode(org.apache.coyote.Request request, org.apache.coyote.Response response)
-			throws Exception {
-		// Closing the current channel
-		NioChannel channel = (NioChannel) response.getNote(Constants.NODE_CHANNEL_NOTE);
-		// Retrieve the failed node
-		Node failedNode = (Node) response.getNote(Constants.NODE_NOTE);
-		if (channel.isClosed()) {
-			this.connector.getConnectionManager().close(channel);
-		} else {
-			
+	private void prepareNode(final org.apache.coyote.Request request,
+			final org.apache.coyote.Response response, Node failedNode) throws Exception {
+
+		NodeService nodeService = this.connector.getNodeService();
+		int attempts = (Integer) response.getNote(Constants.ATTEMPTS_NOTE);
+		Node node = nodeService.getNode(request, failedNode);
+		while (node != null) {
+			response.setNote(Constants.ATTEMPTS_NOTE, ++attempts);
+			NioChannel nodeChannel = null;
+			Http2Connection connection = null;
+			try {
+				if (isH2c(node)) {
+					connection = this.connector.getConnectionManager().getHttp2Connection(node);
+				} else {
+					nodeChannel = this.connector.getConnectionManager().getChannel(node);
+				}
+			} catch (Throwable t) {
+				logger.debug("Unable to connect to the node [" + node.getHostname() + ":"
+						+ node.getPort() + "]", t);
+			}
+
+			if (nodeChannel != null || connection != null) {
+				response.setNote(Constants.NODE_NOTE, node);
+				response.setNote(Constants.NODE_CHANNEL_NOTE, nodeChannel);
+				response.setNote(Constants.HTTP2_CONNECTION_NOTE, connection);
+				return;
+			}
+
+			if (attempts >= nodeService.getMaxAttempts(node)) {
+				break;
+			}
+			node = nodeService.getNode(request, node);
 		}
 
-		prepareNode(request, response, failedNode, 1);
+		throw new IOException("No node available");
 	}
 
 	/**
@@ -485,7 +1719,8 @@ public class CoyoteAdapter implements Adapter {
 
 				@Override
 				public void failed(Throwable exc, Integer attachment) {
-					exc.printStackTrace();
+					// The body was partly sent, the request is not replayed
+					retry(request, response, false);
 				}
 			});
 		} else {
@@ -526,6 +1761,14 @@ public class CoyoteAdapter implements Adapter {
 
 		// URI decoding
 		MessageBytes decodedURI = req.decodedURI();
+		if (this.passThrough && isPlain(req.requestURI())) {
+			// The URI is forwarded as is, only the routing reads it
+			ByteChunk uriBB = req.requestURI().getByteChunk();
+			int semicolon = uriBB.indexOf(';', 0);
+			decodedURI.setBytes(uriBB.getBuffer(), uriBB.getStart(),
+					semicolon > 0 ? semicolon : uriBB.getLength());
+			return true;
+		}
 		decodedURI.duplicate(req.requestURI());
 
 		if (decodedURI.getType() == MessageBytes.T_BYTES) {
@@ -621,6 +1864,42 @@ public class CoyoteAdapter implements Adapter {
 
 	}
 
+	/**
+	 * Check whether the URI would be left unchanged by the decoding, the
+	 * normalization and the character conversion: ASCII bytes starting with
+	 * a '/', without any escape, backslash, null byte, "//" nor dot segment.
+	 * The path parameters are not checked, they are removed anyway.
+	 * 
+	 * @param uriMB
+	 * @return <tt>true</tt> if the URI does not need to be decoded
+	 */
+	protected static boolean isPlain(MessageBytes uriMB) {
+		if (uriMB.getType() != MessageBytes.T_BYTES) {
+			return false;
+		}
+		ByteChunk uriBC = uriMB.getByteChunk();
+		byte[] b = uriBC.getBytes();
+		int start = uriBC.getStart();
+		int end = uriBC.getEnd();
+		if (start == end || b[start] != (byte) '/') {
+			return false;
+		}
+		for (int pos = start; pos < end; pos++) {
+			byte c = b[pos];
+			if (c == (byte) ';') {
+				return true;
+			}
+			if (c <= 0 || c == (byte) '%' || c == (byte) '\\') {
+				return false;
+			}
+			if (c == (byte) '/' && pos + 1 < end
+					&& (b[pos + 1] == (byte) '/' || b[pos + 1] == (byte) '.')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Normalize URI.
 	 * <p>
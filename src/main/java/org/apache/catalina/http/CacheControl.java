@@ -0,0 +1,204 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.catalina.http;
+
+/**
+ * {@code CacheControl}
+ *
+ * The directives of a <tt>Cache-Control</tt> header (request or response)
+ * which matter to a shared cache. Unknown directives are ignored.
+ *
+ * Created on Oct 19, 2026 at 11:48:21 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CacheControl {
+
+	private boolean noStore = false;
+	private boolean noCache = false;
+	private boolean privateResponse = false;
+	private boolean mustRevalidate = false;
+	private boolean noTransform = false;
+	private long maxAge = -1;
+	private long sMaxAge = -1;
+
+	/**
+	 * Create a new instance of {@code CacheControl}
+	 */
+	public CacheControl() {
+		super();
+	}
+
+	/**
+	 * Parse the value of a <tt>Cache-Control</tt> header. The directives of
+	 * several headers are merged.
+	 *
+	 * @param value
+	 *            the header value
+	 */
+	public void parse(String value) {
+		if (value == null) {
+			return;
+		}
+
+		int len = value.length();
+		int start = 0;
+		while (start < len) {
+			int end = value.indexOf(',', start);
+			if (end < 0) {
+				end = len;
+			}
+			directive(value, start, end);
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Parse a single directive
+	 *
+	 * @param value
+	 * @param start
+	 * @param end
+	 */
+	private void directive(String value, int start, int end) {
+		while (start < end && value.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		int eq = value.indexOf('=', start);
+		int nameEnd = (eq < 0 || eq > end) ? end : eq;
+		String name = value.substring(start, nameEnd).trim();
+
+		if (name.equalsIgnoreCase("no-store")) {
+			this.noStore = true;
+		} else if (name.equalsIgnoreCase("no-cache")) {
+			this.noCache = true;
+		} else if (name.equalsIgnoreCase("private")) {
+			this.privateResponse = true;
+		} else if (name.equalsIgnoreCase("must-revalidate")
+				|| name.equalsIgnoreCase("proxy-revalidate")) {
+			this.mustRevalidate = true;
+		} else if (name.equalsIgnoreCase("no-transform")) {
+			this.noTransform = true;
+		} else if (name.equalsIgnoreCase("max-age")) {
+			this.maxAge = seconds(value, nameEnd + 1, end);
+		} else if (name.equalsIgnoreCase("s-maxage")) {
+			this.sMaxAge = seconds(value, nameEnd + 1, end);
+		}
+	}
+
+	/**
+	 * @param value
+	 * @param start
+	 * @param end
+	 * @return the delta-seconds argument of a directive, or <tt>-1</tt> if it
+	 *         is missing or invalid
+	 */
+	private static long seconds(String value, int start, int end) {
+		if (start >= end) {
+			return -1;
+		}
+		String arg = value.substring(start, end).trim();
+		if (arg.length() > 1 && arg.charAt(0) == '"' && arg.charAt(arg.length() - 1) == '"') {
+			arg = arg.substring(1, arg.length() - 1);
+		}
+		try {
+			return Math.max(0, Long.parseLong(arg));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the freshness lifetime (in seconds) given by the directives, the
+	 *         <tt>s-maxage</tt> taking precedence, or <tt>-1</tt> if none is
+	 *         set
+	 */
+	public long getFreshness() {
+		return this.sMaxAge >= 0 ? this.sMaxAge : this.maxAge;
+	}
+
+	/**
+	 * Reset the directives
+	 */
+	public void recycle() {
+		this.noStore = false;
+		this.noCache = false;
+		this.privateResponse = false;
+		this.mustRevalidate = false;
+		this.noTransform = false;
+		this.maxAge = -1;
+		this.sMaxAge = -1;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the <tt>no-store</tt> directive is set
+	 */
+	public boolean isNoStore() {
+		return this.noStore;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the <tt>no-cache</tt> directive is set
+	 */
+	public boolean isNoCache() {
+		return this.noCache;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the <tt>private</tt> directive is set
+	 */
+	public boolean isPrivate() {
+		return this.privateResponse;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the <tt>must-revalidate</tt> or
+	 *         <tt>proxy-revalidate</tt> directive is set
+	 */
+	public boolean isMustRevalidate() {
+		return this.mustRevalidate;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the <tt>no-transform</tt> directive is set
+	 */
+	public boolean isNoTransform() {
+		return this.noTransform;
+	}
+
+	/**
+	 * @return the <tt>max-age</tt> value in seconds, <tt>-1</tt> if not set
+	 */
+	public long getMaxAge() {
+		return this.maxAge;
+	}
+
+	/**
+	 * @return the <tt>s-maxage</tt> value in seconds, <tt>-1</tt> if not set
+	 */
+	public long getSMaxAge() {
+		return this.sMaxAge;
+	}
+}
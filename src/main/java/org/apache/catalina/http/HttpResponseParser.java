@@ -42,6 +42,7 @@ public class HttpResponseParser {
 	private static final int INT_BASE = (int) '0';
 	private StringBuilder headerNameBuffer = new StringBuilder();
 	private StringBuilder headerValueBuffer = new StringBuilder();
+	private CacheControl cacheControl = new CacheControl();
 
 	/**
 	 * Create a new instance of {@code HttpResponseParser}
@@ -255,9 +256,10 @@ public class HttpResponseParser {
 		// Set the header value
 		String headerValueStr = headerValueBuffer.toString().trim();
 		response.addHeader(headerName, headerValueStr);
-		
-		
-		
+		if (headerName.equals("cache-control")) {
+			this.cacheControl.parse(headerValueStr);
+		}
+
 		return true;
 	}
 
@@ -287,6 +289,7 @@ public class HttpResponseParser {
 		this.responseLine = false;
 		this.headerLength = 0;
 		this.dataBuffer.clear();
+		this.cacheControl.recycle();
 	}
 
 	/**
@@ -298,6 +301,15 @@ public class HttpResponseParser {
 		return this.headerLength;
 	}
 
+	/**
+	 * Getter for cacheControl
+	 * 
+	 * @return the <tt>Cache-Control</tt> directives of the parsed response
+	 */
+	public CacheControl getCacheControl() {
+		return this.cacheControl;
+	}
+
 	/**
 	 * @return <tt>true</tt> if the parse is parsing response header
 	 */
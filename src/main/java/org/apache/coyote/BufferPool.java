@@ -3,17 +3,17 @@
  * individual contributors as indicated by the @author tags. See the
  * copyright.txt file in the distribution for a full listing of individual
  * contributors.
- * 
+ *
  * This is free software; you can redistribute it and/or modify it under the
  * terms of the GNU Lesser General Public License as published by the Free
  * Software Foundation; either version 2.1 of the License, or (at your option)
  * any later version.
- * 
+ *
  * This software is distributed in the hope that it will be useful, but WITHOUT
  * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
  * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
  * details.
- * 
+ *
  * You should have received a copy of the GNU Lesser General Public License
  * along with this software; if not, write to the Free Software Foundation,
  * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
@@ -21,24 +21,102 @@
  */
 package org.apache.coyote;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
 
 /**
  * {@code BufferPool}
- * 
+ *
+ * Pool of direct byte buffers shared by all the connections. The buffers are
+ * sorted in size classes and carved from large direct slabs, so that the
+ * allocations do not hit the native allocator. Each thread keeps a small
+ * cache per size class and exchanges batches of buffers with a shared arena
+ * when its cache is empty or full, which keeps the I/O threads away from each
+ * other on the hot path.
+ * <p>
+ * The memory reserved for the slabs is capped. Once the cap is reached, the
+ * allocations are shed to heap buffers which are left to the garbage
+ * collector. When the leak detection is enabled, a buffer which is collected
+ * without being returned is reported and its slot is given back to the arena.
+ * </p>
+ *
  * Created on Jul 4, 2012 at 4:07:45 PM
- * 
+ *
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
  */
 public final class BufferPool {
 
+	private static final Logger log = Logger.getLogger(BufferPool.class);
+
 	public static final int DEFAULT_BUFFER_SIZE = Integer.valueOf(System.getProperty(
 			"org.apache.coyote.BUFFER_SIZE", "" + (2 * 8 * 1024)));
 
+	/**
+	 * The buffer sizes served by the pool
+	 */
+	private static final int SIZE_CLASSES[] = sizeClasses(System.getProperty(
+			"org.apache.coyote.BufferPool.SIZE_CLASSES", "4096,9000,16384,18432,65536"));
+
+	/**
+	 * The size of the slabs from which the buffers are carved
+	 */
+	private static final int SLAB_SIZE = Integer.valueOf(System.getProperty(
+			"org.apache.coyote.BufferPool.SLAB_SIZE", "" + (1024 * 1024)));
+
+	/**
+	 * Maximum number of bytes reserved for the slabs
+	 */
+	private static final long MAX_SIZE = Long.valueOf(System.getProperty(
+			"org.apache.coyote.BufferPool.MAX_SIZE", "" + (256L * 1024 * 1024)));
+
+	/**
+	 * Number of bytes kept per size class in the cache of a thread
+	 */
+	private static final int THREAD_CACHE_SIZE = Integer.valueOf(System.getProperty(
+			"org.apache.coyote.BufferPool.THREAD_CACHE_SIZE", "" + (256 * 1024)));
+
+	/**
+	 * Track the buffers to detect those which are never returned
+	 */
+	private static final boolean LEAK_DETECTION = Boolean.valueOf(System.getProperty(
+			"org.apache.coyote.BufferPool.LEAK_DETECTION", "false"));
+
+	private static final SizeClass CLASSES[] = new SizeClass[SIZE_CLASSES.length];
+	private static final AtomicLong RESERVED = new AtomicLong(0);
+	private static final AtomicLong SHED = new AtomicLong(0);
+	private static final AtomicLong LEAKS = new AtomicLong(0);
+	private static final List<ThreadCache> CACHES = new CopyOnWriteArrayList<>();
+	private static final ThreadLocal<ThreadCache> CACHE = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			ThreadCache cache = new ThreadCache();
+			CACHES.add(cache);
+			return cache;
+		}
+	};
+
+	private static final ReferenceQueue<ByteBuffer> LEAK_QUEUE = new ReferenceQueue<>();
+	private static final ConcurrentHashMap<Integer, LeakRef[]> TRACKED = new ConcurrentHashMap<>();
+
+	static {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			CLASSES[i] = new SizeClass(SIZE_CLASSES[i]);
+		}
+	}
+
 	private int capacity;
-	private ConcurrentLinkedQueue<ByteBuffer> pool;
 
 	/**
 	 * Create a new instance of {@code BufferPool}
@@ -49,7 +127,7 @@ public final class BufferPool {
 
 	/**
 	 * Create a new instance of {@code BufferPool}
-	 * 
+	 *
 	 * @param capacity
 	 */
 	private BufferPool(int capacity) {
@@ -58,7 +136,6 @@ public final class BufferPool {
 		}
 
 		this.capacity = capacity;
-		this.pool = new ConcurrentLinkedQueue<ByteBuffer>();
 	}
 
 	/**
@@ -77,66 +154,491 @@ public final class BufferPool {
 	}
 
 	/**
-	 * Destroy the buffer pool
+	 * Retrieve a buffer of the capacity of this pool
+	 *
+	 * @return an instance of {@code ByteBuffer}
+	 */
+	public ByteBuffer poll() {
+		return allocate(this.capacity);
+	}
+
+	/**
+	 * Retrieve a buffer of the specified size
+	 *
+	 * @param size
+	 * @return an instance of {@code ByteBuffer}
 	 */
-	public void destroy() {
-		this.pool.clear();
-		this.pool = null;
+	public ByteBuffer poll(int size) {
+		return allocate(size);
 	}
 
 	/**
-	 * Returns {@code true} if this queue contains no elements.
-	 * 
-	 * @return {@code true} if this queue contains no elements
+	 * Put the buffer in the pool for next usage
+	 *
+	 * @param buffer
 	 */
-	public boolean isEmpty() {
-		return this.pool.isEmpty();
+	public void offer(ByteBuffer buffer) {
+		release(buffer);
 	}
 
 	/**
-	 * Retrieves and removes the head of the pool
-	 * 
+	 *
+	 * @param buffers
+	 */
+	public void offer(Collection<ByteBuffer> buffers) {
+		for (ByteBuffer buffer : buffers) {
+			release(buffer);
+		}
+	}
+
+	/**
+	 * Retrieve a buffer of at least the specified size. The limit of the
+	 * buffer is set to the size, its capacity may be larger.
+	 *
+	 * @param size
 	 * @return an instance of {@code ByteBuffer}
 	 */
-	public ByteBuffer poll() {
-		ByteBuffer buffer = this.pool.poll();
-		if (buffer == null) {
-			buffer = ByteBuffer.allocateDirect(this.capacity);
+	public static ByteBuffer allocate(int size) {
+		int index = indexOf(size);
+		if (index < 0) {
+			// Too large for the pool
+			return ByteBuffer.allocateDirect(size);
 		}
 
+		ByteBuffer buffer = CACHE.get().poll(index);
+		if (buffer == null) {
+			SHED.incrementAndGet();
+			return ByteBuffer.allocate(size);
+		}
+		if (LEAK_DETECTION) {
+			buffer = track(buffer, CLASSES[index]);
+		}
+		buffer.limit(size);
 		return buffer;
 	}
 
 	/**
-	 * Put the buffer in the pool for next usage
-	 * 
+	 * Return a buffer to the pool. Buffers which were not carved from the
+	 * slabs (shed or too large) are left to the garbage collector, as well as
+	 * the read-only views of pooled buffers. A buffer must not be used any
+	 * more once released.
+	 *
 	 * @param buffer
 	 */
-	public void offer(ByteBuffer buffer) {
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) {
+			return;
+		}
+		int index = Arrays.binarySearch(SIZE_CLASSES, buffer.capacity());
+		if (index < 0) {
+			return;
+		}
+		if (LEAK_DETECTION && (buffer = untrack(buffer)) == null) {
+			return;
+		}
 		buffer.clear();
-		this.pool.offer(buffer);
+		CACHE.get().offer(index, buffer);
 	}
 
 	/**
-	 * 
+	 * @param size
+	 * @return the index of the smallest size class holding the size, or
+	 *         <tt>-1</tt> if the size is larger than all the classes
+	 */
+	private static int indexOf(int size) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (SIZE_CLASSES[i] >= size) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param value
+	 *            a comma separated list of sizes
+	 * @return the sorted size classes, including the default buffer size
+	 */
+	private static int[] sizeClasses(String value) {
+		TreeSet<Integer> sizes = new TreeSet<>();
+		sizes.add(DEFAULT_BUFFER_SIZE);
+		for (String size : value.split(",")) {
+			size = size.trim();
+			if (!size.isEmpty() && Integer.parseInt(size) > 0) {
+				sizes.add(Integer.valueOf(size));
+			}
+		}
+		int classes[] = new int[sizes.size()];
+		int i = 0;
+		for (Integer size : sizes) {
+			classes[i++] = size;
+		}
+		return classes;
+	}
+
+	/**
+	 * Register a buffer handed out by the pool. The caller gets a duplicate of
+	 * the pooled buffer, which is only weakly reachable from the pool.
+	 *
 	 * @param buffer
+	 *            the pooled buffer
+	 * @param sizeClass
+	 * @return the buffer to hand out
 	 */
-	public void offer(Collection<ByteBuffer> buffer) {
-		this.pool.addAll(buffer);
+	private static ByteBuffer track(ByteBuffer buffer, SizeClass sizeClass) {
+		reclaimLeaks();
+		ByteBuffer duplicate = buffer.duplicate();
+		Integer key = System.identityHashCode(duplicate);
+		LeakRef ref = new LeakRef(duplicate, buffer, sizeClass);
+		for (;;) {
+			LeakRef refs[] = TRACKED.get(key);
+			if (refs == null) {
+				if (TRACKED.putIfAbsent(key, new LeakRef[] { ref }) == null) {
+					return duplicate;
+				}
+			} else {
+				LeakRef update[] = Arrays.copyOf(refs, refs.length + 1);
+				update[refs.length] = ref;
+				if (TRACKED.replace(key, refs, update)) {
+					return duplicate;
+				}
+			}
+		}
 	}
 
 	/**
-	 * 
+	 * Unregister a buffer returned to the pool
+	 *
 	 * @param buffer
+	 *            the buffer handed out
+	 * @return the pooled buffer, or <tt>null</tt> if the buffer was not handed
+	 *         out by the pool
 	 */
-	public void offer(BufferPool bufferPool) {
-		this.pool.addAll(bufferPool.pool);
+	private static ByteBuffer untrack(ByteBuffer buffer) {
+		Integer key = System.identityHashCode(buffer);
+		LeakRef refs[];
+		LeakRef ref;
+		do {
+			refs = TRACKED.get(key);
+			ref = null;
+			if (refs != null) {
+				for (LeakRef r : refs) {
+					if (r.get() == buffer) {
+						ref = r;
+						break;
+					}
+				}
+			}
+			if (ref == null) {
+				log.warn("Buffer of size " + buffer.capacity()
+						+ " released twice or not allocated by the pool");
+				return null;
+			}
+		} while (!(refs.length == 1 ? TRACKED.remove(key, refs) : TRACKED.replace(key, refs,
+				without(refs, ref))));
+		ref.clear();
+		return ref.pooled;
 	}
 
 	/**
-	 * Remove all existing byte buffer in the pool
+	 * @param refs
+	 * @param ref
+	 * @return a copy of the array without the reference
 	 */
-	public void clear() {
-		this.pool.clear();
+	private static LeakRef[] without(LeakRef refs[], LeakRef ref) {
+		LeakRef copy[] = new LeakRef[refs.length - 1];
+		int i = 0;
+		for (LeakRef r : refs) {
+			if (r != ref) {
+				copy[i++] = r;
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Give back to the arenas the slots of the buffers which were collected
+	 * without being returned
+	 */
+	private static void reclaimLeaks() {
+		Reference<? extends ByteBuffer> reference;
+		while ((reference = LEAK_QUEUE.poll()) != null) {
+			LeakRef ref = (LeakRef) reference;
+			LEAKS.incrementAndGet();
+			log.warn("Buffer of size " + ref.sizeClass.size
+					+ " was not returned to the pool before being collected");
+			ref.sizeClass.give(ref.pooled);
+		}
+	}
+
+	/**
+	 * Move to the arenas the buffers cached by the threads which died
+	 */
+	private static void reclaimCaches() {
+		for (ThreadCache cache : CACHES) {
+			if (cache.owner.get() == null || !cache.owner.get().isAlive()) {
+				CACHES.remove(cache);
+				cache.flush();
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the largest buffers served by the pool
+	 */
+	public static int getMaxBufferSize() {
+		return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+	}
+
+	/**
+	 * @return the number of bytes reserved for the slabs
+	 */
+	public static long getCapacity() {
+		return RESERVED.get();
+	}
+
+	/**
+	 * @return the number of bytes of the slabs handed out and not returned
+	 *         yet. The value is approximate since the thread caches are read
+	 *         without synchronization.
+	 */
+	public static long getUsed() {
+		long free = 0;
+		for (int i = 0; i < CLASSES.length; i++) {
+			free += (long) CLASSES[i].getFree() * CLASSES[i].size;
+		}
+		for (ThreadCache cache : CACHES) {
+			for (int i = 0; i < CLASSES.length; i++) {
+				free += (long) cache.counts[i] * CLASSES[i].size;
+			}
+		}
+		return Math.max(0, RESERVED.get() - free);
+	}
+
+	/**
+	 * @return the number of allocations served by heap buffers because the
+	 *         capacity of the pool was reached
+	 */
+	public static long getShed() {
+		return SHED.get();
+	}
+
+	/**
+	 * @return the number of buffers collected without being returned (only
+	 *         counted when the leak detection is enabled)
+	 */
+	public static long getLeaks() {
+		return LEAKS.get();
+	}
+
+	/**
+	 * @return the usage of each size class, one per line
+	 */
+	public static String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		for (SizeClass sizeClass : CLASSES) {
+			sb.append("size: ").append(sizeClass.size).append(", slabs: ")
+					.append(sizeClass.getSlabs()).append(", free: ").append(sizeClass.getFree())
+					.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * {@code SizeClass}
+	 *
+	 * The shared arena of a size class, which holds the free buffers not
+	 * cached by a thread
+	 */
+	private static class SizeClass {
+
+		final int size;
+		final int slabSize;
+		final int batch;
+		private final ArrayDeque<ByteBuffer> arena = new ArrayDeque<>();
+		private int slabs = 0;
+
+		SizeClass(int size) {
+			this.size = size;
+			this.slabSize = Math.max(1, SLAB_SIZE / size) * size;
+			this.batch = Math.max(1, THREAD_CACHE_SIZE / size / 2);
+		}
+
+		/**
+		 * Move up to {@code batch} free buffers to the array, carving a new
+		 * slab if the arena is empty
+		 *
+		 * @param dst
+		 * @param off
+		 * @return the number of buffers moved
+		 */
+		int take(ByteBuffer dst[], int off) {
+			synchronized (this) {
+				int n = take0(dst, off);
+				if (n > 0) {
+					return n;
+				}
+			}
+
+			reclaimCaches();
+			if (LEAK_DETECTION) {
+				reclaimLeaks();
+			}
+			synchronized (this) {
+				int n = take0(dst, off);
+				if (n == 0 && grow()) {
+					n = take0(dst, off);
+				}
+				return n;
+			}
+		}
+
+		private int take0(ByteBuffer dst[], int off) {
+			int n = 0;
+			ByteBuffer buffer;
+			while (n < this.batch && off + n < dst.length && (buffer = this.arena.poll()) != null) {
+				dst[off + n++] = buffer;
+			}
+			return n;
+		}
+
+		/**
+		 * Carve a new slab into buffers, unless the capacity of the pool is
+		 * reached
+		 *
+		 * @return <tt>true</tt> if the slab was created
+		 */
+		private boolean grow() {
+			long reserved;
+			do {
+				reserved = RESERVED.get();
+				if (reserved + this.slabSize > MAX_SIZE) {
+					return false;
+				}
+			} while (!RESERVED.compareAndSet(reserved, reserved + this.slabSize));
+
+			ByteBuffer slab = ByteBuffer.allocateDirect(this.slabSize);
+			for (int off = 0; off < this.slabSize; off += this.size) {
+				slab.limit(off + this.size).position(off);
+				this.arena.offer(slab.slice());
+			}
+			this.slabs++;
+			return true;
+		}
+
+		/**
+		 * Return buffers to the arena
+		 *
+		 * @param src
+		 * @param off
+		 * @param len
+		 */
+		synchronized void give(ByteBuffer src[], int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				this.arena.offer(src[i]);
+				src[i] = null;
+			}
+		}
+
+		/**
+		 * Return a buffer to the arena
+		 *
+		 * @param buffer
+		 */
+		synchronized void give(ByteBuffer buffer) {
+			this.arena.offer(buffer);
+		}
+
+		synchronized int getFree() {
+			return this.arena.size();
+		}
+
+		synchronized int getSlabs() {
+			return this.slabs;
+		}
+	}
+
+	/**
+	 * {@code ThreadCache}
+	 *
+	 * The free buffers cached by a thread, one stack per size class. It is
+	 * only accessed by its owner, unless the latter died.
+	 */
+	private static class ThreadCache {
+
+		final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+		final ByteBuffer stacks[][] = new ByteBuffer[CLASSES.length][];
+		final int counts[] = new int[CLASSES.length];
+
+		ThreadCache() {
+			for (int i = 0; i < CLASSES.length; i++) {
+				this.stacks[i] = new ByteBuffer[2 * CLASSES[i].batch];
+			}
+		}
+
+		/**
+		 * @param index
+		 *            the size class
+		 * @return a free buffer, or <tt>null</tt> if the capacity of the pool
+		 *         is reached
+		 */
+		ByteBuffer poll(int index) {
+			ByteBuffer stack[] = this.stacks[index];
+			if (this.counts[index] == 0) {
+				this.counts[index] = CLASSES[index].take(stack, 0);
+				if (this.counts[index] == 0) {
+					return null;
+				}
+			}
+			ByteBuffer buffer = stack[--this.counts[index]];
+			stack[this.counts[index]] = null;
+			return buffer;
+		}
+
+		/**
+		 * @param index
+		 *            the size class
+		 * @param buffer
+		 */
+		void offer(int index, ByteBuffer buffer) {
+			ByteBuffer stack[] = this.stacks[index];
+			if (this.counts[index] == stack.length) {
+				// Keep the most recently used half
+				int half = stack.length / 2;
+				CLASSES[index].give(stack, 0, half);
+				System.arraycopy(stack, half, stack, 0, stack.length - half);
+				Arrays.fill(stack, stack.length - half, stack.length, null);
+				this.counts[index] -= half;
+			}
+			stack[this.counts[index]++] = buffer;
+		}
+
+		/**
+		 * Return all the cached buffers to the arenas
+		 */
+		void flush() {
+			for (int i = 0; i < CLASSES.length; i++) {
+				CLASSES[i].give(this.stacks[i], 0, this.counts[i]);
+				this.counts[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * {@code LeakRef}
+	 *
+	 * A weak reference to a buffer handed out by the pool, keeping the pooled
+	 * buffer sharing its memory to give it back if the former is collected
+	 */
+	private static class LeakRef extends WeakReference<ByteBuffer> {
+
+		final ByteBuffer pooled;
+		final SizeClass sizeClass;
+
+		LeakRef(ByteBuffer buffer, ByteBuffer pooled, SizeClass sizeClass) {
+			super(buffer, LEAK_QUEUE);
+			this.pooled = pooled;
+			this.sizeClass = sizeClass;
+		}
 	}
 }
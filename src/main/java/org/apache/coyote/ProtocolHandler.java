@@ -23,6 +23,7 @@
 package org.apache.coyote;
 
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract the protocol implementation, including threading, etc. Processor is
@@ -107,5 +108,27 @@ public interface ProtocolHandler {
      * @return the adapter
      */
     public Adapter getAdapter();
+
+	/**
+	 * @return the executor processing the requests
+	 */
+	public Executor getExecutor();
+
+	/**
+	 * Apply the values of the system properties which can be changed while
+	 * the protocol is running (thread pool size, maximum connections)
+	 */
+	public void reload();
+
+	/**
+	 * Stop accepting new connections and close the open connections once
+	 * their current exchange completes
+	 */
+	public void drain();
+
+	/**
+	 * @return the number of connections with an exchange in progress
+	 */
+	public int getActiveConnections();
 	
 }
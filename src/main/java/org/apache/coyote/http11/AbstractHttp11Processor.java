@@ -565,6 +565,18 @@ public abstract class AbstractHttp11Processor<E> implements ActionHook {
 		return false;
 	}
 
+	/**
+	 * Check whether the node response relayed to the client may be
+	 * compressed by the proxy: the compression is enabled, the client speaks
+	 * HTTP/1.1 (the compressed response is chunked) and the response passes
+	 * the checks of {@link #isCompressable()}.
+	 * 
+	 * @return <tt>true</tt> if the relayed response may be compressed
+	 */
+	public boolean isRelayCompressable() {
+		return compressionLevel > 0 && http11 && isCompressable();
+	}
+
 	/**
 	 * After reading the request headers, we have to setup the request filters.
 	 */
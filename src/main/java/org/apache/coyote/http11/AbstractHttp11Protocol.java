@@ -72,9 +72,11 @@ public abstract class AbstractHttp11Protocol<T> implements ProtocolHandler,
 	protected Adapter adapter;
 
 	/**
-	 * Processor cache.
+	 * Maximum number of idle processors kept for reuse, -1 means unlimited.
 	 */
-	protected int processorCache = -1;
+	protected int processorCache = Integer.valueOf(
+			System.getProperty("org.apache.coyote.http11.Http11Protocol.PROCESSOR_CACHE", "200"))
+			.intValue();
 	protected boolean canDestroy = false;
 	protected int socketBuffer = 9000;
 	/**
@@ -25,9 +25,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
 import java.util.Date;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.BufferPool;
@@ -65,6 +69,28 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 
 	protected ConcurrentLinkedQueue<ByteBuffer> localPool = new ConcurrentLinkedQueue<>();
 
+	/**
+	 * Number of bytes queued for all the clients
+	 */
+	private static final AtomicLong GLOBAL_QUEUED = new AtomicLong(0);
+
+	/**
+	 * Number of bytes queued in the local pool and not yet written
+	 */
+	private final AtomicLong queued = new AtomicLong(0);
+
+	/**
+	 * The handler to notify once the queue is drained
+	 */
+	private final AtomicReference<DrainHandler<?>> drainHandler = new AtomicReference<>();
+
+	/**
+	 * The handlers of the queued buffers which are not owned by the output
+	 * buffer, in the order of the buffers
+	 */
+	private final ConcurrentLinkedQueue<BorrowedBuffer<?>> borrowed =
+			new ConcurrentLinkedQueue<>();
+
 	/**
 	 * Associated Coyote response.
 	 */
@@ -207,12 +233,200 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			limit = Math.min(buffer.remaining(), length - count);
 			buffer.put(data, off + count, limit).flip();
 			count += limit;
+			queue(limit);
 			this.localPool.offer(buffer);
 		}
 
 		tryWrite();
 	}
 
+	/**
+	 * Write the remaining bytes of the buffer to the client. The position of
+	 * the buffer is moved to its limit.
+	 *
+	 * @param data
+	 */
+	public void writeToClient(ByteBuffer data) {
+
+		ByteBuffer buffer;
+		ByteBuffer slice;
+
+		while (data.hasRemaining()) {
+			buffer = poll();
+			slice = data.duplicate();
+			slice.limit(slice.position() + Math.min(buffer.remaining(), data.remaining()));
+			buffer.put(slice).flip();
+			data.position(slice.position());
+			queue(buffer.limit());
+			this.localPool.offer(buffer);
+		}
+
+		tryWrite();
+	}
+
+	/**
+	 * Queue the remaining bytes of the buffer as they are, without copying
+	 * them into the pool. The position of the buffer is moved to its limit.
+	 * The bytes must not be modified until the handler, if any, is notified:
+	 * it is completed once they are written to the client, or failed if they
+	 * are dropped.
+	 * 
+	 * @param data
+	 * @param attachment
+	 * @param handler
+	 *            may be <tt>null</tt>
+	 */
+	public <A> void writeToClient(ByteBuffer data, A attachment,
+			CompletionHandler<Void, ? super A> handler) {
+		// A read-only view never goes back to the pool
+		ByteBuffer view = data.slice().asReadOnlyBuffer();
+		data.position(data.limit());
+		if (handler != null) {
+			this.borrowed.offer(new BorrowedBuffer<A>(view, attachment, handler));
+		}
+		queue(view.limit());
+		this.localPool.offer(view);
+
+		tryWrite();
+	}
+
+	/**
+	 * A read-only view queued by
+	 * {@link #writeToClient(ByteBuffer, Object, CompletionHandler)} was
+	 * written, complete its handler if any
+	 * 
+	 * @param buffer
+	 */
+	protected void written(ByteBuffer buffer) {
+		// The buffers are written in order
+		BorrowedBuffer<?> head = this.borrowed.peek();
+		if (head != null && head.buffer == buffer && this.borrowed.remove(head)) {
+			head.completed();
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if more data may be queued for the client, i.e.
+	 *         the queued bytes are below the high-water mark and the global
+	 *         cap is not reached
+	 */
+	public boolean isWritable() {
+		long n = this.queued.get();
+		return n == 0
+				|| (n < Constants.WRITE_HIGH_WATER && GLOBAL_QUEUED.get() < Constants.MAX_QUEUED_BYTES);
+	}
+
+	/**
+	 * Register a handler to be completed once the queued bytes go below the
+	 * low-water mark, or failed if the client write fails. Only one handler
+	 * can be registered at a time.
+	 * 
+	 * @param attachment
+	 * @param handler
+	 */
+	public <A> void onDrain(A attachment, CompletionHandler<Void, ? super A> handler) {
+		this.drainHandler.set(new DrainHandler<A>(attachment, handler, Constants.WRITE_LOW_WATER));
+		// The queue may have been drained in the meantime
+		drained();
+	}
+
+	/**
+	 * Register a handler to be completed once all the queued bytes are
+	 * written to the client, or failed if the client write fails. Only one
+	 * handler can be registered at a time.
+	 * 
+	 * @param attachment
+	 * @param handler
+	 */
+	public <A> void onFlush(A attachment, CompletionHandler<Void, ? super A> handler) {
+		this.drainHandler.set(new DrainHandler<A>(attachment, handler, 0));
+		drained();
+	}
+
+	/**
+	 * Account the bytes added to the local pool
+	 * 
+	 * @param n
+	 */
+	protected void queue(int n) {
+		this.queued.addAndGet(n);
+		GLOBAL_QUEUED.addAndGet(n);
+	}
+
+	/**
+	 * Account the bytes written to the client (or dropped) and notify the drain
+	 * handler if the queue went below the low-water mark
+	 * 
+	 * @param n
+	 */
+	protected void dequeue(long n) {
+		long current, count;
+		do {
+			current = this.queued.get();
+			count = Math.min(current, n);
+		} while (!this.queued.compareAndSet(current, current - count));
+		GLOBAL_QUEUED.addAndGet(-count);
+		drained();
+	}
+
+	/**
+	 * Complete the drain handler if the queue is below its threshold. The
+	 * global cap is ignored once the local queue is empty, otherwise the
+	 * handler might never be notified.
+	 */
+	private void drained() {
+		DrainHandler<?> handler = this.drainHandler.get();
+		if (handler == null) {
+			return;
+		}
+		long n = this.queued.get();
+		if (n <= handler.threshold
+				&& (n == 0 || GLOBAL_QUEUED.get() < Constants.MAX_QUEUED_BYTES)
+				&& this.drainHandler.compareAndSet(handler, null)) {
+			handler.completed();
+		}
+	}
+
+	/**
+	 * Fail the drain handler, if any
+	 * 
+	 * @param exc
+	 */
+	protected void drainFailed(Throwable exc) {
+		DrainHandler<?> handler = this.drainHandler.getAndSet(null);
+		if (handler != null) {
+			handler.failed(exc);
+		}
+		dropBorrowed(exc);
+	}
+
+	/**
+	 * Fail the handlers of the queued buffers which are not owned by the
+	 * output buffer, they will not be written
+	 * 
+	 * @param exc
+	 */
+	private void dropBorrowed(Throwable exc) {
+		BorrowedBuffer<?> head;
+		while ((head = this.borrowed.poll()) != null) {
+			head.failed(exc);
+		}
+	}
+
+	/**
+	 * @return the number of bytes queued for the client
+	 */
+	public long getQueuedBytes() {
+		return this.queued.get();
+	}
+
+	/**
+	 * @return the number of bytes queued for all the clients
+	 */
+	public static long getGlobalQueuedBytes() {
+		return GLOBAL_QUEUED.get();
+	}
+
 	/**
 	 * Try to perform a write operation. The write operation might be
 	 * synchronous or asynchronous
@@ -341,6 +555,10 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		finished = false;
 		this.contentLength = 0;
 		error = false;
+		// The queued buffers are dropped
+		dequeue(this.queued.get());
+		this.drainHandler.set(null);
+		dropBorrowed(new ClosedChannelException());
 	}
 
 	/**
@@ -546,6 +764,19 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			AbstractHttp11Processor<?> processor = (AbstractHttp11Processor<?>) response.hook;
 			processor.endRequest();
 			processor.nextRequest();
+			// Close the connection once the error page is written
+			onFlush(processor, new CompletionHandler<Void, AbstractHttp11Processor<?>>() {
+
+				@Override
+				public void completed(Void result, AbstractHttp11Processor<?> attachment) {
+					attachment.closeSocket();
+				}
+
+				@Override
+				public void failed(Throwable exc, AbstractHttp11Processor<?> attachment) {
+					attachment.closeSocket();
+				}
+			});
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
@@ -768,6 +999,66 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		this.contentLength = contentLength;
 	}
 
+	/**
+	 * {@code DrainHandler}
+	 * 
+	 * Created on Oct 19, 2026 at 11:50:02 AM
+	 * 
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	private static class DrainHandler<A> {
+
+		private final A attachment;
+		private final CompletionHandler<Void, ? super A> handler;
+		private final long threshold;
+
+		DrainHandler(A attachment, CompletionHandler<Void, ? super A> handler, long threshold) {
+			this.attachment = attachment;
+			this.handler = handler;
+			this.threshold = threshold;
+		}
+
+		void completed() {
+			this.handler.completed(null, this.attachment);
+		}
+
+		void failed(Throwable exc) {
+			this.handler.failed(exc, this.attachment);
+		}
+	}
+
+	/**
+	 * {@code BorrowedBuffer}
+	 * 
+	 * A queued buffer which is not owned by the output buffer, and the handler
+	 * to notify once it is written
+	 * 
+	 * Created on Oct 19, 2026 at 4:12:37 PM
+	 * 
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	private static class BorrowedBuffer<A> {
+
+		private final ByteBuffer buffer;
+		private final A attachment;
+		private final CompletionHandler<Void, ? super A> handler;
+
+		BorrowedBuffer(ByteBuffer buffer, A attachment,
+				CompletionHandler<Void, ? super A> handler) {
+			this.buffer = buffer;
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		void completed() {
+			this.handler.completed(null, this.attachment);
+		}
+
+		void failed(Throwable exc) {
+			this.handler.failed(exc, this.attachment);
+		}
+	}
+
 	/**
 	 * {@code OutputBufferImpl} This class is an output buffer which will write
 	 * data to an output stream/channel.
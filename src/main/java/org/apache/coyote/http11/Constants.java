@@ -47,6 +47,19 @@ public final class Constants {
 	 * 
 	 */
 	public static final String MAX_CONNECTIONS_NAME = "org.apache.tomcat.util.net.MAX_CONNECTIONS";
+	/**
+	 * The compression of the node responses: off, on, force or the minimum
+	 * size of the compressed responses
+	 */
+	public static final String COMPRESSION_NAME = "org.apache.coyote.http11.COMPRESSION";
+	/**
+	 * The comma separated list of the MIME types which are compressed
+	 */
+	public static final String COMPRESSABLE_MIME_TYPES_NAME = "org.apache.coyote.http11.COMPRESSABLE_MIME_TYPES";
+	/**
+	 * The minimum size (in bytes) of the compressed responses
+	 */
+	public static final String COMPRESSION_MIN_SIZE_NAME = "org.apache.coyote.http11.COMPRESSION_MIN_SIZE";
 	
 	
 	/**
@@ -130,6 +143,29 @@ public final class Constants {
 	 */
 	public static final int WRITE_BUFFER_SIZE = 9000;
 
+	/**
+	 * Number of bytes queued for a client above which the relay stops reading
+	 * the node response
+	 */
+	public static final int WRITE_HIGH_WATER = Integer.valueOf(
+			System.getProperty("org.apache.coyote.http11.WRITE_HIGH_WATER", "" + (256 * 1024)))
+			.intValue();
+
+	/**
+	 * Number of bytes queued for a client below which the relay resumes
+	 * reading the node response
+	 */
+	public static final int WRITE_LOW_WATER = Integer.valueOf(
+			System.getProperty("org.apache.coyote.http11.WRITE_LOW_WATER", "" + (64 * 1024)))
+			.intValue();
+
+	/**
+	 * Maximum number of bytes queued for all the clients
+	 */
+	public static final long MAX_QUEUED_BYTES = Long.valueOf(
+			System.getProperty("org.apache.coyote.http11.MAX_QUEUED_BYTES", ""
+					+ (256L * 1024 * 1024))).longValue();
+
 	/* Various constant "strings" */
 	public static final byte[] CRLF_BYTES = ByteChunk.convertToBytes(CRLF);
 	public static final byte[] COLON_BYTES = ByteChunk.convertToBytes(": ");
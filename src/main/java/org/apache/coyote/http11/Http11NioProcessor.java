@@ -20,10 +20,8 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.catalina.http.HttpResponseParser;
 import org.apache.coyote.ActionCode;
@@ -85,6 +83,31 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	 */
 	protected NioEndpoint endpoint;
 
+	/**
+	 * Waits for the next request once the response is written, the same
+	 * handler serves all the responses of the processor
+	 */
+	private final CompletionHandler<Void, NioChannel> flushHandler =
+			new CompletionHandler<Void, NioChannel>() {
+
+		@Override
+		public void completed(Void result, NioChannel attachment) {
+			if (endpoint.isDraining()) {
+				// The response is complete, the client reconnects
+				closeSocket(attachment);
+			} else {
+				recycle();
+				endpoint.awaitNext(attachment);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, NioChannel attachment) {
+			// Close the channel and recycle the processor
+			closeSocket(attachment);
+		}
+	};
+
 	protected Http11NioProtocol http11Protocol;
 
 	/**
@@ -203,30 +226,10 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	 */
 	public void awaitNext() {
 
-		final NioChannel ch = this.channel;
-		// Asynchronous wait for next request.
-		ch.awaitRead(endpoint.getKeepAliveTimeout(), TimeUnit.MILLISECONDS, ch,
-				new CompletionHandler<Integer, NioChannel>() {
-
-					@Override
-					public void completed(Integer nBytes, NioChannel attachment) {
-						if (nBytes < 0) {
-							// Reach the end of the stream
-							failed(new ClosedChannelException(), attachment);
-						} else {
-							// Process channel
-							endpoint.processChannel(attachment, null);
-							// Recycle the processor
-							recycle();
-						}
-					}
-
-					@Override
-					public void failed(Throwable exc, NioChannel attachment) {
-						// Close the channel and recycle the processor
-						closeSocket(attachment);
-					}
-				});
+		// The processor is released as soon as the response is written, an
+		// idle connection only holds the one-byte read buffer of its channel.
+		// A processor is attached again when the next request arrives.
+		this.outputBuffer.onFlush(this.channel, this.flushHandler);
 	}
 
 	/*
@@ -311,7 +314,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 				error = true;
 			}
 
-			if (maxKeepAliveRequests > 0 && --keepAliveLeft == 0) {
+			if ((maxKeepAliveRequests > 0 && --keepAliveLeft == 0) || endpoint.isDraining()) {
 				keepAlive = false;
 			}
 			// Process the request in the adapter
@@ -319,15 +322,11 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 				try {
 					rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
 					adapter.service(request, response);
-					// Handle when the response was committed before a serious
-					// error occurred. Throwing a ServletException should both
-					// set the status to 500 and set the errorException.
-					// If we fail here, then the response is likely already
-					// committed, so we can't try and set headers.
-					if (keepAlive && !error) { // Avoid checking twice.
-						error = response.getErrorException() != null
-								|| statusDropsConnection(response.getStatus());
-					}
+					// The request is now handled asynchronously, the processor
+					// must not be used anymore: it is recycled once the
+					// response is written (see awaitNext and closeSocket). The
+					// keep-alive decision is taken in endRequest.
+					return SocketState.OPEN;
 				} catch (InterruptedIOException e) {
 					log.error(e.getMessage());
 					error = true;
@@ -338,7 +337,6 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 					response.setStatus(500);
 					error = true;
 				}
-				//break;
 			}
 
 			if (error) {
@@ -364,6 +362,14 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	 */
 	public void endRequest() {
 		request.getRequestProcessor().setStage(org.apache.coyote.Constants.STAGE_ENDED);
+		// Handle when the response was committed before a serious error
+		// occurred. The request is handled asynchronously, so the decision is
+		// taken here, before the response is recycled: the connection is
+		// closed once the response is written.
+		if (keepAlive && !error) {
+			keepAlive = response.getErrorException() == null
+					&& !statusDropsConnection(response.getStatus());
+		}
 		// Finish the handling of the request
 		try {
 			inputBuffer.endRequest();
@@ -28,6 +28,7 @@ import java.net.URLEncoder;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
@@ -137,6 +138,13 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 
 		this.endpoint.setMaxConnections(maxConnections);
 
+		// Setting the compression of the node responses
+		setCompressionMinSize(Integer.getInteger(Constants.COMPRESSION_MIN_SIZE_NAME,
+				getCompressionMinSize()));
+		setCompression(System.getProperty(Constants.COMPRESSION_NAME, getCompression()));
+		setCompressableMimeType(System.getProperty(Constants.COMPRESSABLE_MIME_TYPES_NAME,
+				getCompressableMimeType()));
+
 		try {
 			endpoint.setKeepAliveTimeout(this.timeout);
 			endpoint.init();
@@ -320,6 +328,56 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 		endpoint.setMaxThreads(maxThreads);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#reload()
+	 */
+	public void reload() {
+		String property = System.getProperty(Constants.MAX_THREAD_NAME);
+		if (property != null) {
+			try {
+				int maxThreads = Integer.valueOf(property);
+				if (maxThreads > 0 && maxThreads != endpoint.getMaxThreads()) {
+					log.info("Configure max thread number : " + maxThreads);
+					endpoint.setMaxThreads(maxThreads);
+				}
+			} catch (Exception e) {
+				log.warn("Invalid MAX-THREAD number : " + property);
+			}
+		}
+		property = System.getProperty(Constants.MAX_CONNECTIONS_NAME);
+		if (property != null) {
+			try {
+				int maxConnections = Integer.valueOf(property);
+				if (maxConnections != endpoint.getMaxConnections()) {
+					log.info("Configure max connection number : " + maxConnections);
+					endpoint.setMaxConnections(maxConnections);
+				}
+			} catch (Exception e) {
+				log.warn("Invalid MAX-CONNECTION number : " + property);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#drain()
+	 */
+	public void drain() {
+		endpoint.drain();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#getActiveConnections()
+	 */
+	public int getActiveConnections() {
+		return endpoint.getActiveConnections();
+	}
+
 	/**
 	 * @param size
 	 */
@@ -766,7 +824,7 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 	 * @param processor
 	 */
 	public void recycleProcessor(Http11NioProcessor processor) {
-		this.cHandler.recycledProcessors.offer(processor);
+		this.cHandler.recycle(processor);
 	}
 
 	/**
@@ -782,6 +840,7 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 		protected AtomicLong registerCount = new AtomicLong(0);
 		protected RequestGroupInfo global = new RequestGroupInfo();
 		protected ConcurrentLinkedQueue<Http11NioProcessor> recycledProcessors = new ConcurrentLinkedQueue<>();
+		protected AtomicInteger recycledCount = new AtomicInteger(0);
 
 		/**
 		 * Create a new instance of {@code Http11ConnectionHandler}
@@ -818,6 +877,8 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 			try {
 				if (processor == null) {
 					processor = createProcessor();
+				} else {
+					recycledCount.decrementAndGet();
 				}
 
 				if (proto.secure && (proto.sslImplementation != null)) {
@@ -846,10 +907,28 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 				// less-than-verbose logs.
 				Http11NioProtocol.log.error(sm.getString("http11protocol.proto.error"), e);
 			}
-			recycledProcessors.offer(processor);
+			recycle(processor);
 			return SocketState.CLOSED;
 		}
 
+		/**
+		 * Return a processor to the pool, unless the pool already holds
+		 * <tt>processorCache</tt> processors
+		 * 
+		 * @param processor
+		 */
+		protected void recycle(Http11NioProcessor processor) {
+			if (processor == null) {
+				return;
+			}
+			if (recycledCount.incrementAndGet() > proto.processorCache
+					&& proto.processorCache >= 0) {
+				recycledCount.decrementAndGet();
+				return;
+			}
+			recycledProcessors.offer(processor);
+		}
+
 		/**
 		 * @return
 		 */
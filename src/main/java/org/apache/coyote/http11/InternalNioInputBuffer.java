@@ -249,6 +249,8 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 			pos = end;
 			lastValid = pos;
 		}
+		// Do not read more than the room left in the buffer
+		bbuf.limit(Math.min(bbuf.capacity(), buf.length - pos));
 	}
 
 	/**
@@ -25,7 +25,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Response;
@@ -43,9 +45,9 @@ import org.apache.tomcat.util.net.NioEndpoint;
 public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 
 	/**
-	 * 
+	 * Whether a write operation is pending
 	 */
-	private boolean writing = false;
+	private final AtomicBoolean writing = new AtomicBoolean(false);
 
 	/**
 	 * Underlying channel.
@@ -98,20 +100,28 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 				if (attachment.hasRemaining()) {
 					channel.write(attachment, writeTimeout, TimeUnit.MILLISECONDS, attachment, this);
 				} else {
-					if (!localPool.isEmpty()) {
-						ByteBuffer buffer = localPool.poll();
+					ByteBuffer buffer = localPool.poll();
+					if (buffer != null) {
 						try {
 							channel.write(buffer, writeTimeout, TimeUnit.MILLISECONDS, buffer, this);
 						} catch (Throwable t) {
 							failed(t, attachment);
 						}
 					} else {
-						writing = false;
-						if(error) {
-							close(channel);
+						writing.set(false);
+						// Data may have been queued before the flag was reset.
+						// After an error, the connection is closed once the
+						// error page is flushed (see sendError)
+						tryWrite();
+					}
+					if (attachment != bbuf) {
+						dequeue(attachment.limit());
+						if (attachment.isReadOnly()) {
+							written(attachment);
+						} else {
+							offer(attachment);
 						}
 					}
-					offer(attachment);
 				}
 			}
 
@@ -119,6 +129,7 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 			public void failed(Throwable exc, ByteBuffer attachment) {
 				log.error(exc.getMessage(), exc);
 				endpoint.close(channel);
+				drainFailed(exc);
 			}
 		};
 	}
@@ -177,7 +188,7 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 		int nw = 0;
 		try {
 			nw = this.channel.writeBytes(buffer, timeout, unit);
-			writing = false;
+			writing.set(false);
 			if (nw < 0) {
 				close(channel);
 			} else {
@@ -188,8 +199,6 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 			if (log.isDebugEnabled()) {
 				log.debug(t.getMessage(), t);
 			}
-		} finally {
-			offer(buffer);
 		}
 
 		return nw;
@@ -214,6 +223,7 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 			if (log.isDebugEnabled()) {
 				log.debug(t.getMessage(), t);
 			}
+			drainFailed(t);
 		}
 	}
 
@@ -223,9 +233,13 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 * @see org.apache.coyote.http11.AbstractInternalOutputBuffer#tryWrite()
 	 */
 	protected void tryWrite() {
-		if (!writing && !this.localPool.isEmpty()) {
-			writing = true;
-			nonBlockingWrite(this.localPool.poll(), writeTimeout, TimeUnit.MILLISECONDS);
+		while (!this.localPool.isEmpty() && this.writing.compareAndSet(false, true)) {
+			ByteBuffer buffer = this.localPool.poll();
+			if (buffer != null) {
+				nonBlockingWrite(buffer, writeTimeout, TimeUnit.MILLISECONDS);
+				return;
+			}
+			this.writing.set(false);
 		}
 	}
 
@@ -345,6 +359,25 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 				});
 	}
 
+	/**
+	 * Relay the upgraded connection between the client and the node. The
+	 * channels are then owned by the returned tunnel and the buffer can be
+	 * recycled.
+	 *
+	 * @param nodeChannel
+	 * @param scheduler
+	 *            the scheduler of the idle checks
+	 * @param timeout
+	 *            the idle timeout (in milliseconds), 0 for none
+	 * @return the started tunnel
+	 */
+	public Tunnel tunnel(NioChannel nodeChannel, ScheduledExecutorService scheduler,
+			long timeout) {
+		Tunnel tunnel = new Tunnel(this.endpoint, this.channel, nodeChannel, scheduler, timeout);
+		tunnel.start();
+		return tunnel;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
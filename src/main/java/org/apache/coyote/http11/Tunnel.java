@@ -0,0 +1,238 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code Tunnel}
+ * <p>
+ * Bidirectional relay between a client and a node once the connection was
+ * upgraded (<tt>101 Switching Protocols</tt>). Each direction reads into its
+ * own pooled buffer and writes it to the other side before reading again, so
+ * a slow peer slows down the other one instead of queueing data. The end of
+ * stream of a side is propagated by shutting down the output of the other
+ * side, the connections are closed once both directions ended, on error or
+ * when no byte was relayed during the idle timeout.
+ * </p>
+ * The idle timeout is checked by a scheduled task rather than by read
+ * timeouts, since a channel can not be read anymore after a read timeout.
+ *
+ * Created on Oct 19, 2026 at 12:42:04 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Tunnel implements Runnable {
+
+	private static final Logger log = Logger.getLogger(Tunnel.class);
+
+	private final NioEndpoint endpoint;
+	private final NioChannel client;
+	private final NioChannel node;
+	private final ScheduledExecutorService scheduler;
+	private final long timeout;
+	private final AtomicInteger open = new AtomicInteger(2);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile long lastActivity;
+	private volatile ScheduledFuture<?> idleCheck;
+
+	/**
+	 * Create a new instance of {@code Tunnel}
+	 *
+	 * @param endpoint
+	 *            the endpoint owning the client connection
+	 * @param client
+	 * @param node
+	 * @param scheduler
+	 *            the scheduler of the idle checks
+	 * @param timeout
+	 *            the idle timeout (in milliseconds), 0 for none
+	 */
+	public Tunnel(NioEndpoint endpoint, NioChannel client, NioChannel node,
+			ScheduledExecutorService scheduler, long timeout) {
+		this.endpoint = endpoint;
+		this.client = client;
+		this.node = node;
+		this.scheduler = scheduler;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Start relaying in both directions
+	 */
+	public void start() {
+		this.lastActivity = System.currentTimeMillis();
+		if (this.timeout > 0 && this.scheduler != null) {
+			this.idleCheck = this.scheduler.schedule(this, this.timeout, TimeUnit.MILLISECONDS);
+		}
+		new Pump(this.client, this.node).read();
+		new Pump(this.node, this.client).read();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		if (this.closed.get()) {
+			return;
+		}
+		long idle = System.currentTimeMillis() - this.lastActivity;
+		if (idle >= this.timeout) {
+			if (log.isDebugEnabled()) {
+				log.debug("Closing the tunnel idle for " + idle + "ms");
+			}
+			close();
+		} else {
+			this.idleCheck = this.scheduler.schedule(this, this.timeout - idle,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Close both connections
+	 */
+	public void close() {
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		ScheduledFuture<?> future = this.idleCheck;
+		if (future != null) {
+			future.cancel(false);
+		}
+		this.endpoint.close(this.client);
+		try {
+			this.node.close();
+		} catch (IOException e) {
+			// NOPE
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the tunnel is closed
+	 */
+	public boolean isClosed() {
+		return this.closed.get();
+	}
+
+	/**
+	 * {@code Pump}
+	 *
+	 * Relays one direction of the tunnel. The same handler completes the read
+	 * and the write operations, which never overlap.
+	 */
+	private class Pump implements CompletionHandler<Integer, ByteBuffer> {
+
+		private final NioChannel src;
+		private final NioChannel dst;
+		private ByteBuffer buffer = AbstractInternalOutputBuffer.poll();
+		private boolean writing = false;
+
+		Pump(NioChannel src, NioChannel dst) {
+			this.src = src;
+			this.dst = dst;
+		}
+
+		/**
+		 * Read the next bytes of the source
+		 */
+		void read() {
+			this.writing = false;
+			this.buffer.clear();
+			try {
+				this.src.read(this.buffer, this.buffer, this);
+			} catch (Throwable t) {
+				failed(t, this.buffer);
+			}
+		}
+
+		@Override
+		public void completed(Integer nBytes, ByteBuffer attachment) {
+			if (nBytes < 0) {
+				end();
+				return;
+			}
+			lastActivity = System.currentTimeMillis();
+			if (!this.writing) {
+				attachment.flip();
+				this.writing = true;
+			}
+			if (attachment.hasRemaining()) {
+				try {
+					this.dst.write(attachment, attachment, this);
+				} catch (Throwable t) {
+					failed(t, attachment);
+				}
+			} else {
+				read();
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, ByteBuffer attachment) {
+			if (!isClosed() && log.isDebugEnabled()) {
+				log.debug(exc.getMessage(), exc);
+			}
+			release();
+			close();
+		}
+
+		/**
+		 * The source reached the end of stream, half-close the destination
+		 */
+		private void end() {
+			release();
+			try {
+				this.dst.shutdownOutput();
+			} catch (Throwable t) {
+				close();
+				return;
+			}
+			if (open.decrementAndGet() == 0) {
+				close();
+			}
+		}
+
+		/**
+		 * Give the buffer back to the pool
+		 */
+		private void release() {
+			if (this.buffer != null) {
+				AbstractInternalOutputBuffer.offer(this.buffer);
+				this.buffer = null;
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.io.Serializable;
 import java.net.InetAddress;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.tomcat.util.res.StringManager;
@@ -73,9 +74,10 @@ public abstract class AbstractEndpoint<T extends Closeable> implements Endpoint<
 	protected AtomicInteger counter = new AtomicInteger();
 
 	/**
-	 * 
+	 * Allow the listener to bind while the connections closed by a previous
+	 * process are in TIME_WAIT, so that a restarted proxy binds right away
 	 */
-	protected boolean reuseAddress = false;
+	protected boolean reuseAddress = true;
 
 	/**
 	 * Current worker threads busy count.
@@ -110,7 +112,7 @@ public abstract class AbstractEndpoint<T extends Closeable> implements Endpoint<
 	/**
 	 * The maximum number of connections
 	 */
-	protected int maxConnections = 2 * maxThreads;
+	protected volatile int maxConnections = 2 * maxThreads;
 
 	/**
 	 * Priority of the acceptor and poller threads.
@@ -496,6 +498,18 @@ public abstract class AbstractEndpoint<T extends Closeable> implements Endpoint<
 	 */
 	public void setMaxThreads(int maxThreads) {
 		this.maxThreads = maxThreads;
+		// Resize the running pool in place, the core size may not exceed the
+		// maximum size
+		if (maxThreads > 0 && this.executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) this.executor;
+			if (maxThreads > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(maxThreads);
+				pool.setCorePoolSize(maxThreads);
+			} else {
+				pool.setCorePoolSize(maxThreads);
+				pool.setMaximumPoolSize(maxThreads);
+			}
+		}
 	}
 
 	/**
@@ -26,6 +26,8 @@ import java.net.BindException;
 import java.net.StandardSocketOptions;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -65,6 +67,27 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 	private ConcurrentHashMap<Long, NioChannel> connections;
 	private ConcurrentLinkedQueue<ChannelProcessor> recycledChannelProcessors;
 	private ConcurrentLinkedQueue<HandshakeHandler> recycledHandshakeProcessors;
+	private final AtomicInteger idle = new AtomicInteger();
+	private volatile boolean draining = false;
+	private final IdleHandler nextRequestHandler = new IdleHandler(
+			new CompletionHandler<Integer, NioChannel>() {
+
+				@Override
+				public void completed(Integer nBytes, NioChannel attachment) {
+					if (nBytes < 0) {
+						// Reach the end of the stream
+						failed(new ClosedChannelException(), attachment);
+					} else {
+						// Process channel
+						processChannel(attachment, null);
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, NioChannel attachment) {
+					close(attachment);
+				}
+			});
 
 	/**
 	 * Handling of accepted sockets.
@@ -274,6 +297,105 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 		}
 	}
 
+	/**
+	 * Stop accepting new connections while the current exchanges complete.
+	 * The listening socket is closed right away so that another process can
+	 * bind the address, the connections are closed once their current
+	 * response is written.
+	 */
+	public void drain() {
+		if (running && !draining) {
+			draining = true;
+			running = false;
+			try {
+				this.listener.close();
+			} catch (IOException e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the endpoint is draining its connections
+	 */
+	public boolean isDraining() {
+		return this.draining;
+	}
+
+	/**
+	 * @return the number of connections with an exchange in progress, i.e.
+	 *         the open connections which are not waiting for their next
+	 *         request
+	 */
+	public int getActiveConnections() {
+		return Math.max(0, this.counter.get() - this.idle.get());
+	}
+
+	/**
+	 * Asynchronous wait for the next request on an idle keep-alive
+	 * connection, the request is processed once it arrives
+	 * 
+	 * @param channel
+	 */
+	public void awaitNext(NioChannel channel) {
+		awaitNext(channel, this.nextRequestHandler);
+	}
+
+	/**
+	 * Asynchronous wait for the next request on an idle keep-alive connection
+	 * 
+	 * @param channel
+	 * @param handler
+	 *            the handler called once data is available, created once by
+	 *            {@link #newIdleHandler(CompletionHandler)}
+	 */
+	public void awaitNext(NioChannel channel, IdleHandler handler) {
+		this.idle.incrementAndGet();
+		channel.awaitRead(getKeepAliveTimeout(), TimeUnit.MILLISECONDS, channel, handler);
+	}
+
+	/**
+	 * @param handler
+	 * @return a handler to pass to {@link #awaitNext(NioChannel, IdleHandler)},
+	 *         which counts the idle connections then delegates to the handler.
+	 *         It is meant to be created once per connection or processor.
+	 */
+	public IdleHandler newIdleHandler(CompletionHandler<Integer, NioChannel> handler) {
+		return new IdleHandler(handler);
+	}
+
+	/**
+	 * {@code IdleHandler}
+	 * 
+	 * The handler of the end of the wait of an idle keep-alive connection
+	 * 
+	 * Created on Oct 19, 2026 at 4:58:12 PM
+	 * 
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	public class IdleHandler implements CompletionHandler<Integer, NioChannel> {
+
+		private final CompletionHandler<Integer, NioChannel> handler;
+
+		private IdleHandler(CompletionHandler<Integer, NioChannel> handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void completed(Integer nBytes, NioChannel attachment) {
+			idle.decrementAndGet();
+			this.handler.completed(nBytes, attachment);
+		}
+
+		@Override
+		public void failed(Throwable exc, NioChannel attachment) {
+			idle.decrementAndGet();
+			this.handler.failed(exc, attachment);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
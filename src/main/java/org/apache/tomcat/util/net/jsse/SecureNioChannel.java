@@ -40,6 +40,7 @@ import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 
+import org.apache.coyote.BufferPool;
 import org.apache.tomcat.util.net.NioChannel;
 
 /**
@@ -249,7 +250,7 @@ public class SecureNioChannel extends NioChannel {
 
 		final ByteBuffer netInBuffers[] = new ByteBuffer[length];
 		for (int i = 0; i < length; i++) {
-			netInBuffers[i] = ByteBuffer.allocateDirect(getSSLSession().getPacketBufferSize());
+			netInBuffers[i] = BufferPool.allocate(getSSLSession().getPacketBufferSize());
 		}
 
 		this.reset(netInBuffers[0]);
@@ -269,16 +270,19 @@ public class SecureNioChannel extends NioChannel {
 							try {
 								read += unwrap(netInBuffers[i], dsts[offset + i]);
 							} catch (Exception e) {
+								release(netInBuffers);
 								handler.failed(e, attach);
 								return;
 							}
 						}
 
+						release(netInBuffers);
 						handler.completed(read, attach);
 					}
 
 					@Override
 					public void failed(Throwable exc, A attach) {
+						release(netInBuffers);
 						handler.failed(exc, attach);
 					}
 				});
@@ -418,17 +422,18 @@ public class SecureNioChannel extends NioChannel {
 			throw new IndexOutOfBoundsException();
 		}
 
-		ByteBuffer[] netOutBuffers = new ByteBuffer[length];
+		final ByteBuffer[] netOutBuffers = new ByteBuffer[length];
 		int size = getSSLSession().getPacketBufferSize();
 		long written = 0;
 		for (int i = 0; i < length; i++) {
 			try {
 				// Prepare the output buffer
-				netOutBuffers[i] = ByteBuffer.allocateDirect(size);
+				netOutBuffers[i] = BufferPool.allocate(size);
 				// Wrap the source data into the internal buffer
 				written += wrap(srcs[offset + i], netOutBuffers[i]);
 				netOutBuffers[i].flip();
 			} catch (Throwable exp) {
+				release(netOutBuffers);
 				handler.failed(exp, attachment);
 				return;
 			}
@@ -441,6 +446,7 @@ public class SecureNioChannel extends NioChannel {
 
 					@Override
 					public void completed(Long nBytes, A attach) {
+						release(netOutBuffers);
 						if (nBytes < 0) {
 							handler.failed(new ClosedChannelException(), attach);
 						} else {
@@ -451,6 +457,7 @@ public class SecureNioChannel extends NioChannel {
 
 					@Override
 					public void failed(Throwable exc, A attach) {
+						release(netOutBuffers);
 						handler.failed(exc, attach);
 					}
 				});
@@ -472,6 +479,11 @@ public class SecureNioChannel extends NioChannel {
 			this.channel.close();
 		} catch (Exception e) {
 			throw new IOException(e);
+		} finally {
+			BufferPool.release(this.netInBuffer);
+			BufferPool.release(this.netOutBuffer);
+			this.netInBuffer = null;
+			this.netOutBuffer = null;
 		}
 	}
 
@@ -489,9 +501,9 @@ public class SecureNioChannel extends NioChannel {
 		SSLSession session = getSSLSession();
 		int packetBufferSize = Math.max(session.getPacketBufferSize(), MIN_BUFFER_SIZE);
 
-		this.netOutBuffer = (this.netOutBuffer == null) ? ByteBuffer
-				.allocateDirect(packetBufferSize) : this.netOutBuffer.compact();
-		this.netInBuffer = (this.netInBuffer == null) ? ByteBuffer.allocateDirect(packetBufferSize)
+		this.netOutBuffer = (this.netOutBuffer == null) ? BufferPool.allocate(packetBufferSize)
+				: this.netOutBuffer.compact();
+		this.netInBuffer = (this.netInBuffer == null) ? BufferPool.allocate(packetBufferSize)
 				: this.netInBuffer.compact();
 
 		while (!sslEngine.isOutboundDone()) {
@@ -510,10 +522,11 @@ public class SecureNioChannel extends NioChannel {
 					}
 					break;
 				case BUFFER_OVERFLOW:
-					ByteBuffer tmp = ByteBuffer.allocateDirect(packetBufferSize
+					ByteBuffer tmp = BufferPool.allocate(packetBufferSize
 							+ this.netOutBuffer.capacity());
 					this.netOutBuffer.flip();
 					tmp.put(this.netOutBuffer);
+					BufferPool.release(this.netOutBuffer);
 					this.netOutBuffer = tmp;
 
 					break;
@@ -713,101 +726,105 @@ public class SecureNioChannel extends NioChannel {
 		// Create byte buffers to use for holding application data
 		initBuffers(packetBufferSize);
 
-		ByteBuffer clientNetData = ByteBuffer.allocateDirect(packetBufferSize);
-		ByteBuffer clientAppData = ByteBuffer.allocateDirect(packetBufferSize);
-
-		// Begin handshake
-		sslEngine.beginHandshake();
-		handshakeStatus = sslEngine.getHandshakeStatus();
-		int i = 1;
-		boolean read = true;
-		// Process handshaking message
-		while (!handshakeComplete) {
-
-			switch (handshakeStatus) {
-				case NEED_UNWRAP:
-					int nBytes = 0;
-					if (read) {
-						clientAppData.clear();
-						nBytes = this.channel.read(this.netInBuffer).get();
-					}
-					if (nBytes < 0) {
-						throw new IOException(this + " : EOF encountered during handshake UNWRAP.");
-					} else {
-						boolean cont = false;
-						// Loop while we can perform pure SSLEngine data
-						do {
-							// Prepare the buffer with the incoming data
-							this.netInBuffer.flip();
-							// Call unwrap
-							SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
-							// Compact the buffer, this is an optional method,
-							// wonder what would happen if we didn't
-							this.netInBuffer.compact();
-							// Read in the status
-							handshakeStatus = res.getHandshakeStatus();
-							if (res.getStatus() == SSLEngineResult.Status.OK) {
-								// Execute tasks if we need to
-								tryTasks();
-								read = true;
-							} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
-								read = true;
-							} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
-								ByteBuffer tmp = ByteBuffer
-										.allocateDirect(packetBufferSize * (++i));
-
-								if (clientAppData.position() > 0) {
-									clientAppData.flip();
+		ByteBuffer clientNetData = BufferPool.allocate(packetBufferSize);
+		ByteBuffer clientAppData = BufferPool.allocate(packetBufferSize);
+		try {
+			// Begin handshake
+			sslEngine.beginHandshake();
+			handshakeStatus = sslEngine.getHandshakeStatus();
+			int i = 1;
+			boolean read = true;
+			// Process handshaking message
+			while (!handshakeComplete) {
+
+				switch (handshakeStatus) {
+					case NEED_UNWRAP:
+						int nBytes = 0;
+						if (read) {
+							clientAppData.clear();
+							nBytes = this.channel.read(this.netInBuffer).get();
+						}
+						if (nBytes < 0) {
+							throw new IOException(this + " : EOF encountered during handshake UNWRAP.");
+						} else {
+							boolean cont = false;
+							// Loop while we can perform pure SSLEngine data
+							do {
+								// Prepare the buffer with the incoming data
+								this.netInBuffer.flip();
+								// Call unwrap
+								SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
+								// Compact the buffer, this is an optional method,
+								// wonder what would happen if we didn't
+								this.netInBuffer.compact();
+								// Read in the status
+								handshakeStatus = res.getHandshakeStatus();
+								if (res.getStatus() == SSLEngineResult.Status.OK) {
+									// Execute tasks if we need to
+									tryTasks();
+									read = true;
+								} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
+									read = true;
+								} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
+									ByteBuffer tmp = BufferPool.allocate(packetBufferSize * (++i));
+
+									if (clientAppData.position() > 0) {
+										clientAppData.flip();
+									}
+									tmp.put(clientAppData);
+									BufferPool.release(clientAppData);
+									clientAppData = tmp;
+									read = false;
 								}
-								tmp.put(clientAppData);
-								clientAppData = tmp;
-								read = false;
-							}
-							// Perform another unwrap?
-							cont = res.getStatus() == SSLEngineResult.Status.OK
-									&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
-						} while (cont);
-					}
-
-					break;
-				case NEED_WRAP:
-					clientNetData.compact();
-					this.netOutBuffer.clear();
-					SSLEngineResult res = sslEngine.wrap(clientNetData, this.netOutBuffer);
-					handshakeStatus = res.getHandshakeStatus();
-					this.netOutBuffer.flip();
+								// Perform another unwrap?
+								cont = res.getStatus() == SSLEngineResult.Status.OK
+										&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
+							} while (cont);
+						}
 
-					if (res.getStatus() == Status.OK) {
-						// Execute tasks if we need to
-						tryTasks();
-						// Send the handshaking data to client
-						while (this.netOutBuffer.hasRemaining()) {
-							if (this.channel.write(this.netOutBuffer).get() < 0) {
-								// Handle closed channel
-								throw new IOException(this
-										+ " : EOF encountered during handshake WRAP.");
+						break;
+					case NEED_WRAP:
+						clientNetData.compact();
+						this.netOutBuffer.clear();
+						SSLEngineResult res = sslEngine.wrap(clientNetData, this.netOutBuffer);
+						handshakeStatus = res.getHandshakeStatus();
+						this.netOutBuffer.flip();
+
+						if (res.getStatus() == Status.OK) {
+							// Execute tasks if we need to
+							tryTasks();
+							// Send the handshaking data to client
+							while (this.netOutBuffer.hasRemaining()) {
+								if (this.channel.write(this.netOutBuffer).get() < 0) {
+									// Handle closed channel
+									throw new IOException(this
+											+ " : EOF encountered during handshake WRAP.");
+								}
 							}
+						} else {
+							// Wrap should always work with our buffers
+							throw new IOException("Unexpected status:" + res.getStatus()
+									+ " during handshake WRAP.");
 						}
-					} else {
-						// Wrap should always work with our buffers
-						throw new IOException("Unexpected status:" + res.getStatus()
-								+ " during handshake WRAP.");
-					}
 
-					break;
-				case NEED_TASK:
-					handshakeStatus = tasks();
+						break;
+					case NEED_TASK:
+						handshakeStatus = tasks();
 
-					break;
-				case NOT_HANDSHAKING:
-					throw new SSLHandshakeException("NOT_HANDSHAKING during handshake");
-				case FINISHED:
-					handshakeComplete = true;
-					break;
+						break;
+					case NOT_HANDSHAKING:
+						throw new SSLHandshakeException("NOT_HANDSHAKING during handshake");
+					case FINISHED:
+						handshakeComplete = true;
+						break;
+				}
 			}
-		}
 
-		this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+			this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+		} finally {
+			BufferPool.release(clientNetData);
+			BufferPool.release(clientAppData);
+		}
 	}
 
 	/**
@@ -841,12 +858,12 @@ public class SecureNioChannel extends NioChannel {
 	 */
 	private void initBuffers(int capacity) {
 		if (this.netInBuffer == null) {
-			this.netInBuffer = ByteBuffer.allocateDirect(capacity);
+			this.netInBuffer = BufferPool.allocate(capacity);
 		} else {
 			this.netInBuffer.clear();
 		}
 		if (this.netOutBuffer == null) {
-			this.netOutBuffer = ByteBuffer.allocateDirect(capacity);
+			this.netOutBuffer = BufferPool.allocate(capacity);
 		} else {
 			this.netOutBuffer.clear();
 		}
@@ -862,6 +879,18 @@ public class SecureNioChannel extends NioChannel {
 		return this.handshakeComplete;
 	}
 
+	/**
+	 * Return the buffers to the pool
+	 * 
+	 * @param buffers
+	 */
+	private static void release(ByteBuffer buffers[]) {
+		for (int i = 0; i < buffers.length; i++) {
+			BufferPool.release(buffers[i]);
+			buffers[i] = null;
+		}
+	}
+
 	/**
 	 * @return The SSL Session of the channel
 	 */
@@ -0,0 +1,318 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@code CircuitBreaker}
+ *
+ * Passive health detection of a node driven by the forwarding results. The
+ * breaker keeps a sliding window of success, failure and slow call counters
+ * (split into buckets) and:
+ * <ul>
+ * <li>opens when the failure or slow call ratio of the window goes above its
+ * threshold (once the window holds enough requests)</li>
+ * <li>goes half-open after the open timeout and lets a limited number of trial
+ * requests through</li>
+ * <li>closes again once the trial requests succeed, the node selection then
+ * ramps the traffic up during the slow-start window</li>
+ * </ul>
+ * The slow-start window is also started when the node is added or comes back
+ * up, its JIT and its caches being cold.
+ * All the transitions are lock-free.
+ *
+ * Created on Oct 19, 2026 at 11:38:57 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CircuitBreaker {
+
+	/**
+	 * {@code State}
+	 */
+	public enum State {
+		/**
+		 * Requests flow normally
+		 */
+		CLOSED,
+		/**
+		 * Requests are rejected
+		 */
+		OPEN,
+		/**
+		 * Trial requests are allowed
+		 */
+		HALF_OPEN;
+	}
+
+	private static final int BUCKETS = 10;
+	private static final long WINDOW = Long.getLong(Constants.CIRCUIT_WINDOW_NAME,
+			Constants.DEFAULT_CIRCUIT_WINDOW);
+	private static final long BUCKET_WIDTH = Math.max(1, WINDOW / BUCKETS);
+	private static final int MIN_REQUESTS = Integer.getInteger(
+			Constants.CIRCUIT_MIN_REQUESTS_NAME, Constants.DEFAULT_CIRCUIT_MIN_REQUESTS);
+	private static final int FAILURE_RATIO = Integer.getInteger(
+			Constants.CIRCUIT_FAILURE_RATIO_NAME, Constants.DEFAULT_CIRCUIT_FAILURE_RATIO);
+	private static final long SLOW_CALL_TIME = Long.getLong(Constants.CIRCUIT_SLOW_CALL_NAME,
+			Constants.DEFAULT_CIRCUIT_SLOW_CALL);
+	private static final int SLOW_CALL_RATIO = Integer.getInteger(
+			Constants.CIRCUIT_SLOW_CALL_RATIO_NAME, Constants.DEFAULT_CIRCUIT_SLOW_CALL_RATIO);
+	private static final long OPEN_TIMEOUT = Long.getLong(Constants.CIRCUIT_OPEN_TIMEOUT_NAME,
+			Constants.DEFAULT_CIRCUIT_OPEN_TIMEOUT);
+	private static final int HALF_OPEN_TRIALS = Integer.getInteger(
+			Constants.CIRCUIT_HALF_OPEN_TRIALS_NAME, Constants.DEFAULT_CIRCUIT_HALF_OPEN_TRIALS);
+	private static final long SLOW_START = Long.getLong(Constants.SLOW_START_NAME,
+			Constants.DEFAULT_SLOW_START);
+
+	private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+	private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKETS);
+	private final AtomicInteger trialSuccesses = new AtomicInteger(0);
+	/**
+	 * The start time of the trial request in flight, <tt>0</tt> if none
+	 */
+	private final AtomicLong trialStartedAt = new AtomicLong(0);
+	private volatile long openedAt;
+	private volatile long slowStartAt;
+
+	/**
+	 * Create a new instance of {@code CircuitBreaker}
+	 */
+	public CircuitBreaker() {
+		super();
+	}
+
+	/**
+	 * @return the current state of the breaker
+	 */
+	public State getState() {
+		return State.values()[this.state.get()];
+	}
+
+	/**
+	 * Check whether a new request may be sent to the node. This call reserves
+	 * the trial slot when the breaker is half-open, so it must be called only
+	 * when the node is actually selected.
+	 *
+	 * @return <tt>true</tt> if the request is allowed
+	 */
+	public boolean allowRequest() {
+		long now = System.currentTimeMillis();
+		switch (getState()) {
+			case OPEN:
+				if (now - this.openedAt < OPEN_TIMEOUT) {
+					return false;
+				}
+				if (transition(State.OPEN, State.HALF_OPEN)) {
+					this.trialSuccesses.set(0);
+					this.trialStartedAt.set(0);
+				}
+				return tryTrial(now);
+			case HALF_OPEN:
+				return tryTrial(now);
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Start the slow-start window, for a node which was just added or which
+	 * is up again
+	 */
+	public void warmUp() {
+		this.slowStartAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Slow-start ramp after the breaker closes or the node warms up: the share
+	 * of requests the node should receive grows linearly from 10% to 100%
+	 * over the slow-start window.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the ramp factor in <tt>[0.1, 1]</tt>
+	 */
+	public double getRampFactor(long now) {
+		long elapsed = now - this.slowStartAt;
+		if (this.slowStartAt == 0 || SLOW_START <= 0 || elapsed >= SLOW_START) {
+			return 1.0;
+		}
+		return Math.max(0.1, (double) elapsed / SLOW_START);
+	}
+
+	/**
+	 * Record a successful exchange with the node
+	 *
+	 * @param time
+	 *            the exchange duration in milliseconds
+	 */
+	public void recordSuccess(long time) {
+		Bucket bucket = currentBucket();
+		bucket.successes.incrementAndGet();
+		boolean slow = SLOW_CALL_TIME > 0 && time >= SLOW_CALL_TIME;
+		if (slow) {
+			bucket.slowCalls.incrementAndGet();
+		}
+
+		if (getState() == State.HALF_OPEN) {
+			if (slow) {
+				reopen();
+			} else if (this.trialSuccesses.incrementAndGet() >= HALF_OPEN_TRIALS) {
+				close();
+			} else {
+				this.trialStartedAt.set(0);
+			}
+		} else if (slow) {
+			checkThresholds();
+		}
+	}
+
+	/**
+	 * Record a failed exchange with the node
+	 */
+	public void recordFailure() {
+		currentBucket().failures.incrementAndGet();
+		if (getState() == State.HALF_OPEN) {
+			reopen();
+		} else {
+			checkThresholds();
+		}
+	}
+
+	/**
+	 * Open the breaker if the window thresholds are exceeded
+	 */
+	private void checkThresholds() {
+		if (getState() != State.CLOSED) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long minTick = now / BUCKET_WIDTH - BUCKETS + 1;
+		long total = 0, failures = 0, slowCalls = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			Bucket b = this.buckets.get(i);
+			if (b != null && b.tick >= minTick) {
+				int f = b.failures.get();
+				total += b.successes.get() + f;
+				failures += f;
+				slowCalls += b.slowCalls.get();
+			}
+		}
+		if (total < MIN_REQUESTS) {
+			return;
+		}
+		if (failures * 100 >= total * FAILURE_RATIO || slowCalls * 100 >= total * SLOW_CALL_RATIO) {
+			if (transition(State.CLOSED, State.OPEN)) {
+				this.openedAt = now;
+			}
+		}
+	}
+
+	/**
+	 * Half-open to open transition
+	 */
+	private void reopen() {
+		if (transition(State.HALF_OPEN, State.OPEN)) {
+			this.openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Half-open to closed transition, starting the slow-start ramp
+	 */
+	private void close() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets.set(i, null);
+		}
+		this.slowStartAt = System.currentTimeMillis();
+		transition(State.HALF_OPEN, State.CLOSED);
+	}
+
+	/**
+	 * Reserve the trial request slot. A trial which did not report back within
+	 * the open timeout (e.g. the client went away) releases its slot.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the trial is allowed
+	 */
+	private boolean tryTrial(long now) {
+		// The free slot, or a stale trial, is taken by a single thread
+		long startedAt = this.trialStartedAt.get();
+		return (startedAt == 0 || now - startedAt >= OPEN_TIMEOUT)
+				&& this.trialStartedAt.compareAndSet(startedAt, now);
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return <tt>true</tt> if the state was changed
+	 */
+	private boolean transition(State from, State to) {
+		return this.state.compareAndSet(from.ordinal(), to.ordinal());
+	}
+
+	/**
+	 * @return the bucket of the current time slot
+	 */
+	private Bucket currentBucket() {
+		long tick = System.currentTimeMillis() / BUCKET_WIDTH;
+		int index = (int) (tick % BUCKETS);
+		Bucket bucket = this.buckets.get(index);
+		while (bucket == null || bucket.tick != tick) {
+			Bucket fresh = new Bucket(tick);
+			if (this.buckets.compareAndSet(index, bucket, fresh)) {
+				return fresh;
+			}
+			bucket = this.buckets.get(index);
+		}
+		return bucket;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getState().toString();
+	}
+
+	/**
+	 * {@code Bucket}
+	 *
+	 * Counters of a time slot of the sliding window
+	 */
+	private static class Bucket {
+		final long tick;
+		final AtomicInteger successes = new AtomicInteger(0);
+		final AtomicInteger failures = new AtomicInteger(0);
+		final AtomicInteger slowCalls = new AtomicInteger(0);
+
+		Bucket(long tick) {
+			this.tick = tick;
+		}
+	}
+}
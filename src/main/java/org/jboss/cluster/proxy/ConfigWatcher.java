@@ -0,0 +1,231 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.cluster.proxy.xml.XmlConfig;
+import org.jboss.cluster.proxy.xml.XmlNodes;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code ConfigWatcher}
+ * <p>
+ * Watches the configuration directory and reloads <tt>config.properties</tt>
+ * and <tt>nodes.xml</tt> when they change. The changed properties are set in
+ * the system properties before the listeners are notified, so the listeners
+ * read the new values the same way they read them at start. The properties
+ * removed from the file keep their current value.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:23:03 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ConfigWatcher implements Runnable {
+
+	/**
+	 * {@code ConfigListener}
+	 * <p>
+	 * Listener of the configuration changes. The listeners are called from
+	 * the watcher thread and apply the values which can be changed at runtime.
+	 * </p>
+	 *
+	 * Created on Oct 19, 2026 at 12:23:03 PM
+	 *
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	public interface ConfigListener {
+
+		/**
+		 * @param changed
+		 *            the properties whose value changed
+		 */
+		public void propertiesChanged(Properties changed);
+
+		/**
+		 * @param nodes
+		 *            the new static nodes
+		 */
+		public void nodesChanged(XmlNodes nodes);
+	}
+
+	private static final Logger logger = Logger.getLogger(ConfigWatcher.class);
+	private static final String PROPERTIES_FILE = "config.properties";
+	private static final String NODES_FILE = "nodes.xml";
+
+	private final Path directory;
+	private final long delay;
+	private final List<ConfigListener> listeners = new CopyOnWriteArrayList<>();
+	private WatchService watchService;
+
+	/**
+	 * Create a new instance of {@code ConfigWatcher}
+	 *
+	 * @param directory
+	 *            the configuration directory
+	 */
+	public ConfigWatcher(String directory) {
+		this.directory = Paths.get(directory);
+		this.delay = Long.getLong(Constants.CONFIG_RELOAD_DELAY_NAME,
+				Constants.DEFAULT_CONFIG_RELOAD_DELAY);
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void addListener(ConfigListener listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Start watching the configuration directory
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		if (this.delay <= 0) {
+			logger.info("Configuration reload disabled");
+			return;
+		}
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.directory.register(this.watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		Thread t = new Thread(this, "ConfigWatcher");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+		logger.info("Watching the configuration directory " + this.directory.toAbsolutePath());
+	}
+
+	/**
+	 * Stop watching the configuration directory
+	 */
+	public void stop() {
+		if (this.watchService != null) {
+			try {
+				this.watchService.close();
+			} catch (IOException e) {
+				// NOPE
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		Set<String> changed = new HashSet<>();
+		try {
+			while (true) {
+				WatchKey key = this.watchService.take();
+				// Editors save in several steps, wait for the quiet period
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.context() instanceof Path) {
+							changed.add(((Path) event.context()).getFileName().toString());
+						}
+					}
+					key.reset();
+				} while ((key = this.watchService.poll(this.delay, TimeUnit.MILLISECONDS)) != null);
+
+				try {
+					if (changed.contains(PROPERTIES_FILE)) {
+						reloadProperties();
+					}
+					if (changed.contains(NODES_FILE)) {
+						reloadNodes();
+					}
+				} catch (Throwable t) {
+					logger.error("Unable to reload the configuration", t);
+				}
+				changed.clear();
+			}
+		} catch (ClosedWatchServiceException e) {
+			// NOPE
+		} catch (InterruptedException e) {
+			// NOPE
+		}
+	}
+
+	/**
+	 * Reload the properties file and notify the listeners of the changed
+	 * properties
+	 *
+	 * @throws IOException
+	 */
+	private void reloadProperties() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(this.directory.resolve(PROPERTIES_FILE))) {
+			properties.load(is);
+		}
+		Properties changed = new Properties();
+		for (String name : properties.stringPropertyNames()) {
+			String value = properties.getProperty(name);
+			if (!value.equals(System.getProperty(name))) {
+				changed.setProperty(name, value);
+				System.setProperty(name, value);
+			}
+		}
+		if (changed.isEmpty()) {
+			return;
+		}
+		logger.info("Configuration changed : " + changed.stringPropertyNames());
+		for (ConfigListener listener : this.listeners) {
+			listener.propertiesChanged(changed);
+		}
+	}
+
+	/**
+	 * Reload the static nodes and notify the listeners
+	 */
+	private void reloadNodes() throws Exception {
+		XmlNodes nodes = XmlConfig.loadNodes();
+		if (nodes == null) {
+			// Keep the current nodes, the error is already logged
+			return;
+		}
+		for (ConfigListener listener : this.listeners) {
+			listener.nodesChanged(nodes);
+		}
+	}
+}
@@ -23,16 +23,24 @@ package org.jboss.cluster.proxy;
 
 import java.io.IOException;
 import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.LifeCycleServiceAdapter;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioChannelFactory;
 import org.jboss.cluster.proxy.container.Node;
+import org.jboss.cluster.proxy.h2.Http2Connection;
 import org.jboss.logging.Logger;
 
 /**
@@ -46,8 +54,15 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 
 	private static final Logger logger = Logger.getLogger(ConnectionManager.class);
 	private ConcurrentHashMap<String, ConcurrentLinkedQueue<NioChannel>> connections;
+	private ConcurrentHashMap<String, List<Http2Connection>> http2Connections;
+	private int maxHttp2Connections;
+	private final Set<String> drained = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	private NioChannelFactory factory;
 	private AtomicInteger counter = new AtomicInteger(0);
+	private AsynchronousChannelGroup channelGroup;
+	private ScheduledExecutorService scheduler;
+	private NodeHealthChecker healthChecker;
 
 	/**
 	 * Create a new instance of {@code ConnectionManager}
@@ -83,11 +98,36 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 
 		logger.info("Configure max thread number for nodes : " + nThreads);
 
-		AsynchronousChannelGroup channelGroup = AsynchronousChannelGroup.withFixedThreadPool(
-				nThreads, Executors.defaultThreadFactory());
-		this.factory = NioChannelFactory.createNioChannelFactory(channelGroup, secure);
+		this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(nThreads,
+				Executors.defaultThreadFactory());
+		this.factory = NioChannelFactory.createNioChannelFactory(this.channelGroup, secure);
 		this.factory.init();
 		this.connections = new ConcurrentHashMap<>();
+		this.http2Connections = new ConcurrentHashMap<>();
+		this.maxHttp2Connections = Integer.getInteger(Constants.H2C_CONNECTIONS_NAME,
+				Constants.DEFAULT_H2C_CONNECTIONS);
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ConnectionManagerScheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long healthCheckTimeout = Constants.DEFAULT_HEALTH_CHECK_TIMEOUT;
+		str = System.getProperty(Constants.HEALTH_CHECK_TIMEOUT_NAME);
+		if (str != null) {
+			try {
+				healthCheckTimeout = Long.valueOf(str);
+			} catch (NumberFormatException e) {
+				logger.warn(e.getMessage());
+			}
+		}
+		this.healthChecker = new NodeHealthChecker(this.channelGroup, this.scheduler,
+				healthCheckTimeout);
 		setInitialized(true);
 		logger.info("Connection Manager Initialized");
 	}
@@ -99,6 +139,8 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 	 */
 	public void destroy() throws Exception {
 		logger.info("Destroying Connection Manager");
+		this.healthChecker.stop();
+		this.scheduler.shutdownNow();
 		this.factory.destroy();
 		for (Collection<NioChannel> cl : this.connections.values()) {
 			for (NioChannel nch : cl) {
@@ -110,13 +152,43 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 			}
 			cl.clear();
 		}
+		for (List<Http2Connection> list : this.http2Connections.values()) {
+			synchronized (list) {
+				for (Http2Connection connection : list) {
+					connection.close();
+				}
+				list.clear();
+			}
+		}
 
 		this.connections.clear();
 		this.connections = null;
+		this.http2Connections.clear();
 		setInitialized(false);
 		logger.info("Connection Manager Destroyed");
 	}
 
+	/**
+	 * @return the channel group used for the node connections
+	 */
+	public AsynchronousChannelGroup getChannelGroup() {
+		return this.channelGroup;
+	}
+
+	/**
+	 * @return the scheduler shared by the node related background tasks
+	 */
+	public ScheduledExecutorService getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * @return the node health checker
+	 */
+	public NodeHealthChecker getHealthChecker() {
+		return this.healthChecker;
+	}
+
 	/**
 	 * @param node
 	 * @return a channel
@@ -141,6 +213,53 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 		return channel;
 	}
 
+	/**
+	 * Get a multiplexed connection to the node: the connection having the
+	 * fewest open streams, or a new one while the node has less than the
+	 * maximum number of connections, or when none accepts new streams
+	 * 
+	 * @param node
+	 * @return an HTTP/2 connection
+	 * @throws Exception
+	 */
+	public Http2Connection getHttp2Connection(Node node) throws Exception {
+		if (node == null) {
+			return null;
+		}
+		String jvmRoute = node.getJvmRoute();
+		List<Http2Connection> list = this.http2Connections.get(jvmRoute);
+		if (list == null) {
+			list = new ArrayList<>();
+			List<Http2Connection> previous = this.http2Connections.putIfAbsent(jvmRoute, list);
+			if (previous != null) {
+				list = previous;
+			}
+		}
+
+		synchronized (list) {
+			Http2Connection best = null;
+			for (Iterator<Http2Connection> it = list.iterator(); it.hasNext();) {
+				Http2Connection connection = it.next();
+				if (connection.isClosed()) {
+					it.remove();
+				} else if (connection.isAvailable()
+						&& (best == null || connection.getActiveStreams() < best
+								.getActiveStreams())) {
+					best = connection;
+				}
+			}
+			if (best != null
+					&& (best.getActiveStreams() == 0 || list.size() >= this.maxHttp2Connections)) {
+				return best;
+			}
+			// Connecting under the lock, so that a burst opens one connection
+			Http2Connection connection = new Http2Connection(connect(node));
+			connection.start();
+			list.add(connection);
+			return connection;
+		}
+	}
+
 	/**
 	 * Try to connect to the remote host
 	 * 
@@ -212,7 +331,7 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 			return;
 		}
 
-		if (channel.isOpen()) {
+		if (channel.isOpen() && !this.drained.contains(jvmRoute)) {
 			checkJvmRoute(jvmRoute);
 			this.connections.get(jvmRoute).offer(channel);
 		} else {
@@ -249,6 +368,42 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 		return this.connections.containsKey(jvmRoute);
 	}
 
+	/**
+	 * @param jvmRoute
+	 * @return the number of idle connections to the node
+	 */
+	public int getIdleConnections(String jvmRoute) {
+		ConcurrentLinkedQueue<NioChannel> queue = (jvmRoute == null ? null : this.connections
+				.get(jvmRoute));
+		return (queue == null ? 0 : queue.size());
+	}
+
+	/**
+	 * @return the number of connections opened to the nodes since the start
+	 */
+	public int getOpenedConnections() {
+		return this.counter.get();
+	}
+
+	/**
+	 * Drain the connections of a node removed from the configuration: the idle
+	 * connections are closed and the connections still in use are closed
+	 * instead of being recycled once their request completes
+	 * 
+	 * @param jvmRoute
+	 */
+	public void drain(String jvmRoute) {
+		this.drained.add(jvmRoute);
+		ConcurrentLinkedQueue<NioChannel> queue = this.connections.remove(jvmRoute);
+		if (queue != null) {
+			NioChannel channel;
+			while ((channel = queue.poll()) != null) {
+				close(channel);
+			}
+		}
+		shutdownHttp2(jvmRoute);
+	}
+
 	/**
 	 * Remove the JVMRoute from the list of registered JVMRoutes
 	 * 
@@ -256,6 +411,25 @@ public class ConnectionManager extends LifeCycleServiceAdapter {
 	 */
 	public void removeJvmRoute(String jvmRoute) {
 		this.connections.remove(jvmRoute);
+		shutdownHttp2(jvmRoute);
+	}
+
+	/**
+	 * Stop opening streams on the multiplexed connections to the node, they
+	 * are closed once their open streams complete
+	 * 
+	 * @param jvmRoute
+	 */
+	private void shutdownHttp2(String jvmRoute) {
+		List<Http2Connection> list = this.http2Connections.remove(jvmRoute);
+		if (list != null) {
+			synchronized (list) {
+				for (Http2Connection connection : list) {
+					connection.shutdown();
+				}
+				list.clear();
+			}
+		}
 	}
 
 	/**
@@ -48,6 +48,416 @@ public interface Constants {
 	 */
 	public static final String MAX_THREAD_NAME = "org.jboss.cluster.proxy.MAX_THREADS";
 
+	/**
+	 * The maximum time (in milliseconds) to wait for a probe answer from a
+	 * node
+	 */
+	public static final String HEALTH_CHECK_TIMEOUT_NAME = "org.jboss.cluster.proxy.HEALTH_CHECK_TIMEOUT";
+
+	/**
+	 * Default health check timeout (in milliseconds)
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_TIMEOUT = 5000;
+
+	/**
+	 * The length (in milliseconds) of the node circuit breaker sliding window
+	 */
+	public static final String CIRCUIT_WINDOW_NAME = "org.jboss.cluster.proxy.CIRCUIT_WINDOW";
+
+	/**
+	 * Default circuit breaker window (in milliseconds)
+	 */
+	public static final long DEFAULT_CIRCUIT_WINDOW = 10000;
+
+	/**
+	 * The minimum number of requests in the window before the circuit breaker
+	 * may open
+	 */
+	public static final String CIRCUIT_MIN_REQUESTS_NAME = "org.jboss.cluster.proxy.CIRCUIT_MIN_REQUESTS";
+
+	/**
+	 * Default minimum number of requests
+	 */
+	public static final int DEFAULT_CIRCUIT_MIN_REQUESTS = 20;
+
+	/**
+	 * The failure ratio (in percent) above which the circuit breaker opens
+	 */
+	public static final String CIRCUIT_FAILURE_RATIO_NAME = "org.jboss.cluster.proxy.CIRCUIT_FAILURE_RATIO";
+
+	/**
+	 * Default failure ratio (in percent)
+	 */
+	public static final int DEFAULT_CIRCUIT_FAILURE_RATIO = 50;
+
+	/**
+	 * The duration (in milliseconds) above which a call is considered as slow.
+	 * A value less than or equal to 0 disables the slow call detection
+	 */
+	public static final String CIRCUIT_SLOW_CALL_NAME = "org.jboss.cluster.proxy.CIRCUIT_SLOW_CALL";
+
+	/**
+	 * Default slow call duration (in milliseconds)
+	 */
+	public static final long DEFAULT_CIRCUIT_SLOW_CALL = 30000;
+
+	/**
+	 * The slow call ratio (in percent) above which the circuit breaker opens
+	 */
+	public static final String CIRCUIT_SLOW_CALL_RATIO_NAME = "org.jboss.cluster.proxy.CIRCUIT_SLOW_CALL_RATIO";
+
+	/**
+	 * Default slow call ratio (in percent)
+	 */
+	public static final int DEFAULT_CIRCUIT_SLOW_CALL_RATIO = 80;
+
+	/**
+	 * The time (in milliseconds) an open circuit breaker waits before allowing
+	 * trial requests
+	 */
+	public static final String CIRCUIT_OPEN_TIMEOUT_NAME = "org.jboss.cluster.proxy.CIRCUIT_OPEN_TIMEOUT";
+
+	/**
+	 * Default open timeout (in milliseconds)
+	 */
+	public static final long DEFAULT_CIRCUIT_OPEN_TIMEOUT = 5000;
+
+	/**
+	 * The number of successful trial requests required to close the circuit
+	 * breaker
+	 */
+	public static final String CIRCUIT_HALF_OPEN_TRIALS_NAME = "org.jboss.cluster.proxy.CIRCUIT_HALF_OPEN_TRIALS";
+
+	/**
+	 * Default number of trial requests
+	 */
+	public static final int DEFAULT_CIRCUIT_HALF_OPEN_TRIALS = 3;
+
+	/**
+	 * The slow-start window (in milliseconds) during which the traffic sent to
+	 * a recovered node is ramped up
+	 */
+	public static final String SLOW_START_NAME = "org.jboss.cluster.proxy.SLOW_START";
+
+	/**
+	 * Default slow-start window (in milliseconds)
+	 */
+	public static final long DEFAULT_SLOW_START = 30000;
+
+	/**
+	 * Default number of attempts to forward a request when the balancer does
+	 * not specify it
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/**
+	 * The maximum size (in bytes) of a request which may be replayed on
+	 * another node
+	 */
+	public static final String REPLAY_BUFFER_SIZE_NAME = "org.jboss.cluster.proxy.REPLAY_BUFFER_SIZE";
+
+	/**
+	 * Default replay buffer size (in bytes)
+	 */
+	public static final int DEFAULT_REPLAY_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The capacity (in tokens) of the retry token bucket
+	 */
+	public static final String RETRY_BUDGET_NAME = "org.jboss.cluster.proxy.RETRY_BUDGET";
+
+	/**
+	 * Default retry token bucket capacity
+	 */
+	public static final int DEFAULT_RETRY_BUDGET = 100;
+
+	/**
+	 * The percentage of a retry token earned by each successful request
+	 */
+	public static final String RETRY_BUDGET_RATIO_NAME = "org.jboss.cluster.proxy.RETRY_BUDGET_RATIO";
+
+	/**
+	 * Default retry token ratio (in percent)
+	 */
+	public static final int DEFAULT_RETRY_BUDGET_RATIO = 10;
+
+	/**
+	 * The time (in seconds) a request waits for a node when none is available.
+	 * Used for the static nodes, the MCMP balancers carry their own value
+	 */
+	public static final String WAIT_WORKER_NAME = "org.jboss.cluster.proxy.WAIT_WORKER";
+
+	/**
+	 * Default wait time (in seconds), 0 means no wait
+	 */
+	public static final int DEFAULT_WAIT_WORKER = 0;
+
+	/**
+	 * The maximum number of requests waiting for a node, per balancer
+	 */
+	public static final String WAIT_QUEUE_SIZE_NAME = "org.jboss.cluster.proxy.WAIT_QUEUE_SIZE";
+
+	/**
+	 * Default maximum number of waiting requests
+	 */
+	public static final int DEFAULT_WAIT_QUEUE_SIZE = 1000;
+
+	/**
+	 * The domain (LBGroup) of the nodes in the zone of the proxy
+	 */
+	public static final String LOCAL_DOMAIN_NAME = "org.jboss.cluster.proxy.LOCAL_DOMAIN";
+
+	/**
+	 * Default local domain, empty means that no domain is preferred
+	 */
+	public static final String DEFAULT_LOCAL_DOMAIN = "";
+
+	/**
+	 * The share (in percent) of the new sessions sent to the nodes of the local
+	 * domain when one of them is available
+	 */
+	public static final String LOCAL_DOMAIN_WEIGHT_NAME = "org.jboss.cluster.proxy.LOCAL_DOMAIN_WEIGHT";
+
+	/**
+	 * Default local domain share, the other domains only get the new sessions
+	 * when no local node is available
+	 */
+	public static final int DEFAULT_LOCAL_DOMAIN_WEIGHT = 100;
+
+	/**
+	 * The key of the consistent hash routing of the static nodes:
+	 * <tt>uri</tt>, <tt>header:&lt;name&gt;</tt> or <tt>cookie:&lt;name&gt;</tt>.
+	 * The static nodes have no balancer, this key is global to all of them.
+	 * The key of a balancer of the MCMP nodes is the property suffixed by the
+	 * balancer name (e.g. <tt>HASH_KEY.mycluster</tt>), each balancer having
+	 * its own ring.
+	 */
+	public static final String HASH_KEY_NAME = "org.jboss.cluster.proxy.HASH_KEY";
+
+	/**
+	 * Default hash key, empty means that the nodes are selected by load
+	 */
+	public static final String DEFAULT_HASH_KEY = "";
+
+	/**
+	 * The maximum load (in percent of the average load) of a node selected by
+	 * consistent hash, the requests of its keys going to the next nodes above
+	 */
+	public static final String HASH_LOAD_FACTOR_NAME = "org.jboss.cluster.proxy.HASH_LOAD_FACTOR";
+
+	/**
+	 * Default hash load factor, 0 means that the load is not bounded
+	 */
+	public static final int DEFAULT_HASH_LOAD_FACTOR = 125;
+
+	/**
+	 * The memory budget (in bytes) of the response cache
+	 */
+	public static final String CACHE_SIZE_NAME = "org.jboss.cluster.proxy.CACHE_SIZE";
+
+	/**
+	 * Default response cache budget, 0 means that the cache is disabled
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 0;
+
+	/**
+	 * The maximum size (in bytes, headers included) of a cached response
+	 */
+	public static final String CACHE_MAX_ENTRY_SIZE_NAME = "org.jboss.cluster.proxy.CACHE_MAX_ENTRY_SIZE";
+
+	/**
+	 * Default maximum size of a cached response
+	 */
+	public static final int DEFAULT_CACHE_MAX_ENTRY_SIZE = 1024 * 1024;
+
+	/**
+	 * The maximum time (in milliseconds) a cacheable request waits for the
+	 * identical request already sent to a node
+	 */
+	public static final String COALESCE_TIMEOUT_NAME = "org.jboss.cluster.proxy.COALESCE_TIMEOUT";
+
+	/**
+	 * Default coalescing wait time, 0 means that the identical requests are not
+	 * coalesced
+	 */
+	public static final long DEFAULT_COALESCE_TIMEOUT = 10000;
+
+	/**
+	 * The time (in milliseconds) the MCMP updates are collected before being
+	 * applied and published as a single routing snapshot
+	 */
+	public static final String MCMP_UPDATE_WINDOW_NAME = "org.jboss.cluster.proxy.MCMP_UPDATE_WINDOW";
+
+	/**
+	 * Default update window (in milliseconds)
+	 */
+	public static final long DEFAULT_MCMP_UPDATE_WINDOW = 5;
+
+	/**
+	 * The interval (in milliseconds) between two advertise messages, 0 or
+	 * less disables the advertising
+	 */
+	public static final String ADVERTISE_INTERVAL_NAME = "org.jboss.cluster.proxy.ADVERTISE_INTERVAL";
+
+	/**
+	 * Default advertise interval (in milliseconds)
+	 */
+	public static final long DEFAULT_ADVERTISE_INTERVAL = 1000;
+
+	/**
+	 * The multicast group of the advertise messages
+	 */
+	public static final String ADVERTISE_GROUP_NAME = "org.jboss.cluster.proxy.ADVERTISE_GROUP";
+
+	/**
+	 * Default advertise group
+	 */
+	public static final String DEFAULT_ADVERTISE_GROUP = "224.0.1.105";
+
+	/**
+	 * The port of the advertise messages
+	 */
+	public static final String ADVERTISE_PORT_NAME = "org.jboss.cluster.proxy.ADVERTISE_PORT";
+
+	/**
+	 * Default advertise port
+	 */
+	public static final int DEFAULT_ADVERTISE_PORT = 23364;
+
+	/**
+	 * The comma separated names or addresses of the network interfaces the
+	 * advertise messages are sent on, <tt>*</tt> for all the multicast
+	 * interfaces. The system default interface is used when not set
+	 */
+	public static final String ADVERTISE_INTERFACES_NAME = "org.jboss.cluster.proxy.ADVERTISE_INTERFACES";
+
+	/**
+	 * The quiet period (in milliseconds) after a change of the configuration
+	 * files before they are reloaded, 0 or less disables the reload
+	 */
+	public static final String CONFIG_RELOAD_DELAY_NAME = "org.jboss.cluster.proxy.CONFIG_RELOAD_DELAY";
+
+	/**
+	 * Default configuration reload delay (in milliseconds)
+	 */
+	public static final long DEFAULT_CONFIG_RELOAD_DELAY = 500;
+
+	/**
+	 * The maximum time (in milliseconds) the exchanges in progress are given
+	 * to complete when the proxy is stopped, 0 stops the proxy right away
+	 */
+	public static final String DRAIN_TIMEOUT_NAME = "org.jboss.cluster.proxy.DRAIN_TIMEOUT";
+
+	/**
+	 * Default drain timeout (in milliseconds)
+	 */
+	public static final long DEFAULT_DRAIN_TIMEOUT = 30000;
+
+	/**
+	 * The maximum number of requests per second accepted from a client
+	 * address, 0 disables the limit
+	 */
+	public static final String RATE_LIMIT_CLIENT_NAME = "org.jboss.cluster.proxy.RATE_LIMIT_CLIENT";
+
+	/**
+	 * The maximum number of requests per second accepted for a context path,
+	 * 0 disables the limit
+	 */
+	public static final String RATE_LIMIT_CONTEXT_NAME = "org.jboss.cluster.proxy.RATE_LIMIT_CONTEXT";
+
+	/**
+	 * The maximum number of requests per second accepted for a balancer, 0
+	 * disables the limit
+	 */
+	public static final String RATE_LIMIT_BALANCER_NAME = "org.jboss.cluster.proxy.RATE_LIMIT_BALANCER";
+
+	/**
+	 * The number of requests accepted at once above the sustained rate
+	 */
+	public static final String RATE_LIMIT_BURST_NAME = "org.jboss.cluster.proxy.RATE_LIMIT_BURST";
+
+	/**
+	 * Default rate limit burst
+	 */
+	public static final int DEFAULT_RATE_LIMIT_BURST = 20;
+
+	/**
+	 * Whether the request URI is decoded and normalized only when it contains
+	 * escapes or dot segments, the URI is forwarded as is anyway
+	 */
+	public static final String PASS_THROUGH_NAME = "org.jboss.cluster.proxy.PASS_THROUGH";
+
+	/**
+	 * Default pass-through mode
+	 */
+	public static final String DEFAULT_PASS_THROUGH = "true";
+
+	/**
+	 * The deflate level (1 to 9) of the node responses compressed by the
+	 * proxy
+	 */
+	public static final String COMPRESSION_LEVEL_NAME = "org.jboss.cluster.proxy.COMPRESSION_LEVEL";
+
+	/**
+	 * Default compression level
+	 */
+	public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+	/**
+	 * The memory budget (in bytes) of the cache of the compressed responses
+	 */
+	public static final String COMPRESSION_CACHE_SIZE_NAME = "org.jboss.cluster.proxy.COMPRESSION_CACHE_SIZE";
+
+	/**
+	 * Default compressed response cache budget, 0 means that the cache is
+	 * disabled
+	 */
+	public static final long DEFAULT_COMPRESSION_CACHE_SIZE = 0;
+
+	/**
+	 * The maximum size (in bytes) of a cached compressed response body
+	 */
+	public static final String COMPRESSION_CACHE_MAX_ENTRY_SIZE_NAME = "org.jboss.cluster.proxy.COMPRESSION_CACHE_MAX_ENTRY_SIZE";
+
+	/**
+	 * Default maximum size of a cached compressed response body
+	 */
+	public static final int DEFAULT_COMPRESSION_CACHE_MAX_ENTRY_SIZE = 1024 * 1024;
+
+	/**
+	 * The time (in milliseconds) an upgraded connection may stay idle before
+	 * it is closed, 0 to never close it
+	 */
+	public static final String TUNNEL_TIMEOUT_NAME = "org.jboss.cluster.proxy.TUNNEL_TIMEOUT";
+
+	/**
+	 * Default idle timeout of the upgraded connections (in milliseconds)
+	 */
+	public static final long DEFAULT_TUNNEL_TIMEOUT = 300000;
+
+	/**
+	 * Whether the nodes of type <tt>http</tt> are reached over HTTP/2 (h2c with
+	 * prior knowledge) instead of HTTP/1.1. The nodes of type <tt>h2c</tt>
+	 * always are.
+	 */
+	public static final String H2C_NAME = "org.jboss.cluster.proxy.H2C";
+
+	/**
+	 * Default h2c mode
+	 */
+	public static final String DEFAULT_H2C = "false";
+
+	/**
+	 * The maximum number of HTTP/2 connections per node, the requests being
+	 * multiplexed over them
+	 */
+	public static final String H2C_CONNECTIONS_NAME = "org.jboss.cluster.proxy.H2C_CONNECTIONS";
+
+	/**
+	 * Default maximum number of HTTP/2 connections per node
+	 */
+	public static final int DEFAULT_H2C_CONNECTIONS = 2;
+
 	/**
 	 * 
 	 */
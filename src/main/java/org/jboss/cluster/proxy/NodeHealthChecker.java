@@ -0,0 +1,606 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.cluster.proxy.container.Node;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code NodeHealthChecker}
+ *
+ * Active and asynchronous health probing of the nodes. Each registered node is
+ * probed at its <tt>ping</tt> interval (with a random jitter to avoid probing
+ * all the nodes at the same time) using the node channel group, so that no
+ * thread is blocked while waiting for an answer. The probe depends on the node
+ * type:
+ * <ul>
+ * <li><tt>AJP</tt>: a CPING packet is sent and a CPONG is expected</li>
+ * <li><tt>http</tt>: an <tt>OPTIONS * HTTP/1.0</tt> request is sent and an HTTP
+ * status line is expected</li>
+ * <li><tt>h2c</tt>: the HTTP/2 connection preface is sent and a SETTINGS frame
+ * is expected</li>
+ * <li>others (<tt>https</tt>): a TCP connection is established</li>
+ * </ul>
+ * The result of each probe is fed into the node status.
+ *
+ * Created on Oct 19, 2026 at 11:36:56 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class NodeHealthChecker {
+
+	/**
+	 * {@code NodeListener}
+	 *
+	 * Notified when a node answers the health checks again
+	 */
+	public interface NodeListener {
+
+		/**
+		 * @param node
+		 *            the node which is up again
+		 */
+		public void nodeUp(Node node);
+	}
+
+	private static final Logger logger = Logger.getLogger(NodeHealthChecker.class);
+
+	/**
+	 * AJP13 CPING packet: magic (0x1234), length (1) and the CPING type (10)
+	 */
+	private static final byte[] AJP_CPING = { 0x12, 0x34, 0x00, 0x01, 0x0A };
+	/**
+	 * AJP13 CPONG reply type
+	 */
+	private static final byte AJP_CPONG = 0x09;
+	/**
+	 * Lightweight HTTP probe
+	 */
+	private static final byte[] HTTP_OPTIONS = "OPTIONS * HTTP/1.0\r\n\r\n".getBytes();
+	/**
+	 * Expected prefix of the HTTP probe answer
+	 */
+	private static final byte[] HTTP_PREFIX = "HTTP/".getBytes();
+	/**
+	 * HTTP/2 probe: the connection preface followed by an empty SETTINGS frame
+	 */
+	private static final byte[] H2C_PREFACE = Arrays.copyOf(
+			org.jboss.cluster.proxy.h2.Constants.PREFACE,
+			org.jboss.cluster.proxy.h2.Constants.PREFACE.length
+					+ org.jboss.cluster.proxy.h2.Constants.FRAME_HEADER_SIZE);
+
+	static {
+		H2C_PREFACE[H2C_PREFACE.length - 6] = org.jboss.cluster.proxy.h2.Constants.SETTINGS;
+	}
+
+	/**
+	 * Interval used when the node does not specify a ping value
+	 */
+	private static final long DEFAULT_INTERVAL = 10000;
+
+	private final AsynchronousChannelGroup channelGroup;
+	private final ScheduledExecutorService scheduler;
+	private final long timeout;
+	private final boolean h2c;
+	private final ConcurrentHashMap<String, NodeProbeTask> tasks = new ConcurrentHashMap<>();
+	private final CopyOnWriteArrayList<NodeListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Create a new instance of {@code NodeHealthChecker}
+	 *
+	 * @param channelGroup
+	 *            the channel group used to open the probe connections
+	 * @param scheduler
+	 *            the scheduler used to trigger the probes and their timeouts
+	 * @param timeout
+	 *            the probe timeout in milliseconds
+	 */
+	public NodeHealthChecker(AsynchronousChannelGroup channelGroup,
+			ScheduledExecutorService scheduler, long timeout) {
+		this.channelGroup = channelGroup;
+		this.scheduler = scheduler;
+		this.timeout = timeout;
+		this.h2c = Boolean.valueOf(System.getProperty(Constants.H2C_NAME, Constants.DEFAULT_H2C));
+	}
+
+	/**
+	 * Start the periodic probing of the specified node. If a node with the same
+	 * jvmRoute is already registered, it is replaced by the new one.
+	 *
+	 * @param node
+	 *            the node to probe
+	 */
+	public void register(Node node) {
+		if (node == null || node.getJvmRoute() == null) {
+			return;
+		}
+		NodeProbeTask task = new NodeProbeTask(node);
+		NodeProbeTask old = this.tasks.put(node.getJvmRoute(), task);
+		if (old != null) {
+			old.cancel();
+		}
+		// Spread the first probes over the whole interval
+		long interval = getInterval(node);
+		task.schedule(ThreadLocalRandom.current().nextLong(interval));
+	}
+
+	/**
+	 * Stop the periodic probing of the node identified by the specified
+	 * jvmRoute
+	 *
+	 * @param jvmRoute
+	 */
+	public void unregister(String jvmRoute) {
+		if (jvmRoute == null) {
+			return;
+		}
+		NodeProbeTask task = this.tasks.remove(jvmRoute);
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            the listener to notify when a node is up again
+	 */
+	public void addListener(NodeListener listener) {
+		this.listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * @param jvmRoute
+	 * @return the time (in milliseconds) of the last completed probe of the
+	 *         node or <tt>-1</tt> if the node was not probed yet
+	 */
+	public long getLastProbe(String jvmRoute) {
+		NodeProbeTask task = (jvmRoute == null ? null : this.tasks.get(jvmRoute));
+		return (task == null ? -1 : task.lastProbe);
+	}
+
+	/**
+	 * @param jvmRoute
+	 * @return the number of consecutive failed probes of the node
+	 */
+	public int getFailures(String jvmRoute) {
+		NodeProbeTask task = (jvmRoute == null ? null : this.tasks.get(jvmRoute));
+		return (task == null ? 0 : task.failures);
+	}
+
+	/**
+	 * Stop all the periodic probes
+	 */
+	public void stop() {
+		for (NodeProbeTask task : this.tasks.values()) {
+			task.cancel();
+		}
+		this.tasks.clear();
+	}
+
+	/**
+	 * Probe the specified node once and wait for the result.
+	 *
+	 * @param node
+	 * @return <tt>true</tt> if the node answered the probe else <tt>false</tt>
+	 */
+	public boolean isReachable(Node node) {
+		if (node == null) {
+			return false;
+		}
+		return isReachable(node.getType(), node.getHostname(), node.getPort());
+	}
+
+	/**
+	 * Probe the specified host once and wait for the result.
+	 *
+	 * @param type
+	 *            the protocol type (AJP/http/https/h2c)
+	 * @param hostname
+	 * @param port
+	 * @return <tt>true</tt> if the host answered the probe else <tt>false</tt>
+	 */
+	public boolean isReachable(String type, String hostname, int port) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicBoolean result = new AtomicBoolean(false);
+		probe(type, hostname, port, null, new CompletionHandler<Boolean, Void>() {
+
+			@Override
+			public void completed(Boolean ok, Void attachment) {
+				result.set(ok);
+				latch.countDown();
+			}
+
+			@Override
+			public void failed(Throwable exc, Void attachment) {
+				latch.countDown();
+			}
+		});
+
+		try {
+			latch.await(this.timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result.get();
+	}
+
+	/**
+	 * Probe asynchronously the specified host. The handler is always completed
+	 * with the probe result, and never more than once.
+	 *
+	 * @param type
+	 *            the protocol type (AJP/http/https/h2c)
+	 * @param hostname
+	 * @param port
+	 * @param attachment
+	 * @param handler
+	 */
+	public <A> void probe(String type, String hostname, int port, A attachment,
+			CompletionHandler<Boolean, ? super A> handler) {
+		NioChannel channel = null;
+		try {
+			channel = NioChannel.open(this.channelGroup);
+		} catch (IOException e) {
+			handler.completed(Boolean.FALSE, attachment);
+			return;
+		}
+
+		Probe<A> probe = new Probe<>(type, channel, attachment, handler);
+		try {
+			probe.start(new InetSocketAddress(hostname, port));
+		} catch (Throwable t) {
+			probe.complete(false);
+		}
+	}
+
+	/**
+	 * The node <tt>ping</tt> value is expressed in seconds when received via
+	 * MCMP and in milliseconds otherwise.
+	 *
+	 * @param node
+	 * @return the probe interval of the node in milliseconds
+	 */
+	public static long getInterval(Node node) {
+		long ping = node.getPing();
+		if (ping <= 0) {
+			return DEFAULT_INTERVAL;
+		}
+
+		return ping < 1000 ? ping * 1000 : ping;
+	}
+
+	/**
+	 * Update the node status according to the probe result
+	 *
+	 * @param node
+	 * @param ok
+	 */
+	private void update(Node node, boolean ok) {
+		if (ok) {
+			if (node.isNodeDown()) {
+				logger.info("The node [" + node.getHostname() + ":" + node.getPort()
+						+ "] is up again");
+				node.getCircuitBreaker().warmUp();
+				node.setNodeUp();
+				for (NodeListener listener : this.listeners) {
+					listener.nodeUp(node);
+				}
+			}
+		} else if (node.isNodeUp()) {
+			logger.warn("The node [" + node.getHostname() + ":" + node.getPort()
+					+ "] does not answer to health checks");
+			node.setNodeDown();
+		}
+	}
+
+	/**
+	 * {@code NodeProbeTask}
+	 *
+	 * Periodic probe of a node. The task reschedules itself once the previous
+	 * probe is completed, so there is at most one probe in flight per node.
+	 *
+	 * Created on Oct 19, 2026 at 11:36:56 AM
+	 *
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	private class NodeProbeTask implements Runnable, CompletionHandler<Boolean, Node> {
+
+		private final Node node;
+		private volatile ScheduledFuture<?> future;
+		private volatile boolean cancelled = false;
+		private volatile long lastProbe = -1;
+		private volatile int failures = 0;
+
+		/**
+		 * Create a new instance of {@code NodeProbeTask}
+		 *
+		 * @param node
+		 */
+		NodeProbeTask(Node node) {
+			this.node = node;
+		}
+
+		/**
+		 * Schedule the next probe
+		 *
+		 * @param delay
+		 *            the delay in milliseconds
+		 */
+		void schedule(long delay) {
+			if (!this.cancelled) {
+				this.future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Cancel the task
+		 */
+		void cancel() {
+			this.cancelled = true;
+			ScheduledFuture<?> f = this.future;
+			if (f != null) {
+				f.cancel(false);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			if (!this.cancelled) {
+				probe(node.getType(), node.getHostname(), node.getPort(), node, this);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.nio.channels.CompletionHandler#completed(java.lang.Object,
+		 * java.lang.Object)
+		 */
+		@Override
+		public void completed(Boolean ok, Node attachment) {
+			if (this.cancelled) {
+				return;
+			}
+			this.lastProbe = System.currentTimeMillis();
+			this.failures = (ok ? 0 : this.failures + 1);
+			update(attachment, ok);
+			// +/- 10% of jitter
+			long interval = getInterval(attachment);
+			long jitter = interval / 10;
+			schedule(interval - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.nio.channels.CompletionHandler#failed(java.lang.Throwable,
+		 * java.lang.Object)
+		 */
+		@Override
+		public void failed(Throwable exc, Node attachment) {
+			completed(Boolean.FALSE, attachment);
+		}
+	}
+
+	/**
+	 * {@code Probe}
+	 *
+	 * A single probe: connect, send the request (if any) and read the answer.
+	 * The whole exchange is bounded by the health check timeout.
+	 *
+	 * Created on Oct 19, 2026 at 11:36:56 AM
+	 *
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	private class Probe<A> implements Runnable {
+
+		private final NioChannel channel;
+		private final byte[] request;
+		private final byte[] expected;
+		private final boolean http2;
+		private final ByteBuffer buffer;
+		private final A attachment;
+		private final CompletionHandler<Boolean, ? super A> handler;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private ScheduledFuture<?> timer;
+
+		/**
+		 * Create a new instance of {@code Probe}
+		 *
+		 * @param type
+		 * @param channel
+		 * @param attachment
+		 * @param handler
+		 */
+		Probe(String type, NioChannel channel, A attachment,
+				CompletionHandler<Boolean, ? super A> handler) {
+			this.channel = channel;
+			this.attachment = attachment;
+			this.handler = handler;
+			this.http2 = "h2c".equalsIgnoreCase(type)
+					|| (h2c && "http".equalsIgnoreCase(type));
+			if (this.http2) {
+				this.request = H2C_PREFACE;
+				this.expected = null;
+			} else if ("ajp".equalsIgnoreCase(type)) {
+				this.request = AJP_CPING;
+				this.expected = null;
+			} else if ("http".equalsIgnoreCase(type)) {
+				this.request = HTTP_OPTIONS;
+				this.expected = HTTP_PREFIX;
+			} else {
+				this.request = null;
+				this.expected = null;
+			}
+			this.buffer = (this.request != null ? ByteBuffer.allocate(64) : null);
+		}
+
+		/**
+		 * Start the probe
+		 *
+		 * @param address
+		 */
+		void start(InetSocketAddress address) {
+			this.timer = scheduler.schedule(this, timeout, TimeUnit.MILLISECONDS);
+			this.channel.connect(address, this, new CompletionHandler<Void, Probe<A>>() {
+
+				@Override
+				public void completed(Void result, Probe<A> probe) {
+					if (probe.request == null) {
+						probe.complete(true);
+					} else {
+						probe.write(ByteBuffer.wrap(probe.request));
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, Probe<A> probe) {
+					probe.complete(false);
+				}
+			});
+		}
+
+		/**
+		 * Write the probe request
+		 *
+		 * @param src
+		 */
+		private void write(final ByteBuffer src) {
+			this.channel.write(src, this, new CompletionHandler<Integer, Probe<A>>() {
+
+				@Override
+				public void completed(Integer nBytes, Probe<A> probe) {
+					if (nBytes < 0) {
+						probe.complete(false);
+					} else if (src.hasRemaining()) {
+						probe.write(src);
+					} else {
+						probe.read();
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, Probe<A> probe) {
+					probe.complete(false);
+				}
+			});
+		}
+
+		/**
+		 * Read the probe answer
+		 */
+		private void read() {
+			this.channel.read(this.buffer, this, new CompletionHandler<Integer, Probe<A>>() {
+
+				@Override
+				public void completed(Integer nBytes, Probe<A> probe) {
+					if (nBytes < 0) {
+						probe.complete(false);
+					} else if (probe.buffer.position() < 5 && probe.buffer.hasRemaining()) {
+						// Not enough bytes yet
+						probe.read();
+					} else {
+						probe.complete(probe.check());
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, Probe<A> probe) {
+					probe.complete(false);
+				}
+			});
+		}
+
+		/**
+		 * @return <tt>true</tt> if the answer is the expected one
+		 */
+		private boolean check() {
+			if (this.http2) {
+				// The first frame of the node is its SETTINGS
+				return this.buffer.get(3) == org.jboss.cluster.proxy.h2.Constants.SETTINGS;
+			}
+			if (this.expected == null) {
+				// AJP CPONG: 'A' 'B' length(2) type
+				return this.buffer.get(0) == 'A' && this.buffer.get(1) == 'B'
+						&& this.buffer.get(4) == AJP_CPONG;
+			}
+			for (int i = 0; i < this.expected.length; i++) {
+				if (this.buffer.get(i) != this.expected[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			// The probe timed out
+			complete(false);
+		}
+
+		/**
+		 * Complete the probe, close the channel and notify the handler
+		 *
+		 * @param ok
+		 */
+		void complete(boolean ok) {
+			if (!this.done.compareAndSet(false, true)) {
+				return;
+			}
+			if (this.timer != null) {
+				this.timer.cancel(false);
+			}
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// NOPE
+			}
+			this.handler.completed(ok, this.attachment);
+		}
+	}
+}
@@ -22,13 +22,19 @@
 package org.jboss.cluster.proxy;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.LifeCycleServiceAdapter;
 import org.apache.coyote.Request;
 import org.jboss.cluster.proxy.container.Node;
+import org.jboss.cluster.proxy.load.ConsistentHash;
 import org.jboss.cluster.proxy.xml.XmlConfig;
 import org.jboss.cluster.proxy.xml.XmlNode;
 import org.jboss.cluster.proxy.xml.XmlNodes;
@@ -41,12 +47,18 @@ import org.jboss.logging.Logger;
  * 
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
  */
-public class NodeService extends LifeCycleServiceAdapter {
+public class NodeService extends LifeCycleServiceAdapter implements
+		NodeHealthChecker.NodeListener, ConfigWatcher.ConfigListener {
 
 	private static final Logger logger = Logger.getLogger(NodeService.class);
 	private List<Node> nodes;
 	private List<Node> failedNodes;
 	private Random random;
+	private ConnectionManager connectionManager;
+	private WaitQueue waitQueue;
+	private volatile long waitWorker;
+	private volatile String hashKey;
+	private volatile ConsistentHash ring;
 
 	/**
 	 * Create a new instance of {@code NodeService}
@@ -73,13 +85,16 @@ public class NodeService extends LifeCycleServiceAdapter {
 		XmlNodes xmlNodes = XmlConfig.loadNodes();
 		logger.info("Adding new nodes : " + xmlNodes);
 		for (XmlNode n : xmlNodes.getNodes()) {
-			Node node = new Node();
-			node.setJvmRoute(UUID.randomUUID().toString());
-			node.setHostname(n.getHostname());
-			node.setPort(n.getPort());
-			this.nodes.add(node);
+			this.nodes.add(createNode(n));
 		}
 
+		this.waitWorker = 1000L * Integer.getInteger(Constants.WAIT_WORKER_NAME,
+				Constants.DEFAULT_WAIT_WORKER);
+		if (this.connectionManager != null) {
+			this.waitQueue = createWaitQueue();
+		}
+		buildRing();
+
 		setInitialized(true);
 		logger.info("Node Service initialized");
 	}
@@ -93,8 +108,250 @@ public class NodeService extends LifeCycleServiceAdapter {
 	public void start() throws Exception {
 		// start new thread for node status checker task
 		startNewDaemonThread(new NodeStatusChecker());
-		// Start new thread for failed node health check
-		startNewDaemonThread(new HealthChecker());
+		// Start the asynchronous health check of the nodes
+		if (this.connectionManager != null) {
+			NodeHealthChecker healthChecker = this.connectionManager.getHealthChecker();
+			healthChecker.addListener(this);
+			for (Node node : this.nodes) {
+				healthChecker.register(node);
+			}
+		}
+	}
+
+	/**
+	 * @param n
+	 * @return a new node for the static node configuration
+	 */
+	private Node createNode(XmlNode n) {
+		Node node = new Node();
+		node.setJvmRoute(UUID.randomUUID().toString());
+		node.setHostname(n.getHostname());
+		node.setPort(n.getPort());
+		// The requests are forwarded as is to the static nodes
+		node.setType("http");
+		return node;
+	}
+
+	/**
+	 * Build the consistent hash ring over the static nodes if a hash key is
+	 * configured, else drop it and select the nodes randomly. The static nodes
+	 * have no balancer, the key and the ring are global to all of them.
+	 */
+	private void buildRing() {
+		String key = System.getProperty(Constants.HASH_KEY_NAME, Constants.DEFAULT_HASH_KEY)
+				.trim();
+		if (key.isEmpty() || !ConsistentHash.isValidKey(key)) {
+			if (!key.isEmpty()) {
+				logger.warn("Invalid hash key : " + key);
+			}
+			this.ring = null;
+			return;
+		}
+		// The nodes which are down keep their points, so that their keys come
+		// back to them when they recover
+		List<Node> all = new ArrayList<>();
+		synchronized (this.nodes) {
+			all.addAll(this.nodes);
+		}
+		synchronized (this.failedNodes) {
+			all.addAll(this.failedNodes);
+		}
+		this.hashKey = key;
+		this.ring = new ConsistentHash(0, all, Integer.getInteger(
+				Constants.HASH_LOAD_FACTOR_NAME, Constants.DEFAULT_HASH_LOAD_FACTOR), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.ConfigWatcher.ConfigListener#propertiesChanged
+	 * (java.util.Properties)
+	 */
+	@Override
+	public void propertiesChanged(Properties changed) {
+		if (changed.containsKey(Constants.WAIT_WORKER_NAME)) {
+			this.waitWorker = 1000L * Integer.getInteger(Constants.WAIT_WORKER_NAME,
+					Constants.DEFAULT_WAIT_WORKER);
+		}
+		if (changed.containsKey(Constants.WAIT_QUEUE_SIZE_NAME) && this.waitQueue != null) {
+			this.waitQueue.setMaxSize(Integer.getInteger(Constants.WAIT_QUEUE_SIZE_NAME,
+					Constants.DEFAULT_WAIT_QUEUE_SIZE));
+		}
+		if (changed.containsKey(Constants.HASH_KEY_NAME)
+				|| changed.containsKey(Constants.HASH_LOAD_FACTOR_NAME)) {
+			buildRing();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.ConfigWatcher.ConfigListener#nodesChanged(org
+	 * .jboss.cluster.proxy.xml.XmlNodes)
+	 */
+	@Override
+	public void nodesChanged(XmlNodes xmlNodes) {
+		// The nodes which did not change keep their JVMRoute, and so their
+		// connections
+		Map<String, Node> current = new HashMap<>();
+		synchronized (this.nodes) {
+			for (Node node : this.nodes) {
+				current.put(node.getHostname() + ":" + node.getPort(), node);
+			}
+		}
+		synchronized (this.failedNodes) {
+			for (Node node : this.failedNodes) {
+				current.put(node.getHostname() + ":" + node.getPort(), node);
+			}
+		}
+
+		Set<String> keys = new HashSet<>();
+		List<Node> added = new ArrayList<>();
+		if (xmlNodes.getNodes() != null) {
+			for (XmlNode n : xmlNodes.getNodes()) {
+				String key = n.getHostname() + ":" + n.getPort();
+				if (keys.add(key) && !current.containsKey(key)) {
+					Node node = createNode(n);
+					// The traffic of a new node is ramped up
+					node.getCircuitBreaker().warmUp();
+					added.add(node);
+				}
+			}
+		}
+		List<Node> removed = new ArrayList<>();
+		for (Map.Entry<String, Node> e : current.entrySet()) {
+			if (!keys.contains(e.getKey())) {
+				removed.add(e.getValue());
+			}
+		}
+		if (added.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		logger.info("Static nodes changed, added : " + added.size() + ", removed : "
+				+ removed.size());
+
+		synchronized (this.nodes) {
+			this.nodes.removeAll(removed);
+			this.nodes.addAll(added);
+		}
+		synchronized (this.failedNodes) {
+			this.failedNodes.removeAll(removed);
+		}
+		buildRing();
+		for (Node node : removed) {
+			// No new request is sent to the node, the requests in progress
+			// complete on their connection which is closed afterwards
+			node.setNodeDown();
+			if (this.connectionManager != null) {
+				this.connectionManager.getHealthChecker().unregister(node.getJvmRoute());
+				this.connectionManager.drain(node.getJvmRoute());
+			}
+		}
+		if (this.connectionManager != null) {
+			for (Node node : added) {
+				this.connectionManager.getHealthChecker().register(node);
+			}
+		}
+	}
+
+	/**
+	 * @return a new wait queue for the requests waiting for a node
+	 */
+	protected WaitQueue createWaitQueue() {
+		return new WaitQueue(this.connectionManager.getScheduler(), Integer.getInteger(
+				Constants.WAIT_QUEUE_SIZE_NAME, Constants.DEFAULT_WAIT_QUEUE_SIZE));
+	}
+
+	/**
+	 * @param request
+	 * @return the queue in which the request waits when no node is available,
+	 *         or <tt>null</tt> if the request can not wait
+	 */
+	public WaitQueue getWaitQueue(Request request) {
+		return this.waitQueue;
+	}
+
+	/**
+	 * @param node
+	 * @return the queue of the requests waiting for the specified node (or for
+	 *         any node of its balancer)
+	 */
+	public WaitQueue getWaitQueue(Node node) {
+		return this.waitQueue;
+	}
+
+	/**
+	 * @param request
+	 * @return the maximum time (in milliseconds) the request may wait for a
+	 *         node
+	 */
+	public long getWaitWorker(Request request) {
+		return this.waitWorker;
+	}
+
+	/**
+	 * @param request
+	 * @return the path of the context serving the request, or <tt>null</tt>
+	 *         if the contexts are not known
+	 */
+	public String getContextPath(Request request) {
+		return null;
+	}
+
+	/**
+	 * @param request
+	 * @return the name of the balancer of the request, or <tt>null</tt> if
+	 *         the balancers are not known
+	 */
+	public String getBalancerName(Request request) {
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.NodeHealthChecker.NodeListener#nodeUp(org.jboss
+	 * .cluster.proxy.container.Node)
+	 */
+	@Override
+	public void nodeUp(Node node) {
+		// The static node is back in the rotation without waiting for the
+		// status checker
+		if (this.failedNodes != null) {
+			boolean failed;
+			synchronized (this.failedNodes) {
+				failed = this.failedNodes.remove(node);
+			}
+			if (failed) {
+				synchronized (this.nodes) {
+					if (!this.nodes.contains(node)) {
+						this.nodes.add(node);
+					}
+				}
+			}
+		}
+		WaitQueue queue = getWaitQueue(node);
+		if (queue != null) {
+			queue.releaseAll();
+		}
+	}
+
+	/**
+	 * @return the connection manager
+	 */
+	public ConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+
+	/**
+	 * @param connectionManager
+	 *            the connection manager to set
+	 */
+	public void setConnectionManager(ConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
 	}
 
 	/**
@@ -124,7 +381,10 @@ public class NodeService extends LifeCycleServiceAdapter {
 	}
 
 	/**
-	 * Select a node randomly
+	 * Select a node randomly among the nodes which are up and whose circuit
+	 * breaker allows the request. A node in its slow-start window is only
+	 * selected with a probability matching its ramp factor, unless no other
+	 * node is eligible.
 	 * 
 	 * @param n
 	 *            the number of tries
@@ -132,13 +392,28 @@ public class NodeService extends LifeCycleServiceAdapter {
 	 * @see #getNode()
 	 */
 	private Node getNode(int n) {
-		if (n >= this.nodes.size()) {
-			return null;
-		} else {
-			int index = random.nextInt(this.nodes.size());
-			Node node = this.nodes.get(index);
-			return (node.isNodeUp() ? node : getNode(n + 1));
+		long now = System.currentTimeMillis();
+		Node fallback = null;
+		for (int size = this.nodes.size(); n < size; n++) {
+			Node node = this.nodes.get(random.nextInt(size));
+			if (!node.isNodeUp()) {
+				continue;
+			}
+			CircuitBreaker circuitBreaker = node.getCircuitBreaker();
+			double ramp = circuitBreaker.getRampFactor(now);
+			if (ramp < 1.0 && random.nextDouble() >= ramp) {
+				if (fallback == null) {
+					fallback = node;
+				}
+				continue;
+			}
+			if (circuitBreaker.allowRequest()) {
+				return node;
+			}
 		}
+
+		return (fallback != null && fallback.getCircuitBreaker().allowRequest() ? fallback
+				: null);
 	}
 
 	/**
@@ -148,14 +423,39 @@ public class NodeService extends LifeCycleServiceAdapter {
 	 * @return a node instance form the list of nodes
 	 */
 	public Node getNode(Request request) {
-		// URI decoding
-		// String requestURI = request.decodedURI().toString();
-
-		// TODO complete code here
+		return select(request, null);
+	}
 
+	/**
+	 * Select the node of the hash key of the request when the nodes are
+	 * selected by consistent hash, else a random node. The requests without
+	 * the key are sent to a random node.
+	 * 
+	 * @param request
+	 * @param failedNode
+	 *            the node which just failed, may be <tt>null</tt>
+	 * @return a {@link Node}
+	 */
+	private Node select(Request request, Node failedNode) {
+		ConsistentHash ring = this.ring;
+		if (ring != null) {
+			String key = ConsistentHash.getKey(request, this.hashKey);
+			if (key != null) {
+				return ring.getNode(key, failedNode);
+			}
+		}
 		return getNode();
 	}
 
+	/**
+	 * @param node
+	 * @return the maximum number of nodes to try for a request sent to the
+	 *         specified node
+	 */
+	public int getMaxAttempts(Node node) {
+		return Constants.DEFAULT_MAX_ATTEMPTS;
+	}
+
 	/**
 	 * 
 	 */
@@ -177,8 +477,8 @@ public class NodeService extends LifeCycleServiceAdapter {
 	}
 
 	/**
-	 * Select a new node for the specified request and mark the failed node as
-	 * unreachable
+	 * Select a new node for the specified request and report the failure to
+	 * the circuit breaker of the failed node
 	 * 
 	 * @param request
 	 * @param failedNode
@@ -186,103 +486,12 @@ public class NodeService extends LifeCycleServiceAdapter {
 	 */
 	public Node getNode(Request request, Node failedNode) {
 		if (failedNode != null) {
-			// Set the node status to down
-			logger.warn("The node [" + failedNode.getHostname() + ":" + failedNode.getPort()
-					+ "] is down");
-			failedNode.setNodeDown();
+			logger.warn("Forwarding to the node [" + failedNode.getHostname() + ":"
+					+ failedNode.getPort() + "] failed");
+			failedNode.getCircuitBreaker().recordFailure();
 		}
 
-		return getNode(request);
-	}
-
-	/**
-	 * {@code HealthChecker}
-	 * 
-	 * Created on Sep 18, 2012 at 3:46:36 PM
-	 * 
-	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
-	 */
-	private class HealthChecker implements Runnable {
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Runnable#run()
-		 */
-		@Override
-		public void run() {
-			List<Node> tmp = new ArrayList<>();
-			while (true) {
-				while (failedNodes.isEmpty()) {
-					synchronized (failedNodes) {
-						try {
-							// Waits at most 5 seconds
-							failedNodes.wait(5000);
-						} catch (InterruptedException e) {
-							// NOPE
-						}
-					}
-				}
-				logger.info("Starting health check for previously failed nodes");
-				for (Node node : failedNodes) {
-					if (checkHealth(node)) {
-						node.setNodeUp();
-						tmp.add(node);
-					}
-				}
-
-				if (tmp.isEmpty()) {
-					continue;
-				}
-
-				synchronized (nodes) {
-					nodes.addAll(tmp);
-				}
-
-				synchronized (failedNodes) {
-					failedNodes.removeAll(tmp);
-				}
-				tmp.clear();
-
-				try {
-					// Try after 5 seconds
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					// NOPE
-				}
-			}
-		}
-
-		/**
-		 * Check the health of the failed node
-		 * 
-		 * @param node
-		 * @return <tt>true</tt> if the node is reachable else <tt>false</tt>
-		 */
-		public boolean checkHealth(Node node) {
-			if (node == null) {
-				return false;
-			}
-			boolean ok = false;
-			java.net.Socket s = null;
-			try {
-				s = new java.net.Socket(node.getHostname(), node.getPort());
-				s.setSoLinger(true, 0);
-				ok = true;
-			} catch (Exception e) {
-				// Ignore
-			} finally {
-				if (s != null) {
-					try {
-						s.close();
-					} catch (Exception e) {
-						// Ignore
-					}
-				}
-			}
-
-			return ok;
-		}
+		return select(request, failedNode);
 	}
 
 	/**
@@ -301,44 +510,46 @@ public class NodeService extends LifeCycleServiceAdapter {
 				try {
 					Thread.sleep(5000);
 					// Retrieve nodes with status "DOWN"
-					for (Node n : nodes) {
-						if (n.isNodeDown()) {
-							tmp.add(n);
-						}
-					}
-
-					if (tmp.isEmpty()) {
-						continue;
-					}
-					// Remove failed nodes from the list of nodes
 					synchronized (nodes) {
+						for (Node n : nodes) {
+							if (n.isNodeDown()) {
+								tmp.add(n);
+							}
+						}
+						// Remove failed nodes from the list of nodes
 						nodes.removeAll(tmp);
 					}
-					// Add selected nodes to the list of failed nodes
-					synchronized (failedNodes) {
-						failedNodes.addAll(tmp);
-					}
-					tmp.clear();
-
-					// Retrieve nodes with status "UP"
-					for (Node n : failedNodes) {
-						if (n.isNodeUp()) {
-							tmp.add(n);
+					if (!tmp.isEmpty()) {
+						// Add selected nodes to the list of failed nodes
+						synchronized (failedNodes) {
+							failedNodes.addAll(tmp);
 						}
+						tmp.clear();
 					}
 
-					if (tmp.isEmpty()) {
-						continue;
-					}
-					// Remove all healthy nodes from the list of failed nodes
+					// Retrieve nodes with status "UP", even if no node failed
+					// since the last check
 					synchronized (failedNodes) {
+						for (Node n : failedNodes) {
+							if (n.isNodeUp()) {
+								tmp.add(n);
+							}
+						}
+						// Remove all healthy nodes from the list of failed
+						// nodes
 						failedNodes.removeAll(tmp);
 					}
-					// Add selected nodes to the list of healthy nodes
-					synchronized (nodes) {
-						nodes.addAll(tmp);
+					if (!tmp.isEmpty()) {
+						// Add selected nodes to the list of healthy nodes
+						synchronized (nodes) {
+							for (Node n : tmp) {
+								if (!nodes.contains(n)) {
+									nodes.add(n);
+								}
+							}
+						}
+						tmp.clear();
 					}
-					tmp.clear();
 
 					// printNodes();
 				} catch (Throwable e) {
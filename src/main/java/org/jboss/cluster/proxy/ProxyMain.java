@@ -47,6 +47,7 @@ public class ProxyMain {
 	private static final String DEFAULT_SCHEME = "http";
 	private static final List<Thread> threads = new ArrayList<>();
 	private static final List<WebConnectorService> services = new ArrayList<>();
+	private static final ConfigWatcher CONFIG_WATCHER = new ConfigWatcher("conf");
 	protected static final NodeService NODE_SERVICE = new NodeService();
 	protected static final ConnectionManager CONNECTION_MANAGER = new ConnectionManager();
 	public static final int DEFAULT_MCM_PORT = 6666;
@@ -84,7 +85,9 @@ public class ProxyMain {
 			String scheme = System.getProperty("org.apache.coyote.http11.SCHEME", DEFAULT_SCHEME);
 			// Creating the web connector service
 			// use the static NodeService if configured.
-			WebConnectorService service = new WebConnectorService(protocol, scheme, new NodeService());
+			NodeService staticNodeService = new NodeService();
+			WebConnectorService service = new WebConnectorService(protocol, scheme,
+					staticNodeService);
 			// configure the web connector service
 
 			// Setting the address (host:port)
@@ -154,6 +157,12 @@ public class ProxyMain {
 			nodeService.start();
 			services.add(nodeService);
 
+			// Apply the configuration changes without restarting
+			CONFIG_WATCHER.addListener(staticNodeService);
+			CONFIG_WATCHER.addListener(service);
+			CONFIG_WATCHER.addListener(nodeService);
+			CONFIG_WATCHER.start();
+
 		} catch (Throwable e) {
 			logger.error("creating protocol handler error", e);
 			e.printStackTrace();
@@ -204,6 +213,8 @@ public class ProxyMain {
 				try {
 					long time = System.currentTimeMillis();
 					logger.info("Stopping JBoss Mod Cluster Proxy....");
+					CONFIG_WATCHER.stop();
+					drain();
 					for (WebConnectorService service : services) {
 						service.stop();
 					}
@@ -218,6 +229,32 @@ public class ProxyMain {
 		});
 	}
 
+	/**
+	 * Stop accepting new connections and wait for the exchanges in progress
+	 * to complete, up to the drain timeout
+	 * 
+	 * @throws InterruptedException
+	 */
+	private static void drain() throws InterruptedException {
+		long deadline = System.currentTimeMillis()
+				+ Long.getLong(Constants.DRAIN_TIMEOUT_NAME, Constants.DEFAULT_DRAIN_TIMEOUT);
+		for (WebConnectorService service : services) {
+			service.drain();
+		}
+		int active;
+		do {
+			active = 0;
+			for (WebConnectorService service : services) {
+				active += service.getActiveConnections();
+			}
+			if (active == 0) {
+				return;
+			}
+			Thread.sleep(100);
+		} while (System.currentTimeMillis() < deadline);
+		logger.warn("Drain timeout reached, closing " + active + " active connections");
+	}
+
 	/**
 	 * @throws Exception
 	 */
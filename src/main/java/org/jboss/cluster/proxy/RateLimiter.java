@@ -0,0 +1,152 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code RateLimiter}
+ *
+ * A token bucket per key (client address, context path, balancer name). Each
+ * bucket holds the time at which it will be full again, a request takes a
+ * token by pushing this time one emission interval further, which is a single
+ * compare-and-set. A request is rejected when the bucket would be full only
+ * after more than the burst. A full bucket holds no information, so the
+ * buckets which are full are removed periodically.
+ *
+ * Created on Oct 19, 2026 at 12:30:49 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RateLimiter {
+
+	/**
+	 * The interval (in milliseconds) between two removals of the full buckets
+	 */
+	private static final long EXPIRY_INTERVAL = 10000;
+
+	private final long interval;
+	private final long tolerance;
+	private final ConcurrentHashMap<Object, AtomicLong> buckets;
+
+	/**
+	 * Create a new instance of {@code RateLimiter}
+	 *
+	 * @param rate
+	 *            the sustained number of requests per second and per key
+	 * @param burst
+	 *            the number of requests which may be sent at once above the
+	 *            sustained rate
+	 */
+	public RateLimiter(int rate, int burst) {
+		this.interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+		this.tolerance = this.interval * Math.max(1, burst);
+		this.buckets = new ConcurrentHashMap<>(256, 0.75f, Runtime.getRuntime()
+				.availableProcessors() * 4);
+	}
+
+	/**
+	 * Create the limiter configured by the specified property, if any
+	 *
+	 * @param name
+	 *            the name of the rate property
+	 * @param scheduler
+	 *            the scheduler removing the full buckets
+	 * @return a new limiter or <tt>null</tt> if no rate is configured
+	 */
+	public static RateLimiter create(String name, ScheduledExecutorService scheduler) {
+		int rate = Integer.getInteger(name, 0);
+		if (rate <= 0) {
+			return null;
+		}
+		final RateLimiter limiter = new RateLimiter(rate, Integer.getInteger(
+				Constants.RATE_LIMIT_BURST_NAME, Constants.DEFAULT_RATE_LIMIT_BURST));
+		if (scheduler != null) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					limiter.expire();
+				}
+			}, EXPIRY_INTERVAL, EXPIRY_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Take a token from the bucket of the specified key
+	 *
+	 * @param key
+	 * @return <tt>true</tt> if the request is allowed
+	 */
+	public boolean tryAcquire(Object key) {
+		if (key == null) {
+			return true;
+		}
+		AtomicLong bucket = this.buckets.get(key);
+		if (bucket == null) {
+			AtomicLong old = this.buckets.putIfAbsent(key, bucket = new AtomicLong(
+					Long.MIN_VALUE));
+			if (old != null) {
+				bucket = old;
+			}
+		}
+
+		long now = System.nanoTime();
+		for (;;) {
+			long full = bucket.get();
+			long next = (full == Long.MIN_VALUE || full - now < 0 ? now : full) + this.interval;
+			if (next - now > this.tolerance) {
+				return false;
+			}
+			if (bucket.compareAndSet(full, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove the buckets which are full
+	 */
+	public void expire() {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Object, AtomicLong>> it = this.buckets.entrySet().iterator();
+		while (it.hasNext()) {
+			long full = it.next().getValue().get();
+			if (full == Long.MIN_VALUE || full - now < 0) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of buckets
+	 */
+	public int size() {
+		return this.buckets.size();
+	}
+}
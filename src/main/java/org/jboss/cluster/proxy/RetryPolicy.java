@@ -0,0 +1,159 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * {@code RetryPolicy}
+ *
+ * Decides whether a forwarded request which failed may be replayed on another
+ * node. A request is replayed only if:
+ * <ul>
+ * <li>no byte of the node response was sent back to the client</li>
+ * <li>its method is idempotent (a <tt>POST</tt> is never replayed)</li>
+ * <li>the whole request (headers and body) is held in the replay buffer</li>
+ * <li>the attempts budget of the balancer is not exhausted</li>
+ * <li>the retry token bucket is not empty</li>
+ * </ul>
+ * The token bucket is refilled by the successful requests (a fraction of a
+ * token per request), which bounds the retries to a ratio of the traffic and
+ * prevents retry storms when a large part of the cluster is failing.
+ *
+ * Created on Oct 19, 2026 at 11:40:50 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RetryPolicy {
+
+	/**
+	 * A token is split in thousandths to avoid floating point arithmetic
+	 */
+	private static final long TOKEN = 1000;
+
+	private final int maxReplaySize;
+	private final long capacity;
+	private final long deposit;
+	private final AtomicLong tokens;
+
+	/**
+	 * Create a new instance of {@code RetryPolicy}
+	 */
+	public RetryPolicy() {
+		this(Integer.getInteger(Constants.REPLAY_BUFFER_SIZE_NAME,
+				Constants.DEFAULT_REPLAY_BUFFER_SIZE), Integer.getInteger(
+				Constants.RETRY_BUDGET_NAME, Constants.DEFAULT_RETRY_BUDGET), Integer.getInteger(
+				Constants.RETRY_BUDGET_RATIO_NAME, Constants.DEFAULT_RETRY_BUDGET_RATIO));
+	}
+
+	/**
+	 * Create a new instance of {@code RetryPolicy}
+	 *
+	 * @param maxReplaySize
+	 *            the maximum size in bytes of a replayable request
+	 * @param budget
+	 *            the capacity (in tokens) of the retry token bucket
+	 * @param ratio
+	 *            the percentage of a token earned by each successful request
+	 */
+	public RetryPolicy(int maxReplaySize, int budget, int ratio) {
+		this.maxReplaySize = maxReplaySize;
+		this.capacity = budget * TOKEN;
+		this.deposit = ratio * TOKEN / 100;
+		this.tokens = new AtomicLong(this.capacity);
+	}
+
+	/**
+	 * @param request
+	 * @return <tt>true</tt> if the request method is idempotent
+	 */
+	public boolean isIdempotent(Request request) {
+		MessageBytes method = request.method();
+		return method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS")
+				|| method.equals("TRACE") || method.equals("PUT") || method.equals("DELETE");
+	}
+
+	/**
+	 * Check whether the request can be held by the replay buffer
+	 *
+	 * @param request
+	 * @param bufferedBytes
+	 *            the number of request bytes (headers and body) read from the
+	 *            client so far
+	 * @param headerLength
+	 *            the length of the request line and headers
+	 * @return <tt>true</tt> if the whole request is buffered and not too large
+	 */
+	public boolean isReplayable(Request request, int bufferedBytes, int headerLength) {
+		if (bufferedBytes > this.maxReplaySize || request.getHeader("Transfer-Encoding") != null) {
+			return false;
+		}
+		long contentLength = request.getContentLengthLong();
+		return contentLength <= 0 || bufferedBytes >= headerLength + contentLength;
+	}
+
+	/**
+	 * Check whether the failed request can be sent to another node. If so, a
+	 * retry token is consumed.
+	 *
+	 * @param request
+	 * @param replayable
+	 *            whether the whole request is held in the replay buffer
+	 * @param attempts
+	 *            the number of attempts already done
+	 * @param maxAttempts
+	 *            the attempts budget of the balancer
+	 * @return <tt>true</tt> if the request may be replayed
+	 */
+	public boolean canRetry(Request request, boolean replayable, int attempts, int maxAttempts) {
+		if (!replayable || attempts >= maxAttempts || !isIdempotent(request)) {
+			return false;
+		}
+
+		long current;
+		do {
+			current = this.tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!this.tokens.compareAndSet(current, current - TOKEN));
+
+		return true;
+	}
+
+	/**
+	 * Refill the token bucket after a successful request
+	 */
+	public void onSuccess() {
+		long current;
+		do {
+			current = this.tokens.get();
+			if (current >= this.capacity) {
+				return;
+			}
+		} while (!this.tokens.compareAndSet(current,
+				Math.min(this.capacity, current + this.deposit)));
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code WaitQueue}
+ *
+ * Bounded queue of requests waiting for a node (the balancer
+ * <tt>WaitWorker</tt>). A parked request does not hold any thread: its
+ * handler is completed when a node or a node connection becomes available,
+ * or failed with a {@link TimeoutException} when the wait time elapses. Each
+ * handler is completed or failed exactly once.
+ *
+ * Created on Oct 19, 2026 at 11:43:12 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class WaitQueue {
+
+	private final ConcurrentLinkedQueue<Waiter<?>> waiters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger(0);
+	private final ScheduledExecutorService scheduler;
+	private volatile int maxSize;
+
+	/**
+	 * Create a new instance of {@code WaitQueue}
+	 *
+	 * @param scheduler
+	 *            the scheduler used for the wait timeouts
+	 * @param maxSize
+	 *            the maximum number of parked requests
+	 */
+	public WaitQueue(ScheduledExecutorService scheduler, int maxSize) {
+		this.scheduler = scheduler;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Park a request until a node is available
+	 *
+	 * @param timeout
+	 *            the maximum wait time in milliseconds
+	 * @param attachment
+	 * @param handler
+	 * @return <tt>false</tt> if the queue is full, in which case the handler
+	 *         is not called
+	 */
+	public <A> boolean park(long timeout, A attachment, CompletionHandler<Void, ? super A> handler) {
+		if (timeout <= 0) {
+			return false;
+		}
+		int n;
+		do {
+			n = this.size.get();
+			if (n >= this.maxSize) {
+				return false;
+			}
+		} while (!this.size.compareAndSet(n, n + 1));
+
+		Waiter<A> waiter = new Waiter<>(attachment, handler);
+		this.waiters.offer(waiter);
+		waiter.timer = this.scheduler.schedule(waiter, timeout, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Release the oldest parked request, if any
+	 */
+	public void release() {
+		if (this.size.get() == 0) {
+			return;
+		}
+		Waiter<?> waiter;
+		while ((waiter = this.waiters.poll()) != null) {
+			if (waiter.release()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Release all the parked requests
+	 */
+	public void releaseAll() {
+		Waiter<?> waiter;
+		while (this.size.get() > 0 && (waiter = this.waiters.poll()) != null) {
+			waiter.release();
+		}
+	}
+
+	/**
+	 * Change the maximum number of parked requests, the requests already
+	 * parked are kept
+	 *
+	 * @param maxSize
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the number of parked requests
+	 */
+	public int size() {
+		return this.size.get();
+	}
+
+	/**
+	 * {@code Waiter}
+	 *
+	 * Created on Oct 19, 2026 at 11:43:12 AM
+	 *
+	 * @author <a href="mailto:agent@local">agent</a>
+	 */
+	private class Waiter<A> implements Runnable {
+
+		private final A attachment;
+		private final CompletionHandler<Void, ? super A> handler;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private volatile ScheduledFuture<?> timer;
+
+		/**
+		 * Create a new instance of {@code Waiter}
+		 *
+		 * @param attachment
+		 * @param handler
+		 */
+		Waiter(A attachment, CompletionHandler<Void, ? super A> handler) {
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		/**
+		 * @return <tt>true</tt> if the waiter was released by this call
+		 */
+		boolean release() {
+			if (!this.done.compareAndSet(false, true)) {
+				return false;
+			}
+			size.decrementAndGet();
+			ScheduledFuture<?> t = this.timer;
+			if (t != null) {
+				t.cancel(false);
+			}
+			this.handler.completed(null, this.attachment);
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			// The wait time elapsed
+			if (this.done.compareAndSet(false, true)) {
+				size.decrementAndGet();
+				waiters.remove(this);
+				this.handler.failed(new TimeoutException("No node available"), this.attachment);
+			}
+		}
+	}
+}
@@ -24,9 +24,11 @@ package org.jboss.cluster.proxy;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.Properties;
 import java.util.concurrent.Executor;
 
 import org.apache.catalina.connector.Connector;
+import org.jboss.cluster.proxy.xml.XmlNodes;
 import org.jboss.logging.Logger;
 
 /**
@@ -36,7 +38,7 @@ import org.jboss.logging.Logger;
  * 
  * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
  */
-public class WebConnectorService {
+public class WebConnectorService implements ConfigWatcher.ConfigListener {
 
 	private static final Logger logger = Logger.getLogger(WebConnectorService.class);
 	private volatile String protocol = "HTTP/1.1";
@@ -143,6 +145,25 @@ public class WebConnectorService {
 		}
 	}
 
+	/**
+	 * Stop accepting new connections, the connections are closed once their
+	 * current exchange completes
+	 */
+	public synchronized void drain() {
+		if (this.connector != null) {
+			logger.info("Draining Web Connector Service");
+			this.connector.getProtocolHandler().drain();
+		}
+	}
+
+	/**
+	 * @return the number of connections with an exchange in progress
+	 */
+	public synchronized int getActiveConnections() {
+		return (this.connector == null ? 0 : this.connector.getProtocolHandler()
+				.getActiveConnections());
+	}
+
 	/**
 	 * Stop the web connector service
 	 */
@@ -163,6 +184,32 @@ public class WebConnectorService {
 		logger.info("Web Connector Service stopped successfully");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.ConfigWatcher.ConfigListener#propertiesChanged
+	 * (java.util.Properties)
+	 */
+	@Override
+	public synchronized void propertiesChanged(Properties changed) {
+		if (this.connector != null) {
+			this.connector.getProtocolHandler().reload();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.jboss.cluster.proxy.ConfigWatcher.ConfigListener#nodesChanged(org
+	 * .jboss.cluster.proxy.xml.XmlNodes)
+	 */
+	@Override
+	public void nodesChanged(XmlNodes nodes) {
+		// NOPE
+	}
+
 	/**
 	 * Getter for protocol
 	 * 
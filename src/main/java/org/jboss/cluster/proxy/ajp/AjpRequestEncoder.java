@@ -0,0 +1,266 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.ajp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.apache.coyote.BufferPool;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.NioChannel;
+
+/**
+ * {@code AjpRequestEncoder}
+ *
+ * Encodes a client request into the AJP packets sent to a node: the forward
+ * request packet and the body packets. The packets are built in a pooled
+ * buffer, which must be released once the exchange is over.
+ * <p>
+ * The request body is taken from the bytes already read with the header
+ * when the request is replayable, so that it can be sent again to another
+ * node, else it is read from the client as the node asks for it.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:53:28 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AjpRequestEncoder {
+
+	private final Request request;
+	private final ByteChunk body = new ByteChunk();
+	private ByteBuffer buffer;
+	private boolean buffered = false;
+	private boolean eof = false;
+
+	/**
+	 * Create a new instance of {@code AjpRequestEncoder}
+	 *
+	 * @param request
+	 */
+	public AjpRequestEncoder(Request request) {
+		this.request = request;
+		this.buffer = BufferPool.allocate(Constants.MAX_PACKET_SIZE);
+	}
+
+	/**
+	 * Take the body from the specified bytes instead of the client
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	public void setBuffered(byte b[], int off, int len) {
+		this.body.setBytes(b, off, len);
+		this.buffered = true;
+	}
+
+	/**
+	 * Encode the forward request packet
+	 *
+	 * @param client
+	 *            the client connection
+	 * @param route
+	 *            the route of the node
+	 * @return the packet, ready to be written
+	 * @throws IOException
+	 */
+	public ByteBuffer forwardRequest(NioChannel client, String route) throws IOException {
+		start();
+		this.buffer.put(Constants.JK_AJP13_FORWARD_REQUEST);
+		int method = methodCode(this.request.method());
+		this.buffer.put((byte) method);
+		appendBytes(this.request.protocol());
+		appendBytes(this.request.requestURI());
+
+		String remoteAddr = null;
+		int remotePort = -1;
+		SocketAddress address = client.getRemoteAddress();
+		if (address instanceof InetSocketAddress) {
+			remoteAddr = ((InetSocketAddress) address).getAddress().getHostAddress();
+			remotePort = ((InetSocketAddress) address).getPort();
+		}
+		appendString(remoteAddr);
+		appendString(remoteAddr);
+		appendBytes(this.request.serverName());
+		appendInt(this.request.getServerPort());
+		this.buffer.put((byte) (client.isSecure() ? 1 : 0));
+
+		MimeHeaders headers = this.request.getMimeHeaders();
+		int size = headers.size();
+		appendInt(size);
+		for (int i = 0; i < size; i++) {
+			int code = headerCode(headers.getName(i));
+			if (code > 0) {
+				appendInt(0xA000 + code);
+			} else {
+				appendBytes(headers.getName(i));
+			}
+			appendBytes(headers.getValue(i));
+		}
+
+		// Attributes
+		if (route != null) {
+			this.buffer.put(Constants.SC_A_ROUTE);
+			appendString(route);
+		}
+		if (!this.request.queryString().isNull()) {
+			this.buffer.put(Constants.SC_A_QUERY_STRING);
+			appendBytes(this.request.queryString());
+		}
+		if (remotePort >= 0) {
+			this.buffer.put(Constants.SC_A_REQ_ATTRIBUTE);
+			appendString(Constants.REMOTE_PORT_ATTRIBUTE);
+			appendString(Integer.toString(remotePort));
+		}
+		if (method == (Constants.SC_M_JK_STORED & 0xFF)) {
+			this.buffer.put(Constants.SC_A_STORED_METHOD);
+			appendBytes(this.request.method());
+		}
+		this.buffer.put(Constants.SC_A_ARE_DONE);
+		return end();
+	}
+
+	/**
+	 * Encode a body packet. An empty packet tells the node that the body is
+	 * complete.
+	 *
+	 * @param max
+	 *            the maximum number of bytes asked by the node
+	 * @return the packet, ready to be written
+	 * @throws IOException
+	 *             if the body can not be read from the client
+	 */
+	public ByteBuffer body(int max) throws IOException {
+		if (this.body.getLength() == 0 && !this.buffered && !this.eof
+				&& this.request.doRead(this.body) < 0) {
+			this.eof = true;
+			this.body.recycle();
+		}
+		int n = Math.min(Math.min(max, Constants.MAX_SEND_SIZE), this.body.getLength());
+		start();
+		if (n > 0) {
+			appendInt(n);
+			this.buffer.put(this.body.getBuffer(), this.body.getStart(), n);
+			this.body.setOffset(this.body.getStart() + n);
+		}
+		return end();
+	}
+
+	/**
+	 * Give the buffer back to the pool, the encoder can not be used afterwards
+	 */
+	public void release() {
+		if (this.buffer != null) {
+			BufferPool.release(this.buffer);
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * Start a new packet, after the room of the header
+	 */
+	private void start() {
+		this.buffer.clear();
+		this.buffer.limit(Math.min(this.buffer.capacity(), Constants.MAX_PACKET_SIZE));
+		this.buffer.position(Constants.H_SIZE);
+	}
+
+	/**
+	 * Write the header of the packet
+	 *
+	 * @return the packet
+	 */
+	private ByteBuffer end() {
+		int length = this.buffer.position() - Constants.H_SIZE;
+		this.buffer.put(0, Constants.REQUEST_MAGIC_1).put(1, Constants.REQUEST_MAGIC_2)
+				.putShort(2, (short) length).flip();
+		return this.buffer;
+	}
+
+	private void appendInt(int value) {
+		this.buffer.putShort((short) value);
+	}
+
+	/**
+	 * Append a string: its length, its bytes and a null byte
+	 *
+	 * @param value
+	 */
+	private void appendString(String value) {
+		if (value == null) {
+			appendInt(0xFFFF);
+			return;
+		}
+		byte bytes[] = ByteChunk.convertToBytes(value);
+		appendInt(bytes.length);
+		this.buffer.put(bytes).put((byte) 0);
+	}
+
+	/**
+	 * Append a string, without conversion if the value holds bytes
+	 *
+	 * @param mb
+	 */
+	private void appendBytes(MessageBytes mb) {
+		if (mb == null || mb.isNull()) {
+			appendInt(0xFFFF);
+		} else if (mb.getType() == MessageBytes.T_BYTES) {
+			ByteChunk bc = mb.getByteChunk();
+			appendInt(bc.getLength());
+			this.buffer.put(bc.getBuffer(), bc.getStart(), bc.getLength()).put((byte) 0);
+		} else {
+			appendString(mb.toString());
+		}
+	}
+
+	/**
+	 * @param method
+	 * @return the code of the method, or {@link Constants#SC_M_JK_STORED}
+	 */
+	private static int methodCode(MessageBytes method) {
+		for (int i = 0; i < Constants.METHODS.length; i++) {
+			if (method.equals(Constants.METHODS[i])) {
+				return i + 1;
+			}
+		}
+		return Constants.SC_M_JK_STORED & 0xFF;
+	}
+
+	/**
+	 * @param name
+	 * @return the code of the header, or 0 if the header has no code
+	 */
+	private static int headerCode(MessageBytes name) {
+		for (int i = 0; i < Constants.REQUEST_HEADERS.length; i++) {
+			if (name.equalsIgnoreCase(Constants.REQUEST_HEADERS[i])) {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+}
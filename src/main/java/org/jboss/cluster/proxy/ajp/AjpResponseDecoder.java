@@ -0,0 +1,325 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.ajp;
+
+import java.io.IOException;
+
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.AbstractInternalOutputBuffer;
+import org.apache.tomcat.util.buf.Ascii;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@code AjpResponseDecoder}
+ *
+ * Decodes the AJP packets sent by a node and relays the response to the
+ * client as an HTTP/1.1 response. A response without
+ * <tt>Content-Length</tt> is sent chunked to an HTTP/1.1 client, else the
+ * client connection is closed once the response is complete.
+ *
+ * Created on Oct 19, 2026 at 12:53:28 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AjpResponseDecoder {
+
+	private static final byte[] HTTP_11 = ByteChunk.convertToBytes("HTTP/1.1 ");
+	private static final byte[] CRLF = ByteChunk.convertToBytes("\r\n");
+	private static final byte[] SEPARATOR = ByteChunk.convertToBytes(": ");
+	private static final byte[] CHUNKED = ByteChunk
+			.convertToBytes("Transfer-Encoding: chunked\r\n");
+	private static final byte[] CLOSE = ByteChunk.convertToBytes("Connection: close\r\n");
+	private static final byte[] LAST_CHUNK = ByteChunk.convertToBytes("0\r\n\r\n");
+	private static final byte[] HEX = ByteChunk.convertToBytes("0123456789abcdef");
+	private static final byte[][] RESPONSE_HEADERS = new byte[Constants.RESPONSE_HEADERS.length][];
+
+	static {
+		for (int i = 0; i < RESPONSE_HEADERS.length; i++) {
+			RESPONSE_HEADERS[i] = ByteChunk.convertToBytes(Constants.RESPONSE_HEADERS[i]);
+		}
+	}
+
+	private final Request request;
+	private final Response response;
+	private final AbstractInternalOutputBuffer out;
+	private final byte chunkHeader[] = new byte[10];
+	private boolean keepAlive;
+	private boolean started = false;
+	private boolean chunked = false;
+	private boolean noBody = false;
+	private boolean complete = false;
+	private boolean reuse = false;
+	private int bodyRequested = -1;
+
+	/**
+	 * Create a new instance of {@code AjpResponseDecoder}
+	 *
+	 * @param request
+	 * @param response
+	 * @param out
+	 *            the client output buffer
+	 * @param keepAlive
+	 *            whether the client connection may be kept alive
+	 */
+	public AjpResponseDecoder(Request request, Response response,
+			AbstractInternalOutputBuffer out, boolean keepAlive) {
+		this.request = request;
+		this.response = response;
+		this.out = out;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Decode the complete packets of the specified bytes
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @return the number of bytes decoded, the bytes of an incomplete packet
+	 *         are left
+	 * @throws IOException
+	 *             if the bytes are not a valid AJP response
+	 */
+	public int decode(byte data[], int off, int len) throws IOException {
+		int pos = off;
+		int end = off + len;
+		while (!this.complete && end - pos >= Constants.H_SIZE) {
+			if (data[pos] != Constants.RESPONSE_MAGIC_1
+					|| data[pos + 1] != Constants.RESPONSE_MAGIC_2) {
+				throw new IOException("Invalid AJP packet");
+			}
+			int length = getInt(data, pos + 2);
+			if (length + Constants.H_SIZE > Constants.MAX_PACKET_SIZE) {
+				throw new IOException("AJP packet too large: " + length);
+			}
+			if (end - pos < Constants.H_SIZE + length) {
+				break;
+			}
+			int p = pos + Constants.H_SIZE;
+			switch (data[p]) {
+			case Constants.JK_AJP13_SEND_HEADERS:
+				sendHeaders(data, p + 1);
+				break;
+			case Constants.JK_AJP13_SEND_BODY_CHUNK:
+				if (!this.started) {
+					throw new IOException("AJP body received before the headers");
+				}
+				sendBodyChunk(data, p + 3, getInt(data, p + 1));
+				break;
+			case Constants.JK_AJP13_GET_BODY_CHUNK:
+				this.bodyRequested = getInt(data, p + 1);
+				break;
+			case Constants.JK_AJP13_END_RESPONSE:
+				if (!this.started) {
+					throw new IOException("AJP response ended before the headers");
+				}
+				if (this.chunked) {
+					this.out.writeToClient(LAST_CHUNK);
+				}
+				this.reuse = (data[p + 1] == 1);
+				this.complete = true;
+				break;
+			default:
+				throw new IOException("Unexpected AJP packet type " + data[p]);
+			}
+			pos += Constants.H_SIZE + length;
+		}
+		return pos - off;
+	}
+
+	/**
+	 * Write the status line and the headers
+	 *
+	 * @param data
+	 * @param pos
+	 *            the position of the status code
+	 * @throws IOException
+	 */
+	private void sendHeaders(byte data[], int pos) throws IOException {
+		int status = getInt(data, pos);
+		pos += 2;
+		ByteChunk header = new ByteChunk(1024);
+		header.append(HTTP_11, 0, HTTP_11.length);
+		byte code[] = ByteChunk.convertToBytes(Integer.toString(status));
+		header.append(code, 0, code.length);
+		header.append((byte) ' ');
+		pos = appendString(header, data, pos);
+		header.append(CRLF, 0, CRLF.length);
+
+		boolean contentLength = false;
+		int count = getInt(data, pos);
+		pos += 2;
+		for (int i = 0; i < count; i++) {
+			if ((data[pos] & 0xFF) == Constants.SC_HEADER_PREFIX) {
+				int index = (data[pos + 1] & 0xFF) - 1;
+				if (index < 0 || index >= RESPONSE_HEADERS.length) {
+					throw new IOException("Unknown AJP response header code " + (index + 1));
+				}
+				contentLength |= (index == Constants.SC_RESP_CONTENT_LENGTH);
+				header.append(RESPONSE_HEADERS[index], 0, RESPONSE_HEADERS[index].length);
+				pos += 2;
+			} else {
+				contentLength |= isContentLength(data, pos);
+				pos = appendString(header, data, pos);
+			}
+			header.append(SEPARATOR, 0, SEPARATOR.length);
+			pos = appendString(header, data, pos);
+			header.append(CRLF, 0, CRLF.length);
+		}
+
+		this.noBody = this.request.method().equals("HEAD") || status < 200 || status == 204
+				|| status == 304;
+		if (!contentLength && !this.noBody) {
+			if (this.request.protocol().equals("HTTP/1.1")) {
+				this.chunked = true;
+				header.append(CHUNKED, 0, CHUNKED.length);
+			} else {
+				// The end of the body is the end of the connection
+				this.keepAlive = false;
+			}
+		}
+		if (!this.keepAlive) {
+			header.append(CLOSE, 0, CLOSE.length);
+		}
+		header.append(CRLF, 0, CRLF.length);
+
+		this.response.setStatus(status);
+		this.out.writeToClient(header.getBuffer(), header.getStart(), header.getLength());
+		this.started = true;
+	}
+
+	/**
+	 * Write a part of the body
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 */
+	private void sendBodyChunk(byte data[], int off, int len) {
+		if (len == 0 || this.noBody) {
+			return;
+		}
+		if (this.chunked) {
+			int start = this.chunkHeader.length;
+			this.chunkHeader[--start] = '\n';
+			this.chunkHeader[--start] = '\r';
+			int value = len;
+			do {
+				this.chunkHeader[--start] = HEX[value & 0xf];
+				value >>>= 4;
+			} while (value > 0);
+			this.out.writeToClient(this.chunkHeader, start, this.chunkHeader.length - start);
+			this.out.writeToClient(data, off, len);
+			this.out.writeToClient(CRLF);
+		} else {
+			this.out.writeToClient(data, off, len);
+		}
+	}
+
+	/**
+	 * @return the number of body bytes asked by the node since the last call,
+	 *         or <tt>-1</tt> if none
+	 */
+	public int takeBodyRequest() {
+		int requested = this.bodyRequested;
+		this.bodyRequested = -1;
+		return requested;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the header of the response was sent to the
+	 *         client
+	 */
+	public boolean isStarted() {
+		return this.started;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the response is complete
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the node allows to reuse the connection
+	 */
+	public boolean canReuse() {
+		return this.reuse;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the client connection may be kept alive
+	 */
+	public boolean isKeepAlive() {
+		return this.keepAlive;
+	}
+
+	/**
+	 * Append an AJP string
+	 *
+	 * @param dst
+	 * @param data
+	 * @param pos
+	 *            the position of the length of the string
+	 * @return the position after the string
+	 * @throws IOException
+	 */
+	private static int appendString(ByteChunk dst, byte data[], int pos) throws IOException {
+		int length = getInt(data, pos);
+		if (length == 0xFFFF) {
+			return pos + 2;
+		}
+		dst.append(data, pos + 2, length);
+		// Skip the null byte
+		return pos + 2 + length + 1;
+	}
+
+	/**
+	 * @param data
+	 * @param pos
+	 *            the position of the length of the header name
+	 * @return <tt>true</tt> if the header name is <tt>Content-Length</tt>
+	 */
+	private static boolean isContentLength(byte data[], int pos) {
+		byte name[] = RESPONSE_HEADERS[Constants.SC_RESP_CONTENT_LENGTH];
+		if (getInt(data, pos) != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (Ascii.toLower(data[pos + 2 + i]) != Ascii.toLower(name[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param data
+	 * @param pos
+	 * @return the unsigned 16 bits integer at the specified position
+	 */
+	private static int getInt(byte data[], int pos) {
+		return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.ajp;
+
+/**
+ * {@code Constants}
+ *
+ * The codes of the AJP 1.3 protocol.
+ *
+ * Created on Oct 19, 2026 at 12:53:28 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class Constants {
+
+	/**
+	 * The maximum size of a packet, including its header
+	 */
+	public static final int MAX_PACKET_SIZE = 8192;
+
+	/**
+	 * The size of the packet header (magic and length)
+	 */
+	public static final int H_SIZE = 4;
+
+	/**
+	 * The maximum number of body bytes in a packet sent to the node (the
+	 * header and the length of the data are taken from the packet)
+	 */
+	public static final int MAX_SEND_SIZE = MAX_PACKET_SIZE - H_SIZE - 2;
+
+	/**
+	 * The magic bytes of the packets sent to the node
+	 */
+	public static final byte REQUEST_MAGIC_1 = 0x12;
+	public static final byte REQUEST_MAGIC_2 = 0x34;
+
+	/**
+	 * The magic bytes of the packets sent by the node
+	 */
+	public static final byte RESPONSE_MAGIC_1 = 'A';
+	public static final byte RESPONSE_MAGIC_2 = 'B';
+
+	// Packet types sent to the node
+	public static final byte JK_AJP13_FORWARD_REQUEST = 2;
+
+	// Packet types sent by the node
+	public static final byte JK_AJP13_SEND_BODY_CHUNK = 3;
+	public static final byte JK_AJP13_SEND_HEADERS = 4;
+	public static final byte JK_AJP13_END_RESPONSE = 5;
+	public static final byte JK_AJP13_GET_BODY_CHUNK = 6;
+
+	/**
+	 * The code of the methods which have no code of their own, the method is
+	 * then sent as an attribute
+	 */
+	public static final byte SC_M_JK_STORED = (byte) 0xFF;
+
+	/**
+	 * The methods having a code, the code being the index + 1
+	 */
+	public static final String METHODS[] = { "OPTIONS", "GET", "HEAD", "POST", "PUT", "DELETE",
+			"TRACE", "PROPFIND", "PROPPATCH", "MKCOL", "COPY", "MOVE", "LOCK", "UNLOCK", "ACL",
+			"REPORT", "VERSION-CONTROL", "CHECKIN", "CHECKOUT", "UNCHECKOUT", "SEARCH",
+			"MKWORKSPACE", "UPDATE", "LABEL", "MERGE", "BASELINE-CONTROL", "MKACTIVITY" };
+
+	/**
+	 * The first byte of a coded header name
+	 */
+	public static final int SC_HEADER_PREFIX = 0xA0;
+
+	/**
+	 * The request headers having a code, the code being 0xA000 + index + 1
+	 */
+	public static final String REQUEST_HEADERS[] = { "accept", "accept-charset",
+			"accept-encoding", "accept-language", "authorization", "connection", "content-type",
+			"content-length", "cookie", "cookie2", "host", "pragma", "referer", "user-agent" };
+
+	/**
+	 * The response headers having a code, the code being 0xA000 + index + 1
+	 */
+	public static final String RESPONSE_HEADERS[] = { "Content-Type", "Content-Language",
+			"Content-Length", "Date", "Last-Modified", "Location", "Set-Cookie", "Set-Cookie2",
+			"Servlet-Engine", "Status", "WWW-Authenticate" };
+
+	/**
+	 * The index of <tt>Content-Length</tt> in {@link #RESPONSE_HEADERS}
+	 */
+	public static final int SC_RESP_CONTENT_LENGTH = 2;
+
+	// Request attributes
+	public static final byte SC_A_ROUTE = 6;
+	public static final byte SC_A_QUERY_STRING = 5;
+	public static final byte SC_A_REQ_ATTRIBUTE = 10;
+	public static final byte SC_A_STORED_METHOD = 13;
+	public static final byte SC_A_ARE_DONE = (byte) 0xFF;
+
+	/**
+	 * The request attribute holding the port of the client
+	 */
+	public static final String REMOTE_PORT_ATTRIBUTE = "AJP_REMOTE_PORT";
+
+	/**
+	 * Create a new instance of {@code Constants}
+	 */
+	private Constants() {
+
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.coyote.BufferPool;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@code CacheEntry}
+ *
+ * A cached node response, ready to be sent: its status line and end-to-end
+ * headers, followed by the name of the <tt>Age</tt> header whose value is
+ * written on each hit, then its body. Both are kept in buffers of the
+ * {@link BufferPool}, the body being split in chunks of its largest size
+ * class which are taken as the node response is relayed, so that a response
+ * which turns out not to be stored only costs the chunks it filled. The entry
+ * is filled once by the I/O thread which relays the node response, then it is
+ * only read through views queued as they are for the clients, so that a hit
+ * can be sent by several threads at a time without copying it.
+ * <p>
+ * An entry is reference counted: the cache holds it until it is evicted or
+ * replaced, and each hit until it is written, so that its buffers go back to
+ * the pool once neither needs them.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 11:48:21 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CacheEntry {
+
+	private static final byte[] AGE = ByteChunk.convertToBytes("Age: ");
+
+	private final String key;
+	private final ByteBuffer headers;
+	private final ByteBuffer chunks[];
+	private final int bodyLength;
+	private int skip;
+	private int length = 0;
+	private final String etag;
+	private final byte etagBytes[];
+	private final String lastModified;
+	private final String[] varyNames;
+	private final String[] varyValues;
+	private final AtomicInteger refs = new AtomicInteger(1);
+	private volatile long date;
+	private volatile long expires;
+
+	/**
+	 * Create a new instance of {@code CacheEntry}, the reference is owned by
+	 * the caller
+	 *
+	 * @param key
+	 *            the primary cache key
+	 * @param headers
+	 *            the status line and the headers to replay, without the
+	 *            blank line ending them
+	 * @param headerLength
+	 *            the length of the status line and headers of the node
+	 *            response, blank line included
+	 * @param bodyLength
+	 *            the length of the body
+	 * @param etag
+	 * @param lastModified
+	 * @param varyNames
+	 *            the request headers selecting this variant
+	 * @param varyValues
+	 *            the values of these headers in the request
+	 */
+	CacheEntry(String key, byte headers[], int headerLength, int bodyLength, String etag,
+			String lastModified, String[] varyNames, String[] varyValues) {
+		this.key = key;
+		this.headers = BufferPool.allocate(headers.length + AGE.length);
+		this.headers.put(headers).put(AGE).flip();
+		this.skip = headerLength;
+		this.bodyLength = bodyLength;
+		int chunkSize = BufferPool.getMaxBufferSize();
+		this.chunks = new ByteBuffer[(bodyLength + chunkSize - 1) / chunkSize];
+		this.etag = etag;
+		this.etagBytes = (etag == null ? null : ByteChunk.convertToBytes(etag));
+		this.lastModified = lastModified;
+		this.varyNames = varyNames;
+		this.varyValues = varyValues;
+	}
+
+	/**
+	 * Append a part of the node response, the status line and headers of the
+	 * node response are skipped
+	 *
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @return <tt>false</tt> if the response is larger than announced
+	 */
+	public boolean append(byte[] bytes, int off, int len) {
+		int n = Math.min(this.skip, len);
+		this.skip -= n;
+		off += n;
+		len -= n;
+		if (len > this.bodyLength - this.length) {
+			return false;
+		}
+		int chunkSize = BufferPool.getMaxBufferSize();
+		while (len > 0) {
+			int index = this.length / chunkSize;
+			if (this.chunks[index] == null) {
+				this.chunks[index] = BufferPool.allocate(Math.min(chunkSize, this.bodyLength
+						- index * chunkSize));
+			}
+			ByteBuffer chunk = this.chunks[index];
+			n = Math.min(len, chunk.remaining());
+			chunk.put(bytes, off, n);
+			if (!chunk.hasRemaining()) {
+				chunk.flip();
+			}
+			this.length += n;
+			off += n;
+			len -= n;
+		}
+		return true;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the whole response was appended
+	 */
+	public boolean isComplete() {
+		return this.skip == 0 && this.length == this.bodyLength;
+	}
+
+	/**
+	 * @param request
+	 * @return <tt>true</tt> if the request selects this variant
+	 */
+	public boolean matches(Request request) {
+		for (int i = 0; i < this.varyNames.length; i++) {
+			String value = request.getHeader(this.varyNames[i]);
+			if (value == null ? this.varyValues[i] != null : !value.equals(this.varyValues[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param now
+	 * @return <tt>true</tt> if the entry may be served without revalidation
+	 */
+	public boolean isFresh(long now) {
+		return now < this.expires;
+	}
+
+	/**
+	 * Set the freshness of the entry, after it was stored or revalidated
+	 *
+	 * @param date
+	 *            the time (in milliseconds) of the node response
+	 * @param expires
+	 *            the time (in milliseconds) at which the entry becomes stale
+	 */
+	public void setFreshness(long date, long expires) {
+		this.date = date;
+		this.expires = expires;
+	}
+
+	/**
+	 * @param now
+	 * @return the age of the entry in seconds
+	 */
+	public long getAge(long now) {
+		return Math.max(0, (now - this.date) / 1000);
+	}
+
+	/**
+	 * @return a view of the status line and headers, followed by the name of
+	 *         the <tt>Age</tt> header
+	 */
+	public ByteBuffer getHeaders() {
+		return this.headers.duplicate();
+	}
+
+	/**
+	 * @return views of the chunks of the response body
+	 */
+	public ByteBuffer[] getBody() {
+		ByteBuffer body[] = new ByteBuffer[this.chunks.length];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = this.chunks[i].duplicate();
+		}
+		return body;
+	}
+
+	/**
+	 * @return the memory used by the entry
+	 */
+	public int size() {
+		int size = this.headers.capacity();
+		for (ByteBuffer chunk : this.chunks) {
+			size += (chunk == null ? 0 : chunk.capacity());
+		}
+		return size;
+	}
+
+	/**
+	 * Take a reference to the entry, unless it was already released by all
+	 * its holders
+	 *
+	 * @return <tt>true</tt> if the reference was taken
+	 */
+	public boolean retain() {
+		int n;
+		do {
+			n = this.refs.get();
+			if (n == 0) {
+				return false;
+			}
+		} while (!this.refs.compareAndSet(n, n + 1));
+		return true;
+	}
+
+	/**
+	 * Drop a reference, the buffers go back to the pool with the last one
+	 */
+	public void release() {
+		if (this.refs.decrementAndGet() == 0) {
+			BufferPool.release(this.headers);
+			for (ByteBuffer chunk : this.chunks) {
+				BufferPool.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the entry can be revalidated by the node
+	 */
+	public boolean hasValidator() {
+		return this.etag != null || this.lastModified != null;
+	}
+
+	/**
+	 * Getter for key
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Getter for etag
+	 *
+	 * @return the etag
+	 */
+	public String getEtag() {
+		return this.etag;
+	}
+
+	/**
+	 * @return the entity tag as bytes, or <tt>null</tt> if none
+	 */
+	public byte[] getEtagBytes() {
+		return this.etagBytes;
+	}
+
+	/**
+	 * Getter for lastModified
+	 *
+	 * @return the lastModified
+	 */
+	public String getLastModified() {
+		return this.lastModified;
+	}
+}
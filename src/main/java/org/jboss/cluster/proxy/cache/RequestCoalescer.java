@@ -0,0 +1,240 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.cache;
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code RequestCoalescer}
+ *
+ * Table of the cacheable requests in flight to the nodes. The first request
+ * of a key leads the fetch, the identical requests arriving meanwhile are
+ * attached to it and do not hold any thread. When the leader ends, the
+ * followers are completed with the cache entry it stored (or <tt>null</tt>
+ * if the response was not stored), so that they are all answered from the
+ * same buffer. If the leader does not end within the timeout, the followers
+ * are failed with a {@link TimeoutException} and a new fetch may start.
+ *
+ * Created on Oct 19, 2026 at 1:13:54 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RequestCoalescer {
+
+	private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final long timeout;
+	private final AtomicLong coalesced = new AtomicLong(0);
+
+	/**
+	 * Create a new instance of {@code RequestCoalescer}
+	 *
+	 * @param scheduler
+	 *            the scheduler used for the flight timeouts
+	 * @param timeout
+	 *            the maximum time (in milliseconds) the followers wait for
+	 *            the leader
+	 */
+	public RequestCoalescer(ScheduledExecutorService scheduler, long timeout) {
+		this.scheduler = scheduler;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Attach a request to the flight of its key, or start a new flight led by
+	 * the request
+	 *
+	 * @param key
+	 *            the cache key of the request
+	 * @param attachment
+	 * @param handler
+	 *            the handler completed when the flight ends, if the request
+	 *            was attached to it
+	 * @return the new flight, which the caller leads and must end with
+	 *         {@link #complete(Flight, CacheEntry)}, or <tt>null</tt> if the
+	 *         request was attached to the flight in progress
+	 */
+	public <A> Flight join(String key, A attachment,
+			CompletionHandler<CacheEntry, ? super A> handler) {
+		Follower<A> follower = new Follower<>(attachment, handler);
+		Flight flight = this.flights.get(key);
+		while (true) {
+			if (flight == null) {
+				Flight created = new Flight(key);
+				flight = this.flights.putIfAbsent(key, created);
+				if (flight == null) {
+					created.timer = this.scheduler.schedule(created, this.timeout,
+							TimeUnit.MILLISECONDS);
+					return created;
+				}
+			}
+			if (flight.add(follower)) {
+				this.coalesced.incrementAndGet();
+				return null;
+			}
+			// The flight ended meanwhile
+			this.flights.remove(key, flight);
+			flight = this.flights.get(key);
+		}
+	}
+
+	/**
+	 * End a flight and complete its followers. Ending a flight again, or
+	 * after it timed out, has no effect.
+	 *
+	 * @param flight
+	 * @param entry
+	 *            the cache entry stored by the leader, <tt>null</tt> if none
+	 */
+	public void complete(Flight flight, CacheEntry entry) {
+		List<Follower<?>> followers = flight.end();
+		if (followers == null) {
+			return;
+		}
+		ScheduledFuture<?> t = flight.timer;
+		if (t != null) {
+			t.cancel(false);
+		}
+		for (Follower<?> follower : followers) {
+			follower.completed(entry);
+		}
+	}
+
+	/**
+	 * @return the number of requests which were attached to a flight
+	 */
+	public long getCoalesced() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * @return the number of flights in progress
+	 */
+	public int size() {
+		return this.flights.size();
+	}
+
+	/**
+	 * {@code Flight}
+	 *
+	 * A request in flight to a node and the identical requests waiting for
+	 * its response
+	 */
+	public class Flight implements Runnable {
+
+		private final String key;
+		private final List<Follower<?>> followers = new ArrayList<>();
+		private boolean done = false;
+		private volatile ScheduledFuture<?> timer;
+
+		/**
+		 * Create a new instance of {@code Flight}
+		 *
+		 * @param key
+		 */
+		Flight(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @param follower
+		 * @return <tt>false</tt> if the flight already ended
+		 */
+		synchronized boolean add(Follower<?> follower) {
+			if (this.done) {
+				return false;
+			}
+			this.followers.add(follower);
+			return true;
+		}
+
+		/**
+		 * Remove the flight from the table
+		 *
+		 * @return the followers, or <tt>null</tt> if the flight already ended
+		 */
+		List<Follower<?>> end() {
+			flights.remove(this.key, this);
+			synchronized (this) {
+				if (this.done) {
+					return null;
+				}
+				this.done = true;
+				return this.followers;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			// The leader did not end in time
+			List<Follower<?>> list = end();
+			if (list != null) {
+				for (Follower<?> follower : list) {
+					follower.failed(new TimeoutException("No response for " + this.key));
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@code Follower}
+	 *
+	 * A request waiting for the response of the leader
+	 */
+	private static class Follower<A> {
+
+		private final A attachment;
+		private final CompletionHandler<CacheEntry, ? super A> handler;
+
+		/**
+		 * Create a new instance of {@code Follower}
+		 *
+		 * @param attachment
+		 * @param handler
+		 */
+		Follower(A attachment, CompletionHandler<CacheEntry, ? super A> handler) {
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		void completed(CacheEntry entry) {
+			this.handler.completed(entry, this.attachment);
+		}
+
+		void failed(Throwable exc) {
+			this.handler.failed(exc, this.attachment);
+		}
+	}
+}
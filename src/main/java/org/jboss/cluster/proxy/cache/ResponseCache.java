@@ -0,0 +1,478 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.http.CacheControl;
+import org.apache.catalina.http.HttpResponseParser;
+import org.apache.coyote.BufferPool;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+
+/**
+ * {@code ResponseCache}
+ *
+ * Shared HTTP cache of the node responses to <tt>GET</tt> requests. A response
+ * is stored when its <tt>Cache-Control</tt>/<tt>Expires</tt> headers allow it
+ * and it carries a <tt>Content-Length</tt>. A stale entry having a validator
+ * (<tt>ETag</tt> or <tt>Last-Modified</tt>) is revalidated with a conditional
+ * request to the node. The <tt>Vary</tt> header is honoured by keeping the
+ * selecting request headers with the entry (one variant per URL).
+ * <p>
+ * The entries are stored in buffers of the {@link BufferPool}, ready to be
+ * sent, and evicted in LRU order when the memory budget is exceeded. The
+ * cache is split into segments to limit contention between the I/O threads,
+ * each one owning an equal share of the budget. A lookup holds the entry it
+ * returns until it is written, see {@link CacheEntry}.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 11:48:21 AM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ResponseCache {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment segments[];
+	private final int maxEntrySize;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * Create a new instance of {@code ResponseCache}
+	 *
+	 * @param maxSize
+	 *            the memory budget in bytes
+	 * @param maxEntrySize
+	 *            the maximum size of a cached response
+	 */
+	public ResponseCache(long maxSize, int maxEntrySize) {
+		long segmentSize = Math.max(1, maxSize / SEGMENTS);
+		this.maxEntrySize = (int) Math.min(maxEntrySize, segmentSize);
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * @param request
+	 * @return <tt>true</tt> if the response to the request may be looked up
+	 *         in, or stored into, the cache
+	 */
+	public static boolean isCacheable(Request request) {
+		if (!request.method().equals("GET") || request.getHeader("Authorization") != null) {
+			return false;
+		}
+		String value = request.getHeader("Cache-Control");
+		if (value != null) {
+			CacheControl cc = new CacheControl();
+			cc.parse(value);
+			return !cc.isNoStore();
+		}
+		return true;
+	}
+
+	/**
+	 * @param request
+	 * @return <tt>true</tt> if the client asks for a revalidated response
+	 */
+	public static boolean requiresRevalidation(Request request) {
+		String value = request.getHeader("Cache-Control");
+		if (value != null) {
+			CacheControl cc = new CacheControl();
+			cc.parse(value);
+			return cc.isNoCache() || cc.getMaxAge() == 0;
+		}
+		value = request.getHeader("Pragma");
+		return value != null && value.indexOf("no-cache") >= 0;
+	}
+
+	/**
+	 * @param header
+	 *            the value of an <tt>If-None-Match</tt> header
+	 * @param etag
+	 * @return <tt>true</tt> if the header matches the entity tag (weak
+	 *         comparison)
+	 */
+	public static boolean matches(String header, String etag) {
+		if (header == null || etag == null) {
+			return false;
+		}
+		String tag = opaqueTag(etag);
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || opaqueTag(candidate).equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param etag
+	 * @return the entity tag without its weakness indicator
+	 */
+	private static String opaqueTag(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	/**
+	 * @param request
+	 * @return the primary cache key of the request
+	 */
+	public static String key(Request request) {
+		StringBuilder sb = new StringBuilder();
+		String host = request.getHeader("Host");
+		if (host != null) {
+			sb.append(host);
+		}
+		sb.append(request.requestURI().toString());
+		if (!request.queryString().isNull()) {
+			sb.append('?').append(request.queryString().toString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Look up the cached response of a request
+	 *
+	 * @param request
+	 * @return the cached entry (fresh or stale), or <tt>null</tt> if none
+	 *         matches the request. The entry must be released once written.
+	 */
+	public CacheEntry get(Request request) {
+		String key = key(request);
+		CacheEntry entry = segment(key).get(key);
+		if (entry == null || !entry.matches(request)) {
+			if (entry != null) {
+				entry.release();
+			}
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Check whether a node response can be stored and create the entry which
+	 * will receive it. The status line and headers must be parsed.
+	 *
+	 * @param request
+	 * @param response
+	 * @param parser
+	 *            the parser of the node response
+	 * @param data
+	 *            the first bytes of the node response
+	 * @param now
+	 * @return the entry to fill, or <tt>null</tt> if the response is not
+	 *         cacheable. The entry is either stored or released by the
+	 *         caller.
+	 */
+	public CacheEntry capture(Request request, Response response, HttpResponseParser parser,
+			byte[] data, long now) {
+		CacheControl cc = parser.getCacheControl();
+		if (response.getStatus() != 200 || response.isChunked() || cc.isNoStore()
+				|| cc.isPrivate() || response.getHeader("Set-Cookie") != null) {
+			return null;
+		}
+
+		int headerLength = (int) parser.getHeaderLength();
+		long size = headerLength + response.getContentLengthLong();
+		if (response.getContentLengthLong() < 0 || size > this.maxEntrySize || headerLength < 2
+				|| data[headerLength - 1] != '\n') {
+			return null;
+		}
+		int headerEnd = data[headerLength - 2] == '\r' ? headerLength - 2 : headerLength - 1;
+
+		String vary = response.getHeader("Vary");
+		String varyNames[] = new String[0];
+		String varyValues[] = new String[0];
+		if (vary != null) {
+			if (vary.indexOf('*') >= 0) {
+				return null;
+			}
+			varyNames = vary.split(",");
+			varyValues = new String[varyNames.length];
+			for (int i = 0; i < varyNames.length; i++) {
+				varyNames[i] = varyNames[i].trim();
+				varyValues[i] = request.getHeader(varyNames[i]);
+			}
+		}
+
+		String etag = response.getHeader("ETag");
+		String lastModified = response.getHeader("Last-Modified");
+		byte headers[] = filterHeaders(data, headerEnd, response.getHeader("Connection"));
+		CacheEntry entry = new CacheEntry(key(request), headers, headerLength,
+				(int) response.getContentLengthLong(), etag, lastModified, varyNames, varyValues);
+		if (!refresh(entry, response, cc, now) && !entry.hasValidator()) {
+			// Never fresh and cannot be revalidated
+			entry.release();
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Copy the status line and the end-to-end headers of a node response. The
+	 * hop-by-hop headers (<tt>Connection</tt>, <tt>Keep-Alive</tt>,
+	 * <tt>Transfer-Encoding</tt> and the headers listed by
+	 * <tt>Connection</tt>) only apply to the node connection, and the
+	 * <tt>Age</tt> header is replaced when the entry is sent.
+	 *
+	 * @param data
+	 *            the beginning of the node response
+	 * @param headerEnd
+	 *            the offset of the blank line ending the headers
+	 * @param connection
+	 *            the <tt>Connection</tt> header of the node response, may be
+	 *            <tt>null</tt>
+	 * @return the status line and the headers to replay, each line ending
+	 *         with its line terminator
+	 */
+	static byte[] filterHeaders(byte data[], int headerEnd, String connection) {
+		Set<String> dropped = new HashSet<>(Arrays.asList("connection", "keep-alive",
+				"transfer-encoding", "age"));
+		if (connection != null) {
+			for (String name : connection.split(",")) {
+				dropped.add(name.trim().toLowerCase(Locale.ENGLISH));
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(headerEnd);
+		boolean drop = false;
+		for (int start = 0, end; start < headerEnd; start = end) {
+			end = start;
+			while (end < headerEnd && data[end++] != '\n') {
+				// NOPE
+			}
+			if (start > 0 && data[start] != ' ' && data[start] != '\t') {
+				// A new header, the continuation lines follow their header
+				int colon = start;
+				while (colon < end && data[colon] != ':') {
+					colon++;
+				}
+				String name = new String(data, start, colon - start, StandardCharsets.ISO_8859_1);
+				drop = dropped.contains(name.trim().toLowerCase(Locale.ENGLISH));
+			}
+			if (!drop) {
+				out.write(data, start, end - start);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compute the freshness of an entry from the node response which stored or
+	 * revalidated it
+	 *
+	 * @param entry
+	 * @param response
+	 *            the node response (<tt>200</tt> or <tt>304</tt>)
+	 * @param cc
+	 *            the <tt>Cache-Control</tt> directives of the node response
+	 * @param now
+	 * @return <tt>true</tt> if the entry is fresh
+	 */
+	public boolean refresh(CacheEntry entry, Response response, CacheControl cc, long now) {
+		long lifetime = 0;
+		if (!cc.isNoCache()) {
+			long freshness = cc.getFreshness();
+			if (freshness >= 0) {
+				lifetime = freshness * 1000;
+			} else {
+				String expires = response.getHeader("Expires");
+				if (expires != null) {
+					long date = parseDate(response.getHeader("Date"), now);
+					// An invalid date means "already expired"
+					lifetime = FastHttpDateFormat.parseDate(expires, null) - date;
+				}
+			}
+		}
+
+		long age = 0;
+		String value = response.getHeader("Age");
+		if (value != null) {
+			try {
+				age = Math.max(0, Long.parseLong(value.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// NOPE
+			}
+		}
+
+		entry.setFreshness(now - age, now - age + Math.max(0, lifetime));
+		return entry.isFresh(now);
+	}
+
+	/**
+	 * @param value
+	 * @param defaultValue
+	 * @return the parsed HTTP date, or the default value if it is missing or
+	 *         invalid
+	 */
+	private static long parseDate(String value, long defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		long date = FastHttpDateFormat.parseDate(value, null);
+		return date < 0 ? defaultValue : date;
+	}
+
+	/**
+	 * Store a complete entry, replacing the previous one of the same URL. The
+	 * reference of the caller goes to the cache.
+	 *
+	 * @param entry
+	 */
+	public void put(CacheEntry entry) {
+		segment(entry.getKey()).put(entry);
+	}
+
+	/**
+	 * Remove the entry of a URL
+	 *
+	 * @param key
+	 */
+	public void remove(String key) {
+		segment(key).remove(key);
+	}
+
+	/**
+	 * @param key
+	 * @return the segment owning the key
+	 */
+	private Segment segment(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return this.segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @return the number of lookups which found an entry
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of lookups which found no entry
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the memory used by the entries
+	 */
+	public long getSize() {
+		long size = 0;
+		for (Segment segment : this.segments) {
+			size += segment.getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int getCount() {
+		int count = 0;
+		for (Segment segment : this.segments) {
+			count += segment.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * {@code Segment}
+	 *
+	 * A part of the cache with its own LRU order and memory budget
+	 */
+	private static class Segment {
+
+		private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f,
+				true);
+		private final long maxSize;
+		private long size = 0;
+
+		Segment(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		synchronized CacheEntry get(String key) {
+			// Retained under the lock, an eviction can not release it first
+			CacheEntry entry = this.entries.get(key);
+			if (entry != null) {
+				entry.retain();
+			}
+			return entry;
+		}
+
+		synchronized void put(CacheEntry entry) {
+			CacheEntry old = this.entries.put(entry.getKey(), entry);
+			if (old != null) {
+				this.size -= old.size();
+				old.release();
+			}
+			this.size += entry.size();
+
+			// Evict the least recently used entries
+			Iterator<CacheEntry> it = this.entries.values().iterator();
+			while (this.size > this.maxSize && it.hasNext()) {
+				CacheEntry eldest = it.next();
+				if (eldest != entry) {
+					it.remove();
+					this.size -= eldest.size();
+					eldest.release();
+				}
+			}
+		}
+
+		synchronized void remove(String key) {
+			CacheEntry old = this.entries.remove(key);
+			if (old != null) {
+				this.size -= old.size();
+				old.release();
+			}
+		}
+
+		synchronized long getSize() {
+			return this.size;
+		}
+
+		synchronized int getCount() {
+			return this.entries.size();
+		}
+	}
+}
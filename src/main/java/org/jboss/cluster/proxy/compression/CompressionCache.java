@@ -0,0 +1,324 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.coyote.BufferPool;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.jboss.cluster.proxy.cache.ResponseCache;
+
+/**
+ * {@code CompressionCache}
+ *
+ * Cache of the compressed bodies of the node responses, so that a response
+ * which does not change is deflated once. A body is identified by the URL,
+ * the validator of the node response (<tt>ETag</tt>, else
+ * <tt>Last-Modified</tt>), its length and the encoding. Only the body is
+ * cached, the header always comes from the node response.
+ * <p>
+ * The bodies are stored in buffers of the {@link BufferPool}, split in chunks
+ * of its largest size class, and evicted in LRU order when the memory budget
+ * is exceeded, the cache being split into segments like the
+ * {@link ResponseCache}. A body is reference counted: a lookup holds it until
+ * it is written, so that its buffers go back to the pool only once it is
+ * evicted and no longer written.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:37:26 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompressionCache {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment segments[];
+	private final int maxEntrySize;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * Create a new instance of {@code CompressionCache}
+	 *
+	 * @param maxSize
+	 *            the memory budget in bytes
+	 * @param maxEntrySize
+	 *            the maximum size of a compressed body
+	 */
+	public CompressionCache(long maxSize, int maxEntrySize) {
+		long segmentSize = Math.max(1, maxSize / SEGMENTS);
+		this.maxEntrySize = (int) Math.min(maxEntrySize, segmentSize);
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * @param request
+	 * @param response
+	 *            the node response, whose headers are parsed
+	 * @param encoding
+	 * @return the key of the compressed body, or <tt>null</tt> if the body can
+	 *         not be identified
+	 */
+	public static String key(Request request, Response response, String encoding) {
+		String validator = response.getHeader("ETag");
+		if (validator == null) {
+			validator = response.getHeader("Last-Modified");
+		}
+		// The representation may depend on other request headers
+		if (validator == null || response.getHeader("Vary") != null) {
+			return null;
+		}
+		return new StringBuilder(encoding).append(' ').append(ResponseCache.key(request))
+				.append(' ').append(validator).append(' ')
+				.append(response.getContentLengthLong()).toString();
+	}
+
+	/**
+	 * @param key
+	 * @return the cached body, or <tt>null</tt> if none. The body must be
+	 *         released once written.
+	 */
+	public Body get(String key) {
+		Body body = segment(key).get(key);
+		if (body == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return body;
+	}
+
+	/**
+	 * @return an empty body to fill with a compressed body, it is either
+	 *         stored or released by the caller
+	 */
+	public Body create() {
+		return new Body(this.maxEntrySize);
+	}
+
+	/**
+	 * Store a compressed body, the reference of the caller goes to the cache
+	 *
+	 * @param key
+	 * @param body
+	 *            a body created by {@link #create()} and filled
+	 */
+	public void put(String key, Body body) {
+		body.complete();
+		segment(key).put(key, body);
+	}
+
+	/**
+	 * @return the maximum size of a compressed body
+	 */
+	public int getMaxEntrySize() {
+		return this.maxEntrySize;
+	}
+
+	/**
+	 * @param key
+	 * @return the segment owning the key
+	 */
+	private Segment segment(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return this.segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @return the number of lookups which found a body
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of lookups which found no body
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * {@code Body}
+	 *
+	 * A compressed body held by the cache and by the lookups writing it
+	 */
+	public static final class Body {
+
+		private final ByteBuffer chunks[];
+		private final int maxLength;
+		private int count = 0;
+		private int length = 0;
+		private final AtomicInteger refs = new AtomicInteger(1);
+
+		/**
+		 * Create a new instance of {@code Body}, empty and owned by the caller
+		 *
+		 * @param maxLength
+		 *            the maximum length of the body
+		 */
+		Body(int maxLength) {
+			int chunkSize = BufferPool.getMaxBufferSize();
+			this.chunks = new ByteBuffer[(maxLength + chunkSize - 1) / chunkSize];
+			this.maxLength = maxLength;
+		}
+
+		/**
+		 * Append compressed bytes, the chunks are taken from the pool as they
+		 * are filled
+		 *
+		 * @param data
+		 * @param off
+		 * @param len
+		 * @return <tt>false</tt> if the body would exceed its maximum length
+		 */
+		public boolean append(byte[] data, int off, int len) {
+			if (len > this.maxLength - this.length) {
+				return false;
+			}
+			while (len > 0) {
+				ByteBuffer chunk = (this.count == 0 ? null : this.chunks[this.count - 1]);
+				if (chunk == null || !chunk.hasRemaining()) {
+					chunk = BufferPool.allocate(BufferPool.getMaxBufferSize());
+					this.chunks[this.count++] = chunk;
+				}
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(data, off, n);
+				this.length += n;
+				off += n;
+				len -= n;
+			}
+			return true;
+		}
+
+		/**
+		 * The body is filled, its chunks are made ready to be read
+		 */
+		void complete() {
+			for (int i = 0; i < this.count; i++) {
+				this.chunks[i].flip();
+			}
+		}
+
+		/**
+		 * @return the length of the body
+		 */
+		public int length() {
+			return this.length;
+		}
+
+		/**
+		 * @return views of the chunks of the body
+		 */
+		public ByteBuffer[] getChunks() {
+			ByteBuffer views[] = new ByteBuffer[this.count];
+			for (int i = 0; i < views.length; i++) {
+				views[i] = this.chunks[i].duplicate();
+			}
+			return views;
+		}
+
+		/**
+		 * @return the memory used by the body
+		 */
+		int size() {
+			int size = 0;
+			for (int i = 0; i < this.count; i++) {
+				size += this.chunks[i].capacity();
+			}
+			return size;
+		}
+
+		/**
+		 * Take a reference, the body is still held by the cache
+		 */
+		void retain() {
+			this.refs.incrementAndGet();
+		}
+
+		/**
+		 * Drop a reference, the buffers go back to the pool with the last one
+		 */
+		public void release() {
+			if (this.refs.decrementAndGet() == 0) {
+				for (int i = 0; i < this.count; i++) {
+					BufferPool.release(this.chunks[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@code Segment}
+	 *
+	 * A part of the cache with its own LRU order and memory budget
+	 */
+	private static class Segment {
+
+		private final LinkedHashMap<String, Body> entries = new LinkedHashMap<>(16, 0.75f, true);
+		private final long maxSize;
+		private long size = 0;
+
+		Segment(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		synchronized Body get(String key) {
+			// Retained under the lock, an eviction can not release it first
+			Body body = this.entries.get(key);
+			if (body != null) {
+				body.retain();
+			}
+			return body;
+		}
+
+		synchronized void put(String key, Body body) {
+			Body old = this.entries.put(key, body);
+			if (old != null) {
+				this.size -= old.size();
+				old.release();
+			}
+			this.size += body.size();
+
+			// Evict the least recently used entries
+			Iterator<Body> it = this.entries.values().iterator();
+			while (this.size > this.maxSize && it.hasNext()) {
+				Body eldest = it.next();
+				if (eldest != body) {
+					it.remove();
+					this.size -= eldest.size();
+					eldest.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.compression;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.coyote.http11.AbstractInternalOutputBuffer;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@code GzipEncoder}
+ *
+ * Compresses a node response on the fly. The header of the node response is
+ * rewritten (<tt>Content-Length</tt> removed, <tt>Content-Encoding</tt>,
+ * <tt>Transfer-Encoding</tt> and <tt>Vary</tt> added, strong <tt>ETag</tt>
+ * made weak) and the gzip stream is sent as chunks, each chunk being built in
+ * a single array around the deflater output. The gzip stream may also be
+ * recorded to be stored in the {@link CompressionCache}.
+ * <p>
+ * An encoder is pooled by the {@link ResponseCompressor} with its deflater and
+ * its arrays, so that a compressed response allocates nothing on the heap.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:35:33 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class GzipEncoder {
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+			0, 0, (byte) 0xff };
+	private static final byte[] HEX = ByteChunk.convertToBytes("0123456789abcdef");
+	private static final byte[] CONTENT_LENGTH = ByteChunk.convertToBytes("content-length:");
+	private static final byte[] ETAG = ByteChunk.convertToBytes("etag:");
+	private static final byte[] VARY = ByteChunk.convertToBytes("vary:");
+	private static final byte[] ACCEPT_ENCODING = ByteChunk.convertToBytes(", Accept-Encoding");
+	private static final byte[] GZIP_HEADERS = ByteChunk
+			.convertToBytes("Content-Encoding: gzip\r\nTransfer-Encoding: chunked\r\n");
+	private static final byte[] GZIP_LENGTH_HEADERS = ByteChunk
+			.convertToBytes("Content-Encoding: gzip\r\nContent-Length: ");
+	private static final byte[] VARY_HEADER = ByteChunk.convertToBytes("Vary: Accept-Encoding\r\n");
+	private static final byte[] LAST_CHUNK = ByteChunk.convertToBytes("0\r\n\r\n");
+	/**
+	 * The room left before the deflater output for the chunk size
+	 */
+	private static final int CHUNK_HEADER = 6;
+	private static final int CHUNK_SIZE = 8192;
+	/**
+	 * The room added to the node header for the rewritten headers
+	 */
+	private static final int HEADER_ROOM = GZIP_LENGTH_HEADERS.length + 20
+			+ ACCEPT_ENCODING.length + VARY_HEADER.length + 4;
+
+	private final ResponseCompressor compressor;
+	private final CRC32 crc = new CRC32();
+	private final Deflater deflater;
+	private final byte[] chunk = new byte[CHUNK_HEADER + CHUNK_SIZE + 2];
+	private final byte[] digits = new byte[20];
+	private ByteBuffer header = ByteBuffer.allocate(8192 + HEADER_ROOM);
+	private CompressionCache cache;
+	private String key;
+	private CompressionCache.Body capture;
+	boolean active;
+
+	/**
+	 * Create a new instance of {@code GzipEncoder}
+	 *
+	 * @param compressor
+	 * @param deflater
+	 */
+	protected GzipEncoder(ResponseCompressor compressor, Deflater deflater) {
+		this.compressor = compressor;
+		this.deflater = deflater;
+	}
+
+	/**
+	 * Record the gzip stream and store it in the cache once complete
+	 *
+	 * @param cache
+	 * @param key
+	 *            the key of the compressed body
+	 */
+	public void capture(CompressionCache cache, String key) {
+		this.cache = cache;
+		this.key = key;
+		this.capture = cache.create();
+	}
+
+	/**
+	 * Write the rewritten header of the node response and the gzip header
+	 *
+	 * @param out
+	 *            the client output buffer
+	 * @param data
+	 *            the node response, header names in lower case
+	 * @param headerLength
+	 *            the length of the header, including the blank line
+	 */
+	public void start(AbstractInternalOutputBuffer out, byte[] data, int headerLength) {
+		writeHeader(out, data, headerLength, -1);
+		System.arraycopy(GZIP_HEADER, 0, this.chunk, CHUNK_HEADER, GZIP_HEADER.length);
+		writeChunk(out, GZIP_HEADER.length);
+	}
+
+	/**
+	 * Write the header of the node response rewritten for a gzip body
+	 *
+	 * @param out
+	 *            the client output buffer
+	 * @param data
+	 *            the node response, header names in lower case
+	 * @param headerLength
+	 *            the length of the header, including the blank line
+	 * @param length
+	 *            the length of the gzip body, or <tt>-1</tt> if the body is
+	 *            chunked
+	 */
+	public void writeHeader(AbstractInternalOutputBuffer out, byte[] data, int headerLength,
+			long length) {
+		if (this.header.capacity() < headerLength + HEADER_ROOM) {
+			this.header = ByteBuffer.allocate(headerLength + HEADER_ROOM);
+		}
+		ByteBuffer header = this.header;
+		header.clear();
+		boolean vary = false;
+		int end = headerLength;
+		// Drop the blank line, the status line is copied as is
+		while (end > 0 && (data[end - 1] == '\n' || data[end - 1] == '\r')) {
+			end--;
+		}
+		int pos = 0;
+		while (pos < end) {
+			int eol = pos;
+			while (eol < end && data[eol] != '\n') {
+				eol++;
+			}
+			int next = Math.min(eol + 1, end);
+			int lineEnd = (eol > pos && data[eol - 1] == '\r') ? eol - 1 : eol;
+			if (startsWith(data, pos, lineEnd, CONTENT_LENGTH)) {
+				// Dropped
+			} else if (startsWith(data, pos, lineEnd, VARY)) {
+				header.put(data, pos, lineEnd - pos).put(ACCEPT_ENCODING).put((byte) '\r')
+						.put((byte) '\n');
+				vary = true;
+			} else if (startsWith(data, pos, lineEnd, ETAG)) {
+				int value = pos + ETAG.length;
+				while (value < lineEnd && data[value] == ' ') {
+					value++;
+				}
+				header.put(data, pos, value - pos);
+				if (value < lineEnd && data[value] == '"') {
+					header.put((byte) 'W').put((byte) '/');
+				}
+				header.put(data, value, lineEnd - value).put((byte) '\r').put((byte) '\n');
+			} else {
+				header.put(data, pos, lineEnd - pos).put((byte) '\r').put((byte) '\n');
+			}
+			pos = next;
+		}
+		if (length < 0) {
+			header.put(GZIP_HEADERS);
+		} else {
+			int start = this.digits.length;
+			do {
+				this.digits[--start] = (byte) ('0' + length % 10);
+				length /= 10;
+			} while (length > 0);
+			header.put(GZIP_LENGTH_HEADERS).put(this.digits, start, this.digits.length - start)
+					.put((byte) '\r').put((byte) '\n');
+		}
+		if (!vary) {
+			header.put(VARY_HEADER);
+		}
+		header.put((byte) '\r').put((byte) '\n');
+		out.writeToClient(header.array(), 0, header.position());
+	}
+
+	/**
+	 * Compress a part of the response body
+	 *
+	 * @param out
+	 *            the client output buffer
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @param flush
+	 *            <tt>true</tt> to send all the compressed bytes, e.g. when the
+	 *            node is slow to send the rest
+	 */
+	public void write(AbstractInternalOutputBuffer out, byte[] data, int off, int len,
+			boolean flush) {
+		if (len <= 0) {
+			return;
+		}
+		this.crc.update(data, off, len);
+		this.deflater.setInput(data, off, len);
+		deflate(out, flush ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+	}
+
+	/**
+	 * Complete the gzip stream and the chunked response, then release the
+	 * encoder
+	 *
+	 * @param out
+	 *            the client output buffer
+	 */
+	public void finish(AbstractInternalOutputBuffer out) {
+		this.deflater.finish();
+		while (!this.deflater.finished()) {
+			int n = this.deflater.deflate(this.chunk, CHUNK_HEADER, CHUNK_SIZE);
+			if (n > 0) {
+				writeChunk(out, n);
+			}
+		}
+
+		// The trailer: CRC-32 and size modulo 2^32, in little endian
+		long crc = this.crc.getValue();
+		long size = this.deflater.getBytesRead();
+		for (int i = 0; i < 4; i++) {
+			this.chunk[CHUNK_HEADER + i] = (byte) (crc >> (8 * i));
+			this.chunk[CHUNK_HEADER + 4 + i] = (byte) (size >> (8 * i));
+		}
+		writeChunk(out, 8);
+		out.writeToClient(LAST_CHUNK);
+		if (this.capture != null) {
+			this.cache.put(this.key, this.capture);
+			this.capture = null;
+		}
+		release();
+	}
+
+	/**
+	 * Give the encoder back to the compressor, it can not be used afterwards
+	 */
+	public void release() {
+		if (!this.active) {
+			return;
+		}
+		this.active = false;
+		if (this.capture != null) {
+			this.capture.release();
+			this.capture = null;
+		}
+		this.cache = null;
+		this.key = null;
+		this.crc.reset();
+		this.compressor.release(this);
+	}
+
+	/**
+	 * Give up the native memory of the deflater
+	 */
+	void end() {
+		this.deflater.end();
+	}
+
+	/**
+	 * Reset the deflater for the next response
+	 */
+	void reset() {
+		this.deflater.reset();
+	}
+
+	/**
+	 * Send the output of the deflater
+	 *
+	 * @param out
+	 * @param mode
+	 */
+	private void deflate(AbstractInternalOutputBuffer out, int mode) {
+		int n;
+		while ((n = this.deflater.deflate(this.chunk, CHUNK_HEADER, CHUNK_SIZE, mode)) > 0) {
+			writeChunk(out, n);
+		}
+	}
+
+	/**
+	 * Frame and send the <tt>n</tt> bytes stored after the chunk header room
+	 *
+	 * @param out
+	 * @param n
+	 */
+	private void writeChunk(AbstractInternalOutputBuffer out, int n) {
+		int start = CHUNK_HEADER;
+		this.chunk[--start] = '\n';
+		this.chunk[--start] = '\r';
+		int value = n;
+		do {
+			this.chunk[--start] = HEX[value & 0xf];
+			value >>>= 4;
+		} while (value > 0);
+		if (this.capture != null && !this.capture.append(this.chunk, CHUNK_HEADER, n)) {
+			// Too large to be cached
+			this.capture.release();
+			this.capture = null;
+		}
+		this.chunk[CHUNK_HEADER + n] = '\r';
+		this.chunk[CHUNK_HEADER + n + 1] = '\n';
+		out.writeToClient(this.chunk, start, CHUNK_HEADER + n + 2 - start);
+	}
+
+	/**
+	 * @param data
+	 * @param off
+	 * @param end
+	 * @param prefix
+	 * @return <tt>true</tt> if the bytes start with the prefix
+	 */
+	private static boolean startsWith(byte[] data, int off, int end, byte[] prefix) {
+		if (end - off < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[off + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
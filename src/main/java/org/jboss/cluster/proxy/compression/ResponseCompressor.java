@@ -0,0 +1,152 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.compression;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.apache.catalina.http.HttpResponseParser;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.AbstractHttp11Processor;
+
+/**
+ * {@code ResponseCompressor}
+ *
+ * Gzip compression of the node responses relayed to the clients. Only the
+ * <tt>200</tt> responses having a <tt>Content-Length</tt> and no
+ * <tt>Content-Encoding</tt> are compressed, when the client accepts gzip and
+ * the connector settings (compression, MIME types, minimum size) allow it.
+ * <p>
+ * A {@link Deflater} holds native memory and is costly to create, so the
+ * encoders are kept with their deflater and their buffers in a bounded pool
+ * shared by all the responses, the deflater being reset.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:35:33 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ResponseCompressor {
+
+	private final int level;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<GzipEncoder> pool = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger(0);
+
+	/**
+	 * Create a new instance of {@code ResponseCompressor}
+	 *
+	 * @param level
+	 *            the deflate level
+	 * @param maxPooled
+	 *            the maximum number of idle encoders kept
+	 */
+	public ResponseCompressor(int level, int maxPooled) {
+		this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @param request
+	 * @param response
+	 *            the node response, whose headers are parsed
+	 * @param parser
+	 * @return <tt>true</tt> if the response may be compressed
+	 */
+	public boolean isCompressible(Request request, Response response, HttpResponseParser parser) {
+		if (response.getStatus() != 200 || response.isChunked()
+				|| response.getContentLengthLong() <= 0 || request.method().equals("HEAD")
+				|| response.getHeader("Content-Encoding") != null
+				|| parser.getCacheControl().isNoTransform() || !acceptsGzip(request)) {
+			return false;
+		}
+		return ((AbstractHttp11Processor<?>) response.hook).isRelayCompressable();
+	}
+
+	/**
+	 * @param request
+	 * @return <tt>true</tt> if the <tt>Accept-Encoding</tt> header of the
+	 *         request accepts gzip (with a non zero quality)
+	 */
+	public static boolean acceptsGzip(Request request) {
+		String value = request.getHeader("Accept-Encoding");
+		if (value == null) {
+			return false;
+		}
+		for (String coding : value.split(",")) {
+			int semicolon = coding.indexOf(';');
+			String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+			if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+				return semicolon < 0 || !isZero(coding.substring(semicolon + 1));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param params
+	 *            the parameters of a coding
+	 * @return <tt>true</tt> if the quality is zero
+	 */
+	private static boolean isZero(String params) {
+		String param = params.trim();
+		if (!param.startsWith("q=")) {
+			return false;
+		}
+		try {
+			return Float.parseFloat(param.substring(2).trim()) <= 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return an encoder of a response, which must be released
+	 */
+	public GzipEncoder encoder() {
+		GzipEncoder encoder = this.pool.poll();
+		if (encoder == null) {
+			encoder = new GzipEncoder(this, new Deflater(this.level, true));
+		} else {
+			this.pooled.decrementAndGet();
+		}
+		encoder.active = true;
+		return encoder;
+	}
+
+	/**
+	 * Give an encoder back to the pool
+	 *
+	 * @param encoder
+	 */
+	protected void release(GzipEncoder encoder) {
+		if (this.pooled.incrementAndGet() <= this.maxPooled) {
+			encoder.reset();
+			this.pool.offer(encoder);
+		} else {
+			this.pooled.decrementAndGet();
+			encoder.end();
+		}
+	}
+}
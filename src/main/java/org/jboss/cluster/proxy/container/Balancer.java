@@ -79,6 +79,11 @@ public class Balancer implements Serializable {
 	 * Default: "1"
 	 */
 	private int maxattempts = 1;
+	/**
+	 * value: key of the consistent hash routing of the new sessions (uri,
+	 * header:name or cookie:name). Default: null, the least loaded node
+	 */
+	private String hashKey;
 
 	/**
 	 * Create a new instance of {@code Balancer}
@@ -252,6 +257,25 @@ public class Balancer implements Serializable {
 		this.maxattempts = maxattempts;
 	}
 
+	/**
+	 * Getter for hashKey
+	 * 
+	 * @return the hashKey
+	 */
+	public String getHashKey() {
+		return this.hashKey;
+	}
+
+	/**
+	 * Setter for the hashKey
+	 * 
+	 * @param hashKey
+	 *            the hashKey to set
+	 */
+	public void setHashKey(String hashKey) {
+		this.hashKey = hashKey;
+	}
+
 	/**
 	 * Getter for number
 	 * 
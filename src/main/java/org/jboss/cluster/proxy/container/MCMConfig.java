@@ -19,59 +19,296 @@ package org.jboss.cluster.proxy.container;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.cluster.proxy.CircuitBreaker;
+import org.jboss.cluster.proxy.Constants;
 
 /**
  * Configuration of the cluster received via the MCM elements.
- * 
+ * <p>
+ * The updates are queued and applied by a single writer thread. The updates
+ * arriving within {@link Constants#MCMP_UPDATE_WINDOW_NAME} milliseconds are
+ * applied together and the resulting state is published as one
+ * {@link RoutingSnapshot}. The getters read the last published snapshot.
+ * </p>
+ *
  * @author Jean-Frederic Clere
- * 
+ *
  */
 public class MCMConfig {
 
+	/* the writer side of the configuration, only used by the writer thread */
 	private List<Node> nodes = new ArrayList<Node>();
 	private List<Balancer> balancers = new ArrayList<Balancer>();
 	private List<VHost> hosts = new ArrayList<VHost>();
 	private List<Context> contexts = new ArrayList<Context>();
 	private int lbstatus_recalc_time = 5;
-	
-	protected Thread thread = null;
-	
+
+	private volatile RoutingSnapshot snapshot = RoutingSnapshot.EMPTY;
+	private final ConcurrentLinkedQueue<Update<?>> updates = new ConcurrentLinkedQueue<Update<?>>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final long window = Long.getLong(Constants.MCMP_UPDATE_WINDOW_NAME,
+			Constants.DEFAULT_MCMP_UPDATE_WINDOW);
+
+	protected ScheduledExecutorService writer = null;
+
 	public MCMConfig() {
 		// Create the thread to keep the configure up to date.
-		if (thread == null) {
-			thread = new Thread(new MCMConfigBackgroundProcessor(), "MCMConfigBackgroundProcessor");
-            thread.setDaemon(true);
-		    thread.start();
+		if (writer == null) {
+			writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
 
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MCMConfigBackgroundProcessor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			writer.scheduleWithFixedDelay(new MCMConfigBackgroundProcessor(),
+					lbstatus_recalc_time, lbstatus_recalc_time, TimeUnit.SECONDS);
 		}
-		
 	}
-	
-	 protected class MCMConfigBackgroundProcessor implements Runnable {
+
+	protected class MCMConfigBackgroundProcessor implements Runnable {
 
 		@Override
 		public void run() {
-            while (true) {
-                try {
-                    Thread.sleep(lbstatus_recalc_time *1000);
-                } catch (InterruptedException e) {
-                    ;
-                }
-                // check if the value have changed otherwise the node may be broken.
-                checkHealthNode();
-            }
+			// check if the value have changed otherwise the node may be broken.
+			checkHealthNode();
+		}
+
+	}
+
+	/**
+	 * {@code Update}
+	 * <p>
+	 * An update waiting for the writer. The future is completed once the
+	 * snapshot containing the update is published.
+	 * </p>
+	 */
+	private static class Update<V> extends FutureTask<V> {
+
+		private final Callable<V> command;
+		private V result;
+		private Exception failure;
+
+		Update(Callable<V> command) {
+			super(command);
+			this.command = command;
+		}
+
+		void apply() {
+			try {
+				this.result = this.command.call();
+			} catch (Exception e) {
+				this.failure = e;
+			}
+		}
+
+		void complete() {
+			if (this.failure != null) {
+				setException(this.failure);
+			} else {
+				set(this.result);
+			}
+		}
+	}
+
+	/**
+	 * Queue the command for the writer thread
+	 *
+	 * @param command
+	 * @return the future result of the command
+	 */
+	private <V> Future<V> submit(Callable<V> command) {
+		Update<V> update = new Update<V>(command);
+		this.updates.offer(update);
+		if (this.scheduled.compareAndSet(false, true)) {
+			this.writer.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					applyUpdates();
+				}
+			}, this.window, TimeUnit.MILLISECONDS);
+		}
+		return update;
+	}
+
+	/**
+	 * Apply the queued updates and publish the resulting snapshot
+	 */
+	private void applyUpdates() {
+		// the updates queued from now are either polled below or rescheduled
+		this.scheduled.set(false);
+		List<Update<?>> batch = new ArrayList<Update<?>>();
+		Update<?> update;
+		while ((update = this.updates.poll()) != null) {
+			update.apply();
+			batch.add(update);
+		}
+		if (batch.isEmpty()) {
+			return;
 		}
-		 
-	 }
+		this.snapshot = new RoutingSnapshot(this.snapshot.getVersion() + 1, nodes, balancers,
+				hosts, contexts);
+		for (Update<?> u : batch) {
+			u.complete();
+		}
+	}
+
+	/**
+	 * @return the last published snapshot of the configuration
+	 */
+	public RoutingSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Add or replace the balancer and the node
+	 *
+	 * @param balancer
+	 * @param node
+	 * @return the future id of the node
+	 */
+	public Future<Long> insertupdate(final Balancer balancer, final Node node) {
+		return submit(new Callable<Long>() {
+
+			@Override
+			public Long call() {
+				insertupdate(balancer);
+				insertupdate(node);
+				return node.getId();
+			}
+		});
+	}
+
+	/**
+	 * Add the virtual host if needed and add or update the context
+	 *
+	 * @param host
+	 * @param context
+	 * @return <tt>false</tt> (future) if the node of the context is unknown
+	 */
+	public Future<Boolean> insertupdate(final VHost host, final Context context) {
+		return submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				if (findNode(context.getJVMRoute()) == null) {
+					return false;
+				}
+				context.setHostid(insertupdate(host));
+				insertupdate(context);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Set the status of all the contexts of the node
+	 *
+	 * @param jvmRoute
+	 * @param status
+	 * @return <tt>false</tt> (future) if the node is unknown
+	 */
+	public Future<Boolean> setStatus(final String jvmRoute, final Context.Status status) {
+		return submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				if (findNode(jvmRoute) == null) {
+					return false;
+				}
+				for (int i = 0; i < contexts.size(); i++) {
+					Context con = contexts.get(i);
+					if (jvmRoute.equals(con.getJVMRoute()) && con.getStatus() != status) {
+						contexts.set(i, copy(con, status));
+					}
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Update the load of the node and mark it up
+	 *
+	 * @param jvmRoute
+	 * @param load
+	 * @return <tt>false</tt> (future) if the node is unknown
+	 */
+	public Future<Boolean> setLoad(final String jvmRoute, final int load) {
+		return submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				Node node = findNode(jvmRoute);
+				if (node == null) {
+					return false;
+				}
+				node.setLoad(load);
+				/* TODO we need to check the node here */
+				node.setStatus(Node.NodeStatus.NODE_UP);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Remove the context and its host if that is the last context of the host
+	 *
+	 * @param context
+	 * @param host
+	 * @return the future completed once the removal is published
+	 */
+	public Future<Boolean> remove(final Context context, final VHost host) {
+		return submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				removeContext(context, host);
+				return true;
+			}
+		});
+	}
 
-	public void insertupdate(Node node) {
-		if (getNodes().isEmpty()) {
+	/**
+	 * Remove the node, its hosts and its contexts
+	 *
+	 * @param jvmRoute
+	 * @return the future completed once the removal is published
+	 */
+	public Future<Boolean> removeNode(final String jvmRoute) {
+		return submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				removeJvmRoute(jvmRoute);
+				return true;
+			}
+		});
+	}
+
+	private void insertupdate(Node node) {
+		// a CONFIG comes from a (re)started node, its traffic is ramped up.
+		node.getCircuitBreaker().warmUp();
+		if (nodes.isEmpty()) {
 			node.setId(1);
-			getNodes().add(node);
+			nodes.add(node);
 		} else {
 			int i = 1;
 			Node replace = null;
-			for (Node nod : getNodes()) {
+			for (Node nod : nodes) {
 				if (nod.getJvmRoute().equals(node.getJvmRoute())) {
 					// replace it.
 					// TODO that is more tricky see mod_cluster C code.
@@ -83,74 +320,56 @@ public class MCMConfig {
 			}
 			if (replace != null) {
 				node.setId(replace.getId());
-				getNodes().remove(replace);
-				getNodes().add(node);
+				nodes.set(nodes.indexOf(replace), node);
 			} else {
 				node.setId(i);
-				getNodes().add(node);
+				nodes.add(node);
 			}
 		}
 	}
 
-	public void insertupdate(Balancer balancer) {
-		if (getBalancers().isEmpty()) {
-			getBalancers().add(balancer);
-		} else {
-			for (Balancer bal : getBalancers()) {
-				if (bal.getName().equals(balancer.getName())) {
-					// replace it.
-					// TODO that is more tricky see mod_cluster C code.
-					getBalancers().remove(bal);
-					getBalancers().add(balancer);
-					break; // Done
-				}
+	private void insertupdate(Balancer balancer) {
+		for (int i = 0; i < balancers.size(); i++) {
+			if (balancers.get(i).getName().equals(balancer.getName())) {
+				// replace it.
+				// TODO that is more tricky see mod_cluster C code.
+				balancers.set(i, balancer);
+				return; // Done
 			}
 		}
+		balancers.add(balancer);
 	}
 
 	public List<Node> getNodes() {
-		return nodes;
-	}
-
-	public void setNodes(List<Node> nodes) {
-		this.nodes = nodes;
+		return snapshot.getNodes();
 	}
 
 	public List<VHost> getHosts() {
-		return hosts;
-	}
-
-	public void setHosts(List<VHost> hosts) {
-		this.hosts = hosts;
+		return snapshot.getHosts();
 	}
 
 	public long getNodeId(String jvmRoute) {
-		for (Node nod : getNodes()) {
-			if (nod.getJvmRoute().equals(jvmRoute)) {
-				return nod.getId();
-			}
-		}
-		return -1;
+		return snapshot.getNodeId(jvmRoute);
 	}
 
 	public List<Context> getContexts() {
-		return contexts;
-	}
-
-	public void setContexts(List<Context> contexts) {
-		this.contexts = contexts;
+		return snapshot.getContexts();
 	}
 
 	public List<Balancer> getBalancers() {
-		return balancers;
+		return snapshot.getBalancers();
 	}
 
-	public void setBalancers(List<Balancer> balancers) {
-		this.balancers = balancers;
+	public Balancer getBalancer(String name) {
+		return snapshot.getBalancer(name);
 	}
 
 	public Node getNode(String jvmRoute) {
-		for (Node nod : getNodes()) {
+		return snapshot.getNode(jvmRoute);
+	}
+
+	private Node findNode(String jvmRoute) {
+		for (Node nod : nodes) {
 			if (nod.getJvmRoute().equals(jvmRoute)) {
 				return nod;
 			}
@@ -158,14 +377,14 @@ public class MCMConfig {
 		return null;
 	}
 
-	public long insertupdate(VHost host) {
+	private long insertupdate(VHost host) {
 		int i = 1;
-		if (getHosts().isEmpty()) {
+		if (hosts.isEmpty()) {
 			host.setId(i);
-			getHosts().add(host);
+			hosts.add(host);
 			return 1;
 		} else {
-			for (VHost hos : getHosts()) {
+			for (VHost hos : hosts) {
 				if (hos.getJVMRoute().equals(host.getJVMRoute())
 						&& isSame(host.getAliases(), hos.getAliases())) {
 					return hos.getId();
@@ -174,7 +393,7 @@ public class MCMConfig {
 			}
 		}
 		host.setId(i);
-		getHosts().add(host);
+		hosts.add(host);
 		return i;
 	}
 
@@ -194,38 +413,92 @@ public class MCMConfig {
 		return true;
 	}
 
-	public void insertupdate(Context context) {
-		if (getContexts().isEmpty()) {
-			getContexts().add(context);
-			return;
-		} else {
-			for (Context con : getContexts()) {
-				if (context.getJVMRoute().equals(con.getJVMRoute())
-						&& context.getHostid() == con.getHostid()
-						&& context.getPath() == con.getPath()) {
-					// update the status.
-					con.setStatus(context.getStatus());
-					return;
-				}
+	private void insertupdate(Context context) {
+		for (int i = 0; i < contexts.size(); i++) {
+			Context con = contexts.get(i);
+			if (context.getJVMRoute().equals(con.getJVMRoute())
+					&& context.getHostid() == con.getHostid()
+					&& context.getPath().equals(con.getPath())) {
+				// the published contexts are never modified, replace it.
+				contexts.set(i, context);
+				return;
 			}
-			getContexts().add(context);
 		}
+		contexts.add(context);
+	}
+
+	private static Context copy(Context context, Context.Status status) {
+		Context con = new Context();
+		con.setName(context.getName());
+		con.setPath(context.getPath());
+		con.setJVMRoute(context.getJVMRoute());
+		con.setHostid(context.getHostid());
+		con.setStatus(status);
+		return con;
 	}
-	
-	/* get the least loaded node according to the tablel values */
+
+	/* get the least loaded node according to the table values */
 
 	public Node getNode() {
+		return getNode(null, null);
+	}
+
+	public Node getNode(String domain, Node excluded) {
+		return getNode(null, domain, excluded);
+	}
+
+	/*
+	 * get the least loaded node of the given balancer and domain (any
+	 * balancer or domain if null), excluding the given node (the one which
+	 * just failed if any).
+	 * The load of a node is its number of elected requests since the last
+	 * check, the one to send included, per unit of the load factor of its
+	 * STATUS; the load factor is scaled by the slow-start ramp of the node,
+	 * computed here. A node with a load factor of 0 is a hot standby, only
+	 * used when no other node is available; a negative load factor means the
+	 * node is in error, it is never used.
+	 */
+	public Node getNode(String balancer, String domain, Node excluded) {
 		Node node = null;
-		for (Node nod : getNodes()) {
-			if (nod.getStatus() == Node.NodeStatus.NODE_DOWN)
+		Node standby = null;
+		double status = 0;
+		long now = System.currentTimeMillis();
+		List<Node> nodes = snapshot.getNodes();
+		for (Node nod : nodes) {
+			if (nod.getStatus() == Node.NodeStatus.NODE_DOWN || nod == excluded
+					|| nod.getLoad() < 0)
 				continue; // skip it.
-			if (node != null) {
-				int status = ((node.getElected() - node.getOldelected()) * 1000) / node.getLoad();
-				int status1 = ((nod.getElected() - nod.getOldelected()) * 1000) / nod.getLoad();
-				if (status1 > status)
-					node = nod;
-			} else
+			if (balancer != null && !balancer.equals(nod.getBalancer()))
+				continue; // another balancer.
+			if (domain != null && !domain.equals(nod.getDomain()))
+				continue; // another domain.
+			if (nod.getCircuitBreaker().getState() != CircuitBreaker.State.CLOSED)
+				continue; // tried below.
+			if (nod.getLoad() == 0) {
+				if (standby == null)
+					standby = nod;
+				continue;
+			}
+			double status1 = (nod.getElected() - nod.getOldelected() + 1)
+					/ (nod.getLoad() * nod.getCircuitBreaker().getRampFactor(now));
+			if (node == null || status1 < status) {
 				node = nod;
+				status = status1;
+			}
+		}
+		if (node == null)
+			node = standby;
+		if (node == null) {
+			// only nodes with an open or half-open circuit are left
+			for (Node nod : nodes) {
+				if (nod.getStatus() != Node.NodeStatus.NODE_DOWN && nod != excluded
+						&& nod.getLoad() >= 0 && (balancer == null || balancer.equals(nod.getBalancer()))
+						&& (domain == null || domain.equals(nod.getDomain()))
+						&& nod.getCircuitBreaker().allowRequest()) {
+					node = nod;
+					break;
+				}
+			}
 		}
 		if (node != null)
 			node.setElected(node.getElected()+1);
@@ -236,44 +509,45 @@ public class MCMConfig {
 		for (Node nod : getNodes()) {
 			if (nod.getElected() == nod.getOldelected()) {
 				// nothing change bad
-				// TODO and the CPING/CPONG
+				// the CPING/CPONG is done by the NodeHealthChecker
 			} else {
 				nod.setOldelected(nod.getElected());
 			}
 		}
 	}
-	
+
 	/*
 	 * remove the context and the corresponding host if that is last context of the host.
 	 */
 
-	public void remove(Context context, VHost host) {
-		for (Context con : getContexts()) {
+	private void removeContext(Context context, VHost host) {
+		for (Context con : contexts) {
+			VHost hos = getHostById(con.getHostid());
 			if (context.getJVMRoute().equals(con.getJVMRoute())
-					&& isSame(getHostById(con.getHostid()).getAliases(), host.getAliases())
+					&& hos != null && isSame(hos.getAliases(), host.getAliases())
 					&& context.getPath().equals(con.getPath())) {
-				getContexts().remove(con);
+				contexts.remove(con);
 				removeEmptyHost(con.getHostid());
 				return;
 			}
-		
+
 		}
 	}
 
 	private void removeEmptyHost(long hostid) {
 		boolean remove = true;
-		for (Context con : getContexts()) {
+		for (Context con : contexts) {
 			if (con.getHostid() == hostid) {
 				remove = false;
 				break;
 			}
 		}
 		if (remove)
-			getHosts().remove(getHostById(hostid));
+			hosts.remove(getHostById(hostid));
 	}
 
 	private VHost getHostById(long hostid) {
-		for (VHost hos : getHosts()) {
+		for (VHost hos : hosts) {
 			if (hos.getId() == hostid)
 				return hos;
 		}
@@ -283,30 +557,30 @@ public class MCMConfig {
 	/*
 	 * Remove the node, host, context corresponding to jvmRoute.
 	 */
-	public void removeNode(String jvmRoute) {
+	private void removeJvmRoute(String jvmRoute) {
 		List<Context> remcons = new ArrayList<Context>();
-		for (Context con : getContexts()) {
+		for (Context con : contexts) {
 			if (con.getJVMRoute().equals(jvmRoute))
 				remcons.add(con);
 		}
 		for (Context con : remcons )
-			getContexts().remove(con);
-				
+			contexts.remove(con);
+
 		List<VHost> remhosts = new ArrayList<VHost>();
-		for (VHost hos : getHosts()) {
+		for (VHost hos : hosts) {
 			if (hos.getJVMRoute().equals(jvmRoute))
 				remhosts.add(hos);
 		}
 		for (VHost hos : remhosts)
-			getHosts().remove(hos);
-				
+			hosts.remove(hos);
+
 		List<Node> remnodes = new ArrayList<Node>();
-		for (Node nod : getNodes()) {
+		for (Node nod : nodes) {
 			if (nod.getJvmRoute().equals(jvmRoute))
 				remnodes.add(nod);
 		}
 		for (Node nod : remnodes)
-			getNodes().remove(nod);
+			nodes.remove(nod);
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -1,16 +1,38 @@
 package org.jboss.cluster.proxy.container;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.Cookies;
 import org.apache.tomcat.util.http.ServerCookie;
+import org.jboss.cluster.proxy.Constants;
 import org.jboss.cluster.proxy.NodeService;
-import org.jboss.cluster.proxy.container.Node.NodeStatus;
+import org.jboss.cluster.proxy.WaitQueue;
+import org.jboss.cluster.proxy.load.ConsistentHash;
 
 public class MCMNodeService extends NodeService {
 	static MCMConfig conf = MCMPAdapter.conf;
+	/* the requests waiting for a node, per balancer */
+	private ConcurrentHashMap<String, WaitQueue> waitQueues = new ConcurrentHashMap<String, WaitQueue>();
+	/* the domain of the nodes in the zone of the proxy and its share of the new sessions */
+	private volatile String localDomain = Constants.DEFAULT_LOCAL_DOMAIN;
+	private volatile int localDomainWeight = Constants.DEFAULT_LOCAL_DOMAIN_WEIGHT;
+	/* the consistent hash rings, per balancer, and the load bound of their nodes */
+	private ConcurrentHashMap<String, ConsistentHash> rings = new ConcurrentHashMap<String, ConsistentHash>();
+	private volatile int hashLoadFactor = Constants.DEFAULT_HASH_LOAD_FACTOR;
+
 	@Override
 	public void init() throws Exception {
-		// Nothing to do :D
+		localDomain = System.getProperty(Constants.LOCAL_DOMAIN_NAME,
+				Constants.DEFAULT_LOCAL_DOMAIN);
+		localDomainWeight = Integer.getInteger(Constants.LOCAL_DOMAIN_WEIGHT_NAME,
+				Constants.DEFAULT_LOCAL_DOMAIN_WEIGHT);
+		hashLoadFactor = Integer.getInteger(Constants.HASH_LOAD_FACTOR_NAME,
+				Constants.DEFAULT_HASH_LOAD_FACTOR);
 	}
 	
 	/*
@@ -19,51 +41,276 @@ public class MCMNodeService extends NodeService {
 	 */
 	@Override
 	public void start() {
-		// Nothing to do :D
+		if (getConnectionManager() != null)
+			getConnectionManager().getHealthChecker().addListener(this);
 	}
 	
 	@Override
 	public Node getNode(Request request) {
-		System.out.println("MCMNodeService: getNode");
-        Cookies cookies = request.getCookies();
-         Balancer ba = null;
-        String value = null;
-        for (int i=0; i < cookies.getCookieCount(); i++) {
-        	ServerCookie co = cookies.getCookie(i);
-        	String name = co.getName().getString();
-         	for (Balancer bal : conf.getBalancers()) {
-        		if (name.equals(bal.getStickySessionCookie())) {
-        			ba = bal;
-        			value = co.getValue().getString();
-        			break; // Found the balancer.
-        		}
-        	}
-        	if (ba != null)
-        		break;
-        }
-        
-        
-        Node node = null;
-		if (ba != null) {
-        	// we have a balancer and a cookie
-        	int index = value.lastIndexOf('.');
-        	if (index != -1)
-        		node = conf.getNode(value.substring(index+1));
-        } else {
-        	// TODO complete code here
-        	node = conf.getNode();
-        }
-        System.out.println("getNode returns: " + node);
-        return node;
+		return select(request, null);
+	}
+
+	/*
+	 * The sticky node of the request if it can take it, else a node of the
+	 * same domain since the sessions are only replicated within a domain.
+	 * The nodes of the other domains are only used if the balancer does not
+	 * force the stickiness. The requests without a session prefer the nodes
+	 * of the local domain.
+	 */
+	private Node select(Request request, Node failed) {
+		RoutingSnapshot snapshot = conf.getSnapshot();
+		Cookies cookies = request.getCookies();
+		Balancer ba = null;
+		String value = null;
+		for (int i = 0; i < cookies.getCookieCount(); i++) {
+			ServerCookie co = cookies.getCookie(i);
+			String name = co.getName().toString();
+			for (Balancer bal : snapshot.getBalancers()) {
+				if (name.equals(bal.getStickySessionCookie())) {
+					ba = bal;
+					value = co.getValue().toString();
+					break; // Found the balancer.
+				}
+			}
+			if (ba != null)
+				break;
+		}
+
+		if (ba == null)
+			return route(snapshot, request, failed);
+
+		// we have a balancer and a cookie
+		int index = value.lastIndexOf('.');
+		Node sticky = (index == -1 ? null : snapshot.getNode(value.substring(index + 1)));
+		if (sticky == null)
+			return (ba.isStickySessionForce() ? null : balance(ba, failed));
+		if (sticky != failed && !sticky.isNodeDown() && sticky.getCircuitBreaker().allowRequest())
+			return sticky;
+
+		// failover within the domain of the sticky node and its balancer,
+		// the sticky node is skipped if it is not the failed one
+		Node excluded = (failed != null ? failed : sticky);
+		String domain = sticky.getDomain();
+		if (domain != null && !domain.isEmpty()) {
+			Node node = conf.getNode(ba.getName(), domain, excluded);
+			if (node != null)
+				return node;
+		}
+		return (ba.isStickySessionForce() ? null : balance(ba, excluded));
+	}
+
+	/*
+	 * select the node of the hash key of the request if its balancer routes
+	 * by consistent hash, else the least loaded node of its balancer. The
+	 * balancer is the one of the nodes serving the context of the request.
+	 */
+	private Node route(RoutingSnapshot snapshot, Request request, Node failed) {
+		Balancer bal = getServingBalancer(snapshot, request);
+		String key = (bal == null || bal.getHashKey() == null ? null
+				: ConsistentHash.getKey(request, bal.getHashKey()));
+		if (key == null)
+			return balance(bal, failed);
+		Node node = getRing(snapshot, bal).getNode(key, failed);
+		if (node != null)
+			node.setElected(node.getElected() + 1);
+		return node;
+	}
+
+	/*
+	 * get the ring of the nodes of the balancer. When a new snapshot is
+	 * published, the ring is only rebuilt if the nodes of the balancer
+	 * changed (a STATUS does not change them), the load counts being carried
+	 * over. The threads racing to rebuild it use the ring of the first one.
+	 */
+	private ConsistentHash getRing(RoutingSnapshot snapshot, Balancer bal) {
+		ConsistentHash ring = rings.get(bal.getName());
+		if (ring != null && ring.getVersion() == snapshot.getVersion())
+			return ring;
+		List<Node> nodes = new ArrayList<Node>();
+		for (Node nod : snapshot.getNodes()) {
+			if (bal.getName().equals(nod.getBalancer()))
+				nodes.add(nod);
+		}
+		if (ring != null && ring.hasNodes(nodes)) {
+			ring.setVersion(snapshot.getVersion());
+			return ring;
+		}
+		ConsistentHash newRing = new ConsistentHash(snapshot.getVersion(), nodes, hashLoadFactor,
+				ring);
+		if (ring == null ? rings.putIfAbsent(bal.getName(), newRing) == null : rings.replace(
+				bal.getName(), ring, newRing))
+			return newRing;
+		ring = rings.get(bal.getName());
+		return (ring != null ? ring : newRing);
 	}
+
+	/*
+	 * The least loaded node of the balancer of the request (any balancer if
+	 * none) for a request without session, from the local domain for the
+	 * configured share of the requests.
+	 */
+	private Node balance(Balancer bal, Node failed) {
+		String balancer = (bal == null ? null : bal.getName());
+		String domain = localDomain;
+		if (!domain.isEmpty() && ThreadLocalRandom.current().nextInt(100) < localDomainWeight) {
+			Node node = conf.getNode(balancer, domain, failed);
+			if (node != null)
+				return node;
+		}
+		return conf.getNode(balancer, null, failed);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getMaxAttempts(org.jboss.cluster.proxy.container.Node)
+	 */
+	@Override
+	public int getMaxAttempts(Node node) {
+		Balancer balancer = (node == null ? null : conf.getBalancer(node.getBalancer()));
+		if (balancer == null) {
+			return super.getMaxAttempts(node);
+		}
+		return Math.max(1, balancer.getMaxattempts());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getWaitQueue(org.apache.coyote.Request)
+	 */
+	@Override
+	public WaitQueue getWaitQueue(Request request) {
+		Balancer balancer = getBalancer(request);
+		if (balancer == null || balancer.getWaitWorker() <= 0 || getConnectionManager() == null)
+			return null;
+		WaitQueue queue = waitQueues.get(balancer.getName());
+		if (queue == null) {
+			queue = createWaitQueue();
+			WaitQueue old = waitQueues.putIfAbsent(balancer.getName(), queue);
+			if (old != null)
+				queue = old;
+		}
+		return queue;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getWaitQueue(org.jboss.cluster.proxy.container.Node)
+	 */
+	@Override
+	public WaitQueue getWaitQueue(Node node) {
+		return (node == null ? null : waitQueues.get(node.getBalancer()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getWaitWorker(org.apache.coyote.Request)
+	 */
+	@Override
+	public long getWaitWorker(Request request) {
+		Balancer balancer = getBalancer(request);
+		return (balancer == null ? 0 : balancer.getWaitWorker() * 1000L);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getContextPath(org.apache.coyote.Request)
+	 */
+	@Override
+	public String getContextPath(Request request) {
+		// Matched on the URI bytes, the longest context path on a segment boundary
+		MessageBytes uri = request.decodedURI();
+		String path = null;
+		for (Context context : conf.getSnapshot().getContexts()) {
+			String p = context.getPath();
+			if (p == null || (path != null && p.length() <= path.length()) || !uri.startsWith(p))
+				continue;
+			if (uri.getLength() == p.length() || p.endsWith("/")
+					|| uri.indexOf('/', p.length()) == p.length())
+				path = p;
+		}
+		return path;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jboss.cluster.proxy.NodeService#getBalancerName(org.apache.coyote.Request)
+	 */
+	@Override
+	public String getBalancerName(Request request) {
+		Balancer balancer = getBalancer(request);
+		return (balancer == null ? null : balancer.getName());
+	}
+
+	/*
+	 * The balancer of the request: the one whose sticky session cookie is
+	 * present otherwise the one of the nodes serving its context.
+	 */
+	private Balancer getBalancer(Request request) {
+		RoutingSnapshot snapshot = conf.getSnapshot();
+		Cookies cookies = request.getCookies();
+		for (int i = 0; i < cookies.getCookieCount(); i++) {
+			String name = cookies.getCookie(i).getName().toString();
+			for (Balancer bal : snapshot.getBalancers()) {
+				if (name.equals(bal.getStickySessionCookie()))
+					return bal;
+			}
+		}
+		return getServingBalancer(snapshot, request);
+	}
+
+	/*
+	 * The balancer of the nodes serving the longest enabled context of the
+	 * request URI on the virtual host of the request, the first balancer if
+	 * no node serves it.
+	 */
+	private Balancer getServingBalancer(RoutingSnapshot snapshot, Request request) {
+		MessageBytes uri = request.decodedURI();
+		String host = request.serverName().toString();
+		Context context = null;
+		for (Context con : snapshot.getContexts()) {
+			String p = con.getPath();
+			if (p == null || !con.isEnabled()
+					|| (context != null && p.length() <= context.getPath().length())
+					|| !uri.startsWith(p))
+				continue;
+			if ((uri.getLength() == p.length() || p.endsWith("/")
+					|| uri.indexOf('/', p.length()) == p.length())
+					&& isHostOf(snapshot, con, host))
+				context = con;
+		}
+		Node node = (context == null ? null : snapshot.getNode(context.getJVMRoute()));
+		Balancer bal = (node == null ? null : snapshot.getBalancer(node.getBalancer()));
+		if (bal != null)
+			return bal;
+		List<Balancer> balancers = snapshot.getBalancers();
+		return (balancers.isEmpty() ? null : balancers.get(0));
+	}
+
+	/*
+	 * true if the virtual host of the context has the given alias, or if the
+	 * host of the request is not known.
+	 */
+	private static boolean isHostOf(RoutingSnapshot snapshot, Context context, String host) {
+		if (host == null || host.isEmpty())
+			return true;
+		for (VHost hos : snapshot.getHosts()) {
+			if (hos.getId() != context.getHostid())
+				continue;
+			for (String alias : hos.getAliases()) {
+				if (host.equalsIgnoreCase(alias))
+					return true;
+			}
+			return false;
+		}
+		return true;
+	}
+
 	@Override
 	public Node getNode(Request request, Node failed) {
-		System.out.println("MCMNodeService: getNode (failed:" + failed + ")");
 		if (failed != null) {
-			failed.setStatus(NodeStatus.NODE_DOWN);
-			conf.insertupdate(failed);
+			failed.getCircuitBreaker().recordFailure();
 		}
-		return this.getNode(request);
+		return select(request, failed);
 	}
 
 }
@@ -17,27 +17,23 @@
 
 package org.jboss.cluster.proxy.container;
 
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
-import java.security.MessageDigest;
-import java.sql.Date;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.UUID;
 
 import org.apache.catalina.connector.Connector;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Adapter;
+import org.apache.coyote.BufferPool;
 import org.apache.coyote.Request;
 import org.apache.coyote.Response;
-import org.apache.coyote.http11.Constants;
 import org.apache.tomcat.util.buf.ByteChunk;
-import org.apache.tomcat.util.buf.MessageBytes;
-import org.apache.tomcat.util.http.Parameters;
 import org.apache.tomcat.util.net.SocketStatus;
+import org.jboss.cluster.proxy.ConnectionManager;
+import org.jboss.cluster.proxy.Constants;
+import org.jboss.cluster.proxy.NodeHealthChecker;
 import org.jboss.cluster.proxy.container.Context.Status;
+import org.jboss.cluster.proxy.load.ConsistentHash;
+import org.jboss.logging.Logger;
 
 /**
  * Adapter. This represents the entry point in a coyote-based servlet container.
@@ -48,6 +44,8 @@ import org.jboss.cluster.proxy.container.Context.Status;
  */
 public class MCMPAdapter implements Adapter {
 
+	private static final Logger log = Logger.getLogger(MCMPAdapter.class);
+
 	private static final String VERSION_PROTOCOL = "0.2.1";
 	private static final String TYPESYNTAX = "SYNTAX";
 	private static final String TYPEMEM = "MEM";
@@ -85,11 +83,7 @@ public class MCMPAdapter implements Adapter {
 
 	private Connector connector;
 
-	protected Thread thread = null;
-	private String sgroup = "224.0.1.105";
-	private int sport = 23364;
-	private String slocal = "127.0.0.1";
-	private MessageDigest md = null;
+	private MCMPAdvertiser advertiser;
 	private String chost = "127.0.0.1"; // System.getProperty("org.jboss.cluster.proxy.net.ADDRESS",
 										// "127.0.0.1");
 	private int cport = Integer.parseInt(System.getProperty("org.jboss.cluster.proxy.net.PORT",
@@ -114,103 +108,14 @@ public class MCMPAdapter implements Adapter {
 	 * @see org.apache.coyote.Adapter#init()
 	 */
 	public void init() throws Exception {
-
-		if (md == null)
-			md = MessageDigest.getInstance("MD5");
-		if (thread == null) {
-			thread = new Thread(new MCMAdapterBackgroundProcessor(),
-					"MCMAdapaterBackgroundProcessor");
-			thread.setDaemon(true);
-			thread.start();
-
-		}
-	}
-
-	protected class MCMAdapterBackgroundProcessor implements Runnable {
-
-		/*
-		 * the messages to send are something like:
-		 * 
-		 * HTTP/1.0 200 OK
-		 * Date: Thu, 13 Sep 2012 09:24:02 GMT
-		 * Sequence: 5
-		 * Digest: ae8e7feb7cd85be346134657de3b0661
-		 * Server: b58743ba-fd84-11e1-bd12-ad866be2b4cc
-		 * X-Manager-Address: 127.0.0.1:6666
-		 * X-Manager-Url: /b58743ba-fd84-11e1-bd12-ad866be2b4cc
-		 * X-Manager-Protocol: http
-		 * X-Manager-Host: 10.33.144.3
-		 * non-Javadoc)
-		 */
-		@Override
-		public void run() {
+		if (this.advertiser == null) {
 			try {
-				InetAddress group = InetAddress.getByName(sgroup);
-				InetAddress addr = InetAddress.getByName(slocal);
-				InetSocketAddress addrs = new InetSocketAddress(sport);
-
-				MulticastSocket s = new MulticastSocket(addrs);
-				s.setTimeToLive(29);
-				s.joinGroup(group);
-
-				int seq = 0;
-				/*
-				 * apr_uuid_get(&magd->suuid);
-				 * magd->srvid[0] = '/';
-				 * apr_uuid_format(&magd->srvid[1], &magd->suuid);
-				 * In fact we use the srvid on the 2 second byte [1]
-				 */
-				String server = UUID.randomUUID().toString();
-				boolean ok = true;
-				while (ok) {
-					Date date = new Date(System.currentTimeMillis());
-					md.reset();
-					digestString(md, securityKey);
-					byte[] ssalt = md.digest();
-					md.update(ssalt);
-					digestString(md, date);
-					digestString(md, seq);
-					digestString(md, server);
-					byte[] digest = md.digest();
-					StringBuilder str = new StringBuilder();
-					for (int i = 0; i < digest.length; i++)
-						str.append(String.format("%x", digest[i]));
-
-					String sbuf = "HTTP/1.0 200 OK\r\n" + "Date: " + date + "\r\n" + "Sequence: "
-							+ seq + "\r\n" + "Digest: " + str.toString() + "\r\n" + "Server: "
-							+ server + "\r\n" + "X-Manager-Address: " + chost + ":" + cport
-							+ "\r\n" + "X-Manager-Url: /" + server + "\r\n"
-							+ "X-Manager-Protocol: " + scheme + "\r\n" + "X-Manager-Host: " + chost
-							+ "\r\n";
-
-					byte[] buf = sbuf.getBytes();
-					DatagramPacket data = new DatagramPacket(buf, buf.length, group, sport);
-					s.send(data);
-					Thread.sleep(1000);
-					seq++;
-				}
-				s.leaveGroup(group);
-			} catch (Exception Ex) {
-				Ex.printStackTrace(System.out);
+				this.advertiser = new MCMPAdvertiser(chost, cport, scheme, securityKey);
+				this.advertiser.start(this.connector.getConnectionManager().getScheduler());
+			} catch (Exception e) {
+				log.error("Unable to start advertising", e);
 			}
 		}
-
-		private void digestString(MessageDigest md, int seq) {
-			String sseq = "" + seq;
-			digestString(md, sseq);
-		}
-
-		private void digestString(MessageDigest md, Date date) {
-			String sdate = date.toString();
-			digestString(md, sdate);
-		}
-
-		private void digestString(MessageDigest md, String securityKey) {
-			byte buf[] = securityKey.getBytes();
-			md.update(buf);
-
-		}
-
 	}
 
 	/*
@@ -225,6 +130,38 @@ public class MCMPAdapter implements Adapter {
 
 	static MCMConfig conf = new MCMConfig();
 
+	/**
+	 * The message parsed by each thread
+	 */
+	private static final ThreadLocal<MCMPMessage> MESSAGE = new ThreadLocal<MCMPMessage>() {
+		@Override
+		protected MCMPMessage initialValue() {
+			return new MCMPMessage();
+		}
+	};
+
+	/**
+	 * The buffer of each thread for the message bodies spanning several reads
+	 * and for the response bodies
+	 */
+	private static final ThreadLocal<ByteChunk> BUFFER = new ThreadLocal<ByteChunk>() {
+		@Override
+		protected ByteChunk initialValue() {
+			ByteChunk chunk = new ByteChunk();
+			chunk.allocate(1024, -1);
+			return chunk;
+		}
+	};
+
+	/**
+	 * Size of the parts of the DUMP, INFO and mod_cluster_manager bodies
+	 */
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	private static final byte PING_OK[] = ByteChunk.convertToBytes("Type=PING-RSP&State=OK");
+	private static final byte PING_NOTOK[] = ByteChunk
+			.convertToBytes("Type=PING-RSP&State=NOTOK");
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -233,40 +170,56 @@ public class MCMPAdapter implements Adapter {
 	 */
 	public void service(Request req, Response res) throws Exception {
 
-		System.out.println("service...");
-		MessageBytes methodMB = req.method();
-		if (methodMB.equals(Constants.GET)) {
-			// In fact that is /mod_cluster_manager
-		} else if (methodMB.equals(Constants.CONFIG)) {
-			process_config(req, res);
-		} else if (methodMB.equals(Constants.ENABLE_APP)) {
-			try {
-				process_enable(req, res);
-			} catch (Exception Ex) {
-				Ex.printStackTrace(System.out);
-			}
-		} else if (methodMB.equals(Constants.DISABLE_APP)) {
-			process_disable(req, res);
-		} else if (methodMB.equals(Constants.STOP_APP)) {
-			process_stop(req, res);
-		} else if (methodMB.equals(Constants.REMOVE_APP)) {
-			try {
-				process_remove(req, res);
-			} catch (Exception Ex) {
-				Ex.printStackTrace(System.out);
-			}
-		} else if (methodMB.equals(Constants.STATUS)) {
-			process_status(req, res);
-		} else if (methodMB.equals(Constants.DUMP)) {
-			process_dump(req, res);
-		} else if (methodMB.equals(Constants.INFO)) {
-			try {
-				process_info(req, res);
-			} catch (Exception Ex) {
-				Ex.printStackTrace(System.out);
+		ByteChunk methodBC = req.method().getByteChunk();
+		int command = MCMPMessage.command(methodBC.getBytes(), methodBC.getStart(),
+				methodBC.getLength());
+		MCMPMessage msg = MESSAGE.get();
+		msg.recycle();
+
+		try {
+			if (command != MCMPMessage.GET && command != MCMPMessage.UNKNOWN
+					&& !readMessage(req, msg)) {
+				process_error(TYPESYNTAX, SMESPAR, res);
+			} else {
+				switch (command) {
+					case MCMPMessage.GET:
+						// In fact that is /mod_cluster_manager
+						process_manager(res);
+						break;
+					case MCMPMessage.CONFIG:
+						process_config(msg, res);
+						break;
+					case MCMPMessage.ENABLE_APP:
+						process_cmd(req, msg, res, Context.Status.ENABLED);
+						break;
+					case MCMPMessage.DISABLE_APP:
+						process_cmd(req, msg, res, Context.Status.DISABLED);
+						break;
+					case MCMPMessage.STOP_APP:
+						process_cmd(req, msg, res, Context.Status.STOPPED);
+						break;
+					case MCMPMessage.REMOVE_APP:
+						process_remove(req, msg, res);
+						break;
+					case MCMPMessage.STATUS:
+						process_status(msg, res);
+						break;
+					case MCMPMessage.DUMP:
+						process_dump(res);
+						break;
+					case MCMPMessage.INFO:
+						process_info(res);
+						break;
+					case MCMPMessage.PING:
+						process_ping(msg, res);
+						break;
+					default:
+						process_error(TYPESYNTAX, SCMDUNS, res);
+				}
 			}
-		} else if (methodMB.equals(Constants.PING)) {
-			process_ping(req, res);
+		} catch (Exception e) {
+			log.error("Unable to process the " + req.method() + " message", e);
+			process_error(TYPESYNTAX, SMESPAR, res);
 		}
 
 		res.sendHeaders();
@@ -274,71 +227,207 @@ public class MCMPAdapter implements Adapter {
 			// If the response is not committed, then commit
 			res.action(ActionCode.ACTION_COMMIT, res);
 		}
-		// Flush buffers
+		// End the body (the last chunk of the streamed ones) and flush buffers
+		res.finish();
 		res.action(ActionCode.ACTION_CLIENT_FLUSH, res);
 	}
 
 	/**
-	 * Process <tt>PING</tt> request
+	 * Read and parse the body of a message. When the body is received in a
+	 * single read, it is parsed in place.
 	 * 
 	 * @param req
+	 * @param msg
+	 * @return <tt>false</tt> if the body could not be read
+	 * @throws IOException
+	 */
+	private boolean readMessage(Request req, MCMPMessage msg) throws IOException {
+		int len = req.getContentLength();
+		if (len <= 0) {
+			return true;
+		}
+		if (len > this.connector.getMaxPostSize()) {
+			return false;
+		}
+
+		ByteChunk chunk = new ByteChunk();
+		ByteChunk body = null;
+		int total = 0;
+		int n;
+		while (total < len && (n = req.doRead(chunk)) > 0) {
+			if (total == 0 && n >= len) {
+				msg.parse(chunk.getBytes(), chunk.getStart(), len);
+				return true;
+			}
+			if (body == null) {
+				body = BUFFER.get();
+				body.recycle();
+			}
+			body.append(chunk);
+			total += n;
+		}
+		if (total < len) {
+			return false;
+		}
+		msg.parse(body.getBytes(), body.getStart(), len);
+		return true;
+	}
+
+	/**
+	 * @return the response buffer of the current thread, emptied
+	 */
+	private static ByteChunk responseBuffer() {
+		ByteChunk chunk = BUFFER.get();
+		chunk.recycle();
+		chunk.setLimit(-1);
+		chunk.setByteOutputChannel(null);
+		return chunk;
+	}
+
+	/**
+	 * Start a streamed body. The body is rendered into the response buffer of
+	 * the current thread and sent (chunked) each time
+	 * {@link #STREAM_BUFFER_SIZE} bytes are rendered.
+	 * 
 	 * @param res
-	 * @throws Exception
+	 * @param contentType
+	 * @return the buffer to render the body into
+	 * @see #endStream(ByteChunk)
 	 */
-	private void process_ping(Request req, Response res) throws Exception {
-		System.out.println("process_ping");
-		Parameters params = req.getParameters();
-		if (params == null) {
-			process_error(TYPESYNTAX, SMESPAR, res);
-			return;
+	private static ByteChunk stream(Response res, String contentType) {
+		res.addHeader("Content-Type", contentType);
+		ByteChunk chunk = responseBuffer();
+		chunk.setLimit(STREAM_BUFFER_SIZE);
+		chunk.setByteOutputChannel(new ResponseChannel(res));
+		return chunk;
+	}
+
+	/**
+	 * Send the rest of a streamed body
+	 * 
+	 * @param chunk
+	 * @throws IOException
+	 */
+	private static void endStream(ByteChunk chunk) throws IOException {
+		if (chunk.getLength() > 0) {
+			chunk.flushBuffer();
 		}
-		String jvmRoute = null;
-		String scheme = null;
-		String host = null;
-		String port = null;
-
-		Enumeration<String> names = params.getParameterNames();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			String[] value = params.getParameterValues(name);
-			if (name.equalsIgnoreCase("JVMRoute")) {
-				jvmRoute = value[0];
-			} else if (name.equalsIgnoreCase("Scheme")) {
-				scheme = value[0];
-			} else if (name.equalsIgnoreCase("Port")) {
-				port = value[0];
-			} else if (name.equalsIgnoreCase("Host")) {
-				host = value[0];
-			} else {
-				process_error(TYPESYNTAX, SBADFLD + name + SBADFLD1, res);
-				return;
+	}
+
+	/**
+	 * {@code ResponseChannel}
+	 * <p>
+	 * Sends the rendered part of a streamed body to the client.
+	 * </p>
+	 */
+	private static class ResponseChannel implements ByteChunk.ByteOutputChannel {
+
+		private final Response res;
+		private final ByteChunk chunk = new ByteChunk();
+
+		ResponseChannel(Response res) {
+			this.res = res;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see
+		 * org.apache.tomcat.util.buf.ByteChunk.ByteOutputChannel#realWriteBytes
+		 * (byte[], int, int)
+		 */
+		@Override
+		public void realWriteBytes(byte[] cbuf, int off, int len) throws IOException {
+			this.chunk.setBytes(cbuf, off, len);
+			this.res.doWrite(this.chunk);
+		}
+	}
+
+	/**
+	 * Write a plain text body
+	 * 
+	 * @param res
+	 * @param chunk
+	 * @throws IOException
+	 */
+	private static void write(Response res, ByteChunk chunk) throws IOException {
+		res.addHeader("Content-Type", "text/plain");
+		res.setContentLength(chunk.getLength());
+		res.doWrite(chunk);
+	}
+
+	/**
+	 * Append the ISO-8859-1 bytes of a string
+	 * 
+	 * @param chunk
+	 * @param str
+	 * @return the chunk
+	 * @throws IOException
+	 */
+	static ByteChunk append(ByteChunk chunk, String str) throws IOException {
+		if (str == null) {
+			str = "null";
+		}
+		for (int i = 0, n = str.length(); i < n; i++) {
+			chunk.append((byte) str.charAt(i));
+		}
+		return chunk;
+	}
+
+	/**
+	 * Append the decimal representation of a number
+	 * 
+	 * @param chunk
+	 * @param value
+	 * @return the chunk
+	 * @throws IOException
+	 */
+	static ByteChunk append(ByteChunk chunk, long value) throws IOException {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				return append(chunk, Long.toString(value));
 			}
+			chunk.append((byte) '-');
+			value = -value;
+		}
+		long div = 1;
+		while (value / div >= 10) {
+			div *= 10;
+		}
+		for (; div > 0; div /= 10) {
+			chunk.append((byte) ('0' + (value / div) % 10));
 		}
+		return chunk;
+	}
+
+	/**
+	 * Process <tt>PING</tt> request
+	 * 
+	 * @param msg
+	 * @param res
+	 * @throws Exception
+	 */
+	private void process_ping(MCMPMessage msg, Response res) throws Exception {
+		String invalid = msg.getInvalidField(MCMPMessage.PING_FIELDS);
+		if (invalid != null) {
+			process_error(TYPESYNTAX, SBADFLD + invalid + SBADFLD1, res);
+			return;
+		}
+		String jvmRoute = msg.get(MCMPMessage.JVM_ROUTE);
+		String scheme = msg.get(MCMPMessage.SCHEME);
+		String host = msg.get(MCMPMessage.HOST);
+		String port = msg.get(MCMPMessage.PORT);
+
+		boolean up;
 		if (jvmRoute == null) {
 			if (scheme == null && host == null && port == null) {
-				res.addHeader("Content-Type", "text/plain");
-				String data = "Type=PING-RSP&State=OK";
-				res.setContentLength(data.length());
-				ByteChunk chunk = new ByteChunk();
-				chunk.append(data.getBytes(), 0, data.length());
-				res.doWrite(chunk);
-				return;
+				up = true;
 			} else {
 				if (scheme == null || host == null || port == null) {
 					process_error(TYPESYNTAX, SMISFLD, res);
 					return;
 				}
-				res.addHeader("Content-Type", "text/plain");
-				String data = "Type=PING-RSP";
-				if (ishost_up(scheme, host, port))
-					data = data.concat("&State=OK");
-				else
-					data = data.concat("&State=NOTOK");
-
-				res.setContentLength(data.length());
-				ByteChunk chunk = new ByteChunk();
-				chunk.append(data.getBytes(), 0, data.length());
-				res.doWrite(chunk);
+				up = ishost_up(scheme, host, port);
 			}
 		} else {
 			// ping the corresponding node.
@@ -347,28 +436,46 @@ public class MCMPAdapter implements Adapter {
 				process_error(TYPEMEM, MNODERD, res);
 				return;
 			}
-			res.addHeader("Content-Type", "text/plain");
-			String data = "Type=PING-RSP";
-			if (isnode_up(node))
-				data = data.concat("&State=OK");
-			else
-				data = data.concat("&State=NOTOK");
-
-			res.setContentLength(data.length());
-			ByteChunk chunk = new ByteChunk();
-			chunk.append(data.getBytes(), 0, data.length());
-			res.doWrite(chunk);
+			up = isnode_up(node);
 		}
+
+		byte data[] = up ? PING_OK : PING_NOTOK;
+		ByteChunk chunk = responseBuffer();
+		chunk.append(data, 0, data.length);
+		write(res, chunk);
 	}
 
+	/**
+	 * Probe the node (CPING/CPONG for AJP nodes)
+	 * 
+	 * @param node
+	 * @return <tt>true</tt> if the node answered the probe
+	 */
 	private boolean isnode_up(Node node) {
-		System.out.println("process_ping: " + node);
-		return false;
+		return getHealthChecker().isReachable(node);
 	}
 
+	/**
+	 * Probe the host using the specified scheme
+	 * 
+	 * @param scheme
+	 * @param host
+	 * @param port
+	 * @return <tt>true</tt> if the host answered the probe
+	 */
 	private boolean ishost_up(String scheme, String host, String port) {
-		System.out.println("process_ping: " + scheme + "://" + host + ":" + port);
-		return false;
+		try {
+			return getHealthChecker().isReachable(scheme, host, Integer.parseInt(port));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the node health checker
+	 */
+	private NodeHealthChecker getHealthChecker() {
+		return this.connector.getConnectionManager().getHealthChecker();
 	}
 
 	/*
@@ -385,67 +492,95 @@ public class MCMPAdapter implements Adapter {
 	/**
 	 * Process <tt>INFO</tt> request
 	 * 
-	 * @param req
 	 * @param res
 	 * @throws Exception
 	 */
-	private void process_info(Request req, Response res) throws Exception {
+	private void process_info(Response res) throws Exception {
 
-		String data = process_info_string();
-		process_OK(res);
-		res.addHeader("Content-Type", "text/plain");
 		res.addHeader("Server", "Mod_CLuster/0.0.0");
-		if (data.length() > 0) {
-			res.setContentLength(data.length());
-		}
-
-		ByteChunk chunk = new ByteChunk();
-		chunk.append(data.getBytes(), 0, data.length());
-		res.doWrite(chunk);
+		ByteChunk chunk = stream(res, "text/plain");
+		process_info_string(chunk);
+		endStream(chunk);
 	}
 
-	private String process_info_string() {
+	private void process_info_string(ByteChunk data) throws IOException {
+		RoutingSnapshot snapshot = conf.getSnapshot();
 		int i = 1;
-		StringBuilder data = new StringBuilder();
-
-		for (Node node : conf.getNodes()) {
-			data.append("Node: [").append(i).append("],Name: ").append(node.getJvmRoute())
-					.append(",Balancer: ").append(node.getBalancer()).append(",LBGroup: ")
-					.append(node.getDomain()).append(",Host: ").append(node.getHostname())
-					.append(",Port: ").append(node.getPort()).append(",Type: ")
-					.append(node.getType()).append(",Flushpackets: ")
-					.append((node.isFlushpackets() ? "On" : "Off")).append(",Flushwait: ")
-					.append(node.getFlushwait()).append(",Ping: ").append(node.getPing())
-					.append(",Smax: ").append(node.getSmax()).append(",Ttl: ")
-					.append(node.getTtl()).append(",Elected: ").append(node.getElected())
-					.append(",Read: ").append(node.getRead()).append(",Transfered: ")
-					.append(node.getTransfered()).append(",Connected: ")
-					.append(node.getConnected()).append(",Load: ").append(node.getLoad() + "\n");
+
+		for (Node node : snapshot.getNodes()) {
+			append(data, "Node: [");
+			append(data, i);
+			append(data, "],Name: ");
+			append(data, node.getJvmRoute());
+			append(data, ",Balancer: ");
+			append(data, node.getBalancer());
+			append(data, ",LBGroup: ");
+			append(data, node.getDomain());
+			append(data, ",Host: ");
+			append(data, node.getHostname());
+			append(data, ",Port: ");
+			append(data, node.getPort());
+			append(data, ",Type: ");
+			append(data, node.getType());
+			append(data, ",Flushpackets: ");
+			append(data, node.isFlushpackets() ? "On" : "Off");
+			append(data, ",Flushwait: ");
+			append(data, node.getFlushwait());
+			append(data, ",Ping: ");
+			append(data, node.getPing());
+			append(data, ",Smax: ");
+			append(data, node.getSmax());
+			append(data, ",Ttl: ");
+			append(data, node.getTtl());
+			append(data, ",Elected: ");
+			append(data, node.getElected());
+			append(data, ",Read: ");
+			append(data, node.getRead());
+			append(data, ",Transfered: ");
+			append(data, node.getTransfered());
+			append(data, ",Connected: ");
+			append(data, node.getConnected());
+			append(data, ",Load: ");
+			append(data, node.getLoad());
+			data.append((byte) '\n');
 			i++;
 		}
 
-		for (VHost host : conf.getHosts()) {
+		for (VHost host : snapshot.getHosts()) {
 			int j = 1;
-			long node = conf.getNodeId(host.getJVMRoute());
+			long node = snapshot.getNodeId(host.getJVMRoute());
 			for (String alias : host.getAliases()) {
-				data.append("Vhost: [").append(node).append(":").append(host.getId()).append(":")
-						.append(j).append("], Alias: ").append(alias).append("\n");
+				append(data, "Vhost: [");
+				append(data, node);
+				data.append((byte) ':');
+				append(data, host.getId());
+				data.append((byte) ':');
+				append(data, j);
+				append(data, "], Alias: ");
+				append(data, alias);
+				data.append((byte) '\n');
 
 				j++;
 			}
 		}
 
 		i = 1;
-		for (Context context : conf.getContexts()) {
-			data.append("Context: [").append(conf.getNodeId(context.getJVMRoute())).append(":")
-					.append(context.getHostId()).append(":").append(i).append("], Context: ")
-					.append(context.getPath()).append(", Status: ").append(context.getStatus())
-					.append("\n");
+		for (Context context : snapshot.getContexts()) {
+			append(data, "Context: [");
+			append(data, snapshot.getNodeId(context.getJVMRoute()));
+			data.append((byte) ':');
+			append(data, context.getHostId());
+			data.append((byte) ':');
+			append(data, i);
+			append(data, "], Context: ");
+			append(data, context.getPath());
+			append(data, ", Status: ");
+			append(data, context.getStatus().toString());
+			data.append((byte) '\n');
 
 			// TODO do we need to increment i ?
 			// i++;
 		}
-		return data.toString();
 	}
 
 	/*
@@ -463,282 +598,517 @@ public class MCMPAdapter implements Adapter {
 	/**
 	 * Process <tt>DUMP</tt> request
 	 * 
-	 * @param req
 	 * @param res
+	 * @throws Exception
 	 */
-	private void process_dump(Request req, Response res) {
-		String data = "";
+	private void process_dump(Response res) throws Exception {
+		RoutingSnapshot snapshot = conf.getSnapshot();
+		ByteChunk data = stream(res, "text/plain");
 		int i = 1;
-		for (Balancer balancer : conf.getBalancers()) {
-			String bal = "balancer: [" + i + "] Name: " + balancer.getName() + " Sticky: "
-					+ (balancer.isStickySession() ? "1" : "0") + " ["
-					+ balancer.getStickySessionCookie() + "]/[" + balancer.getStickySessionPath()
-					+ "] remove: " + (balancer.isStickySessionRemove() ? "1" : "0") + " force: "
-					+ (balancer.isStickySessionForce() ? "1" : "0") + " Timeout: "
-					+ balancer.getWaitWorker() + " maxAttempts: " + balancer.getMaxattempts()
-					+ "\n";
-			data = data.concat(bal);
+		for (Balancer balancer : snapshot.getBalancers()) {
+			append(data, "balancer: [");
+			append(data, i);
+			append(data, "] Name: ");
+			append(data, balancer.getName());
+			append(data, " Sticky: ");
+			append(data, balancer.isStickySession() ? "1" : "0");
+			append(data, " [");
+			append(data, balancer.getStickySessionCookie());
+			append(data, "]/[");
+			append(data, balancer.getStickySessionPath());
+			append(data, "] remove: ");
+			append(data, balancer.isStickySessionRemove() ? "1" : "0");
+			append(data, " force: ");
+			append(data, balancer.isStickySessionForce() ? "1" : "0");
+			append(data, " Timeout: ");
+			append(data, balancer.getWaitWorker());
+			append(data, " maxAttempts: ");
+			append(data, balancer.getMaxattempts());
+			data.append((byte) '\n');
+			i++;
+		}
+
+		for (Node node : snapshot.getNodes()) {
+			append(data, "node: [");
+			append(data, node.getId());
+			data.append((byte) ':');
+			append(data, node.getId());
+			append(data, "],Balancer: ");
+			append(data, node.getBalancer());
+			append(data, ",JVMRoute: ");
+			append(data, node.getJvmRoute());
+			append(data, ",LBGroup: [");
+			append(data, node.getDomain());
+			append(data, "],Host: ");
+			append(data, node.getHostname());
+			append(data, ",Port: ");
+			append(data, node.getPort());
+			append(data, ",Type: ");
+			append(data, node.getType());
+			append(data, ",flushpackets: ");
+			append(data, node.isFlushpackets() ? "1" : "0");
+			append(data, ",flushwait: ");
+			append(data, node.getFlushwait());
+			append(data, ",ping: ");
+			append(data, node.getPing());
+			append(data, ",smax: ");
+			append(data, node.getSmax());
+			append(data, ",ttl: ");
+			append(data, node.getTtl());
+			append(data, ",timeout: ");
+			append(data, node.getTimeout());
+			data.append((byte) '\n');
+		}
+
+		i = 1;
+		for (VHost host : snapshot.getHosts()) {
+			long node = snapshot.getNodeId(host.getJVMRoute());
+			for (String alias : host.getAliases()) {
+				append(data, "host: ");
+				append(data, i);
+				append(data, " [");
+				append(data, alias);
+				append(data, "] vhost: ");
+				append(data, host.getId());
+				append(data, " node: ");
+				append(data, node);
+				data.append((byte) '\n');
+				i++;
+			}
+		}
+
+		i = 1;
+		for (Context context : snapshot.getContexts()) {
+			append(data, "context: ");
+			append(data, i);
+			append(data, " [");
+			append(data, context.getPath());
+			append(data, "] vhost: ");
+			append(data, context.getHostId());
+			append(data, " node: ");
+			append(data, snapshot.getNodeId(context.getJVMRoute()));
+			append(data, " status: ");
+			append(data, context.getStatus().ordinal() + 1);
+			data.append((byte) '\n');
 			i++;
 		}
-		// TODO Add more...
 
-		System.out.println("process_dump");
+		endStream(data);
 	}
 
 	/**
-	 * Process <tt>STATUS</tt> request
+	 * Process <tt>GET</tt> request: the <tt>mod_cluster_manager</tt> page with
+	 * the configuration and the live statistics of the nodes
 	 * 
-	 * @param req
 	 * @param res
 	 * @throws Exception
 	 */
-	private void process_status(Request req, Response res) throws Exception {
-		Parameters params = req.getParameters();
-		if (params == null) {
-			process_error(TYPESYNTAX, SMESPAR, res);
-			return;
+	private void process_manager(Response res) throws Exception {
+		RoutingSnapshot snapshot = conf.getSnapshot();
+		ConnectionManager manager = this.connector.getConnectionManager();
+		NodeHealthChecker checker = manager.getHealthChecker();
+		long now = System.currentTimeMillis();
+
+		ByteChunk data = stream(res, "text/html; charset=ISO-8859-1");
+		append(data, "<html><head>\n<title>Mod_cluster Status</title>\n</head><body>\n");
+		append(data, "<h1>mod_cluster/proxy (routing version ");
+		append(data, snapshot.getVersion());
+		append(data, ")</h1>\n");
+
+		for (Balancer balancer : snapshot.getBalancers()) {
+			append(data, "<h1> Balancer: ");
+			escape(data, balancer.getName());
+			append(data, ",StickySession: ");
+			append(data, balancer.isStickySession() ? "1" : "0");
+			append(data, ",StickySessionCookie: ");
+			escape(data, balancer.getStickySessionCookie());
+			append(data, ",StickySessionPath: ");
+			escape(data, balancer.getStickySessionPath());
+			append(data, ",StickySessionRemove: ");
+			append(data, balancer.isStickySessionRemove() ? "1" : "0");
+			append(data, ",StickySessionForce: ");
+			append(data, balancer.isStickySessionForce() ? "1" : "0");
+			append(data, ",Timeout: ");
+			append(data, balancer.getWaitWorker());
+			append(data, ",Maxtry: ");
+			append(data, balancer.getMaxattempts());
+			append(data, "</h1>\n");
 		}
-		String jvmRoute = null;
-		String load = null;
-		Enumeration<String> names = params.getParameterNames();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			String[] value = params.getParameterValues(name);
-			if (name.equalsIgnoreCase("JVMRoute")) {
-				jvmRoute = value[0];
-			} else if (name.equalsIgnoreCase("Load")) {
-				load = value[0];
+
+		for (Node node : snapshot.getNodes()) {
+			String jvmRoute = node.getJvmRoute();
+			append(data, "<h1> Node ");
+			escape(data, jvmRoute);
+			append(data, " (");
+			escape(data, node.getType());
+			append(data, "://");
+			escape(data, node.getHostname());
+			data.append((byte) ':');
+			append(data, node.getPort());
+			append(data, "): </h1>\n");
+			append(data, "Balancer: ");
+			escape(data, node.getBalancer());
+			append(data, ",LBGroup: ");
+			escape(data, node.getDomain());
+			append(data, ",Flushpackets: ");
+			append(data, node.isFlushpackets() ? "On" : "Off");
+			append(data, ",Flushwait: ");
+			append(data, node.getFlushwait());
+			append(data, ",Ping: ");
+			append(data, node.getPing());
+			append(data, ",Smax: ");
+			append(data, node.getSmax());
+			append(data, ",Ttl: ");
+			append(data, node.getTtl());
+			append(data, ",Status: ");
+			append(data, node.getStatus().toString());
+			append(data, ",Elected: ");
+			append(data, node.getElected());
+			append(data, ",Read: ");
+			append(data, node.getRead());
+			append(data, ",Transferred: ");
+			append(data, node.getTransfered());
+			append(data, ",Connected: ");
+			append(data, node.getConnected());
+			append(data, ",Load: ");
+			append(data, node.getLoad());
+			append(data, "<br/>\nCircuit: ");
+			append(data, node.getCircuitBreaker().getState().toString());
+			append(data, ",Idle connections: ");
+			append(data, manager.getIdleConnections(jvmRoute));
+			long lastProbe = checker.getLastProbe(jvmRoute);
+			append(data, ",Last probe: ");
+			if (lastProbe < 0) {
+				append(data, "never");
 			} else {
-				process_error(TYPESYNTAX, SBADFLD + value[0] + SBADFLD1, res);
-				return;
+				append(data, now - lastProbe);
+				append(data, " ms ago");
+			}
+			append(data, ",Probe failures: ");
+			append(data, checker.getFailures(jvmRoute));
+			append(data, "<br/>\n");
+
+			for (VHost host : snapshot.getHosts()) {
+				if (!jvmRoute.equals(host.getJVMRoute())) {
+					continue;
+				}
+				append(data, "<h2> Virtual Host ");
+				append(data, host.getId());
+				append(data, ":</h2><h3>Contexts:</h3><pre>");
+				for (Context context : snapshot.getContexts()) {
+					if (jvmRoute.equals(context.getJVMRoute())
+							&& context.getHostId() == host.getId()) {
+						escape(data, context.getPath());
+						append(data, ", Status: ");
+						append(data, context.getStatus().toString());
+						data.append((byte) '\n');
+					}
+				}
+				append(data, "</pre><h3>Aliases:</h3><pre>");
+				for (String alias : host.getAliases()) {
+					escape(data, alias);
+					data.append((byte) '\n');
+				}
+				append(data, "</pre>\n");
 			}
-		}
-		if (load == null || jvmRoute == null) {
-			process_error(TYPESYNTAX, SMISFLD, res);
-			return;
 		}
 
-		Node node = conf.getNode(jvmRoute);
-		if (node == null) {
-			process_error(TYPEMEM, MNODERD, res);
-			return;
+		append(data, "<h1>Buffer pool</h1>\n<pre>Capacity: ");
+		append(data, BufferPool.getCapacity());
+		append(data, ", Used: ");
+		append(data, BufferPool.getUsed());
+		append(data, ", Shed: ");
+		append(data, BufferPool.getShed());
+		append(data, ", Leaks: ");
+		append(data, BufferPool.getLeaks());
+		data.append((byte) '\n');
+		escape(data, BufferPool.getStatistics());
+		append(data, "</pre>\n<h1>Node connections</h1>\nOpened: ");
+		append(data, manager.getOpenedConnections());
+		append(data, "\n</body></html>\n");
+		endStream(data);
+	}
+
+	/**
+	 * Append a string escaped for HTML
+	 * 
+	 * @param chunk
+	 * @param str
+	 * @return the chunk
+	 * @throws IOException
+	 */
+	private static ByteChunk escape(ByteChunk chunk, String str) throws IOException {
+		if (str == null) {
+			return chunk;
 		}
-		node.setLoad(Integer.parseInt(load));
-		/* TODO we need to check the node here */
-		node.setStatus(Node.NodeStatus.NODE_UP);
-		process_OK(res);
+		for (int i = 0, n = str.length(); i < n; i++) {
+			char c = str.charAt(i);
+			switch (c) {
+				case '<':
+					append(chunk, "&lt;");
+					break;
+				case '>':
+					append(chunk, "&gt;");
+					break;
+				case '&':
+					append(chunk, "&amp;");
+					break;
+				case '"':
+					append(chunk, "&quot;");
+					break;
+				default:
+					chunk.append((byte) c);
+			}
+		}
+		return chunk;
 	}
 
 	/**
-	 * Process <tt>REMOVE-APP</tt> request
+	 * Process <tt>STATUS</tt> request
 	 * 
-	 * @param req
+	 * @param msg
 	 * @param res
 	 * @throws Exception
 	 */
-	private void process_remove(Request req, Response res) throws Exception {
-		Parameters params = req.getParameters();
-		if (params == null) {
-			process_error(TYPESYNTAX, SMESPAR, res);
+	private void process_status(MCMPMessage msg, Response res) throws Exception {
+		String invalid = msg.getInvalidField(MCMPMessage.STATUS_FIELDS);
+		if (invalid != null) {
+			process_error(TYPESYNTAX, SBADFLD + invalid + SBADFLD1, res);
 			return;
 		}
-
-		boolean global = false;
-		if (req.unparsedURI().toString().equals("*") || req.unparsedURI().toString().endsWith("/*")) {
-			global = true;
+		String jvmRoute = msg.get(MCMPMessage.JVM_ROUTE);
+		String load = msg.get(MCMPMessage.LOAD);
+		if (load == null || jvmRoute == null) {
+			process_error(TYPESYNTAX, SMISFLD, res);
+			return;
 		}
-		Context context = new Context();
-		VHost host = new VHost();
-		Enumeration<String> names = params.getParameterNames();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			String[] value = params.getParameterValues(name);
-			if (name.equalsIgnoreCase("JVMRoute")) {
-				if (conf.getNodeId(value[0]) == -1) {
-					process_error(TYPEMEM, MNODERD, res);
-					return;
-				}
-				host.setJVMRoute(value[0]);
-				context.setJVMRoute(value[0]);
-			} else if (name.equalsIgnoreCase("Alias")) {
-				// Alias is something like =default-host,localhost,example.com
-				String aliases[] = value[0].split(",");
-				host.setAliases(Arrays.asList(aliases));
-			} else if (name.equalsIgnoreCase("Context")) {
-				context.setPath(value[0]);
-			}
 
-		}
-		if (context.getJVMRoute() == null) {
-			process_error(TYPESYNTAX, SROUBAD, res);
+		if (!conf.setLoad(jvmRoute, Integer.parseInt(load)).get()) {
+			process_error(TYPEMEM, MNODERD, res);
 			return;
 		}
-
-		if (global)
-			conf.removeNode(context.getJVMRoute());
-		else
-			conf.remove(context, host);
 		process_OK(res);
 	}
 
 	/**
-	 * Process <tt>STOP-APP</tt> request
-	 * 
 	 * @param req
-	 * @param res
-	 * @throws Exception
+	 * @return <tt>true</tt> if the command applies to all the contexts of the
+	 *         node
 	 */
-	private void process_stop(Request req, Response res) throws Exception {
-		process_cmd(req, res, Context.Status.STOPPED);
+	private static boolean isGlobal(Request req) {
+		ByteChunk uri = req.unparsedURI().getByteChunk();
+		int end = uri.getEnd();
+		return uri.getLength() > 0 && uri.getBytes()[end - 1] == '*'
+				&& (uri.getLength() == 1 || uri.getBytes()[end - 2] == '/');
 	}
 
 	/**
-	 * Process <tt>DISABLE-APP</tt> request
+	 * Fill the virtual host and the context of an application command
 	 * 
-	 * @param req
+	 * @param msg
+	 * @param host
+	 * @param context
 	 * @param res
+	 * @return <tt>false</tt> if the node is unknown
 	 * @throws Exception
 	 */
-	private void process_disable(Request req, Response res) throws Exception {
-		process_cmd(req, res, Context.Status.DISABLED);
+	private boolean readApp(MCMPMessage msg, VHost host, Context context, Response res)
+			throws Exception {
+		String jvmRoute = msg.get(MCMPMessage.JVM_ROUTE);
+		if (jvmRoute != null) {
+			if (conf.getNodeId(jvmRoute) == -1) {
+				process_error(TYPEMEM, MNODERD, res);
+				return false;
+			}
+			host.setJVMRoute(jvmRoute);
+			context.setJVMRoute(jvmRoute);
+		}
+		String alias = msg.get(MCMPMessage.ALIAS);
+		if (alias != null) {
+			// Alias is something like =default-host,localhost,example.com
+			host.setAliases(Arrays.asList(alias.split(",")));
+		}
+		String path = msg.get(MCMPMessage.CONTEXT);
+		if (path != null) {
+			context.setPath(path);
+		}
+		if (context.getJVMRoute() == null) {
+			process_error(TYPESYNTAX, SROUBAD, res);
+			return false;
+		}
+		return true;
 	}
 
 	/**
-	 * Process <tt>ENABLE-APP</tt> request
+	 * Process <tt>REMOVE-APP</tt> request
 	 * 
 	 * @param req
+	 * @param msg
 	 * @param res
 	 * @throws Exception
 	 */
-	private void process_enable(Request req, Response res) throws Exception {
-		process_cmd(req, res, Context.Status.ENABLED);
-	}
-
-	private void process_cmd(Request req, Response res, Context.Status status) throws Exception {
-		Parameters params = req.getParameters();
-		if (params == null) {
-			process_error(TYPESYNTAX, SMESPAR, res);
+	private void process_remove(Request req, MCMPMessage msg, Response res) throws Exception {
+		Context context = new Context();
+		VHost host = new VHost();
+		if (!readApp(msg, host, context, res)) {
 			return;
 		}
 
-		if (req.unparsedURI().toString().equals("*") || req.unparsedURI().toString().endsWith("/*")) {
-			process_node_cmd(req, res, status);
+		if (isGlobal(req)) {
+			conf.removeNode(context.getJVMRoute()).get();
+			getHealthChecker().unregister(context.getJVMRoute());
+		} else {
+			conf.remove(context, host).get();
+		}
+		process_OK(res);
+	}
+
+	/**
+	 * Process <tt>ENABLE-APP</tt>, <tt>DISABLE-APP</tt> and <tt>STOP-APP</tt>
+	 * requests
+	 * 
+	 * @param req
+	 * @param msg
+	 * @param res
+	 * @param status
+	 * @throws Exception
+	 */
+	private void process_cmd(Request req, MCMPMessage msg, Response res, Context.Status status)
+			throws Exception {
+		if (isGlobal(req)) {
+			process_node_cmd(msg, res, status);
 			return;
 		}
 
 		Context context = new Context();
 		VHost host = new VHost();
-		Enumeration<String> names = params.getParameterNames();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			String[] value = params.getParameterValues(name);
-			if (name.equalsIgnoreCase("JVMRoute")) {
-				if (conf.getNodeId(value[0]) == -1) {
-					process_error(TYPEMEM, MNODERD, res);
-					return;
-				}
-				host.setJVMRoute(value[0]);
-				context.setJVMRoute(value[0]);
-			} else if (name.equalsIgnoreCase("Alias")) {
-				// Alias is something like =default-host,localhost,example.com
-				String aliases[] = value[0].split(",");
-				host.setAliases(Arrays.asList(aliases));
-			} else if (name.equalsIgnoreCase("Context")) {
-				context.setPath(value[0]);
-			}
-
-		}
-		if (context.getJVMRoute() == null) {
-			process_error(TYPESYNTAX, SROUBAD, res);
+		if (!readApp(msg, host, context, res)) {
 			return;
 		}
 		context.setStatus(status);
-		long id = conf.insertupdate(host);
-		context.setHostid(id);
-		conf.insertupdate(context);
+		if (!conf.insertupdate(host, context).get()) {
+			process_error(TYPEMEM, MNODERD, res);
+			return;
+		}
 		process_OK(res);
 	}
 
-	private void process_node_cmd(Request req, Response res, Status enabled) {
-		System.out.println("process_node_cmd:" + process_info_string());
+	/**
+	 * Apply the status to all the contexts of a node
+	 * 
+	 * @param msg
+	 * @param res
+	 * @param status
+	 * @throws Exception
+	 */
+	private void process_node_cmd(MCMPMessage msg, Response res, Status status)
+			throws Exception {
+		String jvmRoute = msg.get(MCMPMessage.JVM_ROUTE);
+		if (jvmRoute == null) {
+			process_error(TYPESYNTAX, SROUBAD, res);
+			return;
+		}
+		if (!conf.setStatus(jvmRoute, status).get()) {
+			process_error(TYPEMEM, MNODERD, res);
+			return;
+		}
+		process_OK(res);
 	}
 
 	/**
 	 * Process <tt>CONFIG</tt> request
 	 * 
-	 * @param req
+	 * @param msg
 	 * @param res
 	 * @throws Exception
 	 */
-	private void process_config(Request req, Response res) throws Exception {
-		Parameters params = req.getParameters();
-		if (params == null) {
-			process_error(TYPESYNTAX, SMESPAR, res);
+	private void process_config(MCMPMessage msg, Response res) throws Exception {
+		String invalid = msg.getInvalidField(MCMPMessage.CONFIG_FIELDS);
+		if (invalid != null) {
+			process_error(TYPESYNTAX, SBADFLD + invalid + SBADFLD1, res);
 			return;
 		}
 
 		Balancer balancer = new Balancer();
 		Node node = new Node();
+		String value;
 
-		Enumeration<String> names = params.getParameterNames();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			String[] value = params.getParameterValues(name);
-			if (name.equalsIgnoreCase("Balancer")) {
-				balancer.setName(value[0]);
-				node.setBalancer(value[0]);
-			} else if (name.equalsIgnoreCase("StickySession")) {
-				if (value[0].equalsIgnoreCase("No"))
-					balancer.setStickySession(false);
-			} else if (name.equalsIgnoreCase("StickySessionCookie")) {
-				balancer.setStickySessionCookie(value[0]);
-			} else if (name.equalsIgnoreCase("StickySessionPath")) {
-				balancer.setStickySessionPath(value[0]);
-			} else if (name.equalsIgnoreCase("StickySessionRemove")) {
-				if (value[0].equalsIgnoreCase("Yes"))
-					balancer.setStickySessionRemove(true);
-			} else if (name.equalsIgnoreCase("StickySessionForce")) {
-				if (value[0].equalsIgnoreCase("no"))
-					balancer.setStickySessionForce(false);
-			} else if (name.equalsIgnoreCase("WaitWorker")) {
-				balancer.setWaitWorker(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("Maxattempts")) {
-				balancer.setMaxattempts(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("JVMRoute")) {
-				node.setJvmRoute(value[0]);
-			} else if (name.equalsIgnoreCase("Domain")) {
-				node.setDomain(value[0]);
-			} else if (name.equalsIgnoreCase("Host")) {
-				node.setHostname(value[0]);
-			} else if (name.equalsIgnoreCase("Port")) {
-				node.setPort(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("Type")) {
-				node.setType(value[0]);
-			} else if (name.equalsIgnoreCase("Reversed")) {
-				continue; // ignore it.
-			} else if (name.equalsIgnoreCase("flushpacket")) {
-				if (value[0].equalsIgnoreCase("on"))
-					node.setFlushpackets(true);
-				if (value[0].equalsIgnoreCase("auto"))
-					node.setFlushpackets(true);
-			} else if (name.equalsIgnoreCase("flushwait")) {
-				node.setFlushwait(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("ping")) {
-				node.setPing(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("smax")) {
-				node.setSmax(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("ttl")) {
-				node.setTtl(Integer.valueOf(value[0]));
-			} else if (name.equalsIgnoreCase("Timeout")) {
-				node.setTimeout(Integer.valueOf(value[0]));
+		if ((value = msg.get(MCMPMessage.BALANCER)) != null) {
+			balancer.setName(value);
+			node.setBalancer(value);
+		}
+		if ((value = msg.get(MCMPMessage.STICKY_SESSION)) != null && value.equalsIgnoreCase("No")) {
+			balancer.setStickySession(false);
+		}
+		if ((value = msg.get(MCMPMessage.STICKY_SESSION_COOKIE)) != null) {
+			balancer.setStickySessionCookie(value);
+		}
+		if ((value = msg.get(MCMPMessage.STICKY_SESSION_PATH)) != null) {
+			balancer.setStickySessionPath(value);
+		}
+		if ((value = msg.get(MCMPMessage.STICKY_SESSION_REMOVE)) != null
+				&& value.equalsIgnoreCase("Yes")) {
+			balancer.setStickySessionRemove(true);
+		}
+		if ((value = msg.get(MCMPMessage.STICKY_SESSION_FORCE)) != null
+				&& value.equalsIgnoreCase("no")) {
+			balancer.setStickySessionForce(false);
+		}
+		if ((value = msg.get(MCMPMessage.WAIT_WORKER)) != null) {
+			balancer.setWaitWorker(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.MAX_ATTEMPTS)) != null) {
+			balancer.setMaxattempts(Integer.valueOf(value));
+		}
+		// The hash routing is not a field of the CONFIG message, it is set per
+		// balancer by the proxy configuration
+		value = System.getProperty(Constants.HASH_KEY_NAME + "." + balancer.getName(), "").trim();
+		if (!value.isEmpty()) {
+			if (ConsistentHash.isValidKey(value)) {
+				balancer.setHashKey(value);
 			} else {
-				process_error(TYPESYNTAX, SBADFLD + name + SBADFLD1, res);
-				return;
+				log.warn("Invalid hash key of the balancer " + balancer.getName() + " : "
+						+ value);
 			}
 		}
+		if ((value = msg.get(MCMPMessage.JVM_ROUTE)) != null) {
+			node.setJvmRoute(value);
+		}
+		if ((value = msg.get(MCMPMessage.DOMAIN)) != null) {
+			node.setDomain(value);
+		}
+		if ((value = msg.get(MCMPMessage.HOST)) != null) {
+			node.setHostname(value);
+		}
+		if ((value = msg.get(MCMPMessage.PORT)) != null) {
+			node.setPort(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.TYPE)) != null) {
+			node.setType(value);
+		}
+		// Reversed is ignored
+		if ((value = msg.get(MCMPMessage.FLUSH_PACKETS)) != null
+				&& (value.equalsIgnoreCase("on") || value.equalsIgnoreCase("auto"))) {
+			node.setFlushpackets(true);
+		}
+		if ((value = msg.get(MCMPMessage.FLUSH_WAIT)) != null) {
+			node.setFlushwait(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.PING_FIELD)) != null) {
+			node.setPing(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.SMAX)) != null) {
+			node.setSmax(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.TTL)) != null) {
+			node.setTtl(Integer.valueOf(value));
+		}
+		if ((value = msg.get(MCMPMessage.TIMEOUT)) != null) {
+			node.setTimeout(Integer.valueOf(value));
+		}
 
-		conf.insertupdate(balancer);
-		conf.insertupdate(node);
+		conf.insertupdate(balancer, node).get();
+		getHealthChecker().register(node);
 		process_OK(res);
 	}
 
@@ -752,6 +1122,7 @@ public class MCMPAdapter implements Adapter {
 		res.setStatus(200);
 		res.setMessage("OK");
 		res.addHeader("Content-type", "plain/text");
+		res.setContentLength(0);
 	}
 
 	/**
@@ -768,5 +1139,6 @@ public class MCMPAdapter implements Adapter {
 		res.addHeader("Version", VERSION_PROTOCOL);
 		res.addHeader("Type", type);
 		res.addHeader("Mess", errstring);
+		res.setContentLength(0);
 	}
 }
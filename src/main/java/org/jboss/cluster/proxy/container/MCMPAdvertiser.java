@@ -0,0 +1,279 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.jboss.cluster.proxy.Constants;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code MCMPAdvertiser}
+ * <p>
+ * Periodic task sending the advertise messages to the multicast group, so the
+ * nodes can discover the MCMP address of the proxy. The message is built in a
+ * single buffer from pre-encoded parts, only the date, the sequence and the
+ * digest change between two messages.
+ * </p>
+ * The messages are something like:
+ *
+ * <pre>
+ * HTTP/1.0 200 OK
+ * Date: Thu, 13 Sep 2012 09:24:02 GMT
+ * Sequence: 5
+ * Digest: ae8e7feb7cd85be346134657de3b0661
+ * Server: b58743ba-fd84-11e1-bd12-ad866be2b4cc
+ * X-Manager-Address: 127.0.0.1:6666
+ * X-Manager-Url: /b58743ba-fd84-11e1-bd12-ad866be2b4cc
+ * X-Manager-Protocol: http
+ * X-Manager-Host: 10.33.144.3
+ * </pre>
+ *
+ * Created on Oct 19, 2026 at 12:19:42 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MCMPAdvertiser implements Runnable {
+
+	private static final Logger log = Logger.getLogger(MCMPAdvertiser.class);
+
+	private static final byte[] HEX = ByteChunk.convertToBytes("0123456789abcdef");
+	private static final byte[] STATUS_DATE = ByteChunk.convertToBytes("HTTP/1.0 200 OK\r\nDate: ");
+	private static final byte[] SEQUENCE = ByteChunk.convertToBytes("\r\nSequence: ");
+	private static final byte[] DIGEST = ByteChunk.convertToBytes("\r\nDigest: ");
+	private static final int DIGEST_LENGTH = 16;
+	private static final int MAX_DATE_LENGTH = 64;
+
+	private final InetSocketAddress group;
+	private final List<NetworkInterface> interfaces;
+	private final long interval;
+	private final MessageDigest md;
+	private final byte[] salt;
+	private final byte[] server;
+	private final byte[] tail;
+	private final ByteBuffer packet;
+	private final byte[] date = new byte[MAX_DATE_LENGTH];
+	private final byte[] digits = new byte[20];
+	private final byte[] digest = new byte[DIGEST_LENGTH];
+	private String lastDate;
+	private int dateLength;
+	private long seq = 0;
+	private boolean failing = false;
+	private DatagramChannel channel;
+	private ScheduledFuture<?> future;
+
+	/**
+	 * Create a new instance of {@code MCMPAdvertiser}
+	 *
+	 * @param host
+	 *            the MCMP host advertised
+	 * @param port
+	 *            the MCMP port advertised
+	 * @param scheme
+	 *            the MCMP scheme advertised
+	 * @param securityKey
+	 *            the key used to digest the messages
+	 * @throws Exception
+	 */
+	public MCMPAdvertiser(String host, int port, String scheme, String securityKey)
+			throws Exception {
+		this.interval = Long.getLong(Constants.ADVERTISE_INTERVAL_NAME,
+				Constants.DEFAULT_ADVERTISE_INTERVAL);
+		this.group = new InetSocketAddress(InetAddress.getByName(System.getProperty(
+				Constants.ADVERTISE_GROUP_NAME, Constants.DEFAULT_ADVERTISE_GROUP)),
+				Integer.getInteger(Constants.ADVERTISE_PORT_NAME, Constants.DEFAULT_ADVERTISE_PORT));
+		this.interfaces = getInterfaces(System.getProperty(Constants.ADVERTISE_INTERFACES_NAME));
+
+		this.md = MessageDigest.getInstance("MD5");
+		this.salt = this.md.digest(securityKey.getBytes());
+		/*
+		 * apr_uuid_get(&magd->suuid);
+		 * magd->srvid[0] = '/';
+		 * apr_uuid_format(&magd->srvid[1], &magd->suuid);
+		 * In fact we use the srvid on the 2 second byte [1]
+		 */
+		String uuid = UUID.randomUUID().toString();
+		this.server = ByteChunk.convertToBytes(uuid);
+		this.tail = ByteChunk.convertToBytes("\r\nServer: " + uuid + "\r\nX-Manager-Address: "
+				+ host + ":" + port + "\r\nX-Manager-Url: /" + uuid + "\r\nX-Manager-Protocol: "
+				+ scheme + "\r\nX-Manager-Host: " + host + "\r\n");
+		this.packet = ByteBuffer.allocate(STATUS_DATE.length + MAX_DATE_LENGTH + SEQUENCE.length
+				+ this.digits.length + DIGEST.length + 2 * DIGEST_LENGTH + this.tail.length);
+	}
+
+	/**
+	 * Parse the list of the network interfaces
+	 *
+	 * @param names
+	 * @return the network interfaces, empty for the system default one
+	 * @throws IOException
+	 */
+	private static List<NetworkInterface> getInterfaces(String names) throws IOException {
+		List<NetworkInterface> list = new ArrayList<NetworkInterface>();
+		if (names == null || names.trim().isEmpty()) {
+			return list;
+		}
+		if (names.trim().equals("*")) {
+			for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+				if (ni.isUp() && ni.supportsMulticast()) {
+					list.add(ni);
+				}
+			}
+			return list;
+		}
+		for (String name : names.split(",")) {
+			name = name.trim();
+			NetworkInterface ni = NetworkInterface.getByName(name);
+			if (ni == null) {
+				ni = NetworkInterface.getByInetAddress(InetAddress.getByName(name));
+			}
+			if (ni == null) {
+				throw new IOException("Unknown network interface " + name);
+			}
+			list.add(ni);
+		}
+		return list;
+	}
+
+	/**
+	 * Open the channel and schedule the advertise messages
+	 *
+	 * @param scheduler
+	 * @throws IOException
+	 */
+	public void start(ScheduledExecutorService scheduler) throws IOException {
+		if (this.interval <= 0) {
+			log.info("Advertising disabled");
+			return;
+		}
+		this.channel = DatagramChannel
+				.open(this.group.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6
+						: StandardProtocolFamily.INET);
+		this.channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 29);
+		this.future = scheduler.scheduleAtFixedRate(this, 0, this.interval,
+				TimeUnit.MILLISECONDS);
+		log.info("Advertising on " + this.group + " every " + this.interval + "ms");
+	}
+
+	/**
+	 * Stop sending the advertise messages
+	 */
+	public void stop() {
+		if (this.future != null) {
+			this.future.cancel(false);
+		}
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// NOPE
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		// Never let an exception reach the scheduler, it would cancel the task
+		try {
+			build();
+			if (this.interfaces.isEmpty()) {
+				this.channel.send(this.packet, this.group);
+			} else {
+				for (NetworkInterface ni : this.interfaces) {
+					this.channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+					this.packet.rewind();
+					this.channel.send(this.packet, this.group);
+				}
+			}
+			this.seq++;
+			if (this.failing) {
+				log.info("Advertising resumed");
+				this.failing = false;
+			}
+		} catch (Exception e) {
+			if (!this.failing) {
+				log.warn("Unable to send the advertise message", e);
+				this.failing = true;
+			}
+		}
+	}
+
+	/**
+	 * Build the message in the packet buffer
+	 *
+	 * @throws Exception
+	 */
+	private void build() throws Exception {
+		String now = FastHttpDateFormat.getCurrentDate();
+		if (now != this.lastDate) {
+			this.lastDate = now;
+			this.dateLength = Math.min(now.length(), MAX_DATE_LENGTH);
+			for (int i = 0; i < this.dateLength; i++) {
+				this.date[i] = (byte) now.charAt(i);
+			}
+		}
+		int off = this.digits.length;
+		long value = this.seq;
+		do {
+			this.digits[--off] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+
+		this.md.reset();
+		this.md.update(this.salt);
+		this.md.update(this.date, 0, this.dateLength);
+		this.md.update(this.digits, off, this.digits.length - off);
+		this.md.update(this.server);
+		this.md.digest(this.digest, 0, DIGEST_LENGTH);
+
+		this.packet.clear();
+		this.packet.put(STATUS_DATE).put(this.date, 0, this.dateLength).put(SEQUENCE)
+				.put(this.digits, off, this.digits.length - off).put(DIGEST);
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			this.packet.put(HEX[(this.digest[i] >> 4) & 0xf]).put(HEX[this.digest[i] & 0xf]);
+		}
+		this.packet.put(this.tail).flip();
+	}
+}
@@ -0,0 +1,436 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@code MCMPMessage}
+ *
+ * A parsed MCMP message: the command and the values of the fields of its
+ * url-encoded body. The command and the field names are matched on the raw
+ * bytes through a perfect hash of their length, first and next-to-last
+ * characters, so no string is created but for the field values. An instance
+ * is reused by a thread from one message to the next.
+ *
+ * Created on Oct 19, 2026 at 12:05:19 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MCMPMessage {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/* the commands */
+	public static final int UNKNOWN = -1;
+	public static final int GET = 0;
+	public static final int CONFIG = 1;
+	public static final int ENABLE_APP = 2;
+	public static final int DISABLE_APP = 3;
+	public static final int STOP_APP = 4;
+	public static final int REMOVE_APP = 5;
+	public static final int STATUS = 6;
+	public static final int DUMP = 7;
+	public static final int INFO = 8;
+	public static final int PING = 9;
+
+	private static final String COMMANDS[] = { "GET", "CONFIG", "ENABLE-APP", "DISABLE-APP",
+			"STOP-APP", "REMOVE-APP", "STATUS", "DUMP", "INFO", "PING" };
+
+	/* the fields */
+	public static final int BALANCER = 0;
+	public static final int STICKY_SESSION = 1;
+	public static final int STICKY_SESSION_COOKIE = 2;
+	public static final int STICKY_SESSION_PATH = 3;
+	public static final int STICKY_SESSION_REMOVE = 4;
+	public static final int STICKY_SESSION_FORCE = 5;
+	public static final int WAIT_WORKER = 6;
+	public static final int MAX_ATTEMPTS = 7;
+	public static final int JVM_ROUTE = 8;
+	public static final int DOMAIN = 9;
+	public static final int HOST = 10;
+	public static final int PORT = 11;
+	public static final int TYPE = 12;
+	public static final int REVERSED = 13;
+	public static final int FLUSH_PACKETS = 14;
+	public static final int FLUSH_WAIT = 15;
+	public static final int PING_FIELD = 16;
+	public static final int SMAX = 17;
+	public static final int TTL = 18;
+	public static final int TIMEOUT = 19;
+	public static final int LOAD = 20;
+	public static final int ALIAS = 21;
+	public static final int CONTEXT = 22;
+	public static final int SCHEME = 23;
+
+	private static final String FIELDS[] = { "Balancer", "StickySession", "StickySessionCookie",
+			"StickySessionPath", "StickySessionRemove", "StickySessionForce", "WaitWorker",
+			"Maxattempts", "JVMRoute", "Domain", "Host", "Port", "Type", "Reversed",
+			"Flushpackets", "Flushwait", "Ping", "Smax", "Ttl", "Timeout", "Load", "Alias",
+			"Context", "Scheme" };
+
+	/**
+	 * The fields accepted by the <tt>CONFIG</tt> command
+	 */
+	public static final long CONFIG_FIELDS = mask(BALANCER, STICKY_SESSION,
+			STICKY_SESSION_COOKIE, STICKY_SESSION_PATH, STICKY_SESSION_REMOVE,
+			STICKY_SESSION_FORCE, WAIT_WORKER, MAX_ATTEMPTS, JVM_ROUTE, DOMAIN, HOST, PORT, TYPE,
+			REVERSED, FLUSH_PACKETS, FLUSH_WAIT, PING_FIELD, SMAX, TTL, TIMEOUT);
+
+	/**
+	 * The fields accepted by the <tt>STATUS</tt> command
+	 */
+	public static final long STATUS_FIELDS = mask(JVM_ROUTE, LOAD);
+
+	/**
+	 * The fields accepted by the <tt>PING</tt> command
+	 */
+	public static final long PING_FIELDS = mask(JVM_ROUTE, SCHEME, HOST, PORT);
+
+	private final String values[] = new String[FIELDS.length];
+	private long present = 0;
+	private String unknown;
+	private byte scratch[] = new byte[256];
+
+	/**
+	 * Create a new instance of {@code MCMPMessage}
+	 */
+	public MCMPMessage() {
+		super();
+	}
+
+	/**
+	 * @param fields
+	 * @return the bit mask of the fields
+	 */
+	private static long mask(int... fields) {
+		long mask = 0;
+		for (int field : fields) {
+			mask |= 1L << field;
+		}
+		return mask;
+	}
+
+	/**
+	 * @param len
+	 * @param first
+	 *            the first character, lower case
+	 * @param nextToLast
+	 *            the next-to-last character, lower case
+	 * @return the perfect hash of a command or field name
+	 */
+	private static int hash(int len, int first, int nextToLast) {
+		return (len << 16) | (first << 8) | nextToLast;
+	}
+
+	/**
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return the perfect hash of the bytes
+	 */
+	private static int hash(byte b[], int off, int len) {
+		if (len < 2) {
+			return 0;
+		}
+		return hash(len, lower(b[off]), lower(b[off + len - 2]));
+	}
+
+	/**
+	 * @param b
+	 * @return the lower case of an ASCII letter
+	 */
+	private static int lower(byte b) {
+		return (b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b;
+	}
+
+	/**
+	 * Identify the command of a message. Commands are case sensitive.
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return the command, or {@link #UNKNOWN}
+	 */
+	public static int command(byte b[], int off, int len) {
+		int command;
+		switch (hash(b, off, len)) {
+			case (3 << 16) | ('g' << 8) | 'e':
+				command = GET;
+				break;
+			case (6 << 16) | ('c' << 8) | 'i':
+				command = CONFIG;
+				break;
+			case (10 << 16) | ('e' << 8) | 'p':
+				command = ENABLE_APP;
+				break;
+			case (11 << 16) | ('d' << 8) | 'p':
+				command = DISABLE_APP;
+				break;
+			case (8 << 16) | ('s' << 8) | 'p':
+				command = STOP_APP;
+				break;
+			case (10 << 16) | ('r' << 8) | 'p':
+				command = REMOVE_APP;
+				break;
+			case (6 << 16) | ('s' << 8) | 'u':
+				command = STATUS;
+				break;
+			case (4 << 16) | ('d' << 8) | 'm':
+				command = DUMP;
+				break;
+			case (4 << 16) | ('i' << 8) | 'f':
+				command = INFO;
+				break;
+			case (4 << 16) | ('p' << 8) | 'n':
+				command = PING;
+				break;
+			default:
+				return UNKNOWN;
+		}
+		return equals(b, off, len, COMMANDS[command], false) ? command : UNKNOWN;
+	}
+
+	/**
+	 * Identify a field name. Field names are case insensitive.
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return the field, or {@link #UNKNOWN}
+	 */
+	public static int field(byte b[], int off, int len) {
+		int field;
+		switch (hash(b, off, len)) {
+			case (8 << 16) | ('b' << 8) | 'e':
+				field = BALANCER;
+				break;
+			case (13 << 16) | ('s' << 8) | 'o':
+				field = STICKY_SESSION;
+				break;
+			case (19 << 16) | ('s' << 8) | 'i':
+				field = STICKY_SESSION_COOKIE;
+				break;
+			case (17 << 16) | ('s' << 8) | 't':
+				field = STICKY_SESSION_PATH;
+				break;
+			case (19 << 16) | ('s' << 8) | 'v':
+				field = STICKY_SESSION_REMOVE;
+				break;
+			case (18 << 16) | ('s' << 8) | 'c':
+				field = STICKY_SESSION_FORCE;
+				break;
+			case (10 << 16) | ('w' << 8) | 'e':
+				field = WAIT_WORKER;
+				break;
+			case (11 << 16) | ('m' << 8) | 't':
+				field = MAX_ATTEMPTS;
+				break;
+			case (8 << 16) | ('j' << 8) | 't':
+				field = JVM_ROUTE;
+				break;
+			case (6 << 16) | ('d' << 8) | 'i':
+				field = DOMAIN;
+				break;
+			case (4 << 16) | ('h' << 8) | 's':
+				field = HOST;
+				break;
+			case (4 << 16) | ('p' << 8) | 'r':
+				field = PORT;
+				break;
+			case (4 << 16) | ('t' << 8) | 'p':
+				field = TYPE;
+				break;
+			case (8 << 16) | ('r' << 8) | 'e':
+				field = REVERSED;
+				break;
+			case (12 << 16) | ('f' << 8) | 't':
+				field = FLUSH_PACKETS;
+				break;
+			case (11 << 16) | ('f' << 8) | 'e':
+				// Older nodes send "flushpacket"
+				return equals(b, off, len, "flushpacket", true) ? FLUSH_PACKETS : UNKNOWN;
+			case (9 << 16) | ('f' << 8) | 'i':
+				field = FLUSH_WAIT;
+				break;
+			case (4 << 16) | ('p' << 8) | 'n':
+				field = PING_FIELD;
+				break;
+			case (4 << 16) | ('s' << 8) | 'a':
+				field = SMAX;
+				break;
+			case (3 << 16) | ('t' << 8) | 't':
+				field = TTL;
+				break;
+			case (7 << 16) | ('t' << 8) | 'u':
+				field = TIMEOUT;
+				break;
+			case (4 << 16) | ('l' << 8) | 'a':
+				field = LOAD;
+				break;
+			case (5 << 16) | ('a' << 8) | 'a':
+				field = ALIAS;
+				break;
+			case (7 << 16) | ('c' << 8) | 'x':
+				field = CONTEXT;
+				break;
+			case (6 << 16) | ('s' << 8) | 'm':
+				field = SCHEME;
+				break;
+			default:
+				return UNKNOWN;
+		}
+		return equals(b, off, len, FIELDS[field], true) ? field : UNKNOWN;
+	}
+
+	/**
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @param name
+	 * @param ignoreCase
+	 * @return <tt>true</tt> if the bytes are the ASCII name
+	 */
+	private static boolean equals(byte b[], int off, int len, String name, boolean ignoreCase) {
+		if (len != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			int c = name.charAt(i);
+			if (ignoreCase ? lower(b[off + i]) != lower((byte) c) : b[off + i] != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse an url-encoded body (<tt>name=value&amp;...</tt>). The first
+	 * value of a field is kept. The first unknown field name is kept for the
+	 * error message.
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	public void parse(byte b[], int off, int len) {
+		int end = off + len;
+		int start = off;
+		while (start < end) {
+			int amp = start;
+			int eq = -1;
+			while (amp < end && b[amp] != '&') {
+				if (eq < 0 && b[amp] == '=') {
+					eq = amp;
+				}
+				amp++;
+			}
+			int nameEnd = eq < 0 ? amp : eq;
+			if (nameEnd > start) {
+				int field = field(b, start, nameEnd - start);
+				if (field == UNKNOWN) {
+					if (this.unknown == null) {
+						this.unknown = decode(b, start, nameEnd - start);
+					}
+				} else if ((this.present & (1L << field)) == 0) {
+					this.present |= 1L << field;
+					this.values[field] = eq < 0 ? "" : decode(b, eq + 1, amp - eq - 1);
+				}
+			}
+			start = amp + 1;
+		}
+	}
+
+	/**
+	 * URL-decode a value
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return the decoded value
+	 */
+	private String decode(byte b[], int off, int len) {
+		int i = off;
+		int end = off + len;
+		while (i < end && b[i] != '%' && b[i] != '+') {
+			i++;
+		}
+		if (i == end) {
+			return new String(b, off, len, ISO_8859_1);
+		}
+
+		if (this.scratch.length < len) {
+			this.scratch = new byte[len];
+		}
+		int n = i - off;
+		System.arraycopy(b, off, this.scratch, 0, n);
+		for (; i < end; i++) {
+			byte c = b[i];
+			if (c == '+') {
+				c = ' ';
+			} else if (c == '%' && i + 2 < end) {
+				int hi = Character.digit(b[i + 1], 16);
+				int lo = Character.digit(b[i + 2], 16);
+				if (hi >= 0 && lo >= 0) {
+					c = (byte) ((hi << 4) + lo);
+					i += 2;
+				}
+			}
+			this.scratch[n++] = c;
+		}
+		return new String(this.scratch, 0, n, ISO_8859_1);
+	}
+
+	/**
+	 * @param field
+	 * @return the value of the field, or <tt>null</tt> if it is missing
+	 */
+	public String get(int field) {
+		return this.values[field];
+	}
+
+	/**
+	 * @param allowed
+	 *            the bit mask of the fields accepted by the command
+	 * @return the name of the first field not accepted by the command, or
+	 *         <tt>null</tt> if all are
+	 */
+	public String getInvalidField(long allowed) {
+		if (this.unknown != null) {
+			return this.unknown;
+		}
+		long invalid = this.present & ~allowed;
+		return invalid == 0 ? null : FIELDS[Long.numberOfTrailingZeros(invalid)];
+	}
+
+	/**
+	 * Reset the message
+	 */
+	public void recycle() {
+		if (this.present != 0) {
+			Arrays.fill(this.values, null);
+			this.present = 0;
+		}
+		this.unknown = null;
+	}
+}
@@ -24,6 +24,8 @@ package org.jboss.cluster.proxy.container;
 import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jboss.cluster.proxy.CircuitBreaker;
+
 /**
  * {@code Node}
  * 
@@ -123,6 +125,10 @@ public class Node implements Serializable {
 	 * Load factor received via the STATUS messages
 	 */
 	private int load;
+	/**
+	 * Passive health state driven by the forwarding results
+	 */
+	private transient CircuitBreaker circuitBreaker = new CircuitBreaker();
 
 	/**
 	 * Create a new instance of {@code Node}
@@ -505,6 +511,15 @@ public class Node implements Serializable {
 		this.connected = connected;
 	}
 
+	/**
+	 * Getter for circuitBreaker
+	 * 
+	 * @return the circuitBreaker
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
 	/**
 	 * Getter for load
 	 * 
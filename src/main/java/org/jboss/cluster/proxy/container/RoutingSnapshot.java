@@ -0,0 +1,158 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code RoutingSnapshot}
+ * <p>
+ * An immutable view of the cluster configuration received via MCMP. A new
+ * snapshot is built by the {@link MCMConfig} writer after each batch of
+ * updates and published at once, the request threads only read it. The
+ * runtime values of the nodes (load, elected, circuit breaker) remain on the
+ * {@link Node} instances.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 12:09:09 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class RoutingSnapshot {
+
+	/**
+	 * The snapshot published before the first update
+	 */
+	static final RoutingSnapshot EMPTY = new RoutingSnapshot(0, new ArrayList<Node>(),
+			new ArrayList<Balancer>(), new ArrayList<VHost>(), new ArrayList<Context>());
+
+	private final long version;
+	private final List<Node> nodes;
+	private final List<Balancer> balancers;
+	private final List<VHost> hosts;
+	private final List<Context> contexts;
+	private final Map<String, Node> nodesByRoute;
+	private final Map<String, Balancer> balancersByName;
+
+	/**
+	 * Create a new instance of {@code RoutingSnapshot} from copies of the
+	 * given lists
+	 *
+	 * @param version
+	 * @param nodes
+	 * @param balancers
+	 * @param hosts
+	 * @param contexts
+	 */
+	RoutingSnapshot(long version, List<Node> nodes, List<Balancer> balancers, List<VHost> hosts,
+			List<Context> contexts) {
+		this.version = version;
+		this.nodes = Collections.unmodifiableList(new ArrayList<Node>(nodes));
+		this.balancers = Collections.unmodifiableList(new ArrayList<Balancer>(balancers));
+		this.hosts = Collections.unmodifiableList(new ArrayList<VHost>(hosts));
+		this.contexts = Collections.unmodifiableList(new ArrayList<Context>(contexts));
+		this.nodesByRoute = new HashMap<String, Node>();
+		for (Node node : nodes) {
+			this.nodesByRoute.put(node.getJvmRoute(), node);
+		}
+		this.balancersByName = new HashMap<String, Balancer>();
+		for (Balancer balancer : balancers) {
+			this.balancersByName.put(balancer.getName(), balancer);
+		}
+	}
+
+	/**
+	 * @return the version of the snapshot, incremented on each publication
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return the nodes
+	 */
+	public List<Node> getNodes() {
+		return this.nodes;
+	}
+
+	/**
+	 * @return the balancers
+	 */
+	public List<Balancer> getBalancers() {
+		return this.balancers;
+	}
+
+	/**
+	 * @return the virtual hosts
+	 */
+	public List<VHost> getHosts() {
+		return this.hosts;
+	}
+
+	/**
+	 * @return the contexts
+	 */
+	public List<Context> getContexts() {
+		return this.contexts;
+	}
+
+	/**
+	 * @param jvmRoute
+	 * @return the node having the given JVMRoute or <tt>null</tt>
+	 */
+	public Node getNode(String jvmRoute) {
+		return this.nodesByRoute.get(jvmRoute);
+	}
+
+	/**
+	 * @param jvmRoute
+	 * @return the id of the node having the given JVMRoute or <tt>-1</tt>
+	 */
+	public long getNodeId(String jvmRoute) {
+		Node node = this.nodesByRoute.get(jvmRoute);
+		return (node == null ? -1 : node.getId());
+	}
+
+	/**
+	 * @param name
+	 * @return the balancer having the given name or <tt>null</tt>
+	 */
+	public Balancer getBalancer(String name) {
+		return this.balancersByName.get(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RoutingSnapshot[version: " + this.version + ", nodes: " + this.nodes.size()
+				+ ", balancers: " + this.balancers.size() + ", hosts: " + this.hosts.size()
+				+ ", contexts: " + this.contexts.size() + "]";
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@code Constants}
+ *
+ * The codes of the HTTP/2 protocol (RFC 7540) and the settings of the
+ * connections to the nodes.
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class Constants {
+
+	/**
+	 * The connection preface sent before the first frame
+	 */
+	public static final byte[] PREFACE = ByteChunk
+			.convertToBytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+	/**
+	 * The size of the frame header (length, type, flags and stream)
+	 */
+	public static final int FRAME_HEADER_SIZE = 9;
+
+	// Frame types
+	public static final byte DATA = 0x0;
+	public static final byte HEADERS = 0x1;
+	public static final byte PRIORITY = 0x2;
+	public static final byte RST_STREAM = 0x3;
+	public static final byte SETTINGS = 0x4;
+	public static final byte PUSH_PROMISE = 0x5;
+	public static final byte PING = 0x6;
+	public static final byte GOAWAY = 0x7;
+	public static final byte WINDOW_UPDATE = 0x8;
+	public static final byte CONTINUATION = 0x9;
+
+	// Frame flags
+	public static final int FLAG_END_STREAM = 0x1;
+	public static final int FLAG_ACK = 0x1;
+	public static final int FLAG_END_HEADERS = 0x4;
+	public static final int FLAG_PADDED = 0x8;
+	public static final int FLAG_PRIORITY = 0x20;
+
+	// Settings
+	public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	public static final int SETTINGS_ENABLE_PUSH = 0x2;
+	public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	// Error codes
+	public static final int NO_ERROR = 0x0;
+	public static final int PROTOCOL_ERROR = 0x1;
+	public static final int FLOW_CONTROL_ERROR = 0x3;
+	public static final int FRAME_SIZE_ERROR = 0x6;
+	public static final int REFUSED_STREAM = 0x7;
+	public static final int CANCEL = 0x8;
+	public static final int COMPRESSION_ERROR = 0x9;
+
+	/**
+	 * The initial size of the flow control windows
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 65535;
+
+	/**
+	 * The largest flow control window
+	 */
+	public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * The largest frame payload accepted until the peer settings are known,
+	 * and the one accepted from the nodes
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+	/**
+	 * The initial size of the HPACK dynamic table
+	 */
+	public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+
+	/**
+	 * The number of concurrent streams assumed until the node tells its
+	 * limit
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+	/**
+	 * The receive window of each stream. The node may send that many bytes of
+	 * a response before the client took them, which matches the high-water
+	 * mark of the client output buffers.
+	 */
+	public static final int STREAM_WINDOW_SIZE = 256 * 1024;
+
+	/**
+	 * The receive window of each connection, shared by its streams
+	 */
+	public static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Create a new instance of {@code Constants}
+	 */
+	private Constants() {
+
+	}
+}
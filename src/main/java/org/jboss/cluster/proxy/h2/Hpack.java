@@ -0,0 +1,173 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * {@code Hpack}
+ *
+ * The static table of HPACK (RFC 7541) and the encoding of the request
+ * headers. The headers are encoded as literals never added to the dynamic
+ * table, the name being taken from the static table when it is there, so
+ * that the encoder has no state to keep in sync with the node.
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class Hpack {
+
+	/**
+	 * The static table, the index of an entry being its position + 1
+	 */
+	static final String STATIC_TABLE[][] = { { ":authority", "" }, { ":method", "GET" },
+			{ ":method", "POST" }, { ":path", "/" }, { ":path", "/index.html" },
+			{ ":scheme", "http" }, { ":scheme", "https" }, { ":status", "200" },
+			{ ":status", "204" }, { ":status", "206" }, { ":status", "304" },
+			{ ":status", "400" }, { ":status", "404" }, { ":status", "500" },
+			{ "accept-charset", "" }, { "accept-encoding", "gzip, deflate" },
+			{ "accept-language", "" }, { "accept-ranges", "" }, { "accept", "" },
+			{ "access-control-allow-origin", "" }, { "age", "" }, { "allow", "" },
+			{ "authorization", "" }, { "cache-control", "" }, { "content-disposition", "" },
+			{ "content-encoding", "" }, { "content-language", "" }, { "content-length", "" },
+			{ "content-location", "" }, { "content-range", "" }, { "content-type", "" },
+			{ "cookie", "" }, { "date", "" }, { "etag", "" }, { "expect", "" },
+			{ "expires", "" }, { "from", "" }, { "host", "" }, { "if-match", "" },
+			{ "if-modified-since", "" }, { "if-none-match", "" }, { "if-range", "" },
+			{ "if-unmodified-since", "" }, { "last-modified", "" }, { "link", "" },
+			{ "location", "" }, { "max-forwards", "" }, { "proxy-authenticate", "" },
+			{ "proxy-authorization", "" }, { "range", "" }, { "referer", "" },
+			{ "refresh", "" }, { "retry-after", "" }, { "server", "" }, { "set-cookie", "" },
+			{ "strict-transport-security", "" }, { "transfer-encoding", "" },
+			{ "user-agent", "" }, { "vary", "" }, { "via", "" }, { "www-authenticate", "" } };
+
+	/**
+	 * The index of the first entry of each name of the static table
+	 */
+	private static final Map<String, Integer> NAMES = new HashMap<>();
+
+	static {
+		for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+			NAMES.put(STATIC_TABLE[i][0], i + 1);
+		}
+	}
+
+	/**
+	 * Create a new instance of {@code Hpack}
+	 */
+	private Hpack() {
+
+	}
+
+	/**
+	 * Encode a header as a literal never indexed
+	 *
+	 * @param dst
+	 * @param name
+	 *            the name, in lower case
+	 * @param value
+	 */
+	public static void encode(ByteChunk dst, String name, String value) throws IOException {
+		encodeName(dst, name);
+		encodeString(dst, ByteChunk.convertToBytes(value));
+	}
+
+	/**
+	 * Encode a header as a literal never indexed, without conversion if the
+	 * value holds bytes
+	 *
+	 * @param dst
+	 * @param name
+	 *            the name, in lower case
+	 * @param value
+	 */
+	public static void encode(ByteChunk dst, String name, MessageBytes value)
+			throws IOException {
+		if (value.getType() != MessageBytes.T_BYTES) {
+			encode(dst, name, value.toString());
+			return;
+		}
+		encodeName(dst, name);
+		ByteChunk bc = value.getByteChunk();
+		encodeInt(dst, 0, 7, bc.getLength());
+		dst.append(bc.getBuffer(), bc.getStart(), bc.getLength());
+	}
+
+	/**
+	 * Encode the name of a literal never indexed
+	 *
+	 * @param dst
+	 * @param name
+	 */
+	private static void encodeName(ByteChunk dst, String name) throws IOException {
+		Integer index = NAMES.get(name);
+		if (index != null) {
+			encodeInt(dst, 0x10, 4, index);
+		} else {
+			dst.append((byte) 0x10);
+			encodeString(dst, ByteChunk.convertToBytes(name));
+		}
+	}
+
+	/**
+	 * Encode a string literal, without Huffman coding
+	 *
+	 * @param dst
+	 * @param bytes
+	 */
+	private static void encodeString(ByteChunk dst, byte bytes[]) throws IOException {
+		encodeInt(dst, 0, 7, bytes.length);
+		dst.append(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Encode an integer with an N-bit prefix
+	 *
+	 * @param dst
+	 * @param first
+	 *            the bits of the first byte above the prefix
+	 * @param prefix
+	 *            the number of bits of the prefix
+	 * @param value
+	 */
+	static void encodeInt(ByteChunk dst, int first, int prefix, int value)
+			throws IOException {
+		int max = (1 << prefix) - 1;
+		if (value < max) {
+			dst.append((byte) (first | value));
+			return;
+		}
+		dst.append((byte) (first | max));
+		value -= max;
+		while (value >= 0x80) {
+			dst.append((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		dst.append((byte) value);
+	}
+}
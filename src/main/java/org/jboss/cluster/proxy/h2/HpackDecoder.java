@@ -0,0 +1,231 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * {@code HpackDecoder}
+ *
+ * Decoder of the header blocks sent by a node (RFC 7541). The dynamic table
+ * is the state of the connection, so the blocks must be decoded in the
+ * order they are received, including the blocks of the streams which were
+ * reset.
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class HpackDecoder {
+
+	/**
+	 * The size of an entry of the dynamic table on top of its name and value
+	 */
+	private static final int ENTRY_OVERHEAD = 32;
+
+	/**
+	 * The dynamic table, the newest entry being the last one
+	 */
+	private final List<String[]> table = new ArrayList<>();
+	private final int maxTableSize;
+	private int tableSize = 0;
+	private int capacity;
+	private int pos;
+
+	/**
+	 * Create a new instance of {@code HpackDecoder}
+	 *
+	 * @param maxTableSize
+	 *            the size of the dynamic table announced to the node
+	 */
+	public HpackDecoder(int maxTableSize) {
+		this.maxTableSize = maxTableSize;
+		this.capacity = maxTableSize;
+	}
+
+	/**
+	 * Decode a complete header block
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @param headers
+	 *            the headers receiving the decoded fields
+	 * @throws IOException
+	 *             if the block is not valid, the connection can not be used
+	 *             anymore
+	 */
+	public void decode(byte data[], int off, int len, MimeHeaders headers) throws IOException {
+		this.pos = off;
+		int end = off + len;
+		while (this.pos < end) {
+			int b = data[this.pos] & 0xFF;
+			if ((b & 0x80) != 0) {
+				// Indexed field
+				String entry[] = get(readInt(data, end, 7));
+				headers.addValue(entry[0]).setString(entry[1]);
+			} else if ((b & 0x40) != 0) {
+				// Literal added to the dynamic table
+				String entry[] = readLiteral(data, end, 6, headers);
+				add(entry);
+			} else if ((b & 0x20) != 0) {
+				// Dynamic table size update
+				int size = readInt(data, end, 5);
+				if (size > this.maxTableSize) {
+					throw new IOException("HPACK table size update too large: " + size);
+				}
+				this.capacity = size;
+				evict(0);
+			} else {
+				// Literal without indexing or never indexed
+				readLiteral(data, end, 4, headers);
+			}
+		}
+	}
+
+	/**
+	 * Read a literal field and add it to the headers
+	 *
+	 * @param data
+	 * @param end
+	 * @param prefix
+	 *            the number of bits of the name index
+	 * @param headers
+	 * @return the field
+	 * @throws IOException
+	 */
+	private String[] readLiteral(byte data[], int end, int prefix, MimeHeaders headers)
+			throws IOException {
+		int index = readInt(data, end, prefix);
+		String name = (index == 0 ? readString(data, end) : get(index)[0]);
+		String value = readString(data, end);
+		headers.addValue(name).setString(value);
+		return new String[] { name, value };
+	}
+
+	/**
+	 * @param index
+	 * @return the entry of the static or the dynamic table
+	 * @throws IOException
+	 *             if there is no such entry
+	 */
+	private String[] get(int index) throws IOException {
+		if (index > 0 && index <= Hpack.STATIC_TABLE.length) {
+			return Hpack.STATIC_TABLE[index - 1];
+		}
+		int i = this.table.size() - 1 - (index - Hpack.STATIC_TABLE.length - 1);
+		if (index <= 0 || i < 0) {
+			throw new IOException("Invalid HPACK index " + index);
+		}
+		return this.table.get(i);
+	}
+
+	/**
+	 * Add an entry to the dynamic table, evicting the oldest ones to make room
+	 *
+	 * @param entry
+	 */
+	private void add(String entry[]) {
+		int size = entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+		if (size > this.capacity) {
+			this.table.clear();
+			this.tableSize = 0;
+			return;
+		}
+		evict(size);
+		this.table.add(entry);
+		this.tableSize += size;
+	}
+
+	/**
+	 * Evict the oldest entries until the specified size fits in the table
+	 *
+	 * @param size
+	 */
+	private void evict(int size) {
+		while (this.tableSize + size > this.capacity) {
+			String entry[] = this.table.remove(0);
+			this.tableSize -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+		}
+	}
+
+	/**
+	 * Read an integer with an N-bit prefix
+	 *
+	 * @param data
+	 * @param end
+	 * @param prefix
+	 * @return the integer
+	 * @throws IOException
+	 */
+	private int readInt(byte data[], int end, int prefix) throws IOException {
+		int max = (1 << prefix) - 1;
+		int value = data[this.pos++] & max;
+		if (value < max) {
+			return value;
+		}
+		int shift = 0;
+		int b;
+		do {
+			if (this.pos >= end || shift > 21) {
+				throw new IOException("Invalid HPACK integer");
+			}
+			b = data[this.pos++] & 0xFF;
+			value += (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Read a string literal
+	 *
+	 * @param data
+	 * @param end
+	 * @return the string
+	 * @throws IOException
+	 */
+	private String readString(byte data[], int end) throws IOException {
+		if (this.pos >= end) {
+			throw new IOException("Truncated HPACK string");
+		}
+		boolean huffman = (data[this.pos] & 0x80) != 0;
+		int length = readInt(data, end, 7);
+		if (length > end - this.pos) {
+			throw new IOException("Truncated HPACK string");
+		}
+		StringBuilder sb = new StringBuilder(length);
+		if (huffman) {
+			Huffman.decode(data, this.pos, length, sb);
+		} else {
+			for (int i = this.pos; i < this.pos + length; i++) {
+				sb.append((char) (data[i] & 0xFF));
+			}
+		}
+		this.pos += length;
+		return sb.toString();
+	}
+}
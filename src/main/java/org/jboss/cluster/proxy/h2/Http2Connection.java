@@ -0,0 +1,904 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.NioChannel;
+import org.jboss.logging.Logger;
+
+/**
+ * {@code Http2Connection}
+ * <p>
+ * An HTTP/2 connection to a node (h2c with prior knowledge), over which the
+ * requests are multiplexed as streams. The frames are queued and written one
+ * write at a time, the queued frames being merged into a single write. The
+ * frames of the node are read by a single pending read and dispatched to the
+ * handlers of the streams.
+ * </p>
+ * <p>
+ * The send windows of the node are honored for the request bodies. The
+ * receive window of a stream is given back as the client takes the response
+ * bytes, so that a slow client only stalls its own stream, while the receive
+ * window of the connection is given back as soon as the bytes are received.
+ * </p>
+ * Server push is disabled and the HPACK dynamic table is never used for the
+ * requests.
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Http2Connection implements CompletionHandler<Integer, ByteBuffer> {
+
+	private static final Logger logger = Logger.getLogger(Http2Connection.class);
+
+	/**
+	 * The largest header block accepted from a node
+	 */
+	private static final int MAX_HEADER_BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * The largest write, when several frames are merged
+	 */
+	private static final int MAX_WRITE_SIZE = 64 * 1024;
+
+	private final NioChannel channel;
+	private final HpackDecoder decoder = new HpackDecoder(Constants.DEFAULT_HEADER_TABLE_SIZE);
+	private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+	private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+	private final ByteBuffer in = ByteBuffer.allocate(2 * (Constants.FRAME_HEADER_SIZE
+			+ Constants.DEFAULT_MAX_FRAME_SIZE));
+	private final CompletionHandler<Integer, ByteBuffer> writeHandler = new CompletionHandler<Integer, ByteBuffer>() {
+
+		@Override
+		public void completed(Integer nBytes, ByteBuffer attachment) {
+			if (nBytes < 0) {
+				failed(new ClosedChannelException(), attachment);
+			} else if (attachment.hasRemaining()) {
+				channel.write(attachment, attachment, this);
+			} else {
+				writing.set(false);
+				flush();
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, ByteBuffer attachment) {
+			close(exc);
+		}
+	};
+
+	// The header block being received, read by the reading thread only
+	private final ByteChunk headerBlock = new ByteChunk(1024);
+	private int headerStream = 0;
+	private boolean headerEndStream;
+	private int received = 0;
+
+	// Guarded by this
+	private int nextStreamId = 1;
+	private int initialWindow = Constants.DEFAULT_WINDOW_SIZE;
+	private int maxFrameSize = Constants.DEFAULT_MAX_FRAME_SIZE;
+	private int sendWindow = Constants.DEFAULT_WINDOW_SIZE;
+	private volatile int maxConcurrentStreams = Constants.DEFAULT_MAX_CONCURRENT_STREAMS;
+	private volatile boolean goingAway = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a new instance of {@code Http2Connection}
+	 *
+	 * @param channel
+	 *            the connection to the node
+	 */
+	public Http2Connection(NioChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Send the connection preface and the settings, and start reading the
+	 * frames of the node
+	 */
+	public void start() {
+		ByteBuffer preface = ByteBuffer.allocate(Constants.PREFACE.length + 2
+				* Constants.FRAME_HEADER_SIZE + 2 * 6 + 4);
+		preface.put(Constants.PREFACE);
+		frameHeader(preface, 2 * 6, Constants.SETTINGS, 0, 0);
+		preface.putShort((short) Constants.SETTINGS_ENABLE_PUSH).putInt(0);
+		preface.putShort((short) Constants.SETTINGS_INITIAL_WINDOW_SIZE).putInt(
+				Constants.STREAM_WINDOW_SIZE);
+		frameHeader(preface, 4, Constants.WINDOW_UPDATE, 0, 0);
+		preface.putInt(Constants.CONNECTION_WINDOW_SIZE - Constants.DEFAULT_WINDOW_SIZE);
+		preface.flip();
+		send(preface);
+		read();
+	}
+
+	/**
+	 * Open a new stream
+	 *
+	 * @param block
+	 *            the encoded request headers
+	 * @param endStream
+	 *            <tt>true</tt> if the request has no body
+	 * @param handler
+	 *            the handler of the stream events
+	 * @return the new stream
+	 * @throws IOException
+	 *             if the connection does not accept new streams
+	 */
+	public Http2Stream openStream(ByteChunk block, boolean endStream, Http2Stream.Handler handler)
+			throws IOException {
+		Http2Stream stream;
+		synchronized (this) {
+			if (this.closed || this.goingAway || this.nextStreamId < 0) {
+				throw new IOException("The connection does not accept new streams");
+			}
+			stream = new Http2Stream(this, handler, this.initialWindow);
+			stream.setId(this.nextStreamId);
+			stream.localEnd = endStream;
+			this.nextStreamId += 2;
+			this.streams.put(stream.getId(), stream);
+			// The streams must be opened in the order of their identifiers
+			this.queue.offer(headers(stream.getId(), block, endStream));
+		}
+		flush();
+		return stream;
+	}
+
+	/**
+	 * @return <tt>true</tt> if a new stream can be opened
+	 */
+	public boolean isAvailable() {
+		return !this.closed && !this.goingAway && this.streams.size() < this.maxConcurrentStreams;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the connection is closed
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * @return the number of open streams
+	 */
+	public int getActiveStreams() {
+		return this.streams.size();
+	}
+
+	/**
+	 * Stop accepting new streams, the connection is closed once the open ones
+	 * complete
+	 */
+	public void shutdown() {
+		this.goingAway = true;
+		closeIfIdle();
+	}
+
+	/**
+	 * Close the connection, the open streams fail
+	 */
+	public void close() {
+		close(new ClosedChannelException());
+	}
+
+	/**
+	 * Close the connection, the open streams fail with the specified cause
+	 *
+	 * @param exc
+	 */
+	private void close(Throwable exc) {
+		List<Http2Stream> failed;
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			failed = new ArrayList<>(this.streams.values());
+			this.streams.clear();
+			for (Http2Stream stream : failed) {
+				stream.closed = true;
+			}
+		}
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			// NOPE
+		}
+		for (Http2Stream stream : failed) {
+			stream.getHandler().failed(stream, exc, false);
+		}
+	}
+
+	/**
+	 * Close the connection if it does not accept new streams and the open
+	 * ones completed
+	 */
+	private void closeIfIdle() {
+		if (this.goingAway && this.streams.isEmpty()) {
+			close();
+		}
+	}
+
+	/*
+	 * The calls of the streams
+	 */
+
+	/**
+	 * @param stream
+	 * @param max
+	 * @return the credit taken from the windows
+	 * @see Http2Stream#reserve(int)
+	 */
+	synchronized int reserve(Http2Stream stream, int max) {
+		if (stream.closed || stream.localEnd) {
+			return 0;
+		}
+		int n = Math.min(Math.min(max, this.maxFrameSize),
+				Math.min(this.sendWindow, stream.sendWindow));
+		if (n <= 0) {
+			return 0;
+		}
+		this.sendWindow -= n;
+		stream.sendWindow -= n;
+		return n;
+	}
+
+	/**
+	 * @param stream
+	 * @return <tt>true</tt> if some bytes may be sent, or if the stream is
+	 *         closed so that the sender finds it out
+	 * @see Http2Stream#canSend()
+	 */
+	synchronized boolean canSend(Http2Stream stream) {
+		return stream.closed || (this.sendWindow > 0 && stream.sendWindow > 0);
+	}
+
+	/**
+	 * @see Http2Stream#sendData(byte[], int, int, boolean)
+	 */
+	void sendData(Http2Stream stream, byte data[], int off, int len, boolean endStream) {
+		ByteBuffer frame = ByteBuffer.allocate(Constants.FRAME_HEADER_SIZE + len);
+		frameHeader(frame, len, Constants.DATA, endStream ? Constants.FLAG_END_STREAM : 0,
+				stream.getId());
+		if (len > 0) {
+			frame.put(data, off, len);
+		}
+		frame.flip();
+		synchronized (this) {
+			if (stream.closed || stream.localEnd) {
+				return;
+			}
+			stream.localEnd = endStream;
+			this.queue.offer(frame);
+			if (stream.localEnd && stream.remoteEnd) {
+				remove(stream);
+			}
+		}
+		flush();
+		closeIfIdle();
+	}
+
+	/**
+	 * @see Http2Stream#consumed(int)
+	 */
+	void consumed(Http2Stream stream, int n) {
+		synchronized (this) {
+			if (n <= 0 || stream.closed || stream.remoteEnd) {
+				return;
+			}
+		}
+		send(windowUpdateFrame(stream.getId(), n));
+	}
+
+	/**
+	 * @see Http2Stream#cancel()
+	 */
+	void reset(Http2Stream stream, int error) {
+		synchronized (this) {
+			if (stream.closed) {
+				return;
+			}
+			remove(stream);
+			this.queue.offer(rstStreamFrame(stream.getId(), error));
+		}
+		flush();
+		closeIfIdle();
+	}
+
+	/**
+	 * Remove a closed stream, the lock must be held
+	 *
+	 * @param stream
+	 */
+	private void remove(Http2Stream stream) {
+		stream.closed = true;
+		this.streams.remove(stream.getId());
+	}
+
+	/*
+	 * Writing
+	 */
+
+	/**
+	 * Queue a frame and write it as soon as the previous writes complete
+	 *
+	 * @param frame
+	 */
+	private void send(ByteBuffer frame) {
+		this.queue.offer(frame);
+		flush();
+	}
+
+	/**
+	 * Write the queued frames, unless a write is pending
+	 */
+	private void flush() {
+		while (!this.queue.isEmpty() && this.writing.compareAndSet(false, true)) {
+			ByteBuffer frame = this.queue.poll();
+			if (frame == null) {
+				this.writing.set(false);
+				continue;
+			}
+			ByteBuffer next = this.queue.peek();
+			if (next != null && frame.remaining() + next.remaining() <= MAX_WRITE_SIZE) {
+				frame = merge(frame);
+			}
+			try {
+				this.channel.write(frame, frame, this.writeHandler);
+			} catch (Throwable t) {
+				close(t);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Merge the first queued frames in a single buffer
+	 *
+	 * @param first
+	 *            the frame polled from the queue
+	 * @return the frames to write
+	 */
+	private ByteBuffer merge(ByteBuffer first) {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_WRITE_SIZE);
+		buffer.put(first);
+		ByteBuffer next;
+		while ((next = this.queue.peek()) != null && next.remaining() <= buffer.remaining()) {
+			buffer.put(this.queue.poll());
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Encode a header block as a HEADERS frame followed by as many
+	 * CONTINUATION frames as needed
+	 *
+	 * @param streamId
+	 * @param block
+	 * @param endStream
+	 * @return the frames
+	 */
+	private ByteBuffer headers(int streamId, ByteChunk block, boolean endStream) {
+		int length = block.getLength();
+		int count = Math.max(1, (length + this.maxFrameSize - 1) / this.maxFrameSize);
+		ByteBuffer frames = ByteBuffer.allocate(length + count * Constants.FRAME_HEADER_SIZE);
+		int off = block.getStart();
+		int remaining = length;
+		byte type = Constants.HEADERS;
+		int flags = endStream ? Constants.FLAG_END_STREAM : 0;
+		do {
+			int n = Math.min(remaining, this.maxFrameSize);
+			remaining -= n;
+			if (remaining == 0) {
+				flags |= Constants.FLAG_END_HEADERS;
+			}
+			frameHeader(frames, n, type, flags, streamId);
+			frames.put(block.getBuffer(), off, n);
+			off += n;
+			type = Constants.CONTINUATION;
+			flags = 0;
+		} while (remaining > 0);
+		frames.flip();
+		return frames;
+	}
+
+	/**
+	 * @param streamId
+	 * @param increment
+	 * @return a WINDOW_UPDATE frame
+	 */
+	private static ByteBuffer windowUpdateFrame(int streamId, int increment) {
+		ByteBuffer frame = ByteBuffer.allocate(Constants.FRAME_HEADER_SIZE + 4);
+		frameHeader(frame, 4, Constants.WINDOW_UPDATE, 0, streamId);
+		frame.putInt(increment).flip();
+		return frame;
+	}
+
+	/**
+	 * @param streamId
+	 * @param error
+	 * @return a RST_STREAM frame
+	 */
+	private static ByteBuffer rstStreamFrame(int streamId, int error) {
+		ByteBuffer frame = ByteBuffer.allocate(Constants.FRAME_HEADER_SIZE + 4);
+		frameHeader(frame, 4, Constants.RST_STREAM, 0, streamId);
+		frame.putInt(error).flip();
+		return frame;
+	}
+
+	/**
+	 * Put the header of a frame
+	 *
+	 * @param buffer
+	 * @param length
+	 *            the length of the payload
+	 * @param type
+	 * @param flags
+	 * @param streamId
+	 */
+	private static void frameHeader(ByteBuffer buffer, int length, byte type, int flags,
+			int streamId) {
+		buffer.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length)
+				.put(type).put((byte) flags).putInt(streamId);
+	}
+
+	/*
+	 * Reading
+	 */
+
+	/**
+	 * Read the next frames
+	 */
+	private void read() {
+		try {
+			this.channel.read(this.in, this.in, this);
+		} catch (Throwable t) {
+			failed(t, this.in);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.CompletionHandler#completed(java.lang.Object,
+	 * java.lang.Object)
+	 */
+	@Override
+	public void completed(Integer nBytes, ByteBuffer buffer) {
+		if (nBytes < 0) {
+			failed(new ClosedChannelException(), buffer);
+			return;
+		}
+		buffer.flip();
+		try {
+			byte data[] = buffer.array();
+			while (buffer.remaining() >= Constants.FRAME_HEADER_SIZE) {
+				int p = buffer.position();
+				int length = ((data[p] & 0xFF) << 16) | ((data[p + 1] & 0xFF) << 8)
+						| (data[p + 2] & 0xFF);
+				if (length > Constants.DEFAULT_MAX_FRAME_SIZE) {
+					throw new IOException("HTTP/2 frame too large: " + length);
+				}
+				if (buffer.remaining() < Constants.FRAME_HEADER_SIZE + length) {
+					break;
+				}
+				int streamId = getInt(data, p + 5) & 0x7FFFFFFF;
+				frame(data[p + 3], data[p + 4] & 0xFF, streamId, data, p
+						+ Constants.FRAME_HEADER_SIZE, length);
+				buffer.position(p + Constants.FRAME_HEADER_SIZE + length);
+			}
+			buffer.compact();
+		} catch (Throwable t) {
+			failed(t, buffer);
+			return;
+		}
+		if (!this.closed) {
+			read();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.CompletionHandler#failed(java.lang.Throwable,
+	 * java.lang.Object)
+	 */
+	@Override
+	public void failed(Throwable exc, ByteBuffer attachment) {
+		if (!this.closed && logger.isDebugEnabled()) {
+			logger.debug("HTTP/2 connection failed", exc);
+		}
+		close(exc);
+	}
+
+	/**
+	 * Handle a frame of the node
+	 *
+	 * @param type
+	 * @param flags
+	 * @param streamId
+	 * @param data
+	 * @param off
+	 *            the offset of the payload
+	 * @param len
+	 *            the length of the payload
+	 * @throws IOException
+	 *             if the frame is not valid, the connection can not be used
+	 *             anymore
+	 */
+	private void frame(byte type, int flags, int streamId, byte data[], int off, int len)
+			throws IOException {
+		if (this.headerStream != 0
+				&& (type != Constants.CONTINUATION || streamId != this.headerStream)) {
+			throw new IOException("CONTINUATION frame expected");
+		}
+		if (((type == Constants.RST_STREAM || type == Constants.WINDOW_UPDATE) && len != 4)
+				|| (type == Constants.PING && len != 8) || (type == Constants.GOAWAY && len < 8)) {
+			throw new IOException("Invalid length " + len + " of frame type " + type);
+		}
+		switch (type) {
+		case Constants.DATA:
+			data(flags, streamId, data, off, len);
+			break;
+		case Constants.HEADERS:
+			headers(flags, streamId, data, off, len);
+			break;
+		case Constants.CONTINUATION:
+			if (this.headerStream == 0) {
+				throw new IOException("Unexpected CONTINUATION frame");
+			}
+			appendHeaderBlock(data, off, len);
+			if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+				endHeaders();
+			}
+			break;
+		case Constants.RST_STREAM:
+			reset(streamId, getInt(data, off));
+			break;
+		case Constants.SETTINGS:
+			if ((flags & Constants.FLAG_ACK) == 0) {
+				settings(data, off, len);
+			}
+			break;
+		case Constants.PING:
+			if ((flags & Constants.FLAG_ACK) == 0) {
+				ByteBuffer frame = ByteBuffer.allocate(Constants.FRAME_HEADER_SIZE + len);
+				frameHeader(frame, len, Constants.PING, Constants.FLAG_ACK, 0);
+				frame.put(data, off, len).flip();
+				send(frame);
+			}
+			break;
+		case Constants.GOAWAY:
+			goAway(getInt(data, off) & 0x7FFFFFFF, getInt(data, off + 4));
+			break;
+		case Constants.WINDOW_UPDATE:
+			windowUpdate(streamId, getInt(data, off) & 0x7FFFFFFF);
+			break;
+		case Constants.PUSH_PROMISE:
+			throw new IOException("Unexpected PUSH_PROMISE frame");
+		default:
+			// PRIORITY and unknown frames are ignored
+			break;
+		}
+	}
+
+	/**
+	 * @param flags
+	 * @param streamId
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	private void data(int flags, int streamId, byte data[], int off, int len) throws IOException {
+		if (streamId == 0) {
+			throw new IOException("DATA frame on stream 0");
+		}
+		// The connection window is given back at once
+		this.received += len;
+		if (this.received >= Constants.CONNECTION_WINDOW_SIZE / 2) {
+			send(windowUpdateFrame(0, this.received));
+			this.received = 0;
+		}
+		int padding = 0;
+		if ((flags & Constants.FLAG_PADDED) != 0) {
+			padding = 1 + (data[off] & 0xFF);
+			if (padding > len) {
+				throw new IOException("Invalid DATA padding");
+			}
+		}
+		Http2Stream stream = this.streams.get(streamId);
+		if (stream == null) {
+			// Reset stream
+			return;
+		}
+		boolean endStream = (flags & Constants.FLAG_END_STREAM) != 0;
+		if (padding > 0) {
+			stream.consumed(padding);
+		}
+		if (endStream) {
+			remoteEnd(stream);
+		}
+		stream.getHandler().data(stream, data, off + (padding > 0 ? 1 : 0), len - padding,
+				endStream);
+		closeIfIdle();
+	}
+
+	/**
+	 * @param flags
+	 * @param streamId
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	private void headers(int flags, int streamId, byte data[], int off, int len)
+			throws IOException {
+		if (streamId == 0) {
+			throw new IOException("HEADERS frame on stream 0");
+		}
+		int end = off + len;
+		if ((flags & Constants.FLAG_PADDED) != 0) {
+			end -= data[off++] & 0xFF;
+		}
+		if ((flags & Constants.FLAG_PRIORITY) != 0) {
+			off += 5;
+		}
+		if (end < off) {
+			throw new IOException("Invalid HEADERS padding");
+		}
+		this.headerBlock.recycle();
+		this.headerStream = streamId;
+		this.headerEndStream = (flags & Constants.FLAG_END_STREAM) != 0;
+		appendHeaderBlock(data, off, end - off);
+		if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+			endHeaders();
+		}
+	}
+
+	/**
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	private void appendHeaderBlock(byte data[], int off, int len) throws IOException {
+		if (this.headerBlock.getLength() + len > MAX_HEADER_BLOCK_SIZE) {
+			throw new IOException("HTTP/2 header block too large");
+		}
+		this.headerBlock.append(data, off, len);
+	}
+
+	/**
+	 * The header block is complete, decode it and deliver it to the stream
+	 *
+	 * @throws IOException
+	 */
+	private void endHeaders() throws IOException {
+		int streamId = this.headerStream;
+		this.headerStream = 0;
+		MimeHeaders headers = new MimeHeaders();
+		// Always decoded, to keep the dynamic table in sync
+		this.decoder.decode(this.headerBlock.getBuffer(), this.headerBlock.getStart(),
+				this.headerBlock.getLength(), headers);
+		Http2Stream stream = this.streams.get(streamId);
+		if (stream == null) {
+			return;
+		}
+		if (this.headerEndStream) {
+			remoteEnd(stream);
+		}
+		stream.getHandler().headers(stream, headers, this.headerEndStream);
+		closeIfIdle();
+	}
+
+	/**
+	 * The node ended its side of the stream
+	 *
+	 * @param stream
+	 */
+	private synchronized void remoteEnd(Http2Stream stream) {
+		stream.remoteEnd = true;
+		if (stream.localEnd) {
+			remove(stream);
+		}
+	}
+
+	/**
+	 * The node reset a stream
+	 *
+	 * @param streamId
+	 * @param error
+	 */
+	private void reset(int streamId, int error) {
+		Http2Stream stream;
+		synchronized (this) {
+			stream = this.streams.get(streamId);
+			if (stream == null) {
+				return;
+			}
+			remove(stream);
+		}
+		stream.getHandler().failed(stream,
+				new IOException("Stream reset by the node with error " + error),
+				error == Constants.REFUSED_STREAM);
+		closeIfIdle();
+	}
+
+	/**
+	 * Apply the settings of the node and acknowledge them
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	private void settings(byte data[], int off, int len) throws IOException {
+		if (len % 6 != 0) {
+			throw new IOException("Invalid SETTINGS frame");
+		}
+		boolean opened = false;
+		synchronized (this) {
+			for (int p = off; p < off + len; p += 6) {
+				int id = ((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF);
+				int value = getInt(data, p + 2);
+				switch (id) {
+				case Constants.SETTINGS_MAX_CONCURRENT_STREAMS:
+					this.maxConcurrentStreams = (value < 0 ? Integer.MAX_VALUE : value);
+					break;
+				case Constants.SETTINGS_INITIAL_WINDOW_SIZE:
+					if (value < 0) {
+						throw new IOException("Invalid initial window size " + value);
+					}
+					int delta = value - this.initialWindow;
+					this.initialWindow = value;
+					for (Http2Stream stream : this.streams.values()) {
+						stream.sendWindow += delta;
+					}
+					opened |= (delta > 0);
+					break;
+				case Constants.SETTINGS_MAX_FRAME_SIZE:
+					if (value < Constants.DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+						throw new IOException("Invalid max frame size " + value);
+					}
+					this.maxFrameSize = value;
+					break;
+				default:
+					// The header table size does not matter, the dynamic table
+					// is not used for the requests
+					break;
+				}
+			}
+		}
+		ByteBuffer ack = ByteBuffer.allocate(Constants.FRAME_HEADER_SIZE);
+		frameHeader(ack, 0, Constants.SETTINGS, Constants.FLAG_ACK, 0);
+		ack.flip();
+		send(ack);
+		if (opened) {
+			windowOpened();
+		}
+	}
+
+	/**
+	 * The node goes away, the streams it did not process fail as refused
+	 *
+	 * @param lastStreamId
+	 *            the last stream processed by the node
+	 * @param error
+	 */
+	private void goAway(int lastStreamId, int error) {
+		this.goingAway = true;
+		List<Http2Stream> refused = new ArrayList<>();
+		synchronized (this) {
+			for (Http2Stream stream : this.streams.values()) {
+				if (stream.getId() > lastStreamId) {
+					refused.add(stream);
+				}
+			}
+			for (Http2Stream stream : refused) {
+				remove(stream);
+			}
+		}
+		for (Http2Stream stream : refused) {
+			stream.getHandler().failed(stream,
+					new IOException("Connection going away with error " + error), true);
+		}
+		closeIfIdle();
+	}
+
+	/**
+	 * @param streamId
+	 * @param increment
+	 * @throws IOException
+	 */
+	private void windowUpdate(int streamId, int increment) throws IOException {
+		if (increment == 0) {
+			throw new IOException("Invalid window increment");
+		}
+		Http2Stream stream = null;
+		boolean overflow = false;
+		synchronized (this) {
+			if (streamId == 0) {
+				if (this.sendWindow > Constants.MAX_WINDOW_SIZE - increment) {
+					throw new IOException("Connection window overflow");
+				}
+				this.sendWindow += increment;
+			} else {
+				stream = this.streams.get(streamId);
+				if (stream == null) {
+					return;
+				}
+				if (stream.sendWindow > Constants.MAX_WINDOW_SIZE - increment) {
+					// Only the stream fails (RFC 7540, 6.9.1)
+					remove(stream);
+					this.queue.offer(rstStreamFrame(streamId, Constants.FLOW_CONTROL_ERROR));
+					overflow = true;
+				} else {
+					stream.sendWindow += increment;
+				}
+			}
+		}
+		if (overflow) {
+			flush();
+			stream.getHandler().failed(stream, new IOException("Stream window overflow"), false);
+			closeIfIdle();
+		} else if (stream == null) {
+			windowOpened();
+		} else {
+			stream.getHandler().windowOpened(stream);
+		}
+	}
+
+	/**
+	 * Tell the streams that they may send again
+	 */
+	private void windowOpened() {
+		for (Http2Stream stream : this.streams.values()) {
+			stream.getHandler().windowOpened(stream);
+		}
+	}
+
+	/**
+	 * @param data
+	 * @param pos
+	 * @return the 32 bits integer at the specified position
+	 */
+	private static int getInt(byte data[], int pos) {
+		return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+				| ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,502 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.AbstractInternalOutputBuffer;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * {@code Http2Exchange}
+ * <p>
+ * Forwards a client request over a stream of a multiplexed connection and
+ * relays the response of the node to the client as an HTTP/1.1 response,
+ * chunked when the node sends no <tt>content-length</tt>.
+ * </p>
+ * <p>
+ * The request body is read from the client by a task of the executor, since
+ * the reads are blocking, and sent as the send windows allow it. The task
+ * leaves when the windows are exhausted and is submitted again once the node
+ * opens them. The exchange completes once both the response and the body
+ * task are over.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Http2Exchange implements Http2Stream.Handler, Runnable {
+
+	private static final byte[] HTTP_11 = ByteChunk.convertToBytes("HTTP/1.1 ");
+	private static final byte[] CRLF = ByteChunk.convertToBytes("\r\n");
+	private static final byte[] SEPARATOR = ByteChunk.convertToBytes(": ");
+	private static final byte[] CHUNKED = ByteChunk
+			.convertToBytes("Transfer-Encoding: chunked\r\n");
+	private static final byte[] CLOSE = ByteChunk.convertToBytes("Connection: close\r\n");
+	private static final byte[] LAST_CHUNK = ByteChunk.convertToBytes("0\r\n\r\n");
+	private static final byte[] HEX = ByteChunk.convertToBytes("0123456789abcdef");
+
+	/**
+	 * The request headers which are not forwarded, HTTP/2 having no
+	 * connection specific headers
+	 */
+	private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(Arrays.asList("host",
+			"connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade",
+			"http2-settings", "te"));
+
+	private final Request request;
+	private final Response response;
+	private final AbstractInternalOutputBuffer out;
+	private final Executor executor;
+	private final CompletionHandler<Void, Http2Exchange> handler;
+	private final ByteChunk body = new ByteChunk();
+	private final byte chunkHeader[] = new byte[10];
+	private final AtomicBoolean ended = new AtomicBoolean(false);
+	private final AtomicBoolean blocked = new AtomicBoolean(false);
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final AtomicInteger unconsumed = new AtomicInteger(0);
+	// The response and the body task
+	private final AtomicInteger pending = new AtomicInteger(1);
+	private volatile Http2Stream stream;
+	private volatile Throwable failure;
+	private volatile boolean keepAlive;
+	private volatile boolean started = false;
+	private boolean chunked = false;
+	private boolean noBody = false;
+	private boolean buffered = false;
+	private boolean eof = false;
+
+	/**
+	 * Create a new instance of {@code Http2Exchange}
+	 *
+	 * @param request
+	 * @param response
+	 * @param out
+	 *            the client output buffer
+	 * @param keepAlive
+	 *            whether the client connection may be kept alive
+	 * @param executor
+	 *            the executor of the body task
+	 * @param handler
+	 *            completed once the response was relayed, failed if it could
+	 *            not
+	 */
+	public Http2Exchange(Request request, Response response, AbstractInternalOutputBuffer out,
+			boolean keepAlive, Executor executor, CompletionHandler<Void, Http2Exchange> handler) {
+		this.request = request;
+		this.response = response;
+		this.out = out;
+		this.keepAlive = keepAlive;
+		this.executor = executor;
+		this.handler = handler;
+	}
+
+	/**
+	 * Take the body from the specified bytes instead of the client
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	public void setBuffered(byte b[], int off, int len) {
+		this.body.setBytes(b, off, len);
+		this.buffered = true;
+	}
+
+	/**
+	 * Send the request headers on a new stream and start sending the body
+	 *
+	 * @param connection
+	 * @param secure
+	 *            whether the client connection is secure
+	 * @throws IOException
+	 *             if no stream can be opened, nothing was sent
+	 */
+	public void start(Http2Connection connection, boolean secure) throws IOException {
+		ByteChunk block = new ByteChunk(1024);
+		Hpack.encode(block, ":method", this.request.method());
+		Hpack.encode(block, ":scheme", secure ? "https" : "http");
+		String authority = this.request.getHeader("host");
+		if (authority == null) {
+			authority = this.request.serverName().toString() + ":"
+					+ this.request.getServerPort();
+		}
+		Hpack.encode(block, ":authority", authority);
+		String path = this.request.requestURI().toString();
+		if (!this.request.queryString().isNull()) {
+			path = path + "?" + this.request.queryString().toString();
+		}
+		Hpack.encode(block, ":path", path);
+
+		MimeHeaders headers = this.request.getMimeHeaders();
+		for (int i = 0; i < headers.size(); i++) {
+			String name = headers.getName(i).toString().toLowerCase(Locale.ENGLISH);
+			if (!EXCLUDED_HEADERS.contains(name)
+					|| (name.equals("te") && headers.getValue(i).equalsIgnoreCase("trailers"))) {
+				Hpack.encode(block, name, headers.getValue(i));
+			}
+		}
+
+		boolean hasBody = this.request.getContentLengthLong() > 0
+				|| this.request.getHeader("transfer-encoding") != null;
+		if (hasBody) {
+			this.pending.incrementAndGet();
+		}
+		this.stream = connection.openStream(block, !hasBody, this);
+		if (hasBody) {
+			this.executor.execute(this);
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the header of the response was sent to the
+	 *         client
+	 */
+	public boolean isStarted() {
+		return this.started;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the client connection may be kept alive
+	 */
+	public boolean isKeepAlive() {
+		return this.keepAlive;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!this.ended.get()) {
+				if (this.body.getLength() == 0 && !this.eof
+						&& (this.buffered || this.request.doRead(this.body) < 0)) {
+					this.eof = true;
+					this.body.recycle();
+				}
+				if (this.eof && this.body.getLength() == 0) {
+					this.stream.sendData(null, 0, 0, true);
+					bodyDone(true);
+					return;
+				}
+				int n = this.stream.reserve(this.body.getLength());
+				if (n == 0) {
+					// Wait for the node to open the windows
+					this.blocked.set(true);
+					if (!this.stream.canSend() || !this.blocked.compareAndSet(true, false)) {
+						return;
+					}
+					continue;
+				}
+				this.stream.sendData(this.body.getBuffer(), this.body.getStart(), n, false);
+				this.body.setOffset(this.body.getStart() + n);
+			}
+		} catch (Throwable t) {
+			// The client body could not be read
+			fail(t, this.stream);
+		}
+		bodyDone(false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.jboss.cluster.proxy.h2.Http2Stream.Handler#headers(org.jboss.cluster
+	 * .proxy.h2.Http2Stream, org.apache.tomcat.util.http.MimeHeaders, boolean)
+	 */
+	@Override
+	public void headers(Http2Stream stream, MimeHeaders headers, boolean endStream) {
+		if (!this.started) {
+			int status;
+			try {
+				status = Integer.parseInt(headers.getHeader(":status"));
+			} catch (NumberFormatException e) {
+				fail(new IOException("Invalid status " + headers.getHeader(":status")), stream);
+				return;
+			}
+			if (status < 200) {
+				// Informational response, the final one follows
+				if (endStream) {
+					fail(new IOException("Response ended by status " + status), stream);
+				}
+				return;
+			}
+			sendHeaders(status, headers);
+		}
+		// Else the trailers, which are dropped
+		if (endStream) {
+			endResponse(stream);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.jboss.cluster.proxy.h2.Http2Stream.Handler#data(org.jboss.cluster.proxy
+	 * .h2.Http2Stream, byte[], int, int, boolean)
+	 */
+	@Override
+	public void data(Http2Stream stream, byte data[], int off, int len, boolean endStream) {
+		if (!this.started) {
+			fail(new IOException("DATA frame received before the headers"), stream);
+			return;
+		}
+		if (len > 0) {
+			if (!this.noBody) {
+				sendBodyChunk(data, off, len);
+			}
+			credit(stream, len);
+		}
+		if (endStream) {
+			endResponse(stream);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.jboss.cluster.proxy.h2.Http2Stream.Handler#windowOpened(org.jboss.
+	 * cluster.proxy.h2.Http2Stream)
+	 */
+	@Override
+	public void windowOpened(Http2Stream stream) {
+		if (this.blocked.compareAndSet(true, false)) {
+			this.executor.execute(this);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.jboss.cluster.proxy.h2.Http2Stream.Handler#failed(org.jboss.cluster
+	 * .proxy.h2.Http2Stream, java.lang.Throwable, boolean)
+	 */
+	@Override
+	public void failed(Http2Stream stream, Throwable exc, boolean refused) {
+		fail(exc, null);
+	}
+
+	/**
+	 * Write the status line and the headers
+	 *
+	 * @param status
+	 * @param headers
+	 */
+	private void sendHeaders(int status, MimeHeaders headers) {
+		ByteChunk header = new ByteChunk(1024);
+		try {
+			header.append(HTTP_11, 0, HTTP_11.length);
+			byte line[] = ByteChunk.convertToBytes(status + " "
+					+ (HttpMessages.getMessage(status) == null ? "" : HttpMessages
+							.getMessage(status)));
+			header.append(line, 0, line.length);
+			header.append(CRLF, 0, CRLF.length);
+
+			boolean contentLength = false;
+			for (int i = 0; i < headers.size(); i++) {
+				String name = headers.getName(i).toString();
+				if (name.startsWith(":")) {
+					continue;
+				}
+				contentLength |= name.equals("content-length");
+				byte bytes[] = ByteChunk.convertToBytes(name);
+				header.append(bytes, 0, bytes.length);
+				header.append(SEPARATOR, 0, SEPARATOR.length);
+				bytes = ByteChunk.convertToBytes(headers.getValue(i).toString());
+				header.append(bytes, 0, bytes.length);
+				header.append(CRLF, 0, CRLF.length);
+			}
+
+			this.noBody = this.request.method().equals("HEAD") || status == 204 || status == 304;
+			if (!contentLength && !this.noBody) {
+				if (this.request.protocol().equals("HTTP/1.1")) {
+					this.chunked = true;
+					header.append(CHUNKED, 0, CHUNKED.length);
+				} else {
+					// The end of the body is the end of the connection
+					this.keepAlive = false;
+				}
+			}
+			if (!this.keepAlive) {
+				header.append(CLOSE, 0, CLOSE.length);
+			}
+			header.append(CRLF, 0, CRLF.length);
+		} catch (IOException e) {
+			// NOPE, the chunk has no limit
+		}
+
+		this.response.setStatus(status);
+		this.out.writeToClient(header.getBuffer(), header.getStart(), header.getLength());
+		this.started = true;
+	}
+
+	/**
+	 * Write a part of the body
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 */
+	private void sendBodyChunk(byte data[], int off, int len) {
+		if (this.chunked) {
+			int start = this.chunkHeader.length;
+			this.chunkHeader[--start] = '\n';
+			this.chunkHeader[--start] = '\r';
+			int value = len;
+			do {
+				this.chunkHeader[--start] = HEX[value & 0xf];
+				value >>>= 4;
+			} while (value > 0);
+			this.out.writeToClient(this.chunkHeader, start, this.chunkHeader.length - start);
+			this.out.writeToClient(data, off, len);
+			this.out.writeToClient(CRLF);
+		} else {
+			this.out.writeToClient(data, off, len);
+		}
+	}
+
+	/**
+	 * Give the credit of the response bytes back to the node once the client
+	 * took them
+	 *
+	 * @param stream
+	 * @param len
+	 */
+	private void credit(Http2Stream stream, int len) {
+		this.unconsumed.addAndGet(len);
+		if (this.out.isWritable()) {
+			stream.consumed(this.unconsumed.getAndSet(0));
+		} else if (this.draining.compareAndSet(false, true)) {
+			// The client is slower than the node
+			this.out.onDrain(stream, new CompletionHandler<Void, Http2Stream>() {
+
+				@Override
+				public void completed(Void result, Http2Stream attachment) {
+					draining.set(false);
+					attachment.consumed(unconsumed.getAndSet(0));
+				}
+
+				@Override
+				public void failed(Throwable exc, Http2Stream attachment) {
+					draining.set(false);
+					fail(exc, attachment);
+				}
+			});
+		}
+	}
+
+	/**
+	 * The response is complete
+	 *
+	 * @param stream
+	 */
+	private void endResponse(Http2Stream stream) {
+		if (this.chunked) {
+			this.out.writeToClient(LAST_CHUNK);
+		}
+		if (!stream.isLocalEnd()) {
+			// The node answered before the end of the body
+			stream.cancel();
+		}
+		responseDone();
+	}
+
+	/**
+	 * The exchange failed
+	 *
+	 * @param exc
+	 * @param stream
+	 *            the stream to reset, <tt>null</tt> if it is closed
+	 */
+	private void fail(Throwable exc, Http2Stream stream) {
+		if (this.ended.get()) {
+			return;
+		}
+		this.failure = exc;
+		if (stream != null) {
+			stream.cancel();
+		}
+		responseDone();
+	}
+
+	/**
+	 * The response is over, the body task is stopped if it waits for the
+	 * windows
+	 */
+	private void responseDone() {
+		if (!this.ended.compareAndSet(false, true)) {
+			return;
+		}
+		if (this.blocked.compareAndSet(true, false)) {
+			bodyDone(false);
+		}
+		done();
+	}
+
+	/**
+	 * The body task is over
+	 *
+	 * @param complete
+	 *            whether the whole body was read from the client
+	 */
+	private void bodyDone(boolean complete) {
+		if (!complete) {
+			// The rest of the body is left on the client connection
+			this.keepAlive = false;
+		}
+		done();
+	}
+
+	/**
+	 * Complete the exchange once the response and the body task are over
+	 */
+	private void done() {
+		if (this.pending.decrementAndGet() > 0) {
+			return;
+		}
+		if (this.failure == null) {
+			this.handler.completed(null, this);
+		} else {
+			this.handler.failed(this.failure, this);
+		}
+	}
+}
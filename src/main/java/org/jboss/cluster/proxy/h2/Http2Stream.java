@@ -0,0 +1,183 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * {@code Http2Stream}
+ *
+ * A request sent to a node over a multiplexed connection. The events of the
+ * stream are delivered to its {@link Handler} by the thread reading the
+ * connection, so the handler must not block.
+ *
+ * Created on Oct 19, 2026 at 1:09:38 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Http2Stream {
+
+	private final Http2Connection connection;
+	private final Handler handler;
+	private int id;
+	// Guarded by the connection
+	int sendWindow;
+	boolean localEnd = false;
+	boolean remoteEnd = false;
+	boolean closed = false;
+
+	/**
+	 * Create a new instance of {@code Http2Stream}
+	 *
+	 * @param connection
+	 * @param handler
+	 * @param sendWindow
+	 *            the initial send window
+	 */
+	Http2Stream(Http2Connection connection, Handler handler, int sendWindow) {
+		this.connection = connection;
+		this.handler = handler;
+		this.sendWindow = sendWindow;
+	}
+
+	/**
+	 * @return the stream identifier
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	Handler getHandler() {
+		return this.handler;
+	}
+
+	/**
+	 * Take credit from the stream and the connection send windows
+	 *
+	 * @param max
+	 *            the number of bytes to send
+	 * @return the number of bytes which may be sent, <tt>0</tt> if the
+	 *         windows are exhausted or the stream is closed
+	 */
+	public int reserve(int max) {
+		return this.connection.reserve(this, max);
+	}
+
+	/**
+	 * @return <tt>true</tt> if some bytes may be sent
+	 */
+	public boolean canSend() {
+		return this.connection.canSend(this);
+	}
+
+	/**
+	 * Send a part of the request body, the credit must have been reserved
+	 *
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @param endStream
+	 *            whether this is the end of the request body
+	 */
+	public void sendData(byte data[], int off, int len, boolean endStream) {
+		this.connection.sendData(this, data, off, len, endStream);
+	}
+
+	/**
+	 * Give back to the node the credit of response bytes which were taken
+	 *
+	 * @param n
+	 */
+	public void consumed(int n) {
+		this.connection.consumed(this, n);
+	}
+
+	/**
+	 * Reset the stream, the node stops processing it
+	 */
+	public void cancel() {
+		this.connection.reset(this, Constants.CANCEL);
+	}
+
+	/**
+	 * @return <tt>true</tt> if the request body was completely sent
+	 */
+	public boolean isLocalEnd() {
+		synchronized (this.connection) {
+			return this.localEnd;
+		}
+	}
+
+	/**
+	 * {@code Handler}
+	 *
+	 * Receives the events of a stream
+	 */
+	public interface Handler {
+
+		/**
+		 * The node sent a header block
+		 *
+		 * @param stream
+		 * @param headers
+		 * @param endStream
+		 *            whether this is the end of the response
+		 */
+		void headers(Http2Stream stream, MimeHeaders headers, boolean endStream);
+
+		/**
+		 * The node sent a part of the response body. The bytes are only
+		 * valid during the call, their credit must be given back with
+		 * {@link Http2Stream#consumed(int)}.
+		 *
+		 * @param stream
+		 * @param data
+		 * @param off
+		 * @param len
+		 * @param endStream
+		 *            whether this is the end of the response
+		 */
+		void data(Http2Stream stream, byte data[], int off, int len, boolean endStream);
+
+		/**
+		 * The send window of the stream was enlarged
+		 *
+		 * @param stream
+		 */
+		void windowOpened(Http2Stream stream);
+
+		/**
+		 * The stream was reset or the connection failed
+		 *
+		 * @param stream
+		 * @param exc
+		 * @param refused
+		 *            <tt>true</tt> if the node did not process the stream,
+		 *            which can then be sent again
+		 */
+		void failed(Http2Stream stream, Throwable exc, boolean refused);
+	}
+}
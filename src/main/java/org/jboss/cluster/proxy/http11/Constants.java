@@ -46,6 +46,12 @@ public final class Constants {
 
 	public static final String MAX_CONNECTIONS_NAME = "org.jboss.cluster.proxy.http11.MAX_CONNECTIONS";
 
+	/**
+	 * Priority of the threads serving the MCMP requests, below the one of the
+	 * threads serving the user requests
+	 */
+	public static final String THREAD_PRIORITY_NAME = "org.jboss.cluster.proxy.http11.THREAD_PRIORITY";
+
 	/**
 	 * 
 	 */
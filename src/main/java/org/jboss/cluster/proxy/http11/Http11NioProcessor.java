@@ -24,7 +24,6 @@ import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.CompletionHandler;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Request;
@@ -90,6 +89,12 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	 */
 	protected NioEndpoint endpoint;
 
+	/**
+	 * The handler of the wait for the next request, reused by the connections
+	 * of the processor
+	 */
+	private NioEndpoint.IdleHandler nextRequestHandler;
+
 	protected Http11NioProtocol http11Protocol;
 
 	/**
@@ -287,14 +292,13 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 				error = true;
 			}
 
-			if (maxKeepAliveRequests > 0 && --keepAliveLeft == 0) {
+			if ((maxKeepAliveRequests > 0 && --keepAliveLeft == 0) || endpoint.isDraining()) {
 				keepAlive = false;
 			}
 
 			// Process the request in the adapter
 			if (!error) {
 				try {
-					inputBuffer.parseParameters();
 					rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
 					adapter.service(request, response);
 					// Handle when the response was committed before a serious
@@ -483,25 +487,27 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 	 */
 	@Override
 	public void awaitNext() {
-		final NioChannel ch = channel;
-		ch.awaitRead(endpoint.getKeepAliveTimeout(), TimeUnit.MILLISECONDS, ch,
-				new CompletionHandler<Integer, NioChannel>() {
-
-					@Override
-					public void completed(Integer nBytes, NioChannel attachment) {
-						if (nBytes < 0) {
-							// Reach the end of the stream
-							failed(null, attachment);
-						} else {
-							endpoint.processChannel(ch, null);
+		if (this.nextRequestHandler == null) {
+			this.nextRequestHandler = endpoint
+					.newIdleHandler(new CompletionHandler<Integer, NioChannel>() {
+
+						@Override
+						public void completed(Integer nBytes, NioChannel attachment) {
+							if (nBytes < 0) {
+								// Reach the end of the stream
+								failed(null, attachment);
+							} else {
+								endpoint.processChannel(attachment, null);
+							}
 						}
-					}
 
-					@Override
-					public void failed(Throwable exc, NioChannel attachment) {
-						closeSocket(attachment);
-					}
-				});
+						@Override
+						public void failed(Throwable exc, NioChannel attachment) {
+							closeSocket(attachment);
+						}
+					});
+		}
+		endpoint.awaitNext(channel, this.nextRequestHandler);
 	}
 
 	/*
@@ -1173,8 +1179,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 				outputBuffer
 						.addActiveFilter(outputFilters[Constants.CHUNKED_FILTER]);
 				contentDelimitation = true;
-				//headers.addValue(Constants.TRANSFER_ENCODING).setString(
-				//		Constants.CHUNKED);
+				headers.addValue(Constants.TRANSFERENCODING).setString(Constants.CHUNKED);
 			} else {
 				outputBuffer
 						.addActiveFilter(outputFilters[Constants.IDENTITY_FILTER]);
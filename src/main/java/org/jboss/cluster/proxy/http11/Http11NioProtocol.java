@@ -139,6 +139,8 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 		}
 
 		this.endpoint.setMaxConnections(maxConnections);
+		this.endpoint.setThreadPriority(Integer.getInteger(Constants.THREAD_PRIORITY_NAME,
+				Thread.NORM_PRIORITY - 1));
 
 		try {
 			endpoint.setKeepAliveTimeout(this.timeout);
@@ -330,6 +332,56 @@ public class Http11NioProtocol extends AbstractHttp11Protocol<NioChannel> {
 		endpoint.setMaxThreads(maxThreads);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#reload()
+	 */
+	public void reload() {
+		String property = System.getProperty(Constants.MAX_THREAD_NAME);
+		if (property != null) {
+			try {
+				int maxThreads = Integer.valueOf(property);
+				if (maxThreads > 0 && maxThreads != endpoint.getMaxThreads()) {
+					log.info("Configure max thread number : " + maxThreads);
+					endpoint.setMaxThreads(maxThreads);
+				}
+			} catch (Exception e) {
+				log.warn("Invalid MAX-THREAD number : " + property);
+			}
+		}
+		property = System.getProperty(Constants.MAX_CONNECTIONS_NAME);
+		if (property != null) {
+			try {
+				int maxConnections = Integer.valueOf(property);
+				if (maxConnections != endpoint.getMaxConnections()) {
+					log.info("Configure max connection number : " + maxConnections);
+					endpoint.setMaxConnections(maxConnections);
+				}
+			} catch (Exception e) {
+				log.warn("Invalid MAX-CONNECTION number : " + property);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#drain()
+	 */
+	public void drain() {
+		endpoint.drain();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.ProtocolHandler#getActiveConnections()
+	 */
+	public int getActiveConnections() {
+		return endpoint.getActiveConnections();
+	}
+
 	/**
 	 * @param size
 	 */
@@ -0,0 +1,352 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.load;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.Cookies;
+import org.apache.tomcat.util.http.ServerCookie;
+import org.jboss.cluster.proxy.container.Node;
+
+/**
+ * {@code ConsistentHash}
+ *
+ * Ring of the nodes of a balancer, for the routing by a consistent hash of a
+ * request key (the URI, a header or a cookie), so that the requests of a key
+ * keep hitting the same node and its caches. Each node owns a number of
+ * points (virtual nodes) of the ring, adding or removing a node only moves
+ * the keys of its points, about 1/n of them. The ring is immutable and is
+ * rebuilt when the nodes of the balancer change, the load counts being
+ * carried over; the nodes which are down or in error (negative load), or
+ * whose circuit breaker denies the request, are skipped at lookup.
+ * <p>
+ * The load is bounded: a node which received more than the load factor times
+ * the average share of the recent requests is skipped as well, so that a hot
+ * key spills over to the next nodes of the ring instead of overloading its
+ * owner. The counts are halved every second, lazily at lookup.
+ * </p>
+ *
+ * Created on Oct 19, 2026 at 1:23:34 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ConsistentHash {
+
+	/**
+	 * The number of points of each node on the ring
+	 */
+	private static final int VIRTUAL_NODES = 160;
+	/**
+	 * The period (in milliseconds) at which the load counts are halved
+	 */
+	private static final long DECAY_PERIOD = 1000;
+	/**
+	 * The number of recent requests under which a node is never overloaded,
+	 * so that the keys do not move when the traffic is low
+	 */
+	private static final int MIN_CAPACITY = 16;
+
+	private volatile long version;
+	private final Node nodes[];
+	private final long points[];
+	private final int owners[];
+	private final int loadFactor;
+	private final AtomicIntegerArray loads;
+	private final AtomicInteger total = new AtomicInteger(0);
+	private final AtomicLong decayedAt = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Create a new instance of {@code ConsistentHash}
+	 *
+	 * @param version
+	 *            the version of the nodes the ring is built for
+	 * @param nodes
+	 * @param loadFactor
+	 *            the maximum load of a node (in percent of the average load),
+	 *            <tt>0</tt> for no bound
+	 * @param previous
+	 *            the ring replaced, whose load counts are carried over, may be
+	 *            <tt>null</tt>
+	 */
+	public ConsistentHash(long version, Collection<Node> nodes, int loadFactor,
+			ConsistentHash previous) {
+		this.version = version;
+		this.nodes = nodes.toArray(new Node[nodes.size()]);
+		this.loadFactor = loadFactor;
+		this.loads = new AtomicIntegerArray(this.nodes.length);
+		if (previous != null) {
+			carryLoads(previous);
+		}
+
+		// The points are placed by the JVMRoute, so that a node keeps its
+		// points when the ring is rebuilt
+		long entries[][] = new long[this.nodes.length * VIRTUAL_NODES][];
+		for (int i = 0, k = 0; i < this.nodes.length; i++) {
+			String route = this.nodes[i].getJvmRoute();
+			for (int j = 0; j < VIRTUAL_NODES; j++) {
+				entries[k++] = new long[] { hash(route + "#" + j), i };
+			}
+		}
+		Arrays.sort(entries, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] e1, long[] e2) {
+				return Long.compare(e1[0], e2[0]);
+			}
+		});
+		this.points = new long[entries.length];
+		this.owners = new int[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			this.points[i] = entries[i][0];
+			this.owners[i] = (int) entries[i][1];
+		}
+	}
+
+	/**
+	 * Copy the load counts of the nodes which were already on the previous
+	 * ring
+	 *
+	 * @param previous
+	 */
+	private void carryLoads(ConsistentHash previous) {
+		int sum = 0;
+		for (int i = 0; i < this.nodes.length; i++) {
+			String route = this.nodes[i].getJvmRoute();
+			for (int j = 0; j < previous.nodes.length; j++) {
+				if (route.equals(previous.nodes[j].getJvmRoute())) {
+					int load = previous.loads.get(j);
+					this.loads.set(i, load);
+					sum += load;
+					break;
+				}
+			}
+		}
+		this.total.set(sum);
+		this.decayedAt.set(previous.decayedAt.get());
+	}
+
+	/**
+	 * @return the version of the last nodes the ring was checked against
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @param version
+	 *            the version of the last nodes the ring was checked against
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @param nodes
+	 * @return <tt>true</tt> if the ring is built on the same nodes, so that it
+	 *         does not need to be rebuilt
+	 */
+	public boolean hasNodes(Collection<Node> nodes) {
+		if (nodes.size() != this.nodes.length) {
+			return false;
+		}
+		for (Node node : nodes) {
+			boolean found = false;
+			for (Node n : this.nodes) {
+				if (n == node) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Select the node of a key: the owner of the first point following the
+	 * key on the ring which is available and under its load bound. If all the
+	 * available nodes are over the bound, the first available one is selected.
+	 *
+	 * @param key
+	 * @param excluded
+	 *            the node to skip (the one which just failed), may be
+	 *            <tt>null</tt>
+	 * @return the selected node, or <tt>null</tt> if no node is available
+	 */
+	public Node getNode(String key, Node excluded) {
+		if (this.points.length == 0) {
+			return null;
+		}
+		decay(System.currentTimeMillis());
+		int start = Arrays.binarySearch(this.points, hash(key));
+		if (start < 0) {
+			start = -start - 1;
+		}
+		int capacity = capacity();
+		Node node = walk(start, excluded, capacity);
+		if (node == null && capacity < Integer.MAX_VALUE) {
+			node = walk(start, excluded, Integer.MAX_VALUE);
+		}
+		return node;
+	}
+
+	/**
+	 * Walk the ring clockwise, trying each node once
+	 *
+	 * @param start
+	 *            the index of the first point
+	 * @param excluded
+	 * @param capacity
+	 *            the load bound
+	 * @return the selected node, or <tt>null</tt> if none
+	 */
+	private Node walk(int start, Node excluded, int capacity) {
+		boolean tried[] = new boolean[this.nodes.length];
+		int remaining = this.nodes.length;
+		for (int i = 0; i < this.points.length && remaining > 0; i++) {
+			int owner = this.owners[(start + i) % this.points.length];
+			if (tried[owner]) {
+				continue;
+			}
+			tried[owner] = true;
+			remaining--;
+			Node node = this.nodes[owner];
+			if (node == excluded || node.isNodeDown() || node.getLoad() < 0
+					|| this.loads.get(owner) >= capacity) {
+				continue;
+			}
+			if (node.getCircuitBreaker().allowRequest()) {
+				this.loads.incrementAndGet(owner);
+				this.total.incrementAndGet();
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the maximum number of recent requests of a node,
+	 *         <tt>ceil(factor * (total + 1) / available)</tt>, at least
+	 *         {@link #MIN_CAPACITY}
+	 */
+	private int capacity() {
+		if (this.loadFactor <= 0) {
+			return Integer.MAX_VALUE;
+		}
+		int available = 0;
+		for (Node node : this.nodes) {
+			if (!node.isNodeDown()) {
+				available++;
+			}
+		}
+		long n = this.loadFactor * (this.total.get() + 1L);
+		long d = 100L * Math.max(1, available);
+		return (int) Math.max(MIN_CAPACITY, Math.min(Integer.MAX_VALUE, (n + d - 1) / d));
+	}
+
+	/**
+	 * Halve the load counts if the decay period elapsed. The requests counted
+	 * meanwhile may be lost, the bound does not need to be exact.
+	 *
+	 * @param now
+	 */
+	private void decay(long now) {
+		long last = this.decayedAt.get();
+		if (now - last < DECAY_PERIOD || !this.decayedAt.compareAndSet(last, now)) {
+			return;
+		}
+		int sum = 0;
+		for (int i = 0; i < this.nodes.length; i++) {
+			int load = this.loads.get(i) >> 1;
+			this.loads.set(i, load);
+			sum += load;
+		}
+		this.total.set(sum);
+	}
+
+	/**
+	 * Extract the hash key of a request
+	 *
+	 * @param request
+	 * @param spec
+	 *            <tt>uri</tt>, <tt>header:&lt;name&gt;</tt> or
+	 *            <tt>cookie:&lt;name&gt;</tt>
+	 * @return the key, or <tt>null</tt> if the request does not have it
+	 */
+	public static String getKey(Request request, String spec) {
+		if (spec.equalsIgnoreCase("uri")) {
+			return request.requestURI().toString();
+		}
+		if (spec.regionMatches(true, 0, "header:", 0, 7)) {
+			return request.getHeader(spec.substring(7));
+		}
+		if (spec.regionMatches(true, 0, "cookie:", 0, 7)) {
+			String name = spec.substring(7);
+			Cookies cookies = request.getCookies();
+			for (int i = 0; i < cookies.getCookieCount(); i++) {
+				ServerCookie cookie = cookies.getCookie(i);
+				if (cookie.getName().equals(name)) {
+					return cookie.getValue().toString();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param spec
+	 * @return <tt>true</tt> if the hash key specification is valid
+	 */
+	public static boolean isValidKey(String spec) {
+		return spec.equalsIgnoreCase("uri")
+				|| ((spec.regionMatches(true, 0, "header:", 0, 7) || spec.regionMatches(true,
+						0, "cookie:", 0, 7)) && spec.length() > 7);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash, followed by the finalizer of MurmurHash3 which
+	 * spreads the close keys (the URIs sharing a prefix) over the ring
+	 *
+	 * @param s
+	 * @return the hash of the string
+	 */
+	static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
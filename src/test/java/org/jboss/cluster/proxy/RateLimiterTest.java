@@ -0,0 +1,122 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * {@code RateLimiterTest}
+ *
+ * The burst allowed by the token buckets, their refill and their expiry.
+ *
+ * Created on Oct 19, 2026 at 1:56:41 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RateLimiterTest extends TestCase {
+
+	/**
+	 * The burst is allowed at once, the next request is rejected; the keys
+	 * have their own bucket
+	 */
+	public void testBurst() {
+		RateLimiter limiter = new RateLimiter(1, 5);
+		for (int i = 0; i < 5; i++) {
+			assertTrue("request " + i, limiter.tryAcquire("client1"));
+		}
+		assertFalse(limiter.tryAcquire("client1"));
+		assertFalse(limiter.tryAcquire("client1"));
+		assertTrue(limiter.tryAcquire("client2"));
+		assertTrue(limiter.tryAcquire(null));
+	}
+
+	/**
+	 * The threads racing on a bucket get the burst, no more
+	 *
+	 * @throws Exception
+	 */
+	public void testConcurrentBurst() throws Exception {
+		final RateLimiter limiter = new RateLimiter(1, 50);
+		final AtomicInteger allowed = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread threads[] = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 100; j++) {
+						if (limiter.tryAcquire("client")) {
+							allowed.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(50, allowed.get());
+	}
+
+	/**
+	 * The bucket is refilled at the sustained rate
+	 *
+	 * @throws Exception
+	 */
+	public void testRefill() throws Exception {
+		RateLimiter limiter = new RateLimiter(100, 2);
+		assertTrue(limiter.tryAcquire("client"));
+		assertTrue(limiter.tryAcquire("client"));
+		assertFalse(limiter.tryAcquire("client"));
+		Thread.sleep(50);
+		assertTrue(limiter.tryAcquire("client"));
+	}
+
+	/**
+	 * The full buckets are removed, the others are kept
+	 *
+	 * @throws Exception
+	 */
+	public void testExpire() throws Exception {
+		RateLimiter limiter = new RateLimiter(1000, 1);
+		limiter.tryAcquire("client");
+		Thread.sleep(10);
+		limiter.expire();
+		assertEquals(0, limiter.size());
+
+		limiter = new RateLimiter(1, 1);
+		limiter.tryAcquire("client");
+		limiter.expire();
+		assertEquals(1, limiter.size());
+		assertFalse(limiter.tryAcquire("client"));
+	}
+}
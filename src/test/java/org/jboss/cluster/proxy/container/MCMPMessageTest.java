@@ -0,0 +1,154 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.container;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * {@code MCMPMessageTest}
+ *
+ * Matching of the MCMP commands and field names through the perfect hash,
+ * and parsing of the url-encoded bodies.
+ *
+ * Created on Oct 19, 2026 at 1:49:37 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MCMPMessageTest extends TestCase {
+
+	/**
+	 * Each command is matched, case sensitively
+	 */
+	public void testCommands() {
+		String commands[] = { "GET", "CONFIG", "ENABLE-APP", "DISABLE-APP", "STOP-APP",
+				"REMOVE-APP", "STATUS", "DUMP", "INFO", "PING" };
+		for (int i = 0; i < commands.length; i++) {
+			assertEquals(commands[i], i, command(commands[i]));
+		}
+		assertEquals(MCMPMessage.UNKNOWN, command("ping"));
+		assertEquals(MCMPMessage.UNKNOWN, command("PONG"));
+		assertEquals(MCMPMessage.UNKNOWN, command("P"));
+	}
+
+	/**
+	 * Each field name is matched, case insensitively
+	 */
+	public void testFields() {
+		String fields[] = { "Balancer", "StickySession", "StickySessionCookie",
+				"StickySessionPath", "StickySessionRemove", "StickySessionForce", "WaitWorker",
+				"Maxattempts", "JVMRoute", "Domain", "Host", "Port", "Type", "Reversed",
+				"Flushpackets", "Flushwait", "Ping", "Smax", "Ttl", "Timeout", "Load", "Alias",
+				"Context", "Scheme" };
+		for (int i = 0; i < fields.length; i++) {
+			assertEquals(fields[i], i, field(fields[i]));
+			assertEquals(fields[i], i, field(fields[i].toLowerCase()));
+		}
+	}
+
+	/**
+	 * The names sharing the length and the first character are told apart by
+	 * their next-to-last character, and checked against the whole name
+	 */
+	public void testCollisions() {
+		assertEquals(MCMPMessage.PORT, field("Port"));
+		assertEquals(MCMPMessage.PING_FIELD, field("Ping"));
+		assertEquals(MCMPMessage.UNKNOWN, field("Pong"));
+		assertEquals(MCMPMessage.UNKNOWN, field("Pert"));
+
+		assertEquals(MCMPMessage.STICKY_SESSION_COOKIE, field("StickySessionCookie"));
+		assertEquals(MCMPMessage.STICKY_SESSION_REMOVE, field("StickySessionRemove"));
+		assertEquals(MCMPMessage.UNKNOWN, field("StickySessionXXXXie"));
+		assertEquals(MCMPMessage.UNKNOWN, field("StickySessionRemive"));
+	}
+
+	/**
+	 * The older nodes send <tt>flushpacket</tt>
+	 */
+	public void testFlushpacket() {
+		assertEquals(MCMPMessage.FLUSH_PACKETS, field("flushpacket"));
+		assertEquals(MCMPMessage.FLUSH_PACKETS, field("Flushpacket"));
+		assertEquals(MCMPMessage.UNKNOWN, field("flushpackez"));
+
+		MCMPMessage message = parse("JVMRoute=node1&flushpacket=On");
+		assertEquals("On", message.get(MCMPMessage.FLUSH_PACKETS));
+		assertNull(message.getInvalidField(MCMPMessage.CONFIG_FIELDS));
+	}
+
+	/**
+	 * The values are url-decoded, the invalid escapes are kept as they are
+	 */
+	public void testDecode() {
+		MCMPMessage message = parse("JVMRoute=node%201&Alias=a+b%2Cc&Context=%2Fapp%zz&Domain=d%4");
+		assertEquals("node 1", message.get(MCMPMessage.JVM_ROUTE));
+		assertEquals("a b,c", message.get(MCMPMessage.ALIAS));
+		assertEquals("/app%zz", message.get(MCMPMessage.CONTEXT));
+		assertEquals("d%4", message.get(MCMPMessage.DOMAIN));
+	}
+
+	/**
+	 * The first value of a field is kept, a field without value is empty
+	 */
+	public void testValues() {
+		MCMPMessage message = parse("JVMRoute=node1&JVMRoute=node2&Type&&Load=50");
+		assertEquals("node1", message.get(MCMPMessage.JVM_ROUTE));
+		assertEquals("", message.get(MCMPMessage.TYPE));
+		assertEquals("50", message.get(MCMPMessage.LOAD));
+		assertNull(message.get(MCMPMessage.HOST));
+
+		message.recycle();
+		assertNull(message.get(MCMPMessage.JVM_ROUTE));
+		assertNull(message.getInvalidField(0));
+	}
+
+	/**
+	 * The first unknown field is reported, else the first field not accepted
+	 * by the command
+	 */
+	public void testInvalidFields() {
+		MCMPMessage message = parse("JVMRoute=node1&Load=50");
+		assertNull(message.getInvalidField(MCMPMessage.STATUS_FIELDS));
+		assertEquals("Load", message.getInvalidField(MCMPMessage.CONFIG_FIELDS));
+
+		message = parse("JVMRoute=node1&Foo=1&Bar%20=2");
+		assertEquals("Foo", message.getInvalidField(MCMPMessage.CONFIG_FIELDS));
+		assertEquals("node1", message.get(MCMPMessage.JVM_ROUTE));
+	}
+
+	private static int command(String name) {
+		byte b[] = ("#" + name).getBytes(StandardCharsets.ISO_8859_1);
+		return MCMPMessage.command(b, 1, b.length - 1);
+	}
+
+	private static int field(String name) {
+		byte b[] = ("#" + name).getBytes(StandardCharsets.ISO_8859_1);
+		return MCMPMessage.field(b, 1, b.length - 1);
+	}
+
+	private static MCMPMessage parse(String body) {
+		byte b[] = body.getBytes(StandardCharsets.ISO_8859_1);
+		MCMPMessage message = new MCMPMessage();
+		message.parse(b, 0, b.length);
+		return message;
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * {@code HpackDecoderTest}
+ *
+ * Decoding of the header blocks of the examples of RFC 7541, Appendix C. The
+ * blocks of an example are decoded in order by the same decoder, since they
+ * share its dynamic table.
+ *
+ * Created on Oct 19, 2026 at 1:46:12 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class HpackDecoderTest extends TestCase {
+
+	private static final String DATE_1 = "Mon, 21 Oct 2013 20:13:21 GMT";
+	private static final String DATE_2 = "Mon, 21 Oct 2013 20:13:22 GMT";
+	private static final String LOCATION = "https://www.example.com";
+	private static final String COOKIE = "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+
+	/**
+	 * C.1: integer representation
+	 *
+	 * @throws Exception
+	 */
+	public void testIntegers() throws Exception {
+		assertEquals("0a", encodeInt(0, 5, 10));
+		assertEquals("1f9a0a", encodeInt(0, 5, 1337));
+		assertEquals("2a", encodeInt(0, 8, 42));
+	}
+
+	/**
+	 * C.3: requests without Huffman coding
+	 *
+	 * @throws Exception
+	 */
+	public void testRequests() throws Exception {
+		HpackDecoder decoder = new HpackDecoder(4096);
+		assertHeaders(decode(decoder, "828684410f7777772e6578616d706c652e636f6d"), ":method",
+				"GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+		assertHeaders(decode(decoder, "828684be58086e6f2d6361636865"), ":method", "GET",
+				":scheme", "http", ":path", "/", ":authority", "www.example.com",
+				"cache-control", "no-cache");
+		assertHeaders(decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+				":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority",
+				"www.example.com", "custom-key", "custom-value");
+	}
+
+	/**
+	 * C.4: requests with Huffman coding
+	 *
+	 * @throws Exception
+	 */
+	public void testRequestsHuffman() throws Exception {
+		HpackDecoder decoder = new HpackDecoder(4096);
+		assertHeaders(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"), ":method", "GET",
+				":scheme", "http", ":path", "/", ":authority", "www.example.com");
+		assertHeaders(decode(decoder, "828684be5886a8eb10649cbf"), ":method", "GET",
+				":scheme", "http", ":path", "/", ":authority", "www.example.com",
+				"cache-control", "no-cache");
+		assertHeaders(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+				":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority",
+				"www.example.com", "custom-key", "custom-value");
+	}
+
+	/**
+	 * C.5: responses without Huffman coding, the table of 256 bytes evicts
+	 * the oldest entries
+	 *
+	 * @throws Exception
+	 */
+	public void testResponses() throws Exception {
+		HpackDecoder decoder = new HpackDecoder(256);
+		assertHeaders(decode(decoder, "4803333032580770726976617465611d"
+				+ "4d6f6e2c203231204f637420323031332032303a31333a323120474d546e17"
+				+ "68747470733a2f2f7777772e6578616d706c652e636f6d"), ":status", "302",
+				"cache-control", "private", "date", DATE_1, "location", LOCATION);
+		// ":status: 302" is evicted
+		assertHeaders(decode(decoder, "4803333037c1c0bf"), ":status", "307", "cache-control",
+				"private", "date", DATE_1, "location", LOCATION);
+		assertHeaders(decode(decoder, "88c1611d4d6f6e2c203231204f637420"
+				+ "323031332032303a31333a323220474d54c05a04677a69707738666f6f3d4153"
+				+ "444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d61"
+				+ "67653d333630303b2076657273696f6e3d31"), ":status", "200",
+				"cache-control", "private", "date", DATE_2, "location", LOCATION,
+				"content-encoding", "gzip", "set-cookie", COOKIE);
+		assertEvicted(decoder, 65);
+	}
+
+	/**
+	 * C.6: responses with Huffman coding, the table of 256 bytes evicts the
+	 * oldest entries
+	 *
+	 * @throws Exception
+	 */
+	public void testResponsesHuffman() throws Exception {
+		HpackDecoder decoder = new HpackDecoder(256);
+		assertHeaders(decode(decoder, "488264025885aec3771a4b6196d07abe"
+				+ "941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8"
+				+ "e9ae82ae43d3"), ":status", "302", "cache-control", "private", "date",
+				DATE_1, "location", LOCATION);
+		assertHeaders(decode(decoder, "4883640effc1c0bf"), ":status", "307",
+				"cache-control", "private", "date", DATE_1, "location", LOCATION);
+		assertHeaders(decode(decoder, "88c16196d07abe941054d444a8200595"
+				+ "040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b"
+				+ "3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"),
+				":status", "200", "cache-control", "private", "date", DATE_2, "location",
+				LOCATION, "content-encoding", "gzip", "set-cookie", COOKIE);
+		assertEvicted(decoder, 65);
+	}
+
+	/**
+	 * A table size update evicts the entries, it may not exceed the size
+	 * announced to the node
+	 *
+	 * @throws Exception
+	 */
+	public void testTableSizeUpdate() throws Exception {
+		HpackDecoder decoder = new HpackDecoder(4096);
+		decode(decoder, "828684410f7777772e6578616d706c652e636f6d");
+		assertHeaders(decode(decoder, "be"), ":authority", "www.example.com");
+		decode(decoder, "20");
+		assertEvicted(decoder, 62);
+		// 4096 is accepted, 4097 is not
+		decode(decoder, "3fe11f");
+		try {
+			decode(decoder, "3fe21f");
+			fail("Table size update above the announced size");
+		} catch (IOException e) {
+			// NOPE
+		}
+	}
+
+	/**
+	 * The literals sent by {@link Hpack} are decoded
+	 *
+	 * @throws Exception
+	 */
+	public void testEncode() throws Exception {
+		ByteChunk bc = new ByteChunk();
+		bc.allocate(64, -1);
+		Hpack.encode(bc, ":path", "/index.html");
+		Hpack.encode(bc, "x-custom", "value");
+		byte data[] = new byte[bc.getLength()];
+		System.arraycopy(bc.getBuffer(), bc.getStart(), data, 0, data.length);
+
+		MimeHeaders headers = new MimeHeaders();
+		new HpackDecoder(4096).decode(data, 0, data.length, headers);
+		assertHeaders(headers, ":path", "/index.html", "x-custom", "value");
+	}
+
+	/**
+	 * The padding of a Huffman string must be the most significant bits of
+	 * the EOS symbol, and shorter than a byte
+	 *
+	 * @throws Exception
+	 */
+	public void testHuffmanPadding() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		byte data[] = bytes("f1e3c2e5f23a6ba0ab90f4ff");
+		Huffman.decode(data, 0, data.length, sb);
+		assertEquals("www.example.com", sb.toString());
+
+		for (String invalid : new String[] { "f1e3c2e5f23a6ba0ab90f4fe", "1fff" }) {
+			data = bytes(invalid);
+			try {
+				Huffman.decode(data, 0, data.length, new StringBuilder());
+				fail("Invalid padding accepted: " + invalid);
+			} catch (IOException e) {
+				// NOPE
+			}
+		}
+	}
+
+	/**
+	 * Check that an index of the dynamic table is not valid any more
+	 *
+	 * @param decoder
+	 * @param index
+	 */
+	private static void assertEvicted(HpackDecoder decoder, int index) {
+		try {
+			decode(decoder, String.format("%02x", 0x80 | index));
+			fail("Index " + index + " is still in the table");
+		} catch (IOException e) {
+			// NOPE
+		}
+	}
+
+	/**
+	 * @param headers
+	 * @param fields
+	 *            the expected names and values, in order
+	 */
+	private static void assertHeaders(MimeHeaders headers, String... fields) {
+		assertEquals(fields.length / 2, headers.size());
+		for (int i = 0; i < headers.size(); i++) {
+			assertEquals(fields[2 * i], headers.getName(i).toString());
+			assertEquals(fields[2 * i + 1], headers.getValue(i).toString());
+		}
+	}
+
+	/**
+	 * @param decoder
+	 * @param hex
+	 *            the header block
+	 * @return the decoded headers
+	 * @throws IOException
+	 */
+	private static MimeHeaders decode(HpackDecoder decoder, String hex) throws IOException {
+		byte data[] = bytes(hex);
+		MimeHeaders headers = new MimeHeaders();
+		decoder.decode(data, 0, data.length, headers);
+		return headers;
+	}
+
+	/**
+	 * @param first
+	 * @param prefix
+	 * @param value
+	 * @return the hexadecimal representation of the encoded integer
+	 * @throws IOException
+	 */
+	private static String encodeInt(int first, int prefix, int value) throws IOException {
+		ByteChunk bc = new ByteChunk();
+		bc.allocate(8, -1);
+		Hpack.encodeInt(bc, first, prefix, value);
+		StringBuilder sb = new StringBuilder();
+		for (int i = bc.getStart(); i < bc.getEnd(); i++) {
+			sb.append(String.format("%02x", bc.getBuffer()[i] & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param hex
+	 * @return the bytes
+	 */
+	private static byte[] bytes(String hex) {
+		byte data[] = new byte[hex.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.h2;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.NioChannel;
+
+/**
+ * {@code Http2ConnectionTest}
+ *
+ * Exchanges of a connection with a stub node, a blocking socket of the test
+ * which reads the frames of the connection and answers with hand-written
+ * frames.
+ *
+ * Created on Oct 19, 2026 at 5:41:27 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Http2ConnectionTest extends TestCase {
+
+	private static final int TIMEOUT = 5000;
+
+	/**
+	 * An encoded request, the stub node does not decode it
+	 */
+	private static final byte REQUEST[] = { (byte) 0x82, (byte) 0x86, (byte) 0x84 };
+
+	/**
+	 * ":status: 200" from the static table
+	 */
+	private static final byte STATUS_200[] = { (byte) 0x88 };
+
+	/**
+	 * "x-node: 1" without indexing
+	 */
+	private static final byte X_NODE[] = { 0x00, 0x06, 'x', '-', 'n', 'o', 'd', 'e', 0x01, '1' };
+
+	private ServerSocket server;
+	private Socket node;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private Http2Connection connection;
+	private Frame settings;
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+	private final Http2Stream.Handler handler = new Http2Stream.Handler() {
+
+		@Override
+		public void headers(Http2Stream stream, MimeHeaders headers, boolean endStream) {
+			events.offer(new Event("headers", stream, headers, endStream));
+		}
+
+		@Override
+		public void data(Http2Stream stream, byte[] data, int off, int len, boolean endStream) {
+			events.offer(new Event("data", stream, null, endStream));
+		}
+
+		@Override
+		public void windowOpened(Http2Stream stream) {
+			events.offer(new Event("window", stream, null, false));
+		}
+
+		@Override
+		public void failed(Http2Stream stream, Throwable exc, boolean refused) {
+			events.offer(new Event("failed", stream, null, refused));
+		}
+	};
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		InetAddress loopback = InetAddress.getByName("127.0.0.1");
+		this.server = new ServerSocket(0, 1, loopback);
+		NioChannel channel = NioChannel.open();
+		channel.connect(new InetSocketAddress(loopback, this.server.getLocalPort())).get(
+				TIMEOUT, TimeUnit.MILLISECONDS);
+		this.node = this.server.accept();
+		this.node.setSoTimeout(TIMEOUT);
+		this.in = new DataInputStream(this.node.getInputStream());
+		this.out = new DataOutputStream(this.node.getOutputStream());
+		this.connection = new Http2Connection(channel);
+		this.connection.start();
+		byte preface[] = new byte[Constants.PREFACE.length];
+		this.in.readFully(preface);
+		assertTrue(Arrays.equals(Constants.PREFACE, preface));
+		this.settings = expect(Constants.SETTINGS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		this.connection.close();
+		this.node.close();
+		this.server.close();
+	}
+
+	/**
+	 * The settings of the connection, and the acknowledgment of the settings
+	 * of the node, which are applied before
+	 *
+	 * @throws Exception
+	 */
+	public void testSettings() throws Exception {
+		Frame settings = this.settings;
+		assertEquals(0, settings.flags & Constants.FLAG_ACK);
+		assertEquals(0, settings.streamId);
+		assertEquals(12, settings.payload.length);
+		DataInputStream payload = settings.read();
+		assertEquals(Constants.SETTINGS_ENABLE_PUSH, payload.readShort());
+		assertEquals(0, payload.readInt());
+		assertEquals(Constants.SETTINGS_INITIAL_WINDOW_SIZE, payload.readShort());
+		assertEquals(Constants.STREAM_WINDOW_SIZE, payload.readInt());
+
+		settings(Constants.SETTINGS_MAX_CONCURRENT_STREAMS, 1);
+		assertEquals(Constants.FLAG_ACK, expect(Constants.SETTINGS).flags);
+		assertTrue(this.connection.isAvailable());
+		openStream(true);
+		assertFalse(this.connection.isAvailable());
+	}
+
+	/**
+	 * The request body stops when the send window of the stream is exhausted
+	 * and resumes on a WINDOW_UPDATE of the stream
+	 *
+	 * @throws Exception
+	 */
+	public void testWindowExhaustion() throws Exception {
+		settings(Constants.SETTINGS_INITIAL_WINDOW_SIZE, 10);
+		assertEquals(Constants.FLAG_ACK, expect(Constants.SETTINGS).flags);
+		Http2Stream stream = openStream(false);
+
+		assertEquals(10, stream.reserve(100));
+		stream.sendData(new byte[10], 0, 10, false);
+		assertEquals(0, stream.reserve(100));
+		assertFalse(stream.canSend());
+		Frame data = expect(Constants.DATA);
+		assertEquals(stream.getId(), data.streamId);
+		assertEquals(10, data.payload.length);
+
+		windowUpdate(stream.getId(), 5);
+		assertEvent("window", stream, false);
+		assertTrue(stream.canSend());
+		assertEquals(5, stream.reserve(100));
+		stream.sendData(new byte[5], 0, 5, true);
+		data = expect(Constants.DATA);
+		assertEquals(5, data.payload.length);
+		assertEquals(Constants.FLAG_END_STREAM, data.flags);
+	}
+
+	/**
+	 * A WINDOW_UPDATE which takes the window of a stream above 2^31-1 resets
+	 * the stream with a FLOW_CONTROL_ERROR, the connection remains usable
+	 *
+	 * @throws Exception
+	 */
+	public void testWindowOverflow() throws Exception {
+		Http2Stream stream = openStream(false);
+		windowUpdate(stream.getId(), Constants.MAX_WINDOW_SIZE);
+		Frame reset = expect(Constants.RST_STREAM);
+		assertEquals(stream.getId(), reset.streamId);
+		assertEquals(Constants.FLOW_CONTROL_ERROR, reset.read().readInt());
+		assertEvent("failed", stream, false);
+		assertEquals(0, this.connection.getActiveStreams());
+
+		Http2Stream next = openStream(true);
+		assertEquals(stream.getId() + 2, next.getId());
+		assertFalse(this.connection.isClosed());
+	}
+
+	/**
+	 * A stream reset by the node fails, as refused if so, and a cancelled
+	 * stream is reset
+	 *
+	 * @throws Exception
+	 */
+	public void testReset() throws Exception {
+		Http2Stream stream = openStream(true);
+		frame(Constants.RST_STREAM, 0, stream.getId(), intPayload(Constants.REFUSED_STREAM));
+		assertEvent("failed", stream, true);
+		assertEquals(0, this.connection.getActiveStreams());
+
+		stream = openStream(false);
+		stream.cancel();
+		Frame reset = expect(Constants.RST_STREAM);
+		assertEquals(stream.getId(), reset.streamId);
+		assertEquals(Constants.CANCEL, reset.read().readInt());
+		assertEquals(0, this.connection.getActiveStreams());
+	}
+
+	/**
+	 * On GOAWAY the streams the node did not process fail as refused, the
+	 * others complete, then the connection is closed
+	 *
+	 * @throws Exception
+	 */
+	public void testGoAway() throws Exception {
+		Http2Stream first = openStream(true);
+		Http2Stream second = openStream(true);
+		byte payload[] = Arrays.copyOf(intPayload(first.getId()), 8);
+		System.arraycopy(intPayload(Constants.NO_ERROR), 0, payload, 4, 4);
+		frame(Constants.GOAWAY, 0, 0, payload);
+		assertEvent("failed", second, true);
+		assertFalse(this.connection.isAvailable());
+		try {
+			openStream(true);
+			fail("New stream accepted after GOAWAY");
+		} catch (IOException e) {
+			// NOPE
+		}
+
+		frame(Constants.HEADERS, Constants.FLAG_END_HEADERS | Constants.FLAG_END_STREAM,
+				first.getId(), STATUS_200);
+		Event event = assertEvent("headers", first, true);
+		assertEquals("200", event.headers.getHeader(":status"));
+		// The connection is closed once the in-flight stream completes
+		while (this.in.read() >= 0) {
+			// NOPE
+		}
+		assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * The header blocks span HEADERS and CONTINUATION frames both ways
+	 *
+	 * @throws Exception
+	 */
+	public void testContinuation() throws Exception {
+		ByteChunk block = new ByteChunk(20000);
+		block.append(new byte[20000], 0, 20000);
+		Http2Stream stream = this.connection.openStream(block, true, this.handler);
+		Frame headers = expect(Constants.HEADERS);
+		assertEquals(Constants.DEFAULT_MAX_FRAME_SIZE, headers.payload.length);
+		assertEquals(Constants.FLAG_END_STREAM, headers.flags);
+		Frame continuation = expect(Constants.CONTINUATION);
+		assertEquals(stream.getId(), continuation.streamId);
+		assertEquals(20000 - Constants.DEFAULT_MAX_FRAME_SIZE, continuation.payload.length);
+		assertEquals(Constants.FLAG_END_HEADERS, continuation.flags);
+
+		frame(Constants.HEADERS, Constants.FLAG_END_STREAM, stream.getId(), STATUS_200);
+		frame(Constants.CONTINUATION, Constants.FLAG_END_HEADERS, stream.getId(), X_NODE);
+		Event event = assertEvent("headers", stream, true);
+		assertEquals("200", event.headers.getHeader(":status"));
+		assertEquals("1", event.headers.getHeader("x-node"));
+	}
+
+	/**
+	 * Open a stream and read its HEADERS frame
+	 *
+	 * @param endStream
+	 * @return the new stream
+	 * @throws IOException
+	 */
+	private Http2Stream openStream(boolean endStream) throws IOException {
+		ByteChunk block = new ByteChunk(REQUEST.length);
+		block.append(REQUEST, 0, REQUEST.length);
+		Http2Stream stream = this.connection.openStream(block, endStream, this.handler);
+		Frame headers = expect(Constants.HEADERS);
+		assertEquals(stream.getId(), headers.streamId);
+		assertEquals(Constants.FLAG_END_HEADERS | (endStream ? Constants.FLAG_END_STREAM : 0),
+				headers.flags);
+		return stream;
+	}
+
+	/**
+	 * @param type
+	 * @param stream
+	 * @param flag
+	 *            the end of stream of the headers, or the refusal of the
+	 *            failure
+	 * @return the next event of the streams
+	 * @throws InterruptedException
+	 */
+	private Event assertEvent(String type, Http2Stream stream, boolean flag)
+			throws InterruptedException {
+		Event event = this.events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull("No " + type + " event", event);
+		assertEquals(type, event.type);
+		assertSame(stream, event.stream);
+		assertEquals(flag, event.flag);
+		return event;
+	}
+
+	/**
+	 * Read the frames of the connection up to the next one of the specified
+	 * type, the WINDOW_UPDATE frames of the connection skipped
+	 *
+	 * @param type
+	 * @return the frame
+	 * @throws IOException
+	 */
+	private Frame expect(byte type) throws IOException {
+		while (true) {
+			int length = (this.in.readUnsignedByte() << 16) | this.in.readUnsignedShort();
+			Frame frame = new Frame(this.in.readByte(), this.in.readUnsignedByte(),
+					this.in.readInt() & 0x7FFFFFFF, new byte[length]);
+			this.in.readFully(frame.payload);
+			if (frame.type == type) {
+				return frame;
+			}
+			assertTrue("Unexpected frame type " + frame.type,
+					frame.type == Constants.WINDOW_UPDATE && frame.streamId == 0);
+		}
+	}
+
+	private void settings(int id, int value) throws IOException {
+		byte payload[] = new byte[6];
+		payload[0] = (byte) (id >>> 8);
+		payload[1] = (byte) id;
+		System.arraycopy(intPayload(value), 0, payload, 2, 4);
+		frame(Constants.SETTINGS, 0, 0, payload);
+	}
+
+	private void windowUpdate(int streamId, int increment) throws IOException {
+		frame(Constants.WINDOW_UPDATE, 0, streamId, intPayload(increment));
+	}
+
+	private void frame(byte type, int flags, int streamId, byte payload[]) throws IOException {
+		this.out.writeByte(payload.length >>> 16);
+		this.out.writeShort(payload.length);
+		this.out.writeByte(type);
+		this.out.writeByte(flags);
+		this.out.writeInt(streamId);
+		this.out.write(payload);
+		this.out.flush();
+	}
+
+	private static byte[] intPayload(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+				(byte) value };
+	}
+
+	/**
+	 * A frame of the connection
+	 */
+	private static class Frame {
+
+		final byte type;
+		final int flags;
+		final int streamId;
+		final byte payload[];
+
+		Frame(byte type, int flags, int streamId, byte payload[]) {
+			this.type = type;
+			this.flags = flags;
+			this.streamId = streamId;
+			this.payload = payload;
+		}
+
+		DataInputStream read() {
+			return new DataInputStream(new ByteArrayInputStream(this.payload));
+		}
+	}
+
+	/**
+	 * An event of a stream
+	 */
+	private static class Event {
+
+		final String type;
+		final Http2Stream stream;
+		final MimeHeaders headers;
+		final boolean flag;
+
+		Event(String type, Http2Stream stream, MimeHeaders headers, boolean flag) {
+			this.type = type;
+			this.stream = stream;
+			this.headers = headers;
+			this.flag = flag;
+		}
+	}
+}
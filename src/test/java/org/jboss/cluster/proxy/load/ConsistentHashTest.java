@@ -0,0 +1,186 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.jboss.cluster.proxy.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jboss.cluster.proxy.container.Node;
+
+/**
+ * {@code ConsistentHashTest}
+ *
+ * Placement of the keys on the ring when the nodes change, and spill-over of
+ * the keys of an overloaded node.
+ *
+ * Created on Oct 19, 2026 at 1:53:08 PM
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ConsistentHashTest extends TestCase {
+
+	private static final int KEYS = 10000;
+
+	/**
+	 * Adding an eleventh node moves about 1/11 of the keys, all to the new
+	 * node
+	 */
+	public void testAddNode() {
+		List<Node> nodes = nodes(10);
+		Map<String, Node> before = place(new ConsistentHash(0, nodes, 0, null));
+		Node added = node("node10");
+		nodes.add(added);
+		Map<String, Node> after = place(new ConsistentHash(1, nodes, 0, null));
+
+		int moved = 0;
+		for (Map.Entry<String, Node> e : before.entrySet()) {
+			Node node = after.get(e.getKey());
+			if (node != e.getValue()) {
+				assertSame(added, node);
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > KEYS / 11 / 2 && moved < KEYS / 11 * 3 / 2);
+	}
+
+	/**
+	 * Removing a node only moves its keys
+	 */
+	public void testRemoveNode() {
+		List<Node> nodes = nodes(10);
+		Map<String, Node> before = place(new ConsistentHash(0, nodes, 0, null));
+		Node removed = nodes.remove(3);
+		Map<String, Node> after = place(new ConsistentHash(1, nodes, 0, null));
+
+		for (Map.Entry<String, Node> e : before.entrySet()) {
+			if (e.getValue() != removed) {
+				assertSame(e.getValue(), after.get(e.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * The nodes which are down, in error or excluded are skipped
+	 */
+	public void testSkippedNodes() {
+		List<Node> nodes = nodes(4);
+		ConsistentHash ring = new ConsistentHash(0, nodes, 0, null);
+		Node owner = ring.getNode("key", null);
+
+		assertNotSame(owner, ring.getNode("key", owner));
+		owner.setStatus(Node.NodeStatus.NODE_DOWN);
+		assertNotSame(owner, ring.getNode("key", null));
+		owner.setStatus(Node.NodeStatus.NODE_UP);
+		owner.setLoad(-1);
+		assertNotSame(owner, ring.getNode("key", null));
+		owner.setLoad(0);
+		assertSame(owner, ring.getNode("key", null));
+
+		assertNull(new ConsistentHash(0, new ArrayList<Node>(), 0, null).getNode("key", null));
+	}
+
+	/**
+	 * A hot key spills over to the next nodes once its owner received more
+	 * than the load factor times the average share
+	 */
+	public void testBoundedLoad() {
+		List<Node> nodes = nodes(4);
+		ConsistentHash ring = new ConsistentHash(0, nodes, 125, null);
+		Map<Node, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			Node node = ring.getNode("hot", null);
+			Integer n = counts.get(node);
+			counts.put(node, n == null ? 1 : n + 1);
+		}
+
+		// ceil(1.25 * 1000 / 4) = 313
+		Node owner = new ConsistentHash(0, nodes, 0, null).getNode("hot", null);
+		int max = 0;
+		for (Map.Entry<Node, Integer> e : counts.entrySet()) {
+			max = Math.max(max, e.getValue());
+		}
+		assertEquals(max, counts.get(owner).intValue());
+		assertTrue("owner received " + max, max <= 314);
+		assertEquals(4, counts.size());
+	}
+
+	/**
+	 * A ring rebuilt for the same nodes keeps the load counts, so the
+	 * overloaded owner is still skipped
+	 */
+	public void testLoadsCarriedOver() {
+		List<Node> nodes = nodes(4);
+		ConsistentHash ring = new ConsistentHash(0, nodes, 125, null);
+		Node owner = ring.getNode("hot", null);
+		for (int i = 0; i < 200; i++) {
+			ring.getNode("other" + i, null);
+		}
+		while (ring.getNode("hot", null) == owner) {
+			// NOPE
+		}
+
+		assertNotSame(owner, new ConsistentHash(1, nodes, 125, ring).getNode("hot", null));
+		assertSame(owner, new ConsistentHash(1, nodes, 125, null).getNode("hot", null));
+	}
+
+	/**
+	 * The ring is kept for the same node instances only
+	 */
+	public void testHasNodes() {
+		List<Node> nodes = nodes(3);
+		ConsistentHash ring = new ConsistentHash(0, nodes, 0, null);
+		List<Node> reversed = new ArrayList<>(nodes);
+		Collections.reverse(reversed);
+		assertTrue(ring.hasNodes(reversed));
+		assertFalse(ring.hasNodes(nodes.subList(0, 2)));
+		assertFalse(ring.hasNodes(Arrays.asList(nodes.get(0), nodes.get(1), node("node2"))));
+	}
+
+	private static Map<String, Node> place(ConsistentHash ring) {
+		Map<String, Node> placement = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			placement.put("/app/page" + i, ring.getNode("/app/page" + i, null));
+		}
+		return placement;
+	}
+
+	private static List<Node> nodes(int count) {
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			nodes.add(node("node" + i));
+		}
+		return nodes;
+	}
+
+	private static Node node(String route) {
+		Node node = new Node();
+		node.setJvmRoute(route);
+		node.setStatus(Node.NodeStatus.NODE_UP);
+		return node;
+	}
+}